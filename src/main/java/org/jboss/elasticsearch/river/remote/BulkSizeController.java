@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Adaptive controller of number of items in one ElasticSearch bulk request for one target index. Uses AIMD
+ * (additive increase, multiplicative decrease) algorithm - size grows by step while bulk latency stays under target,
+ * and it is halved when bulk is slow or rejected by ES. Thread safe.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class BulkSizeController {
+
+	protected static final double DECREASE_FACTOR = 0.5d;
+
+	private final String indexName;
+	private final int minSize;
+	private final int maxSize;
+	private final long targetLatency;
+
+	private int size;
+	private long lastLatency = -1;
+	private int increases = 0;
+	private int decreases = 0;
+
+	/**
+	 * Create controller.
+	 * 
+	 * @param indexName name of index bulk requests are controlled for
+	 * @param minSize minimal size of bulk, used also as step to grow it
+	 * @param maxSize maximal size of bulk
+	 * @param initialSize size used for first bulk
+	 * @param targetLatency max latency of bulk request [ms] to grow bulk size
+	 */
+	public BulkSizeController(String indexName, int minSize, int maxSize, int initialSize, long targetLatency) {
+		this.indexName = indexName;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.targetLatency = targetLatency;
+		this.size = Math.max(minSize, Math.min(maxSize, initialSize));
+	}
+
+	/**
+	 * Get actual size of bulk request.
+	 * 
+	 * @return number of items to be sent in one bulk request
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+
+	/**
+	 * Report bulk request executed without rejection. Size is grown if bulk was full and fast enough, or decreased if it
+	 * was too slow.
+	 * 
+	 * @param numOfItems number of items in executed bulk
+	 * @param latency of bulk request [ms]
+	 */
+	public synchronized void bulkExecuted(int numOfItems, long latency) {
+		lastLatency = latency;
+		if (latency > targetLatency) {
+			decrease();
+		} else if (numOfItems >= size && size < maxSize) {
+			// only full bulk proves cluster is able to handle actual size
+			size = Math.min(maxSize, size + minSize);
+			increases++;
+		}
+	}
+
+	/**
+	 * Report bulk request (or some of its items) rejected by ES due to overload. Size is decreased.
+	 */
+	public synchronized void bulkRejected() {
+		decrease();
+	}
+
+	private void decrease() {
+		if (size > minSize) {
+			size = Math.max(minSize, (int) (size * DECREASE_FACTOR));
+			decreases++;
+		}
+	}
+
+	/**
+	 * Get name of index this controller is for.
+	 * 
+	 * @return index name
+	 */
+	public String getIndexName() {
+		return indexName;
+	}
+
+	/**
+	 * Write actual state of controller into JSON object.
+	 * 
+	 * @param builder to write state into
+	 * @throws IOException
+	 */
+	public synchronized void buildDocument(XContentBuilder builder) throws IOException {
+		builder.startObject();
+		builder.field("index", indexName);
+		builder.field("size", size);
+		builder.field("last_latency", lastLatency);
+		builder.field("increases", increases);
+		builder.field("decreases", decreases);
+		builder.endObject();
+	}
+
+}
@@ -15,6 +15,10 @@ public class BulkUpdatePartialFailureException extends Exception {
 
 	private int numOfFailures;
 
+	private int numOfVersionConflicts;
+
+	private int numOfCommentVersionConflicts;
+
 	/**
 	 * @param failureMessage
 	 * @param numOfFailures number of failures in batch
@@ -24,6 +28,30 @@ public class BulkUpdatePartialFailureException extends Exception {
 		this.numOfFailures = numOfFailures;
 	}
 
+	/**
+	 * @param failureMessage
+	 * @param numOfFailures number of failures in batch, version conflicts not included
+	 * @param numOfVersionConflicts number of documents not written due version conflict
+	 */
+	public BulkUpdatePartialFailureException(String failureMessage, int numOfFailures, int numOfVersionConflicts) {
+		this(failureMessage, numOfFailures, numOfVersionConflicts, 0);
+	}
+
+	/**
+	 * @param failureMessage
+	 * @param numOfFailures number of failures in batch, version conflicts not included
+	 * @param numOfVersionConflicts number of documents not written due version conflict
+	 * @param numOfCommentVersionConflicts number of comments indexed as separate documents not written due version
+	 *          conflict
+	 */
+	public BulkUpdatePartialFailureException(String failureMessage, int numOfFailures, int numOfVersionConflicts,
+			int numOfCommentVersionConflicts) {
+		super(failureMessage);
+		this.numOfFailures = numOfFailures;
+		this.numOfVersionConflicts = numOfVersionConflicts;
+		this.numOfCommentVersionConflicts = numOfCommentVersionConflicts;
+	}
+
 	/**
 	 * Get number of failures in batch processing.
 	 * 
@@ -33,4 +61,24 @@ public class BulkUpdatePartialFailureException extends Exception {
 		return numOfFailures;
 	}
 
+	/**
+	 * Get number of documents not written in batch processing because newer version of them is in index already. These
+	 * are not counted as failures. Comments indexed as separate documents are not included.
+	 * 
+	 * @return the numOfVersionConflicts
+	 */
+	public int getNumOfVersionConflicts() {
+		return numOfVersionConflicts;
+	}
+
+	/**
+	 * Get number of comments indexed as separate documents not written in batch processing because newer version of
+	 * them is in index already. These are not counted as failures nor in {@link #getNumOfVersionConflicts()}.
+	 * 
+	 * @return the numOfCommentVersionConflicts
+	 */
+	public int getNumOfCommentVersionConflicts() {
+		return numOfCommentVersionConflicts;
+	}
+
 }
@@ -0,0 +1,460 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+/**
+ * Memory compact representation of remote document, exposed as {@link Map} so it can be passed through indexing
+ * pipeline (index structure builder, preprocessors) as any other document. Document is stored as compact JSON bytes
+ * with flat index of top level fields (name and position of value in bytes). Value of top level field is parsed from
+ * its bytes only when it is accessed for the first time, and kept then so changes of nested structures are not lost.
+ * Values put into document are stored aside of bytes. Value not accessed yet may be copied into index document
+ * directly from bytes by {@link #copyField(String, String, XContentBuilder)}.
+ * <p>
+ * Document holds nothing but bytes while waiting for indexing, and all its data are dropped by {@link #release()}
+ * once it is indexed. Not thread safe.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ * @see GetJSONClient
+ */
+public class CompactJSONDocument extends AbstractMap<String, Object> {
+
+	private static final Object NULL_VALUE = new Object();
+	private static final Object REMOVED = new Object();
+
+	private static final byte[] EMPTY_DATA = new byte[0];
+	private static final String[] EMPTY_NAMES = new String[0];
+	private static final int[] EMPTY_OFFSETS = new int[0];
+
+	private final FieldNamePool fieldNamePool;
+	private final boolean compactMaps;
+
+	private byte[] data;
+	/**
+	 * Names of top level fields stored in {@link #data}.
+	 */
+	private String[] names;
+	/**
+	 * Start and end position of value of each field from {@link #names} in {@link #data}.
+	 */
+	private int[] offsets;
+	/**
+	 * Values of fields from {@link #names}. <code>null</code> if not parsed yet.
+	 */
+	private Object[] values;
+	/**
+	 * Fields put into document which are not in {@link #names}, created lazily.
+	 */
+	private Map<String, Object> overlay;
+
+	/**
+	 * Create document.
+	 * 
+	 * @param data JSON bytes
+	 * @param names of top level fields
+	 * @param offsets start and end position of value of each field in data
+	 * @param fieldNamePool to canonicalize field names of parsed values, may be null
+	 * @param compactMaps if <code>true</code> then small JSON objects in values are parsed into {@link CompactMap}
+	 */
+	protected CompactJSONDocument(byte[] data, String[] names, int[] offsets, FieldNamePool fieldNamePool,
+			boolean compactMaps) {
+		this.data = data;
+		this.names = names;
+		this.offsets = offsets;
+		this.values = new Object[names.length];
+		this.fieldNamePool = fieldNamePool;
+		this.compactMaps = compactMaps;
+	}
+
+	/**
+	 * Read JSON object from parser into compact document.
+	 * 
+	 * @param parser positioned on {@link XContentParser.Token#START_OBJECT} token
+	 * @param projection of data to keep, null to keep all data
+	 * @param fieldNamePool to canonicalize field names through, may be null
+	 * @param compactMaps if <code>true</code> then small JSON objects in values are parsed into {@link CompactMap}
+	 * @return document
+	 * @throws IOException
+	 */
+	public static CompactJSONDocument read(XContentParser parser, RemoteDataProjection projection,
+			FieldNamePool fieldNamePool, boolean compactMaps) throws IOException {
+		if (projection != null && projection.isAll())
+			projection = null;
+		ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+		XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, out);
+		List<String> names = new ArrayList<String>();
+		int[] offsets = new int[16];
+		builder.startObject();
+		String fieldName = null;
+		XContentParser.Token token;
+		while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+			if (token == null)
+				throw new IOException("Unexpected end of JSON object");
+			if (token == XContentParser.Token.FIELD_NAME) {
+				fieldName = parser.currentName();
+				if (fieldNamePool != null)
+					fieldName = fieldNamePool.canonicalize(fieldName);
+			} else {
+				RemoteDataProjection fieldProjection = projection != null ? projection.getChild(fieldName) : null;
+				if (projection != null && fieldProjection == null) {
+					parser.skipChildren();
+					continue;
+				}
+				builder.field(fieldName);
+				builder.flush();
+				int start = out.size();
+				copyValue(parser, token, fieldProjection, builder);
+				builder.flush();
+				int idx = names.indexOf(fieldName);
+				if (idx < 0) {
+					idx = names.size();
+					names.add(fieldName);
+				}
+				if (offsets.length < (idx + 1) * 2)
+					offsets = Arrays.copyOf(offsets, offsets.length * 2);
+				offsets[idx * 2] = start;
+				offsets[idx * 2 + 1] = out.size();
+			}
+		}
+		builder.endObject();
+		builder.close();
+		return new CompactJSONDocument(out.toByteArray(), names.toArray(new String[names.size()]), Arrays.copyOf(
+				offsets, names.size() * 2), fieldNamePool, compactMaps);
+	}
+
+	private static void copyValue(XContentParser parser, XContentParser.Token token, RemoteDataProjection projection,
+			XContentBuilder builder) throws IOException {
+		if (projection == null || projection.isAll()) {
+			builder.copyCurrentStructure(parser);
+		} else if (token == XContentParser.Token.START_OBJECT) {
+			builder.startObject();
+			String fieldName = null;
+			while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+				if (token == null)
+					throw new IOException("Unexpected end of JSON object");
+				if (token == XContentParser.Token.FIELD_NAME) {
+					fieldName = parser.currentName();
+				} else {
+					RemoteDataProjection fieldProjection = projection.getChild(fieldName);
+					if (fieldProjection == null) {
+						parser.skipChildren();
+					} else {
+						builder.field(fieldName);
+						copyValue(parser, token, fieldProjection, builder);
+					}
+				}
+			}
+			builder.endObject();
+		} else if (token == XContentParser.Token.START_ARRAY) {
+			builder.startArray();
+			while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+				if (token == null)
+					throw new IOException("Unexpected end of JSON array");
+				copyValue(parser, token, projection, builder);
+			}
+			builder.endArray();
+		} else {
+			builder.copyCurrentStructure(parser);
+		}
+	}
+
+	/**
+	 * Drop all data of document to free memory. Document must not be used after this call.
+	 */
+	public void release() {
+		data = EMPTY_DATA;
+		names = EMPTY_NAMES;
+		offsets = EMPTY_OFFSETS;
+		values = new Object[0];
+		overlay = null;
+	}
+
+	/**
+	 * Release document if it is {@link CompactJSONDocument}.
+	 * 
+	 * @param document to release
+	 * @see #release()
+	 */
+	public static void release(Map<String, Object> document) {
+		if (document instanceof CompactJSONDocument)
+			((CompactJSONDocument) document).release();
+	}
+
+	/**
+	 * Get hash code of document data as they were read, not affected by later changes of document and computed without
+	 * parsing of values.
+	 * 
+	 * @return hash code of field names and JSON bytes of document
+	 */
+	public int getDataHashCode() {
+		return 31 * Arrays.hashCode(names) + Arrays.hashCode(data);
+	}
+
+	/**
+	 * @return size of JSON bytes of document [bytes]
+	 */
+	public int getDataSize() {
+		return data.length;
+	}
+
+	private int indexOf(Object key) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i] == key || names[i].equals(key))
+				return i;
+		}
+		return -1;
+	}
+
+	private Object valueAt(int i) {
+		Object v = values[i];
+		if (v == null) {
+			v = parseValue(i);
+			values[i] = v != null ? v : NULL_VALUE;
+			return v;
+		}
+		return v == NULL_VALUE ? null : v;
+	}
+
+	private XContentParser createValueParser(int i) throws IOException {
+		int start = offsets[i * 2];
+		int end = offsets[i * 2 + 1];
+		// skip name separator written by generator before value
+		while (start < end && (data[start] == ':' || data[start] == ' '))
+			start++;
+		return JsonXContent.jsonXContent.createParser(data, start, end - start);
+	}
+
+	private Object parseValue(int i) {
+		XContentParser parser = null;
+		try {
+			parser = createValueParser(i);
+			return GetJSONClient.readValue(parser, parser.nextToken(), null, fieldNamePool, compactMaps);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read value of field " + names[i], e);
+		} finally {
+			if (parser != null)
+				parser.close();
+		}
+	}
+
+	/**
+	 * Copy value of top level field into builder token by token, without parsing it into {@link Map}s and {@link List}s.
+	 * Possible only if value was not accessed nor changed yet, so it is still available as JSON bytes only. Nothing is
+	 * written if value is JSON <code>null</code>.
+	 * 
+	 * @param key name of top level field to copy value of
+	 * @param targetField name of field to write value into
+	 * @param builder to write field into
+	 * @return <code>true</code> if value was copied, <code>false</code> if it is not available as JSON bytes so it must
+	 *         be obtained by {@link #get(Object)}
+	 * @throws IOException
+	 */
+	public boolean copyField(String key, String targetField, XContentBuilder builder) throws IOException {
+		int i = indexOf(key);
+		if (i < 0 || values[i] != null)
+			return false;
+		XContentParser parser = createValueParser(i);
+		try {
+			XContentParser.Token token = parser.nextToken();
+			if (token != null && token != XContentParser.Token.VALUE_NULL) {
+				builder.field(targetField);
+				builder.copyCurrentStructure(parser);
+			}
+			return true;
+		} finally {
+			parser.close();
+		}
+	}
+
+	@Override
+	public int size() {
+		int ret = overlay != null ? overlay.size() : 0;
+		for (Object v : values) {
+			if (v != REMOVED)
+				ret++;
+		}
+		return ret;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		int i = indexOf(key);
+		if (i >= 0)
+			return values[i] != REMOVED;
+		return overlay != null && overlay.containsKey(key);
+	}
+
+	@Override
+	public Object get(Object key) {
+		int i = indexOf(key);
+		if (i >= 0)
+			return values[i] == REMOVED ? null : valueAt(i);
+		return overlay != null ? overlay.get(key) : null;
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		int i = indexOf(key);
+		if (i >= 0) {
+			Object old = values[i] == REMOVED ? null : valueAt(i);
+			values[i] = value != null ? value : NULL_VALUE;
+			return old;
+		}
+		if (overlay == null)
+			overlay = new HashMap<String, Object>();
+		return overlay.put(key, value);
+	}
+
+	@Override
+	public Object remove(Object key) {
+		int i = indexOf(key);
+		if (i >= 0) {
+			if (values[i] == REMOVED)
+				return null;
+			Object old = valueAt(i);
+			values[i] = REMOVED;
+			return old;
+		}
+		return overlay != null ? overlay.remove(key) : null;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(values, REMOVED);
+		overlay = null;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Object>>() {
+
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return CompactJSONDocument.this.size();
+			}
+		};
+	}
+
+	private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+
+		private int next = nextIndex(0);
+		private int last = -1;
+		private Iterator<Map.Entry<String, Object>> overlayIterator;
+
+		private int nextIndex(int from) {
+			while (from < values.length && values[from] == REMOVED)
+				from++;
+			return from;
+		}
+
+		private Iterator<Map.Entry<String, Object>> getOverlayIterator() {
+			if (overlayIterator == null) {
+				Map<String, Object> o = overlay != null ? overlay : Collections.<String, Object> emptyMap();
+				overlayIterator = o.entrySet().iterator();
+			}
+			return overlayIterator;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < values.length || getOverlayIterator().hasNext();
+		}
+
+		@Override
+		public Map.Entry<String, Object> next() {
+			if (next < values.length) {
+				last = next;
+				next = nextIndex(next + 1);
+				return new Entry(last);
+			}
+			if (!getOverlayIterator().hasNext())
+				throw new NoSuchElementException();
+			last = -1;
+			return overlayIterator.next();
+		}
+
+		@Override
+		public void remove() {
+			if (last >= 0) {
+				values[last] = REMOVED;
+				last = -1;
+			} else if (overlayIterator != null) {
+				overlayIterator.remove();
+			} else {
+				throw new IllegalStateException();
+			}
+		}
+	}
+
+	private class Entry implements Map.Entry<String, Object> {
+
+		private final int index;
+
+		private Entry(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public String getKey() {
+			return names[index];
+		}
+
+		@Override
+		public Object getValue() {
+			return valueAt(index);
+		}
+
+		@Override
+		public Object setValue(Object value) {
+			Object old = valueAt(index);
+			values[index] = value != null ? value : NULL_VALUE;
+			return old;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			Object v = getValue();
+			return getKey().equals(e.getKey()) && (v == null ? e.getValue() == null : v.equals(e.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			Object v = getValue();
+			return getKey().hashCode() ^ (v == null ? 0 : v.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+
+}
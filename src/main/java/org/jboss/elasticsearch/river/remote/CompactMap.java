@@ -0,0 +1,231 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Memory compact {@link Map} implementation for small JSON objects parsed from remote system responses. Keys and values
+ * are stored in one array and looked up sequentially, so no hash table and entry objects are allocated. Suitable only
+ * for few entries, use {@link java.util.HashMap} for bigger objects. Keeps insertion order. Not thread safe.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ * @see GetJSONClient
+ */
+public class CompactMap<K, V> extends AbstractMap<K, V> {
+
+	private static final int DEFAULT_CAPACITY = 4;
+
+	/**
+	 * Key on even index, its value on following odd index.
+	 */
+	private Object[] table;
+	private int size;
+	private int modCount;
+
+	/**
+	 * Create empty map.
+	 */
+	public CompactMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create empty map.
+	 * 
+	 * @param capacity expected number of entries
+	 */
+	public CompactMap(int capacity) {
+		table = new Object[Math.max(1, capacity) * 2];
+	}
+
+	private int indexOf(Object key) {
+		for (int i = 0; i < size * 2; i += 2) {
+			Object k = table[i];
+			if (k == key || (key != null && key.equals(k)))
+				return i;
+		}
+		return -1;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V get(Object key) {
+		int i = indexOf(key);
+		return i >= 0 ? (V) table[i + 1] : null;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V put(K key, V value) {
+		int i = indexOf(key);
+		if (i >= 0) {
+			V old = (V) table[i + 1];
+			table[i + 1] = value;
+			return old;
+		}
+		if (size * 2 == table.length) {
+			Object[] nt = new Object[table.length * 2];
+			System.arraycopy(table, 0, nt, 0, table.length);
+			table = nt;
+		}
+		table[size * 2] = key;
+		table[size * 2 + 1] = value;
+		size++;
+		modCount++;
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V remove(Object key) {
+		int i = indexOf(key);
+		if (i < 0)
+			return null;
+		V old = (V) table[i + 1];
+		removeAt(i);
+		return old;
+	}
+
+	private void removeAt(int i) {
+		int last = (size - 1) * 2;
+		if (i < last)
+			System.arraycopy(table, i + 2, table, i, last - i);
+		table[last] = null;
+		table[last + 1] = null;
+		size--;
+		modCount++;
+	}
+
+	@Override
+	public void clear() {
+		for (int i = 0; i < size * 2; i++)
+			table[i] = null;
+		size = 0;
+		modCount++;
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return new AbstractSet<Map.Entry<K, V>>() {
+
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+
+		private int next = 0;
+		private int last = -1;
+		private int expectedModCount = modCount;
+
+		@Override
+		public boolean hasNext() {
+			return next < size * 2;
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			if (expectedModCount != modCount)
+				throw new ConcurrentModificationException();
+			if (!hasNext())
+				throw new NoSuchElementException();
+			last = next;
+			next += 2;
+			return new Entry(last);
+		}
+
+		@Override
+		public void remove() {
+			if (last < 0)
+				throw new IllegalStateException();
+			if (expectedModCount != modCount)
+				throw new ConcurrentModificationException();
+			removeAt(last);
+			next = last;
+			last = -1;
+			expectedModCount = modCount;
+		}
+	}
+
+	private class Entry implements Map.Entry<K, V> {
+
+		private final int index;
+
+		private Entry(int index) {
+			this.index = index;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public K getKey() {
+			return (K) table[index];
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public V getValue() {
+			return (V) table[index + 1];
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public V setValue(V value) {
+			V old = (V) table[index + 1];
+			table[index + 1] = value;
+			return old;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			return eq(getKey(), e.getKey()) && eq(getValue(), e.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			K k = getKey();
+			V v = getValue();
+			return (k == null ? 0 : k.hashCode()) ^ (v == null ? 0 : v.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+
+	private static boolean eq(Object o1, Object o2) {
+		return o1 == null ? o2 == null : o1.equals(o2);
+	}
+
+}
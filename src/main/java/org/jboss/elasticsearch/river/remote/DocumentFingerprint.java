@@ -0,0 +1,202 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+/**
+ * Fingerprint of document written into search index. Contains 64-bit hash and size of JSON value of each top level
+ * field of document source, so fields changed since previous write of document can be found without keeping whole
+ * previous source. It is also kept which values are JSON objects, as these can't be written by partial update (it
+ * merges them with indexed ones so removed nested fields would stay in index). Immutable.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ * @see DocumentFingerprintCache
+ */
+public class DocumentFingerprint {
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final String[] names;
+	private final long[] hashes;
+	private final int[] sizes;
+	private final boolean[] objects;
+
+	protected DocumentFingerprint(String[] names, long[] hashes, int[] sizes, boolean[] objects) {
+		this.names = names;
+		this.hashes = hashes;
+		this.sizes = sizes;
+		this.objects = objects;
+	}
+
+	/**
+	 * Create fingerprint of document source.
+	 * 
+	 * @param source JSON object with document
+	 * @return fingerprint
+	 * @throws IOException if source is not valid JSON object
+	 */
+	public static DocumentFingerprint create(byte[] source) throws IOException {
+		XContentParser parser = JsonXContent.jsonXContent.createParser(source);
+		try {
+			if (parser.nextToken() != XContentParser.Token.START_OBJECT)
+				throw new IOException("JSON object expected in document source");
+			HashingOutputStream out = new HashingOutputStream();
+			// values are written as items of one array so generator state is kept between them
+			XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, out);
+			builder.startArray();
+			List<String> names = new ArrayList<String>();
+			long[] hashes = new long[16];
+			int[] sizes = new int[16];
+			boolean[] objects = new boolean[16];
+			String fieldName = null;
+			XContentParser.Token token;
+			while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+				if (token == null)
+					throw new IOException("Unexpected end of JSON object");
+				if (token == XContentParser.Token.FIELD_NAME) {
+					fieldName = parser.currentName();
+				} else {
+					builder.flush();
+					out.startSegment();
+					boolean object = token == XContentParser.Token.START_OBJECT;
+					builder.copyCurrentStructure(parser);
+					builder.flush();
+					int idx = names.size();
+					if (hashes.length == idx) {
+						hashes = Arrays.copyOf(hashes, idx * 2);
+						sizes = Arrays.copyOf(sizes, idx * 2);
+						objects = Arrays.copyOf(objects, idx * 2);
+					}
+					names.add(fieldName);
+					hashes[idx] = out.hash;
+					sizes[idx] = out.count;
+					objects[idx] = object;
+				}
+			}
+			builder.endArray();
+			builder.close();
+			return new DocumentFingerprint(names.toArray(new String[names.size()]), Arrays.copyOf(hashes, names.size()),
+					Arrays.copyOf(sizes, names.size()), Arrays.copyOf(objects, names.size()));
+		} finally {
+			parser.close();
+		}
+	}
+
+	private int indexOf(String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Get top level fields changed against previous fingerprint of the same document.
+	 * 
+	 * @param previous fingerprint of document
+	 * @return names of fields which are new or have changed value, empty if nothing changed. Null if some field of
+	 *         previous document is not present in this one anymore.
+	 */
+	public List<String> getChangedFields(DocumentFingerprint previous) {
+		for (String name : previous.names) {
+			if (indexOf(name) < 0)
+				return null;
+		}
+		List<String> ret = new ArrayList<String>();
+		for (int i = 0; i < names.length; i++) {
+			int j = previous.indexOf(names[i]);
+			if (j < 0 || previous.hashes[j] != hashes[i])
+				ret.add(names[i]);
+		}
+		return ret;
+	}
+
+	/**
+	 * Get size of values of given fields.
+	 * 
+	 * @param fields names of top level fields
+	 * @return size of JSON values of fields [bytes]
+	 */
+	public int getSize(Collection<String> fields) {
+		int ret = 0;
+		for (String name : fields) {
+			int i = indexOf(name);
+			if (i >= 0)
+				ret += sizes[i];
+		}
+		return ret;
+	}
+
+	/**
+	 * Check if value of some of given fields is JSON object.
+	 * 
+	 * @param fields names of top level fields
+	 * @return true if some field has JSON object value
+	 */
+	public boolean containsObject(Collection<String> fields) {
+		for (String name : fields) {
+			int i = indexOf(name);
+			if (i >= 0 && objects[i])
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return number of top level fields in document
+	 */
+	public int getFieldCount() {
+		return names.length;
+	}
+
+	/**
+	 * Output stream computing FNV-1a hash and count of bytes written since last {@link #startSegment()}. Value separator
+	 * written by generator at the beginning of segment is ignored, so hash does not depend on position of value.
+	 */
+	private static final class HashingOutputStream extends OutputStream {
+
+		long hash;
+		int count;
+		private boolean segmentStart;
+
+		void startSegment() {
+			hash = FNV_OFFSET;
+			count = 0;
+			segmentStart = true;
+		}
+
+		@Override
+		public void write(int b) {
+			if (segmentStart) {
+				segmentStart = false;
+				if (b == ',')
+					return;
+			}
+			hash ^= (b & 0xff);
+			hash *= FNV_PRIME;
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			for (int i = off; i < off + len; i++) {
+				write(b[i]);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,99 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of {@link DocumentFingerprint}s of documents written into search index, used to write only changed
+ * fields of document if it is written again. Least recently written documents are dropped when cache is full, they
+ * are written whole next time. Content is lost when river is restarted. Shared by all threads of one river, thread
+ * safe.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ * @see DocumentWithCommentsIndexStructureBuilder#indexDocument(org.elasticsearch.action.bulk.BulkRequestBuilder,
+ *      String, Map)
+ */
+public class DocumentFingerprintCache {
+
+	private final int maxSize;
+
+	private final LinkedHashMap<String, DocumentFingerprint> cache;
+
+	/**
+	 * Create cache.
+	 * 
+	 * @param maxSize max number of documents kept in cache
+	 */
+	public DocumentFingerprintCache(final int maxSize) {
+		this.maxSize = maxSize;
+		cache = new LinkedHashMap<String, DocumentFingerprint>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, DocumentFingerprint> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	private static String key(String indexName, String documentId) {
+		// slash is not allowed in index name so it can be used as separator
+		return indexName + "/" + documentId;
+	}
+
+	/**
+	 * Store fingerprint of document written into index.
+	 * 
+	 * @param indexName document is written into
+	 * @param documentId id of document
+	 * @param fingerprint to store
+	 * @return previous fingerprint of document, null if not known
+	 */
+	public synchronized DocumentFingerprint put(String indexName, String documentId, DocumentFingerprint fingerprint) {
+		return cache.put(key(indexName, documentId), fingerprint);
+	}
+
+	/**
+	 * Remove fingerprint of document, so it is written whole next time.
+	 * 
+	 * @param indexName document is written into
+	 * @param documentId id of document
+	 */
+	public synchronized void remove(String indexName, String documentId) {
+		cache.remove(key(indexName, documentId));
+	}
+
+	/**
+	 * Remove fingerprints of all documents in given index.
+	 * 
+	 * @param indexName to remove fingerprints for
+	 */
+	public synchronized void removeIndex(String indexName) {
+		String prefix = indexName + "/";
+		for (Iterator<String> i = cache.keySet().iterator(); i.hasNext();) {
+			if (i.next().startsWith(prefix))
+				i.remove();
+		}
+	}
+
+	/**
+	 * @return number of documents in cache
+	 */
+	public synchronized int size() {
+		return cache.size();
+	}
+
+	/**
+	 * @return max number of documents kept in cache
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+}
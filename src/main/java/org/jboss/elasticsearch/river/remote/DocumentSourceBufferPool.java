@@ -0,0 +1,168 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+/**
+ * Pool of reusable output buffers used to build JSON source of documents written into search index. Each thread gets
+ * its own buffer, so documents are built without repeated growing of fresh output streams (default
+ * <code>jsonBuilder()</code> stream allocates at least one 16kB page for each document). Only final source bytes of
+ * exact size are copied out of buffer and handed over to the bulk request. Size of buffers follows moving average of
+ * recently built documents - new buffers are preallocated from it and buffers grown by exceptionally big document are
+ * shrunk back when returned. Thread safe.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ * @see DocumentWithCommentsIndexStructureBuilder#indexDocument(org.elasticsearch.action.bulk.BulkRequestBuilder,
+ *      String, java.util.Map)
+ */
+public class DocumentSourceBufferPool {
+
+	/**
+	 * Minimal size of buffer [bytes].
+	 */
+	public static final int MIN_BUFFER_SIZE = 1024;
+
+	/**
+	 * Max size of buffer kept for reuse [bytes]. Bigger buffers are shrunk when returned.
+	 */
+	public static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+	private final ThreadLocal<Buffer> buffers = new ThreadLocal<Buffer>();
+
+	/**
+	 * Exponential moving average of size of built documents [bytes].
+	 */
+	private final AtomicLong averageSize = new AtomicLong(MIN_BUFFER_SIZE);
+
+	private final AtomicLong documentsBuilt = new AtomicLong();
+	private final AtomicLong buffersAllocated = new AtomicLong();
+
+	/**
+	 * Reusable output buffer. Obtain it by {@link DocumentSourceBufferPool#acquire()}, write document into
+	 * {@link #builder()}, get its source by {@link #toSource()} and return it by
+	 * {@link DocumentSourceBufferPool#release(Buffer)}.
+	 */
+	public static final class Buffer extends ByteArrayOutputStream {
+
+		private boolean inUse;
+		private XContentBuilder builder;
+
+		private Buffer(int size) {
+			super(size);
+		}
+
+		/**
+		 * Get JSON builder writing into this buffer.
+		 * 
+		 * @return builder
+		 * @throws IOException
+		 */
+		public XContentBuilder builder() throws IOException {
+			if (builder == null)
+				builder = new XContentBuilder(JsonXContent.jsonXContent, this);
+			return builder;
+		}
+
+		/**
+		 * Get bytes of document written into this buffer. JSON builder is closed (flushed) by this call.
+		 * 
+		 * @return copy of written bytes with exact size
+		 */
+		public byte[] toSource() {
+			if (builder != null)
+				builder.close();
+			return toByteArray();
+		}
+
+		/**
+		 * @return actual capacity of buffer [bytes]
+		 */
+		public int capacity() {
+			return buf.length;
+		}
+
+		private void recycle(int size) {
+			reset();
+			builder = null;
+			if (buf.length > size)
+				buf = new byte[size];
+		}
+
+	}
+
+	/**
+	 * Acquire empty buffer for current thread.
+	 * 
+	 * @return buffer, never null
+	 */
+	public Buffer acquire() {
+		Buffer buffer = buffers.get();
+		if (buffer == null || buffer.inUse) {
+			buffer = new Buffer(getPreallocationSize());
+			buffersAllocated.incrementAndGet();
+			if (buffers.get() == null)
+				buffers.set(buffer);
+		}
+		buffer.inUse = true;
+		return buffer;
+	}
+
+	/**
+	 * Return buffer acquired by {@link #acquire()} back to the pool. Buffer is emptied and shrunk if it is much bigger
+	 * than recently built documents.
+	 * 
+	 * @param buffer to return, may be null
+	 */
+	public void release(Buffer buffer) {
+		if (buffer == null)
+			return;
+		int size = buffer.size();
+		long avg = averageSize.get();
+		// concurrent update may be lost, it is only estimation
+		averageSize.set(Math.max(MIN_BUFFER_SIZE, avg + (size - avg) / 8));
+		documentsBuilt.incrementAndGet();
+		int retained = (int) Math.min(MAX_RETAINED_BUFFER_SIZE, Math.max(4 * averageSize.get(), 2 * MIN_BUFFER_SIZE));
+		buffer.recycle(retained);
+		buffer.inUse = false;
+	}
+
+	/**
+	 * Get size of newly allocated buffers based on recently built documents.
+	 * 
+	 * @return size [bytes]
+	 */
+	protected int getPreallocationSize() {
+		return (int) Math.min(MAX_RETAINED_BUFFER_SIZE, 2 * averageSize.get());
+	}
+
+	/**
+	 * @return moving average of size of recently built documents [bytes]
+	 */
+	public long getAverageSize() {
+		return averageSize.get();
+	}
+
+	/**
+	 * @return number of documents built using buffers from this pool
+	 */
+	public long getDocumentsBuilt() {
+		return documentsBuilt.get();
+	}
+
+	/**
+	 * @return number of buffers allocated by this pool
+	 */
+	public long getBuffersAllocated() {
+		return buffersAllocated.get();
+	}
+
+}
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Bounded pool of worker threads used by Space indexers to run document transformation (preprocessors and index
+ * document source building performed in
+ * {@link IDocumentIndexStructureBuilder#indexDocument(BulkRequestBuilder, String, Map)}) in parallel. Each document is
+ * transformed into its own bulk request builder, so indexer is able to add results into main bulk in original order of
+ * documents. If queue of pool is full then document is transformed in caller thread. Shared by all Space indexers of
+ * river, thread safe.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ * @see SpaceIndexerBase#indexDocument(BulkRequestBuilder, Map)
+ */
+public class DocumentTransformPool {
+
+	private final int threads;
+	private final int queueSize;
+	private final ThreadPoolExecutor executor;
+
+	private final AtomicLong documentsTransformed = new AtomicLong();
+	private final AtomicLong documentsTransformedInCaller = new AtomicLong();
+
+	/**
+	 * Create pool and start its threads.
+	 * 
+	 * @param riverName name of river used in names of threads
+	 * @param threads number of worker threads
+	 * @param queueSize max number of documents waiting for transformation
+	 */
+	public DocumentTransformPool(final String riverName, int threads, int queueSize) {
+		this.threads = threads;
+		this.queueSize = queueSize;
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "remote_river_transform_" + riverName + "_" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				}, new RejectedExecutionHandler() {
+
+					@Override
+					public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+						// never drop task silently, indexer waits for its result
+						if (e.isShutdown())
+							throw new RejectedExecutionException("Document transform pool is shut down");
+						documentsTransformedInCaller.incrementAndGet();
+						r.run();
+					}
+				});
+	}
+
+	/**
+	 * Submit document for transformation.
+	 * 
+	 * @param documentIndexStructureBuilder to transform document with
+	 * @param part bulk request builder to add transformed document requests into. Must not be shared with other tasks.
+	 * @param spaceKey document is for
+	 * @param document data obtained from remote system to be indexed
+	 * @return future with <code>part</code> filled by transformed document
+	 * @throws RejectedExecutionException if pool is shut down already
+	 */
+	public Future<BulkRequestBuilder> submit(final IDocumentIndexStructureBuilder documentIndexStructureBuilder,
+			final BulkRequestBuilder part, final String spaceKey, final Map<String, Object> document) {
+		return executor.submit(new Callable<BulkRequestBuilder>() {
+
+			@Override
+			public BulkRequestBuilder call() throws Exception {
+				try {
+					documentIndexStructureBuilder.indexDocument(part, spaceKey, document);
+				} finally {
+					CompactJSONDocument.release(document);
+				}
+				documentsTransformed.incrementAndGet();
+				return part;
+			}
+		});
+	}
+
+	/**
+	 * Shut down pool. Documents submitted already are still transformed.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * @return number of worker threads
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Write actual state of pool into JSON object.
+	 * 
+	 * @param builder to write state into
+	 * @throws IOException
+	 */
+	public void buildDocument(XContentBuilder builder) throws IOException {
+		builder.startObject();
+		builder.field("threads", threads);
+		builder.field("queue_size", queueSize);
+		builder.field("queued", executor.getQueue().size());
+		builder.field("documents_transformed", documentsTransformed.get());
+		builder.field("documents_transformed_in_caller", documentsTransformedInCaller.get());
+		builder.endObject();
+	}
+
+}
@@ -5,29 +5,40 @@
  */
 package org.jboss.elasticsearch.river.remote;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.settings.SettingsException;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
 import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.VersionType;
 import org.elasticsearch.index.query.FilterBuilder;
 import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
 import org.jboss.elasticsearch.tools.content.StructuredContentPreprocessor;
 
 import static org.elasticsearch.client.Requests.deleteRequest;
 import static org.elasticsearch.client.Requests.indexRequest;
-import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 
 /**
  * Universal configurable implementation of component responsible to transform document data obtained from remote system
@@ -45,10 +56,18 @@ public class DocumentWithCommentsIndexStructureBuilder implements IDocumentIndex
 	protected String riverName;
 
 	/**
-	 * Name of ElasticSearch index used to store issues
+	 * Name of ElasticSearch index used to store issues. May contain {@link #INDEX_NAME_SPACE_PLACEHOLDER} to store each
+	 * Space into distinct index.
+	 * 
+	 * @see #getDocumentSearchIndexName(String)
 	 */
 	protected String indexName;
 
+	/**
+	 * Placeholder which can be used in {@link #indexName} to be replaced by Space key.
+	 */
+	public static final String INDEX_NAME_SPACE_PLACEHOLDER = "{space}";
+
 	/**
 	 * Name of ElasticSearch type used to store issues into index
 	 */
@@ -71,6 +90,26 @@ public class DocumentWithCommentsIndexStructureBuilder implements IDocumentIndex
 	protected static final String CONFIG_FIELDCOMMENTS = "field_comments";
 	protected static final String CONFIG_COMMENTTYPE = "comment_type";
 	protected static final String CONFIG_COMMENTFILEDS = "comment_fields";
+	protected static final String CONFIG_ROUTINGBYSPACE = "routing_by_space";
+	protected static final String CONFIG_FULLUPDATESTRATEGY = "full_update_strategy";
+	protected static final String CONFIG_FULLUPDATEINDEXSETTINGS = "full_update_index_settings";
+	protected static final String CONFIG_EXTERNALVERSIONING = "external_versioning";
+	protected static final String CONFIG_REMOTEDATAPROJECTION = "remote_data_projection";
+	protected static final String CONFIG_REMOTEDATAPROJECTIONFIELDS = "remote_data_projection_fields";
+	protected static final String CONFIG_COMMENTRECONCILIATION = "comment_reconciliation";
+	protected static final String CONFIG_PARTIALUPDATES = "partial_updates";
+	protected static final String CONFIG_PARTIALUPDATESCACHESIZE = "partial_updates_cache_size";
+	protected static final String CONFIG_PARTIALUPDATESMAXRATIO = "partial_updates_max_ratio";
+
+	/**
+	 * Default max number of documents with fingerprints kept for partial updates.
+	 */
+	public static final int PARTIAL_UPDATES_CACHE_SIZE_DEFAULT = 100000;
+
+	/**
+	 * Default max ratio of changed fields size to whole document size for partial update.
+	 */
+	public static final double PARTIAL_UPDATES_MAX_RATIO_DEFAULT = 0.5;
 
 	/**
 	 * Field in remote document data to get indexed document id from.
@@ -158,6 +197,84 @@ public class DocumentWithCommentsIndexStructureBuilder implements IDocumentIndex
 	 */
 	protected Map<String, Map<String, String>> commentFieldsConfig;
 
+	/**
+	 * Precompiled mapping plan for {@link #fieldsConfig}, see {@link #getFieldsPlan()}.
+	 */
+	private volatile FieldsPlan fieldsPlan;
+
+	/**
+	 * Precompiled mapping plan for {@link #commentFieldsConfig}, see {@link #getCommentFieldsPlan()}.
+	 */
+	private volatile FieldsPlan commentFieldsPlan;
+
+	/**
+	 * Reusable output buffers used to build source of documents written into search index.
+	 */
+	protected final DocumentSourceBufferPool sourceBufferPool = new DocumentSourceBufferPool();
+
+	/**
+	 * If <code>true</code> then Space key is used as <code>_routing</code> value for all documents written into search
+	 * index, so all documents of one Space are stored in one shard.
+	 */
+	protected boolean routingBySpace = false;
+
+	/**
+	 * If <code>true</code> then date of last document update obtained from remote system is used as external version of
+	 * all documents written into search index, so older data never overwrites newer one.
+	 */
+	protected boolean externalVersioning = false;
+
+	/**
+	 * If <code>true</code> then comments removed from re-indexed document are deleted from search index immediately.
+	 * Used only if comments are indexed as extra documents.
+	 */
+	protected boolean commentReconciliation = false;
+
+	/**
+	 * Fingerprints of written documents used to write only changed fields of document. Null if partial updates are not
+	 * used.
+	 * 
+	 * @see #preparePartialUpdate(String, String, byte[])
+	 */
+	protected DocumentFingerprintCache fingerprintCache;
+
+	/**
+	 * Max ratio of size of changed fields to size of whole document for partial update. Whole document is written if
+	 * more data changed.
+	 */
+	protected double partialUpdateMaxRatio = PARTIAL_UPDATES_MAX_RATIO_DEFAULT;
+
+	/**
+	 * If <code>true</code> then remote data not necessary for indexing are discarded during parsing of remote system
+	 * responses.
+	 * 
+	 * @see #getRemoteDataProjection()
+	 */
+	protected boolean remoteDataProjection = false;
+
+	/**
+	 * Additional paths in remote document data kept if {@link #remoteDataProjection} is used (eg. inputs of
+	 * preprocessors). May be null.
+	 */
+	protected List<String> remoteDataProjectionFields;
+
+	/**
+	 * Strategy used to write documents during full update.
+	 */
+	protected FullUpdateStrategy fullUpdateStrategy = FullUpdateStrategy.IN_PLACE;
+
+	/**
+	 * Index settings applied temporarily during in place full update. Null if not configured.
+	 */
+	protected Map<String, String> fullUpdateIndexSettings;
+
+	/**
+	 * Index names used for Spaces instead of name constructed from {@link #indexName}. Key is Space key.
+	 * 
+	 * @see #setSpaceIndexNameOverride(String, String)
+	 */
+	protected final Map<String, String> spaceIndexNameOverrides = new ConcurrentHashMap<String, String>();
+
 	/**
 	 * List of data preprocessors used inside {@link #indexDocument(BulkRequestBuilder, String, Map)}.
 	 */
@@ -217,9 +334,133 @@ public class DocumentWithCommentsIndexStructureBuilder implements IDocumentIndex
 			indexFieldForComments = XContentMapValues.nodeStringValue(settings.get(CONFIG_FIELDCOMMENTS), null);
 			commentTypeName = XContentMapValues.nodeStringValue(settings.get(CONFIG_COMMENTTYPE), null);
 			commentFieldsConfig = (Map<String, Map<String, String>>) settings.get(CONFIG_COMMENTFILEDS);
+			routingBySpace = XContentMapValues.nodeBooleanValue(settings.get(CONFIG_ROUTINGBYSPACE), false);
+			externalVersioning = XContentMapValues.nodeBooleanValue(settings.get(CONFIG_EXTERNALVERSIONING), false);
+			commentReconciliation = XContentMapValues.nodeBooleanValue(settings.get(CONFIG_COMMENTRECONCILIATION), false);
+			if (XContentMapValues.nodeBooleanValue(settings.get(CONFIG_PARTIALUPDATES), false)) {
+				int cacheSize = XContentMapValues.nodeIntegerValue(settings.get(CONFIG_PARTIALUPDATESCACHESIZE),
+						PARTIAL_UPDATES_CACHE_SIZE_DEFAULT);
+				if (cacheSize <= 0)
+					throw new SettingsException("'index/" + CONFIG_PARTIALUPDATESCACHESIZE + "' must be positive number");
+				fingerprintCache = new DocumentFingerprintCache(cacheSize);
+				partialUpdateMaxRatio = XContentMapValues.nodeDoubleValue(settings.get(CONFIG_PARTIALUPDATESMAXRATIO),
+						PARTIAL_UPDATES_MAX_RATIO_DEFAULT);
+				if (partialUpdateMaxRatio < 0 || partialUpdateMaxRatio > 1)
+					throw new SettingsException("'index/" + CONFIG_PARTIALUPDATESMAXRATIO + "' must be number between 0 and 1");
+			}
+			remoteDataProjection = XContentMapValues.nodeBooleanValue(settings.get(CONFIG_REMOTEDATAPROJECTION), false);
+			Object rdpf = settings.get(CONFIG_REMOTEDATAPROJECTIONFIELDS);
+			if (rdpf != null) {
+				if (XContentMapValues.isArray(rdpf)) {
+					remoteDataProjectionFields = new ArrayList<String>();
+					for (Object o : (List<Object>) rdpf) {
+						String path = Utils.trimToNull(XContentMapValues.nodeStringValue(o, null));
+						if (path != null)
+							remoteDataProjectionFields.add(path);
+					}
+				} else {
+					remoteDataProjectionFields = Utils.parseCsvString(XContentMapValues.nodeStringValue(rdpf, null));
+				}
+			}
+			fullUpdateStrategy = FullUpdateStrategy.parseConfiguration(XContentMapValues.nodeStringValue(
+					settings.get(CONFIG_FULLUPDATESTRATEGY), null));
+			Object fuis = settings.get(CONFIG_FULLUPDATEINDEXSETTINGS);
+			if (fuis != null) {
+				if (!(fuis instanceof Map))
+					throw new SettingsException("'index/" + CONFIG_FULLUPDATEINDEXSETTINGS + "' configuration must be an object");
+				fullUpdateIndexSettings = new HashMap<String, String>();
+				for (Map.Entry<String, Object> e : ((Map<String, Object>) fuis).entrySet()) {
+					if (!Utils.isSimpleValue(e.getValue()))
+						throw new SettingsException("'index/" + CONFIG_FULLUPDATEINDEXSETTINGS + "/" + e.getKey()
+								+ "' configuration must be a simple value");
+					fullUpdateIndexSettings.put(e.getKey(), XContentMapValues.nodeStringValue(e.getValue(), null));
+				}
+				if (fullUpdateIndexSettings.isEmpty())
+					fullUpdateIndexSettings = null;
+			}
 		}
 		loadDefaultsIfNecessary();
 		validateConfiguration(dateOfUpdateFieldMandatory);
+		fieldsPlan = new FieldsPlan(fieldsConfig, filtersConfig);
+		commentFieldsPlan = new FieldsPlan(commentFieldsConfig, filtersConfig);
+	}
+
+	@Override
+	public RemoteDataProjection getRemoteDataProjection() {
+		if (!remoteDataProjection)
+			return null;
+		RemoteDataProjection ret = new RemoteDataProjection();
+		ret.addPath(remoteDataFieldForDocumentId);
+		ret.addPath(remoteDataFieldForUpdated);
+		ret.addPath(remoteDataFieldForDeleted);
+		for (IndexFieldAccessor accessor : getFieldsPlan()) {
+			ret.addPath(accessor.getValuePath());
+		}
+		if (commentIndexingMode != null && commentIndexingMode != CommentIndexingMode.NONE) {
+			RemoteDataProjection commentProjection = new RemoteDataProjection();
+			commentProjection.addPath(remoteDataFieldForCommentId);
+			for (IndexFieldAccessor accessor : getCommentFieldsPlan()) {
+				commentProjection.addPath(accessor.getValuePath());
+			}
+			ret.addPath(remoteDataFieldForComments, commentProjection);
+		}
+		if (remoteDataProjectionFields != null) {
+			for (String path : remoteDataProjectionFields) {
+				ret.addPath(path);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Precompiled mapping plan for one fields configuration structure. Remembers configuration it was compiled from, so
+	 * it is possible to detect change of configuration.
+	 */
+	private static final class FieldsPlan {
+		final Map<String, Map<String, String>> fieldsConfig;
+		final Map<String, Map<String, String>> filtersConfig;
+		final IndexFieldAccessor[] accessors;
+
+		FieldsPlan(Map<String, Map<String, String>> fieldsConfig, Map<String, Map<String, String>> filtersConfig) {
+			this.fieldsConfig = fieldsConfig;
+			this.filtersConfig = filtersConfig;
+			this.accessors = IndexFieldAccessor.compile(fieldsConfig, filtersConfig);
+		}
+
+		boolean isCompiledFrom(Map<String, Map<String, String>> fieldsConfig,
+				Map<String, Map<String, String>> filtersConfig) {
+			return this.fieldsConfig == fieldsConfig && this.filtersConfig == filtersConfig;
+		}
+	}
+
+	/**
+	 * Get precompiled mapping plan for document fields. Plan is compiled again if {@link #fieldsConfig} or
+	 * {@link #filtersConfig} structure was replaced after compilation.
+	 * 
+	 * @return accessors for all fields defined in {@link #fieldsConfig}
+	 */
+	protected IndexFieldAccessor[] getFieldsPlan() {
+		FieldsPlan p = fieldsPlan;
+		if (p == null || !p.isCompiledFrom(fieldsConfig, filtersConfig)) {
+			p = new FieldsPlan(fieldsConfig, filtersConfig);
+			fieldsPlan = p;
+		}
+		return p.accessors;
+	}
+
+	/**
+	 * Get precompiled mapping plan for comment fields. Plan is compiled again if {@link #commentFieldsConfig} or
+	 * {@link #filtersConfig} structure was replaced after compilation.
+	 * 
+	 * @return accessors for all fields defined in {@link #commentFieldsConfig}
+	 */
+	protected IndexFieldAccessor[] getCommentFieldsPlan() {
+		FieldsPlan p = commentFieldsPlan;
+		if (p == null || !p.isCompiledFrom(commentFieldsConfig, filtersConfig)) {
+			p = new FieldsPlan(commentFieldsConfig, filtersConfig);
+			commentFieldsPlan = p;
+		}
+		return p.accessors;
 	}
 
 	private void loadDefaultsIfNecessary() {
@@ -243,7 +484,7 @@ public class DocumentWithCommentsIndexStructureBuilder implements IDocumentIndex
 	private void validateConfiguration(boolean dateOfUpdateMandatory) {
 
 		validateConfigurationString(remoteDataFieldForDocumentId, "index/" + CONFIG_REMOTEFIELD_DOCUMENTID);
-		if (dateOfUpdateMandatory)
+		if (dateOfUpdateMandatory || externalVersioning)
 			validateConfigurationString(remoteDataFieldForUpdated, "index/" + CONFIG_REMOTEFIELD_UPDATED);
 
 		if ((remoteDataFieldForDeleted == null && remoteDataValueForDeleted != null)
@@ -266,11 +507,27 @@ public class DocumentWithCommentsIndexStructureBuilder implements IDocumentIndex
 			if (commentIndexingMode.isExtraDocumentIndexed()) {
 				validateConfigurationString(commentTypeName, "index/comment_type");
 				validateConfigurationString(remoteDataFieldForCommentId, "index/" + CONFIG_REMOTEFIELD_COMMENTID);
+				if (commentReconciliation && commentTypeName.equals(issueTypeName)) {
+					throw new SettingsException("'index/" + CONFIG_COMMENTRECONCILIATION
+							+ "' can't be used if 'index/comment_type' is same as document type, as comments can't be distinguished");
+				}
 			}
 		}
 
 		validateConfigurationFieldsStructure(fieldsConfig, "index/fields");
 
+		if (fingerprintCache != null && externalVersioning) {
+			throw new SettingsException("'index/" + CONFIG_PARTIALUPDATES + "' can't be used together with 'index/"
+					+ CONFIG_EXTERNALVERSIONING + "' as partial updates do not support external versions");
+		}
+
+		if (fullUpdateStrategy == FullUpdateStrategy.NEW_INDEX
+				&& (indexName == null || !indexName.contains(INDEX_NAME_SPACE_PLACEHOLDER))) {
+			throw new SettingsException("'index/index' must contain " + INDEX_NAME_SPACE_PLACEHOLDER
+					+ " placeholder if 'index/" + CONFIG_FULLUPDATESTRATEGY + "' is "
+					+ FullUpdateStrategy.NEW_INDEX.getConfigValue());
+		}
+
 	}
 
 	@Override
@@ -282,18 +539,72 @@ public class DocumentWithCommentsIndexStructureBuilder implements IDocumentIndex
 		issueDataPreprocessors.add(preprocessor);
 	}
 
+	/**
+	 * Get name of search index for given Space. {@link #INDEX_NAME_SPACE_PLACEHOLDER} in configured index name is
+	 * replaced by lowercased Space key, as ElasticSearch supports only lowercase index names. Index name set over
+	 * {@link #setSpaceIndexNameOverride(String, String)} has precedence.
+	 */
 	@Override
 	public String getDocumentSearchIndexName(String spaceKey) {
+		if (spaceKey != null) {
+			String override = spaceIndexNameOverrides.get(spaceKey);
+			if (override != null)
+				return override;
+		}
+		if (indexName != null && spaceKey != null && indexName.contains(INDEX_NAME_SPACE_PLACEHOLDER)) {
+			return indexName.replace(INDEX_NAME_SPACE_PLACEHOLDER, spaceKey.toLowerCase(Locale.ENGLISH));
+		}
 		return indexName;
 	}
 
+	@Override
+	public void setSpaceIndexNameOverride(String spaceKey, String indexName) {
+		if (indexName != null) {
+			spaceIndexNameOverrides.put(spaceKey, indexName);
+		} else {
+			String override = spaceIndexNameOverrides.remove(spaceKey);
+			// documents written into overriding index are accessed over other name now
+			if (override != null && fingerprintCache != null)
+				fingerprintCache.removeIndex(override);
+		}
+	}
+
+	@Override
+	public FullUpdateStrategy getFullUpdateStrategy() {
+		return fullUpdateStrategy;
+	}
+
+	@Override
+	public Map<String, String> getFullUpdateIndexSettings() {
+		return fullUpdateIndexSettings;
+	}
+
 	@Override
 	public void indexDocument(BulkRequestBuilder esBulk, String spaceKey, Map<String, Object> document) throws Exception {
 
 		document.put("spaceKey", spaceKey);
+		// version is taken from remote data before preprocessors are applied so they can't change it
+		Long version = prepareExternalVersion(document);
 		document = preprocessDocumentData(spaceKey, document);
-		esBulk.add(indexRequest(indexName).type(issueTypeName).id(extractDocumentId(document))
-				.source(prepareIndexedDocument(spaceKey, document)));
+		String spaceIndexName = getDocumentSearchIndexName(spaceKey);
+		String documentId = extractDocumentId(document);
+		byte[] source = buildIndexedDocumentSource(spaceKey, document);
+		UpdateRequest urqDocument = preparePartialUpdate(spaceIndexName, documentId, source);
+		if (urqDocument == NOT_CHANGED) {
+			logger.debug("Document {} not changed since last write so is not written", documentId);
+		} else if (urqDocument != null) {
+			if (routingBySpace) {
+				urqDocument.routing(spaceKey);
+			}
+			esBulk.add(urqDocument);
+		} else {
+			IndexRequest irqDocument = indexRequest(spaceIndexName).type(issueTypeName).id(documentId).source(source);
+			if (routingBySpace) {
+				irqDocument.routing(spaceKey);
+			}
+			setExternalVersion(irqDocument, version);
+			esBulk.add(irqDocument);
+		}
 
 		if (commentIndexingMode.isExtraDocumentIndexed()) {
 			List<Map<String, Object>> comments = extractComments(document);
@@ -301,11 +612,15 @@ public class DocumentWithCommentsIndexStructureBuilder implements IDocumentIndex
 				String issueKey = extractDocumentId(document);
 				for (Map<String, Object> comment : comments) {
 					String commentId = extractCommentId(comment);
-					IndexRequest irq = indexRequest(indexName).type(commentTypeName).id(commentId)
-							.source(prepareCommentIndexedDocument(spaceKey, issueKey, comment));
+					IndexRequest irq = indexRequest(spaceIndexName).type(commentTypeName).id(commentId)
+							.source(buildCommentIndexedDocumentSource(spaceKey, issueKey, comment));
 					if (commentIndexingMode == CommentIndexingMode.CHILD) {
 						irq.parent(issueKey);
 					}
+					if (routingBySpace) {
+						irq.routing(spaceKey);
+					}
+					setExternalVersion(irq, version);
 					esBulk.add(irq);
 				}
 			}
@@ -313,6 +628,136 @@ public class DocumentWithCommentsIndexStructureBuilder implements IDocumentIndex
 
 	}
 
+	/**
+	 * Marker returned from {@link #preparePartialUpdate(String, String, byte[])} if document is not changed since last
+	 * write, so it is not necessary to write it at all.
+	 */
+	protected static final UpdateRequest NOT_CHANGED = new UpdateRequest();
+
+	/**
+	 * Prepare partial update of document if partial updates are enabled and only small part of document changed since
+	 * it was written last time. Fingerprint of document is stored into {@link #fingerprintCache} for next write.
+	 * Changed JSON objects are never written by partial update, as ElasticSearch merges them with indexed ones.
+	 * 
+	 * @param spaceIndexName name of index document is written into
+	 * @param documentId id of document
+	 * @param source of whole document
+	 * @return update request with changed fields only, {@link #NOT_CHANGED} if nothing changed, or null if whole
+	 *         document must be written
+	 * @throws IOException
+	 */
+	protected UpdateRequest preparePartialUpdate(String spaceIndexName, String documentId, byte[] source)
+			throws IOException {
+		if (fingerprintCache == null)
+			return null;
+		DocumentFingerprint fingerprint = DocumentFingerprint.create(source);
+		DocumentFingerprint previous = fingerprintCache.put(spaceIndexName, documentId, fingerprint);
+		if (previous == null)
+			return null;
+		List<String> changedFields = fingerprint.getChangedFields(previous);
+		// removed field can't be written by partial update, nor field removed from changed object
+		if (changedFields == null || fingerprint.containsObject(changedFields)
+				|| fingerprint.getSize(changedFields) > partialUpdateMaxRatio * source.length)
+			return null;
+		if (changedFields.isEmpty())
+			return NOT_CHANGED;
+		logger.debug("Partial update of document {} with changed fields {}", documentId, changedFields);
+		return new UpdateRequest(spaceIndexName, issueTypeName, documentId).doc(buildPartialDocumentSource(source,
+				changedFields));
+	}
+
+	/**
+	 * Build source of partial document containing only given top level fields.
+	 * 
+	 * @param source of whole document
+	 * @param fields names of top level fields to keep
+	 * @return source of partial document
+	 * @throws IOException
+	 */
+	protected byte[] buildPartialDocumentSource(byte[] source, Collection<String> fields) throws IOException {
+		DocumentSourceBufferPool.Buffer buffer = sourceBufferPool.acquire();
+		XContentParser parser = JsonXContent.jsonXContent.createParser(source);
+		try {
+			XContentBuilder out = buffer.builder();
+			parser.nextToken();
+			out.startObject();
+			String fieldName = null;
+			XContentParser.Token token;
+			while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+				if (token == null)
+					throw new IOException("Unexpected end of JSON object");
+				if (token == XContentParser.Token.FIELD_NAME) {
+					fieldName = parser.currentName();
+				} else if (fields.contains(fieldName)) {
+					out.field(fieldName);
+					out.copyCurrentStructure(parser);
+				} else {
+					parser.skipChildren();
+				}
+			}
+			out.endObject();
+			return buffer.toSource();
+		} finally {
+			parser.close();
+			sourceBufferPool.release(buffer);
+		}
+	}
+
+	@Override
+	public boolean isPartialUpdateEnabled() {
+		return fingerprintCache != null;
+	}
+
+	@Override
+	public void discardDocumentFingerprints(String spaceKey, BulkRequestBuilder esBulk) {
+		if (fingerprintCache == null)
+			return;
+		if (esBulk == null) {
+			fingerprintCache.removeIndex(getDocumentSearchIndexName(spaceKey));
+			return;
+		}
+		for (ActionRequest<?> request : esBulk.request().requests()) {
+			if (request instanceof IndexRequest) {
+				IndexRequest irq = (IndexRequest) request;
+				if (issueTypeName.equals(irq.type()))
+					fingerprintCache.remove(irq.index(), irq.id());
+			} else if (request instanceof UpdateRequest) {
+				UpdateRequest urq = (UpdateRequest) request;
+				fingerprintCache.remove(urq.index(), urq.id());
+			}
+		}
+	}
+
+	/**
+	 * Get external version for document if {@link #externalVersioning} is enabled.
+	 * 
+	 * @param document data obtained from remote system
+	 * @return version (millis of last update from remote data) or null if external versioning is not used
+	 * @throws SettingsException if remote data do not contain date of last update
+	 */
+	protected Long prepareExternalVersion(Map<String, Object> document) {
+		if (!externalVersioning)
+			return null;
+		Date updated = extractDocumentUpdated(document);
+		if (updated == null)
+			throw new SettingsException("Remote data field '" + remoteDataFieldForUpdated
+					+ "' must be present in document data if 'index/" + CONFIG_EXTERNALVERSIONING + "' is enabled");
+		return updated.getTime();
+	}
+
+	/**
+	 * Set external version into index request. {@link VersionType#EXTERNAL_GTE} is used so document can be rewritten
+	 * with same version during full update.
+	 * 
+	 * @param irq to set version into
+	 * @param version to set, nothing is done if null
+	 */
+	protected void setExternalVersion(IndexRequest irq, Long version) {
+		if (version != null) {
+			irq.version(version).versionType(VersionType.EXTERNAL_GTE);
+		}
+	}
+
 	@Override
 	public String extractDocumentId(Map<String, Object> document) {
 		return extractIdValueFromDocumentField(document, remoteDataFieldForDocumentId, CONFIG_REMOTEFIELD_DOCUMENTID);
@@ -415,6 +860,7 @@ public class DocumentWithCommentsIndexStructureBuilder implements IDocumentIndex
 			srb.setTypes(issueTypeName, commentTypeName);
 		else
 			srb.setTypes(issueTypeName);
+		setSearchRoutingBySpace(srb, spaceKey);
 	}
 
 	@Override
@@ -428,35 +874,121 @@ public class DocumentWithCommentsIndexStructureBuilder implements IDocumentIndex
 			srb.setTypes(issueTypeName, commentTypeName);
 		else
 			srb.setTypes(issueTypeName);
+		setSearchRoutingBySpace(srb, spaceKey);
+	}
+
+	/**
+	 * Restrict search to the shard with given Space documents and request <code>_routing</code> field so it can be used
+	 * in {@link #deleteESDocument(BulkRequestBuilder, SearchHit)}. Nothing is done if {@link #routingBySpace} is not
+	 * enabled.
+	 * 
+	 * @param srb search request builder to set routing for
+	 * @param spaceKey used as routing value
+	 */
+	protected void setSearchRoutingBySpace(SearchRequestBuilder srb, String spaceKey) {
+		if (routingBySpace) {
+			srb.setRouting(spaceKey).addField("_routing");
+		}
+	}
+
+	@Override
+	public boolean isCommentReconciliationEnabled() {
+		return commentReconciliation && commentIndexingMode.isExtraDocumentIndexed();
+	}
+
+	@Override
+	public void collectIndexedDocumentIds(BulkRequestBuilder esBulk, Set<String> documentIds, Set<String> commentIds) {
+		for (ActionRequest<?> request : esBulk.request().requests()) {
+			if (request instanceof IndexRequest) {
+				IndexRequest irq = (IndexRequest) request;
+				if (issueTypeName.equals(irq.type())) {
+					documentIds.add(irq.id());
+				} else if (commentTypeName != null && commentTypeName.equals(irq.type())) {
+					commentIds.add(irq.id());
+				}
+			} else if (request instanceof UpdateRequest) {
+				documentIds.add(((UpdateRequest) request).id());
+			}
+		}
+	}
+
+	@Override
+	public boolean isCommentType(String typeName) {
+		return commentTypeName != null && commentTypeName.equals(typeName) && !commentTypeName.equals(issueTypeName);
+	}
+
+	@Override
+	public void buildSearchForIndexedCommentsOfDocuments(SearchRequestBuilder srb, String spaceKey,
+			Collection<String> remoteIds) {
+		FilterBuilder filterRemoteId = FilterBuilders.termsFilter(indexFieldForRemoteDocumentId, remoteIds);
+		FilterBuilder filterSpaceKey = FilterBuilders.termFilter(indexFieldForSpaceKey, spaceKey);
+		FilterBuilder filterSource = FilterBuilders.termFilter(indexFieldForRiverName, riverName);
+		FilterBuilder filter = FilterBuilders.boolFilter().must(filterRemoteId, filterSpaceKey, filterSource);
+		srb.setQuery(QueryBuilders.matchAllQuery()).addField("_id").setPostFilter(filter);
+		srb.setTypes(commentTypeName);
+		if (routingBySpace) {
+			setSearchRoutingBySpace(srb, spaceKey);
+		} else if (commentIndexingMode == CommentIndexingMode.CHILD) {
+			// child documents are routed by parent so routing is necessary to delete them
+			srb.addField("_routing");
+		}
 	}
 
 	@Override
 	public boolean deleteESDocument(BulkRequestBuilder esBulk, SearchHit documentToDelete) throws Exception {
-		esBulk.add(deleteRequest(indexName).type(documentToDelete.getType()).id(documentToDelete.getId()));
+		String hitIndexName = documentToDelete.getIndex();
+		if (hitIndexName == null)
+			hitIndexName = indexName;
+		DeleteRequest drq = deleteRequest(hitIndexName).type(documentToDelete.getType()).id(documentToDelete.getId());
+		SearchHitField routingField = documentToDelete.field("_routing");
+		if (routingField != null && routingField.getValue() != null) {
+			drq.routing(routingField.getValue().toString());
+		}
+		esBulk.add(drq);
+		if (fingerprintCache != null)
+			fingerprintCache.remove(hitIndexName, documentToDelete.getId());
 		return issueTypeName.equals(documentToDelete.getType());
 	}
 
 	/**
-	 * Convert remote system returned document data into JSON document to be stored in search index.
+	 * Convert remote system returned document data into source of document to be stored in search index. Reusable
+	 * buffer from {@link #sourceBufferPool} is used to build it.
+	 * 
+	 * @param spaceKey key of space document is for.
+	 * @param documentRemote data from remote system REST call
+	 * @return JSON source of document for index
+	 * @throws Exception
+	 * @see #writeIndexedDocument(XContentBuilder, String, Map)
+	 */
+	protected byte[] buildIndexedDocumentSource(String spaceKey, Map<String, Object> documentRemote) throws Exception {
+		DocumentSourceBufferPool.Buffer buffer = sourceBufferPool.acquire();
+		try {
+			writeIndexedDocument(buffer.builder(), spaceKey, documentRemote);
+			return buffer.toSource();
+		} finally {
+			sourceBufferPool.release(buffer);
+		}
+	}
+
+	/**
+	 * Write remote system returned document data as JSON document to be stored in search index.
 	 * 
+	 * @param out builder to write document into
 	 * @param spaceKey key of space document is for.
 	 * @param documentRemote data from remote system REST call
-	 * @return JSON builder with document for index
 	 * @throws Exception
 	 */
-	protected XContentBuilder prepareIndexedDocument(String spaceKey, Map<String, Object> documentRemote)
+	protected void writeIndexedDocument(XContentBuilder out, String spaceKey, Map<String, Object> documentRemote)
 			throws Exception {
 		String documentId = extractDocumentId(documentRemote);
 
-		XContentBuilder out = jsonBuilder().startObject();
+		out.startObject();
 		addValueToTheIndexField(out, indexFieldForRiverName, riverName);
 		addValueToTheIndexField(out, indexFieldForSpaceKey, spaceKey);
 		addValueToTheIndexField(out, indexFieldForRemoteDocumentId, documentId);
 
-		for (String indexFieldName : fieldsConfig.keySet()) {
-			Map<String, String> fieldConfig = fieldsConfig.get(indexFieldName);
-			addValueToTheIndex(out, indexFieldName, fieldConfig.get(CONFIG_FIELDS_REMOTEFIELD), documentRemote,
-					fieldConfig.get(CONFIG_FIELDS_VALUEFILTER));
+		for (IndexFieldAccessor accessor : getFieldsPlan()) {
+			addValueToTheIndex(out, accessor, documentRemote);
 		}
 
 		if (commentIndexingMode == CommentIndexingMode.EMBEDDED) {
@@ -471,35 +1003,55 @@ public class DocumentWithCommentsIndexStructureBuilder implements IDocumentIndex
 				out.endArray();
 			}
 		}
-		return out.endObject();
+		out.endObject();
 	}
 
 	/**
-	 * Convert remote system's returned data into JSON document to be stored in search index for comments in child and
-	 * standalone mode.
+	 * Convert remote system's returned data into source of comment document to be stored in search index in child and
+	 * standalone mode. Reusable buffer from {@link #sourceBufferPool} is used to build it.
 	 * 
 	 * @param spaceKey key of space document is for.
 	 * @param documentId this comment is for
 	 * @param comment data from remote system document
-	 * @return JSON builder with comment document for index
+	 * @return JSON source of comment document for index
 	 * @throws Exception
+	 * @see #writeCommentIndexedDocument(XContentBuilder, String, String, Map)
 	 */
-	protected XContentBuilder prepareCommentIndexedDocument(String spaceKey, String documentId,
+	protected byte[] buildCommentIndexedDocumentSource(String spaceKey, String documentId, Map<String, Object> comment)
+			throws Exception {
+		DocumentSourceBufferPool.Buffer buffer = sourceBufferPool.acquire();
+		try {
+			writeCommentIndexedDocument(buffer.builder(), spaceKey, documentId, comment);
+			return buffer.toSource();
+		} finally {
+			sourceBufferPool.release(buffer);
+		}
+	}
+
+	/**
+	 * Write remote system's returned comment data as JSON document to be stored in search index for comments in child
+	 * and standalone mode.
+	 * 
+	 * @param out builder to write comment document into
+	 * @param spaceKey key of space document is for.
+	 * @param documentId this comment is for
+	 * @param comment data from remote system document
+	 * @throws Exception
+	 */
+	protected void writeCommentIndexedDocument(XContentBuilder out, String spaceKey, String documentId,
 			Map<String, Object> comment) throws Exception {
-		XContentBuilder out = jsonBuilder().startObject();
+		out.startObject();
 		addValueToTheIndexField(out, indexFieldForRiverName, riverName);
 		addValueToTheIndexField(out, indexFieldForSpaceKey, spaceKey);
 		addValueToTheIndexField(out, indexFieldForRemoteDocumentId, documentId);
 		addCommonFieldsToCommentIndexedDocument(out, documentId, comment);
-		return out.endObject();
+		out.endObject();
 	}
 
 	private void addCommonFieldsToCommentIndexedDocument(XContentBuilder out, String documentId,
 			Map<String, Object> comment) throws Exception {
-		for (String indexFieldName : commentFieldsConfig.keySet()) {
-			Map<String, String> commentFieldConfig = commentFieldsConfig.get(indexFieldName);
-			addValueToTheIndex(out, indexFieldName, commentFieldConfig.get(CONFIG_FIELDS_REMOTEFIELD), comment,
-					commentFieldConfig.get(CONFIG_FIELDS_VALUEFILTER));
+		for (IndexFieldAccessor accessor : getCommentFieldsPlan()) {
+			addValueToTheIndex(out, accessor, comment);
 		}
 	}
 
@@ -553,7 +1105,6 @@ public class DocumentWithCommentsIndexStructureBuilder implements IDocumentIndex
 	 *          {@link Utils#remapDataInMap(Map, Map)}. No filtering performed if this is <code>null</code>.
 	 * @throws Exception
 	 */
-	@SuppressWarnings("unchecked")
 	protected void addValueToTheIndex(XContentBuilder out, String indexField, String valuePath,
 			Map<String, Object> values, Map<String, String> valueFieldFilter) throws Exception {
 		if (values == null) {
@@ -565,6 +1116,32 @@ public class DocumentWithCommentsIndexStructureBuilder implements IDocumentIndex
 		} else {
 			v = values.get(valuePath);
 		}
+		addFilteredValueToTheIndex(out, indexField, valuePath, v, valueFieldFilter);
+	}
+
+	/**
+	 * Get value from values structure using precompiled accessor and add it into index document. Value not touched by
+	 * preprocessors is copied directly from JSON bytes if values structure is {@link CompactJSONDocument}.
+	 * 
+	 * @param out content builder to add indexed value field into
+	 * @param accessor precompiled field mapping
+	 * @param values structure to get value from. Can be <code>null</code> - nothing added in this case, but not
+	 *          exception.
+	 * @throws Exception
+	 * @see IndexFieldAccessor#copyValue(Map, XContentBuilder)
+	 */
+	protected void addValueToTheIndex(XContentBuilder out, IndexFieldAccessor accessor, Map<String, Object> values)
+			throws Exception {
+		if (values == null || accessor.copyValue(values, out)) {
+			return;
+		}
+		addFilteredValueToTheIndex(out, accessor.getIndexField(), accessor.getValuePath(), accessor.extractValue(values),
+				accessor.getValueFilter());
+	}
+
+	@SuppressWarnings("unchecked")
+	private void addFilteredValueToTheIndex(XContentBuilder out, String indexField, String valuePath, Object v,
+			Map<String, String> valueFieldFilter) throws Exception {
 		if (v != null && valueFieldFilter != null && !valueFieldFilter.isEmpty()) {
 			if (v instanceof Map) {
 				Utils.remapDataInMap((Map<String, Object>) v, valueFieldFilter);
@@ -0,0 +1,67 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Bounded pool of canonical field name instances used during parsing of remote system responses, so all parsed
+ * documents share the same key strings instead of holding their own copies. Once pool is full, new names are not added
+ * and are returned as they are. Shared by all threads of one river, thread safe.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ * @see GetJSONClient
+ */
+public class FieldNamePool {
+
+	private final int maxSize;
+
+	private final ConcurrentMap<String, String> pool = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Create pool.
+	 * 
+	 * @param maxSize max number of distinct names kept in pool
+	 */
+	public FieldNamePool(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Get canonical instance of field name.
+	 * 
+	 * @param name to get canonical instance for
+	 * @return canonical instance from pool, or name itself if not in pool and pool is full
+	 */
+	public String canonicalize(String name) {
+		if (name == null)
+			return null;
+		String ret = pool.get(name);
+		if (ret != null)
+			return ret;
+		// size check is not atomic so pool may slightly overflow, it doesn't matter
+		if (pool.size() >= maxSize)
+			return name;
+		ret = pool.putIfAbsent(name, name);
+		return ret != null ? ret : name;
+	}
+
+	/**
+	 * @return number of names in pool
+	 */
+	public int size() {
+		return pool.size();
+	}
+
+	/**
+	 * @return max number of names kept in pool
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+}
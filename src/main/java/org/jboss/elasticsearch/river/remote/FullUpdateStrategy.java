@@ -0,0 +1,66 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import org.elasticsearch.common.settings.SettingsException;
+
+/**
+ * Strategy used to write documents into search index during full update of Space. Used to configure
+ * {@link IDocumentIndexStructureBuilder} implementations.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public enum FullUpdateStrategy {
+
+	/**
+	 * Documents are rewritten in the search index used for search, documents not updated during full update are
+	 * deleted at the end.
+	 */
+	IN_PLACE("in_place"),
+
+	/**
+	 * Documents are written into newly created search index, which is then switched into alias used for search at the
+	 * end. Previous index is deleted then.
+	 */
+	NEW_INDEX("new_index");
+
+	private String configValue;
+
+	private FullUpdateStrategy(String configValue) {
+		this.configValue = configValue;
+	}
+
+	/**
+	 * Get value used to represent this value in configuration.
+	 * 
+	 * @return configuration value
+	 */
+	public String getConfigValue() {
+		return configValue;
+	}
+
+	/**
+	 * Get enum value based on String value read from configuration file.
+	 * 
+	 * @param value to be parsed
+	 * @return Enum value, never null, default is used if value is null or empty.
+	 * @throws SettingsException for bad value
+	 */
+	public static FullUpdateStrategy parseConfiguration(String value) throws SettingsException {
+		if (Utils.isEmpty(value)) {
+			return IN_PLACE;
+		}
+
+		if (IN_PLACE.getConfigValue().equalsIgnoreCase(value)) {
+			return IN_PLACE;
+		} else if (NEW_INDEX.getConfigValue().equalsIgnoreCase(value)) {
+			return NEW_INDEX;
+		} else {
+			throw new SettingsException("unsupported value for full update strategy: " + value);
+		}
+	}
+
+}
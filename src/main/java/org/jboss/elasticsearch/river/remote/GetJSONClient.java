@@ -11,10 +11,13 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.http.HttpStatus;
 import org.elasticsearch.common.logging.ESLogger;
@@ -25,6 +28,7 @@ import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.common.xcontent.support.XContentMapValues;
 import org.jboss.elasticsearch.river.remote.exception.RemoteDocumentNotFoundException;
+import org.jboss.elasticsearch.river.remote.exception.RemoteDocumentNotModifiedException;
 
 /**
  * Class used to call remote system by http GET operation with JSON response.
@@ -57,6 +61,19 @@ public class GetJSONClient extends HttpRemoteSystemClientBase {
 
 	protected static final String CFG_HEADER_ACCEPT = "headerAccept";
 
+	protected static final String CFG_FIELD_NAME_POOL_SIZE = "fieldNamePoolSize";
+
+	protected static final String CFG_COMPACT_MAPS = "compactMaps";
+
+	protected static final String CFG_COMPACT_DOCUMENTS = "compactDocuments";
+
+	protected static final int FIELD_NAME_POOL_SIZE_DEFAULT = 10000;
+
+	/**
+	 * Max number of fields of JSON object parsed into {@link CompactMap} if {@link #compactMaps} is enabled.
+	 */
+	protected static final int COMPACT_MAP_MAX_SIZE = 8;
+
 	private ESLogger logger = Loggers.getLogger(GetJSONClient.class);
 
 	protected String urlGetSpaces;
@@ -87,6 +104,44 @@ public class GetJSONClient extends HttpRemoteSystemClientBase {
 
 	protected Map<String, String> headers = new HashMap<String, String>();
 
+	/**
+	 * Pool used to canonicalize field names of parsed responses, null if not used.
+	 */
+	protected FieldNamePool fieldNamePool;
+
+	/**
+	 * If <code>true</code> then small JSON objects are parsed into {@link CompactMap}.
+	 */
+	protected boolean compactMaps = false;
+
+	/**
+	 * If <code>true</code> then documents from "Get Documents" and "Get Document Details" responses are read into
+	 * {@link CompactJSONDocument}.
+	 */
+	protected boolean compactDocuments = false;
+
+	/**
+	 * Projection of "Get Documents" response data, null to keep all data.
+	 * 
+	 * @see #initProjections()
+	 */
+	protected RemoteDataProjection documentsResponseProjection;
+
+	/**
+	 * Projection of "Get Document Details" response data, null to keep all data.
+	 * 
+	 * @see #initProjections()
+	 */
+	protected RemoteDataProjection documentDetailResponseProjection;
+
+	/**
+	 * Keys of spaces with incremental update running, document details are loaded by conditional GET for them.
+	 * 
+	 * @see HttpRemoteSystemClientBase#performConditionalHttpGetCall(String, Map, boolean, String, String, String)
+	 */
+	protected final Set<String> incrementalUpdateSpaces = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
 	@Override
 	public void init(IESIntegration esIntegration, Map<String, Object> config, boolean spaceListLoadingEnabled,
 			IPwdLoader pwdLoader) {
@@ -142,13 +197,21 @@ public class GetJSONClient extends HttpRemoteSystemClientBase {
 
 		headers.put("Accept", headerAccept);
 
+		int fieldNamePoolSize = XContentMapValues.nodeIntegerValue(config.get(CFG_FIELD_NAME_POOL_SIZE),
+				FIELD_NAME_POOL_SIZE_DEFAULT);
+		if (fieldNamePoolSize < 0)
+			throw new SettingsException("remote/" + CFG_FIELD_NAME_POOL_SIZE + " must be 0 or positive number");
+		fieldNamePool = fieldNamePoolSize > 0 ? new FieldNamePool(fieldNamePoolSize) : null;
+		compactMaps = XContentMapValues.nodeBooleanValue(config.get(CFG_COMPACT_MAPS), false);
+		compactDocuments = XContentMapValues.nodeBooleanValue(config.get(CFG_COMPACT_DOCUMENTS), false);
+
 		if (spaceListLoadingEnabled) {
 			urlGetSpaces = getUrlFromConfig(config, CFG_URL_GET_SPACES, true);
 			getSpacesResField = Utils.trimToNull(XContentMapValues.nodeStringValue(config.get(CFG_GET_SPACES_RESPONSE_FIELD),
 					null));
 		}
 
-		String remoteUsername = initHttpClient(logger, config, pwdLoader, urlGetDocuments);
+		String remoteUsername = initHttpClient(logger, esIntegration, config, pwdLoader, urlGetDocuments);
 
 		logger
 				.info(
@@ -158,13 +221,15 @@ public class GetJSONClient extends HttpRemoteSystemClientBase {
 						urlGetDocumentDetailsField != null ? urlGetDocumentDetailsField : "",
 						remoteUsername != null ? remoteUsername : "Anonymous access");
 
+		initProjections();
 	}
 
 	@Override
 	@SuppressWarnings("unchecked")
 	public List<String> getAllSpaces() throws Exception {
 		byte[] responseData = performHttpGetCall(urlGetSpaces, headers).content;
-		logger.debug("Get Spaces REST response data: {}", new String(responseData));
+		if (logger.isDebugEnabled())
+			logger.debug("Get Spaces REST response data: {}", new String(responseData, "UTF-8"));
 
 		Object responseParsed = parseJSONResponse(responseData);
 
@@ -199,7 +264,8 @@ public class GetJSONClient extends HttpRemoteSystemClientBase {
 	}
 
 	/**
-	 * Parse JSON response into Object Structure.
+	 * Parse JSON response into Object Structure. Response bytes are parsed directly, JSON array or simple value on root
+	 * level of response is handled by reading root token, so response data are not copied before parsing.
 	 * 
 	 * @param responseData to parse
 	 * @return parsed response (May be Map, or List, or simple value)
@@ -207,25 +273,206 @@ public class GetJSONClient extends HttpRemoteSystemClientBase {
 	 * @throws IOException
 	 */
 	protected Object parseJSONResponse(byte[] responseData) throws UnsupportedEncodingException, IOException {
+		return parseJSONResponse(responseData, null);
+	}
+
+	/**
+	 * Parse JSON response into Object Structure, keep only data selected by projection.
+	 * 
+	 * @param responseData to parse
+	 * @param projection of data to keep, null to keep all data
+	 * @return parsed response (May be Map, or List, or simple value)
+	 * @throws UnsupportedEncodingException
+	 * @throws IOException
+	 * @see #readValue(XContentParser, org.elasticsearch.common.xcontent.XContentParser.Token, RemoteDataProjection)
+	 */
+	protected Object parseJSONResponse(byte[] responseData, RemoteDataProjection projection)
+			throws UnsupportedEncodingException, IOException {
 		XContentParser parser = null;
-		// wrap response so we are able to process JSON array of values on root level of response, which is not supported
-		// by XContentFactory
 		try {
-			StringBuilder sb = new StringBuilder();
-			sb.append("{ \"wrapit\" : ").append(new String(responseData, "UTF-8")).append("}");
-			responseData = sb.toString().getBytes("UTF-8");
 			parser = XContentFactory.xContent(XContentType.JSON).createParser(responseData);
-			Map<String, Object> wrappedResponseParsed = parser.mapAndClose();
-			return wrappedResponseParsed.get("wrapit");
+			XContentParser.Token token = parser.nextToken();
+			if (token == null)
+				throw new IOException("Empty JSON response");
+			return readValue(parser, token, projection, fieldNamePool, compactMaps);
 		} finally {
 			if (parser != null)
 				parser.close();
 		}
 	}
 
+	/**
+	 * Read value starting on actual token of parser. Same object structure is created as for
+	 * {@link XContentParser#map()}.
+	 * 
+	 * @param parser to read value from
+	 * @param token actual token of parser
+	 * @return value (May be Map, or List, or simple value)
+	 * @throws IOException
+	 */
+	protected static Object readValue(XContentParser parser, XContentParser.Token token) throws IOException {
+		return readValue(parser, token, null);
+	}
+
+	/**
+	 * Read value starting on actual token of parser. Fields of JSON objects not selected by projection are skipped
+	 * without reading their values into memory. Projection of JSON array is applied to all its values.
+	 * 
+	 * @param parser to read value from
+	 * @param token actual token of parser
+	 * @param projection of data to keep, null to keep all data
+	 * @return value (May be Map, or List, or simple value)
+	 * @throws IOException
+	 */
+	protected static Object readValue(XContentParser parser, XContentParser.Token token, RemoteDataProjection projection)
+			throws IOException {
+		return readValue(parser, token, projection, null, false);
+	}
+
+	/**
+	 * Read value starting on actual token of parser. Fields of JSON objects not selected by projection are skipped
+	 * without reading their values into memory. Projection of JSON array is applied to all its values. Field names are
+	 * canonicalized through pool so parsed documents share them. JSON objects are read into {@link CompactJSONDocument}
+	 * if projection says so.
+	 * 
+	 * @param parser to read value from
+	 * @param token actual token of parser
+	 * @param projection of data to keep, null to keep all data
+	 * @param fieldNamePool to canonicalize field names through, null to keep names from parser
+	 * @param compactMaps if <code>true</code> then small JSON objects are read into {@link CompactMap}
+	 * @return value (May be Map, or List, or simple value)
+	 * @throws IOException
+	 */
+	protected static Object readValue(XContentParser parser, XContentParser.Token token,
+			RemoteDataProjection projection, FieldNamePool fieldNamePool, boolean compactMaps) throws IOException {
+		if (projection != null && projection.isCompactDocument()) {
+			if (token == XContentParser.Token.START_OBJECT)
+				return CompactJSONDocument.read(parser, projection, fieldNamePool, compactMaps);
+		} else if (projection != null && projection.isAll()) {
+			projection = null;
+		}
+		if (token == XContentParser.Token.START_OBJECT) {
+			if (projection == null && fieldNamePool == null && !compactMaps)
+				return parser.map();
+			Map<String, Object> map = compactMaps ? new CompactMap<String, Object>() : new HashMap<String, Object>();
+			String fieldName = null;
+			while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+				if (token == null)
+					throw new IOException("Unexpected end of JSON object");
+				if (token == XContentParser.Token.FIELD_NAME) {
+					fieldName = parser.currentName();
+					if (fieldNamePool != null)
+						fieldName = fieldNamePool.canonicalize(fieldName);
+				} else {
+					RemoteDataProjection fieldProjection = projection != null ? projection.getChild(fieldName) : null;
+					if (projection != null && fieldProjection == null) {
+						parser.skipChildren();
+					} else {
+						if (map.size() == COMPACT_MAP_MAX_SIZE && map instanceof CompactMap)
+							map = new HashMap<String, Object>(map);
+						map.put(fieldName, readValue(parser, token, fieldProjection, fieldNamePool, compactMaps));
+					}
+				}
+			}
+			return map;
+		} else if (token == XContentParser.Token.START_ARRAY) {
+			List<Object> list = new ArrayList<Object>();
+			while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+				if (token == null)
+					throw new IOException("Unexpected end of JSON array");
+				list.add(readValue(parser, token, projection, fieldNamePool, compactMaps));
+			}
+			return list;
+		} else if (token == XContentParser.Token.VALUE_STRING) {
+			return parser.text();
+		} else if (token == XContentParser.Token.VALUE_NUMBER) {
+			return parser.numberValue();
+		} else if (token == XContentParser.Token.VALUE_BOOLEAN) {
+			return parser.booleanValue();
+		} else if (token == XContentParser.Token.VALUE_EMBEDDED_OBJECT) {
+			return parser.binaryValue();
+		}
+		return null;
+	}
+
+	/**
+	 * Get projection of document data necessary for indexing from index structure builder, extended by fields used by
+	 * this client.
+	 * 
+	 * @return projection relative to document root, or null if all data must be kept
+	 * @see IDocumentIndexStructureBuilder#getRemoteDataProjection()
+	 */
+	protected RemoteDataProjection getDocumentProjection() {
+		if (indexStructureBuilder == null)
+			return null;
+		RemoteDataProjection ret = indexStructureBuilder.getRemoteDataProjection();
+		if (ret != null && urlGetDocumentDetailsField != null)
+			ret.addPath(urlGetDocumentDetailsField);
+		return ret;
+	}
+
+	/**
+	 * Prepare projections of responses so they are not built again for each request. Called from
+	 * {@link #init(IESIntegration, Map, boolean, IPwdLoader)} and
+	 * {@link #setIndexStructureBuilder(IDocumentIndexStructureBuilder)} as projections depend on both.
+	 */
+	protected void initProjections() {
+		documentsResponseProjection = buildDocumentsResponseProjection();
+		documentDetailResponseProjection = buildDocumentDetailResponseProjection();
+	}
+
+	/**
+	 * Build projection of "Get Documents" response data necessary for indexing.
+	 * 
+	 * @return projection relative to response root, or null if all data must be kept
+	 */
+	protected RemoteDataProjection buildDocumentsResponseProjection() {
+		RemoteDataProjection documentProjection = getDocumentProjection();
+		if (compactDocuments) {
+			if (documentProjection == null)
+				documentProjection = RemoteDataProjection.all();
+			documentProjection.setCompactDocument(true);
+		}
+		if (documentProjection == null || getDocsResFieldDocuments == null)
+			return documentProjection;
+		RemoteDataProjection ret = new RemoteDataProjection();
+		ret.addPath(getDocsResFieldDocuments, documentProjection);
+		ret.addPath(getDocsResFieldTotalcount);
+		if (getRootResFieldsMapping != null) {
+			for (Object sourceFieldName : getRootResFieldsMapping.values()) {
+				if (sourceFieldName != null)
+					ret.addPath(sourceFieldName.toString());
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Build projection of "Get Document Details" response data necessary for indexing.
+	 * 
+	 * @return projection relative to response root, or null if all data must be kept
+	 */
+	protected RemoteDataProjection buildDocumentDetailResponseProjection() {
+		RemoteDataProjection documentProjection = getDocumentProjection();
+		RemoteDataProjection ret = null;
+		if (documentProjection != null) {
+			ret = documentProjection.getChild(SpaceIndexerBase.KEY_DETAIL);
+			if (ret == null) {
+				// no detail data necessary
+				ret = new RemoteDataProjection();
+			}
+		}
+		if (compactDocuments) {
+			if (ret == null)
+				ret = RemoteDataProjection.all();
+			ret.setCompactDocument(true);
+		}
+		return ret;
+	}
+
 	@Override
 	public Object getChangedDocumentDetails(String spaceKey, String documentId, Map<String, Object> document)
-			throws Exception, RemoteDocumentNotFoundException {
+			throws Exception, RemoteDocumentNotFoundException, RemoteDocumentNotModifiedException {
 		try {
 			String url = null;
 			if (urlGetDocumentDetailsField != null) {
@@ -253,17 +500,37 @@ public class GetJSONClient extends HttpRemoteSystemClientBase {
 			}
 			if (url == null)
 				return null;
-			byte[] responseData = performHttpGetCall(url, headers).content;
-			return parseJSONResponse(responseData);
+			// unchanged detail can be skipped only during incremental update, full update deletes documents not written
+			byte[] responseData = performConditionalHttpGetCall(url, headers,
+					incrementalUpdateSpaces.contains(spaceKey), spaceKey, documentId, getListingHash(document)).content;
+			return parseJSONResponse(responseData, documentDetailResponseProjection);
 		} catch (HttpCallException e) {
 			if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
 				throw new RemoteDocumentNotFoundException(e);
+			} else if (e.getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+				throw new RemoteDocumentNotModifiedException("Document detail not modified: " + documentId);
 			} else {
 				throw e;
 			}
 		}
 	}
 
+	/**
+	 * Get hash of document data obtained from "Get Documents" response. Document detail is loaded again even if not
+	 * modified when this hash changes, as listed data are indexed too.
+	 * 
+	 * @param document data from "Get Documents" response, may be null
+	 * @return hash or null if document is null
+	 */
+	protected static String getListingHash(Map<String, Object> document) {
+		if (document == null)
+			return null;
+		// compact document is hashed from raw data so values are not parsed
+		int hash = document instanceof CompactJSONDocument ? ((CompactJSONDocument) document).getDataHashCode()
+				: document.hashCode();
+		return Integer.toHexString(hash);
+	}
+
 	protected static String enhanceUrlGetDocumentDetails(String url, String spaceKey, String documentId)
 			throws UnsupportedEncodingException {
 		url = url.replaceAll("\\{space\\}", URLEncoder.encode(spaceKey, "UTF-8"));
@@ -275,13 +542,18 @@ public class GetJSONClient extends HttpRemoteSystemClientBase {
 	@Override
 	public ChangedDocumentsResults getChangedDocuments(String spaceKey, int startAt, boolean fullUpdate, Date updatedAfter)
 			throws Exception {
+		if (fullUpdate)
+			incrementalUpdateSpaces.remove(spaceKey);
+		else
+			incrementalUpdateSpaces.add(spaceKey);
 		String url = enhanceUrlGetDocuments(urlGetDocuments, spaceKey, updatedAfter, updatedAfterFormat, updatedAfterInitialValue, updatedBeforeTimeSpanFromUpdatedAfter, startAt, fullUpdate);
 		byte[] responseData = performHttpCall(url, headers, httpMethod).content;
 
-		logger.debug("Get Documents REST response data: {}", new String(responseData));
+		if (logger.isDebugEnabled())
+			logger.debug("Get Documents REST response data: {}", new String(responseData, "UTF-8"));
 
 		try {
-			Object responseParsed = parseJSONResponse(responseData);
+			Object responseParsed = parseJSONResponse(responseData, documentsResponseProjection);
 			Integer total = null;
 			if (getDocsResFieldTotalcount != null) {
 				Object totalObj = XContentMapValues.extractValue(getDocsResFieldTotalcount, (Map) responseParsed);
@@ -352,6 +624,7 @@ public class GetJSONClient extends HttpRemoteSystemClientBase {
 	@Override
 	public void setIndexStructureBuilder(IDocumentIndexStructureBuilder indexStructureBuilder) {
 		this.indexStructureBuilder = indexStructureBuilder;
+		initProjections();
 	}
 
 	@Override
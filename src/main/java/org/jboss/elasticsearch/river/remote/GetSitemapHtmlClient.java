@@ -6,35 +6,59 @@
 package org.jboss.elasticsearch.river.remote;
 
 import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.http.HttpStatus;
 import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.utils.DateUtils;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.settings.SettingsException;
 import org.elasticsearch.common.xcontent.support.XContentMapValues;
 import org.jboss.elasticsearch.river.remote.exception.RemoteDocumentNotFoundException;
+import org.jboss.elasticsearch.river.remote.exception.RemoteDocumentNotModifiedException;
 import org.jboss.elasticsearch.river.remote.sitemap.AbstractSiteMap;
-import org.jboss.elasticsearch.river.remote.sitemap.SiteMap;
+import org.jboss.elasticsearch.river.remote.sitemap.SiteMapIndex;
 import org.jboss.elasticsearch.river.remote.sitemap.SiteMapParser;
 import org.jboss.elasticsearch.river.remote.sitemap.SiteMapURL;
+import org.jboss.elasticsearch.river.remote.sitemap.SiteMapURLHandler;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.nodes.Node;
 import org.jsoup.nodes.TextNode;
 import org.jsoup.select.Elements;
+import org.jsoup.select.Evaluator;
 import org.jsoup.select.NodeTraversor;
 import org.jsoup.select.NodeVisitor;
+import org.jsoup.select.QueryParser;
+import org.jsoup.select.Selector;
 
 /**
  * Class used to HTTP GET data from <a href="http://www.sitemaps.org">sitemap</a> and then download and process HTML for
@@ -52,6 +76,10 @@ public class GetSitemapHtmlClient extends HttpRemoteSystemClientBase {
 	protected static final String CFG_HM_VALUE_ATTRIBUTE = "valueAttribute";
 	protected static final String CFG_URL_GET_SITEMAP = "urlGetSitemap";
 	protected static final String CFG_HTML_MAPPING = "htmlMapping";
+	protected static final String CFG_SITEMAP_INDEX_THREADS = "sitemapIndexThreads";
+	protected static final String CFG_SITEMAP_MAX_BYTES = "sitemapMaxBytes";
+	protected static final String CFG_CRAWL_THREADS = "crawlThreads";
+	protected static final String CFG_CRAWL_MAX_CONNECTIONS_PER_HOST = "crawlMaxConnectionsPerHost";
 
 	private ESLogger logger = Loggers.getLogger(GetSitemapHtmlClient.class);
 
@@ -86,8 +114,91 @@ public class GetSitemapHtmlClient extends HttpRemoteSystemClientBase {
 
 	protected Map<String, Map<String, Object>> htmlMapping;
 
+	/**
+	 * Extraction plan compiled from {@link #htmlMapping}. Null if no mapping is configured.
+	 */
+	protected List<HtmlFieldMapping> htmlFieldMappings;
+
 	protected SiteMapParser sitemapParser = new SiteMapParser();
 
+	/**
+	 * Max number of child sitemaps of sitemap index loaded in parallel.
+	 */
+	protected int sitemapIndexThreads = 4;
+
+	/**
+	 * Child sitemaps of sitemap index loaded during last run, key is URL of child sitemap. Used to skip loading of child
+	 * sitemaps not modified since then.
+	 */
+	protected Map<String, ChildSitemap> childSitemaps = new HashMap<String, ChildSitemap>();
+
+	/**
+	 * True if river uses {@link SpaceIndexingMode#UPDATE_TIMESTAMP} mode, so documents must be ordered by
+	 * {@link #DOC_FIELD_LAST_MODIFIED} and incremental update is supported.
+	 */
+	protected boolean updateTimestampMode;
+
+	/**
+	 * Keys of spaces with incremental update running, webpages are loaded for them by conditional GET with validators from
+	 * previous load.
+	 */
+	protected final Set<String> incrementalUpdateSpaces = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * Start time of last successful crawl used for conditional GET of webpages without last modification timestamp in
+	 * sitemap during incremental update, key is Space key. Not present for full update or if no crawl finished
+	 * successfully since river start.
+	 */
+	protected final ConcurrentMap<String, Date> notModifiedSince = new ConcurrentHashMap<String, Date>();
+
+	/**
+	 * Documents without last modification timestamp in sitemap returned by last
+	 * {@link #getChangedDocuments(String, int, boolean, Date)} call, key is Space key. Loaded by conditional GET with
+	 * {@link #notModifiedSince}.
+	 */
+	protected final ConcurrentMap<String, Set<Map<String, Object>>> lastModifiedMissing =
+			new ConcurrentHashMap<String, Set<Map<String, Object>>>();
+
+	/**
+	 * Start time of running crawl, key is Space key.
+	 */
+	protected final ConcurrentMap<String, Date> crawlStartDates = new ConcurrentHashMap<String, Date>();
+
+	/**
+	 * Start time of last crawl finished successfully, key is Space key. Kept separately from indexing checkpoint which is
+	 * driven by last modification timestamps from sitemap.
+	 */
+	protected final ConcurrentMap<String, Date> lastCrawlDates = new ConcurrentHashMap<String, Date>();
+
+	/**
+	 * Number of threads loading webpages in parallel. Webpages are loaded by indexer thread if 1.
+	 */
+	protected int crawlThreads = 1;
+
+	/**
+	 * Max number of webpages loaded in parallel from one host.
+	 */
+	protected int crawlMaxConnectionsPerHost = 4;
+
+	/**
+	 * Permits limiting number of parallel requests to one host, key is host name.
+	 */
+	protected final ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<String, Semaphore>();
+
+	protected ThreadPoolExecutor crawlExecutor;
+
+	/**
+	 * Factory of threads loading child sitemaps of sitemap index in parallel.
+	 */
+	protected ThreadFactory sitemapIndexThreadFactory;
+
+	/**
+	 * Crawler loading webpages for documents returned by last {@link #getChangedDocuments(String, int, boolean, Date)}
+	 * call, key is Space key. Empty if webpages are loaded by indexer thread.
+	 */
+	protected final ConcurrentMap<String, PageCrawler> crawlers = new ConcurrentHashMap<String, PageCrawler>();
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public void init(IESIntegration esIntegration, Map<String, Object> config, boolean spaceListLoadingEnabled,
@@ -97,16 +208,49 @@ public class GetSitemapHtmlClient extends HttpRemoteSystemClientBase {
 
 		try {
 			htmlMapping = (Map<String, Map<String, Object>>) config.get(CFG_HTML_MAPPING);
+			htmlFieldMappings = compileHtmlMapping(htmlMapping);
 		} catch (ClassCastException e) {
 			throw new SettingsException("'remote/" + CFG_HTML_MAPPING + "' configuration section is invalid");
 		}
 
+		sitemapIndexThreads = XContentMapValues.nodeIntegerValue(config.get(CFG_SITEMAP_INDEX_THREADS), 4);
+		if (sitemapIndexThreads < 1) {
+			throw new SettingsException("'remote/" + CFG_SITEMAP_INDEX_THREADS + "' must be positive number");
+		}
+
+		int sitemapMaxBytes = XContentMapValues.nodeIntegerValue(config.get(CFG_SITEMAP_MAX_BYTES),
+				SiteMapParser.MAX_BYTES_ALLOWED);
+		if (sitemapMaxBytes < 1) {
+			throw new SettingsException("'remote/" + CFG_SITEMAP_MAX_BYTES + "' must be positive number");
+		}
+		sitemapParser.setMaxBytes(sitemapMaxBytes);
+
+		updateTimestampMode = esIntegration.getSpaceIndexingMode() == SpaceIndexingMode.UPDATE_TIMESTAMP;
+
+		crawlThreads = XContentMapValues.nodeIntegerValue(config.get(CFG_CRAWL_THREADS), 1);
+		if (crawlThreads < 1) {
+			throw new SettingsException("'remote/" + CFG_CRAWL_THREADS + "' must be positive number");
+		}
+		crawlMaxConnectionsPerHost = XContentMapValues.nodeIntegerValue(config.get(CFG_CRAWL_MAX_CONNECTIONS_PER_HOST), 4);
+		if (crawlMaxConnectionsPerHost < 1) {
+			throw new SettingsException("'remote/" + CFG_CRAWL_MAX_CONNECTIONS_PER_HOST + "' must be positive number");
+		}
+		String riverName = esIntegration.riverName().getName();
+		sitemapIndexThreadFactory = esIntegration.acquireThreadFactory("remote_river_sitemap_" + riverName);
+		if (crawlThreads > 1) {
+			crawlExecutor = new ThreadPoolExecutor(crawlThreads, crawlThreads, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(),
+					esIntegration.acquireThreadFactory("remote_river_crawl_" + riverName));
+			// threads are not kept between indexing runs
+			crawlExecutor.allowCoreThreadTimeOut(true);
+		}
+
 		if (spaceListLoadingEnabled) {
 			throw new SettingsException(
 					"Dynamic Spaces obtaining is not supported, use 'remote/spacesIndexed' to configure one space or static list");
 		}
 
-		String remoteUsername = initHttpClient(logger, config, pwdLoader, urlGetSitemap);
+		String remoteUsername = initHttpClient(logger, esIntegration, config, pwdLoader, urlGetSitemap);
 
 		logger.info("Configured sitemap.xml HTML client for URL '{}', remote system user '{}'.", urlGetSitemap,
 				remoteUsername != null ? remoteUsername : "Anonymous access");
@@ -121,41 +265,302 @@ public class GetSitemapHtmlClient extends HttpRemoteSystemClientBase {
 	@Override
 	public ChangedDocumentsResults getChangedDocuments(String spaceKey, int startAt, boolean fullUpdate, Date updatedAfter)
 			throws Exception {
-		HttpResponseContent responseData = performHttpGetCall(urlGetSitemap, null);
+		crawlStartDates.putIfAbsent(spaceKey, new Date());
+		List<Map<String, Object>> documents = processSitemap(urlGetSitemap);
+
+		ChangedDocumentsResults ret;
+		if (!updateTimestampMode) {
+			ret = new ChangedDocumentsResults(documents, 0, documents.size());
+		} else {
+			Date lastCrawlDate = fullUpdate ? null : lastCrawlDates.get(spaceKey);
+			if (fullUpdate) {
+				incrementalUpdateSpaces.remove(spaceKey);
+			} else {
+				incrementalUpdateSpaces.add(spaceKey);
+			}
+			if (lastCrawlDate != null) {
+				notModifiedSince.put(spaceKey, lastCrawlDate);
+			} else {
+				notModifiedSince.remove(spaceKey);
+			}
+			Set<Map<String, Object>> missing = Collections
+					.newSetFromMap(new IdentityHashMap<Map<String, Object>, Boolean>());
+			documents = filterAndSortByLastModified(documents, fullUpdate ? null : updatedAfter, missing);
+			lastModifiedMissing.put(spaceKey, missing);
+			int total = documents.size();
+			if (startAt > 0) {
+				documents = documents.subList(Math.min(startAt, total), total);
+			}
+			ret = new ChangedDocumentsResults(documents, startAt, total);
+		}
 
-		logger.debug("HTTP GET sitemap response data: {}", responseData);
+		if (crawlExecutor != null) {
+			// load ahead few webpages per thread, so threads are kept busy while indexer processes loaded ones
+			PageCrawler previous = crawlers.put(spaceKey, new PageCrawler(spaceKey, documents, crawlThreads * 4));
+			if (previous != null)
+				previous.cancel();
+		}
+		return ret;
+	}
 
-		List<Map<String, Object>> documents = processSitemap(responseData, urlGetSitemap);
+	@Override
+	public void commitSpaceState(String spaceKey) {
+		Date crawlStartDate = crawlStartDates.remove(spaceKey);
+		if (crawlStartDate != null)
+			lastCrawlDates.put(spaceKey, crawlStartDate);
+	}
 
-		return new ChangedDocumentsResults(documents, 0, documents.size());
+	@Override
+	public void discardDocumentsState(String spaceKey) {
+		super.discardDocumentsState(spaceKey);
+		crawlStartDates.remove(spaceKey);
 	}
 
-	protected List<Map<String, Object>> processSitemap(HttpResponseContent response, String url) throws Exception {
-		AbstractSiteMap asm = sitemapParser.parseSiteMap(response.contentType, response.content, new URL(url));
+	/**
+	 * Stop loading of webpages ahead of indexing and terminate crawl threads, then release http client resources.
+	 */
+	@Override
+	public void close() {
+		for (PageCrawler c : crawlers.values()) {
+			c.cancel();
+		}
+		crawlers.clear();
+		if (crawlExecutor != null) {
+			crawlExecutor.shutdownNow();
+			crawlExecutor = null;
+		}
+		super.close();
+	}
+
+	/**
+	 * Filter documents modified after given date and sort them by last modification timestamp ascending, as necessary for
+	 * {@link SpaceByLastUpdateTimestampIndexer}. Documents without last modification timestamp are always kept and placed
+	 * at the beginning, they are checked by conditional GET in
+	 * {@link #getChangedDocumentDetails(String, String, Map)}. They get the lowest timestamp of returned documents (or
+	 * <code>updatedAfter</code>), so they never move indexing checkpoint.
+	 * 
+	 * @param documents to filter
+	 * @param updatedAfter date to filter documents modified after, null to keep all documents
+	 * @param lastModifiedMissing set to add documents without last modification timestamp into
+	 * @return filtered and sorted documents
+	 */
+	protected static List<Map<String, Object>> filterAndSortByLastModified(List<Map<String, Object>> documents,
+			Date updatedAfter, Set<Map<String, Object>> lastModifiedMissing) {
+		List<Map<String, Object>> ret = new ArrayList<Map<String, Object>>();
+		TreeMap<Date, List<Map<String, Object>>> dated = new TreeMap<Date, List<Map<String, Object>>>();
+		for (Map<String, Object> document : documents) {
+			String lastModified = (String) document.get(DOC_FIELD_LAST_MODIFIED);
+			if (lastModified == null) {
+				ret.add(document);
+				lastModifiedMissing.add(document);
+				continue;
+			}
+			Date date = DateTimeUtils.parseISODateTime(lastModified);
+			if (updatedAfter != null && !date.after(updatedAfter))
+				continue;
+			List<Map<String, Object>> l = dated.get(date);
+			if (l == null) {
+				l = new ArrayList<Map<String, Object>>();
+				dated.put(date, l);
+			}
+			l.add(document);
+		}
+		if (!ret.isEmpty()) {
+			Date timestamp = updatedAfter;
+			if (timestamp == null)
+				timestamp = dated.isEmpty() ? new Date(0) : dated.firstKey();
+			String value = DateTimeUtils.formatISODateTime(timestamp);
+			for (Map<String, Object> document : ret) {
+				document.put(DOC_FIELD_LAST_MODIFIED, value);
+			}
+		}
+		for (List<Map<String, Object>> l : dated.values()) {
+			ret.addAll(l);
+		}
+		return ret;
+	}
+
+	/**
+	 * Load sitemap and create documents for URLs listed in it. Sitemap is parsed by streaming parser and documents are
+	 * created as URLs are read from it. If sitemap is sitemap index then its child sitemaps are loaded and processed.
+	 * 
+	 * @param url of sitemap
+	 * @return list of documents
+	 * @throws Exception
+	 */
+	protected List<Map<String, Object>> processSitemap(String url) throws Exception {
+		// keyed by URL so duplicate entries in sitemap produce one document
+		Map<String, Map<String, Object>> documents = new LinkedHashMap<String, Map<String, Object>>();
+		AbstractSiteMap asm = loadSitemap(url, documents, false);
 
 		if (asm.isIndex()) {
-			throw new Exception("Sitemap index format is not supported by this river!");
+			processSitemapIndex((SiteMapIndex) asm, documents);
 		}
 
-		SiteMap sm = (SiteMap) asm;
+		return new ArrayList<Map<String, Object>>(documents.values());
+	}
 
-		List<Map<String, Object>> documents = new ArrayList<Map<String, Object>>();
-		for (SiteMapURL smurl : sm.getSiteMapUrls()) {
+	/**
+	 * Load sitemap and create documents for URLs listed in it. Sitemap is parsed directly from HTTP response stream (and
+	 * decompressed on the fly if gzipped), so it is never held in memory whole.
+	 * 
+	 * @param url of sitemap
+	 * @param documents map to put created documents into, key is URL of document
+	 * @param conditional if true then validators from previous load of sitemap are used for conditional GET
+	 * @return parsed sitemap, without URLs
+	 * @throws HttpCallException with 304 status code if conditional GET is used and sitemap is not modified
+	 * @throws Exception
+	 */
+	protected AbstractSiteMap loadSitemap(final String url, final Map<String, Map<String, Object>> documents,
+			boolean conditional) throws Exception {
+		logger.debug("Going to load sitemap {}", url);
+		return performConditionalHttpGetCall(url, null, conditional, new HttpResponseStreamHandler<AbstractSiteMap>() {
+
+			@Override
+			public AbstractSiteMap handle(String contentType, InputStream content) throws Exception {
+				return parseSitemap(contentType, content, url, documents);
+			}
+		});
+	}
 
-			String durl = smurl.getUrl().toExternalForm();
-			String ext = Utils.getFileExtensionLowercase(durl);
-			if (ext == null || !IGNORED_EXTENSIONS.contains(ext)) {
-				Map<String, Object> document = new HashMap<String, Object>();
-				document.put(DOC_FIELD_ID, createIdFromUrl(durl));
-				document.put(DOC_FIELD_URL, durl);
-				document.put(DOC_FIELD_LAST_MODIFIED, DateTimeUtils.formatISODateTime(smurl.getLastModified()));
-				document.put(DOC_FIELD_PRIORITY, new Double(smurl.getPriority()));
-				documents.add(document);
-			} else {
-				logger.debug("Ignored URL as it contains ignored file extension: " + durl);
+	/**
+	 * Parse sitemap and create documents for URLs listed in it.
+	 * 
+	 * @param contentType of sitemap content, may be null
+	 * @param content stream to read sitemap from
+	 * @param url of sitemap
+	 * @param documents map to put created documents into, key is URL of document
+	 * @return parsed sitemap, without URLs
+	 * @throws Exception
+	 */
+	protected AbstractSiteMap parseSitemap(String contentType, InputStream content, String url,
+			final Map<String, Map<String, Object>> documents) throws Exception {
+		return sitemapParser.walkSiteMap(contentType, content, new URL(url), new SiteMapURLHandler() {
+
+			@Override
+			public void handleSiteMapURL(SiteMapURL smurl) {
+				String durl = smurl.getUrl().toExternalForm();
+				String ext = Utils.getFileExtensionLowercase(durl);
+				if (ext == null || !IGNORED_EXTENSIONS.contains(ext)) {
+					Map<String, Object> document = new HashMap<String, Object>();
+					document.put(DOC_FIELD_ID, createIdFromUrl(durl));
+					document.put(DOC_FIELD_URL, durl);
+					document.put(DOC_FIELD_LAST_MODIFIED, DateTimeUtils.formatISODateTime(smurl.getLastModified()));
+					document.put(DOC_FIELD_PRIORITY, new Double(smurl.getPriority()));
+					documents.put(durl, document);
+				} else {
+					logger.debug("Ignored URL as it contains ignored file extension: " + durl);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Load child sitemaps of sitemap index in parallel and create documents for URLs listed in them. Child sitemaps with
+	 * the same last modification timestamp as in previous run are not loaded again, documents from previous run are used
+	 * for them.
+	 * 
+	 * @param sitemapIndex to process
+	 * @param documents map to put created documents into, key is URL of document
+	 * @throws Exception if some child sitemap can't be loaded
+	 */
+	protected void processSitemapIndex(SiteMapIndex sitemapIndex, Map<String, Map<String, Object>> documents)
+			throws Exception {
+		List<AbstractSiteMap> sitemaps = new ArrayList<AbstractSiteMap>(sitemapIndex.getSitemaps());
+		ChildSitemap[] results = new ChildSitemap[sitemaps.size()];
+		Map<Integer, Future<ChildSitemap>> futures = new LinkedHashMap<Integer, Future<ChildSitemap>>();
+
+		ExecutorService executor = null;
+		try {
+			for (int i = 0; i < sitemaps.size(); i++) {
+				final String childUrl = sitemaps.get(i).getUrl().toExternalForm();
+				final Date lastModified = sitemaps.get(i).getLastModified();
+				final ChildSitemap previous = childSitemaps.get(childUrl);
+				if (previous != null && lastModified != null && lastModified.equals(previous.lastModified)) {
+					logger.debug("Child sitemap {} not modified since previous run so not loaded again", childUrl);
+					results[i] = previous;
+				} else {
+					if (executor == null)
+						executor = createSitemapIndexExecutor(Math.min(sitemapIndexThreads, sitemaps.size()));
+					futures.put(i, executor.submit(new Callable<ChildSitemap>() {
+
+						@Override
+						public ChildSitemap call() throws Exception {
+							return loadChildSitemap(childUrl, lastModified, previous);
+						}
+					}));
+				}
+			}
+			for (Map.Entry<Integer, Future<ChildSitemap>> e : futures.entrySet()) {
+				try {
+					results[e.getKey()] = e.getValue().get();
+				} catch (ExecutionException ex) {
+					if (ex.getCause() instanceof Exception)
+						throw (Exception) ex.getCause();
+					throw ex;
+				}
 			}
+		} finally {
+			if (executor != null)
+				executor.shutdownNow();
+		}
+
+		Map<String, ChildSitemap> newChildSitemaps = new HashMap<String, ChildSitemap>();
+		for (int i = 0; i < sitemaps.size(); i++) {
+			newChildSitemaps.put(sitemaps.get(i).getUrl().toExternalForm(), results[i]);
+			for (Map.Entry<String, Map<String, Object>> e : results[i].documents.entrySet()) {
+				// copy as document is filled with detail during indexing
+				documents.put(e.getKey(), new HashMap<String, Object>(e.getValue()));
+			}
+		}
+		childSitemaps = newChildSitemaps;
+	}
+
+	/**
+	 * Load child sitemap of sitemap index and create documents for URLs listed in it.
+	 * 
+	 * @param url of child sitemap
+	 * @param lastModified timestamp of child sitemap from sitemap index, may be null
+	 * @param previous child sitemap loaded during previous run, null if not available. Its documents are reused if
+	 *          conditional GET shows child sitemap is not modified.
+	 * @return child sitemap with documents
+	 * @throws Exception
+	 */
+	protected ChildSitemap loadChildSitemap(String url, Date lastModified, ChildSitemap previous) throws Exception {
+		ChildSitemap ret = new ChildSitemap(lastModified);
+		AbstractSiteMap asm;
+		try {
+			asm = loadSitemap(url, ret.documents, previous != null);
+		} catch (HttpCallException e) {
+			if (previous == null || e.getStatusCode() != HttpStatus.SC_NOT_MODIFIED)
+				throw e;
+			logger.debug("Child sitemap {} not modified since previous run", url);
+			ret.documents.putAll(previous.documents);
+			return ret;
+		}
+		if (asm.isIndex()) {
+			logger.warn("Child sitemap {} is sitemap index which is not allowed, so it is ignored", url);
+			ret.documents.clear();
+		}
+		return ret;
+	}
+
+	private ExecutorService createSitemapIndexExecutor(int threads) {
+		return Executors.newFixedThreadPool(threads, sitemapIndexThreadFactory);
+	}
+
+	/**
+	 * Documents created from child sitemap of sitemap index.
+	 */
+	protected static class ChildSitemap {
+
+		protected final Date lastModified;
+
+		protected final Map<String, Map<String, Object>> documents = new LinkedHashMap<String, Map<String, Object>>();
+
+		protected ChildSitemap(Date lastModified) {
+			this.lastModified = lastModified;
 		}
-		return documents;
 	}
 
 	/**
@@ -188,84 +593,88 @@ public class GetSitemapHtmlClient extends HttpRemoteSystemClientBase {
 
 	@Override
 	public Object getChangedDocumentDetails(String spaceKey, String documentId, Map<String, Object> document)
-			throws Exception, RemoteDocumentNotFoundException {
-		try {
-			String url = (String) document.get(DOC_FIELD_URL);
-			if (url == null) {
-				return null;
-			}
+			throws Exception, RemoteDocumentNotFoundException, RemoteDocumentNotModifiedException {
+		String url = (String) document.get(DOC_FIELD_URL);
+		if (url == null) {
+			return null;
+		}
 
-			HttpResponseContent response = performHttpGetCall(url, null);
+		HtmlPage page;
+		PageCrawler c = crawlers.get(spaceKey);
+		Future<HtmlPage> future = c != null ? c.take(document) : null;
+		if (future != null) {
+			try {
+				page = future.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception)
+					throw (Exception) e.getCause();
+				throw e;
+			}
+		} else {
+			page = loadHtmlPage(url, incrementalUpdateSpaces.contains(spaceKey), getNotModifiedSince(spaceKey, document),
+					spaceKey, documentId);
+		}
+		return page.detail;
+	}
 
-			if (response.contentType != null && response.contentType.contains("text/html")) {
+	/**
+	 * Get date for conditional GET of webpage for document without last modification timestamp in sitemap.
+	 * 
+	 * @param spaceKey key of Space document is for
+	 * @param document to get date for
+	 * @return date or null if webpage has not to be loaded by conditional GET with date
+	 */
+	protected Date getNotModifiedSince(String spaceKey, Map<String, Object> document) {
+		Set<Map<String, Object>> missing = lastModifiedMissing.get(spaceKey);
+		if (missing == null || !missing.contains(document))
+			return null;
+		return notModifiedSince.get(spaceKey);
+	}
 
-				try {
-					Document doc = Jsoup.parse(new ByteArrayInputStream(response.content), null, url);
+	/**
+	 * Load webpage and extract detail from it.
+	 * 
+	 * @param url of webpage
+	 * @param conditional if true then validators from previous load of webpage are used for conditional GET, which is
+	 *          possible during incremental update only
+	 * @param notModifiedSince date for conditional GET, null to load webpage always
+	 * @param spaceKey key of Space webpage is loaded for
+	 * @param documentId id of document webpage is loaded for
+	 * @return loaded webpage
+	 * @throws RemoteDocumentNotFoundException if webpage is not found or can't be processed
+	 * @throws RemoteDocumentNotModifiedException if webpage is not modified since given date or previous load
+	 * @throws Exception in case of other problems
+	 */
+	protected HtmlPage loadHtmlPage(String url, boolean conditional, Date notModifiedSince, String spaceKey,
+			String documentId) throws Exception, RemoteDocumentNotFoundException, RemoteDocumentNotModifiedException {
+		try {
+			Map<String, String> headers = null;
+			if (notModifiedSince != null) {
+				headers = new HashMap<String, String>();
+				headers.put("If-Modified-Since", DateUtils.formatDate(notModifiedSince));
+			}
 
-					if (htmlMapping == null) {
-						return doc.html();
-					} else {
-						Map<String, String> ret = new HashMap<>();
-						for (String dataField : htmlMapping.keySet()) {
-							String value = null;
-							Map<String, Object> fieldMappingConfig = htmlMapping.get(dataField);
-							String cssSelector = Utils.trimToNull((String) fieldMappingConfig.get(CFG_HM_CSS_SELECTOR));
-							boolean stripHtml = XContentMapValues.nodeBooleanValue(fieldMappingConfig.get(CFG_HM_STRIP_HTML), false);
-							if (cssSelector != null) {
-								Elements elements = doc.select(cssSelector);
-								if (elements != null && !elements.isEmpty()) {
-									String valueAttribute = Utils.trimToNull((String) fieldMappingConfig.get(CFG_HM_VALUE_ATTRIBUTE));
-									if (valueAttribute != null) {
-										StringBuilder sb = new StringBuilder();
-										for (Element e : elements) {
-											String v = Utils.trimToNull(e.attr(valueAttribute));
-											if (v != null) {
-												if (sb.length() > 0) {
-													sb.append(" ");
-												}
-												sb.append(v);
-											}
-										}
-										value = Utils.trimToNull(sb.toString());
-									} else {
-										if (stripHtml) {
-											value = convertElementsToText(elements);
-										} else {
-											if (elements.size() == 1) {
-												value = elements.html();
-											} else {
-												value = elements.outerHtml();
-											}
-										}
-									}
-								}
-							} else {
-								if (stripHtml) {
-									value = convertNodeToText(doc);
-								} else {
-									value = doc.html();
-								}
-							}
-							ret.put(dataField, value);
-						}
-						return ret;
-					}
-				} catch (ClassCastException e) {
-					throw new SettingsException("'remote/" + CFG_HTML_MAPPING + "' configuration section is invalid");
-				} catch (Exception e) {
-					throw new RemoteDocumentNotFoundException("HTML document can't be processed: " + e.getMessage(), e);
-				}
-			} else {
-				throw new RemoteDocumentNotFoundException("HTML document can't be processed as it is not html but: "
-						+ response.contentType);
+			HttpResponseContent response;
+			Semaphore hostPermits = getHostPermits(url);
+			if (hostPermits != null)
+				hostPermits.acquire();
+			try {
+				response = performConditionalHttpGetCall(url, headers, conditional, spaceKey, documentId, null);
+			} finally {
+				if (hostPermits != null)
+					hostPermits.release();
 			}
+
+			return new HtmlPage(extractHtmlDetail(response, url));
 		} catch (ClientProtocolException e) {
 			if (e.getCause() != null)
 				throw new RemoteDocumentNotFoundException(e.getCause());
 			else
 				throw new RemoteDocumentNotFoundException(e);
 		} catch (HttpCallException e) {
-			if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+			if (e.getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+				throw new RemoteDocumentNotModifiedException("HTML document not modified: " + url);
+			} else if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
 				throw new RemoteDocumentNotFoundException(e);
 			} else {
 				throw e;
@@ -275,6 +684,277 @@ public class GetSitemapHtmlClient extends HttpRemoteSystemClientBase {
 		}
 	}
 
+	/**
+	 * Extract detail from loaded webpage using {@link #htmlFieldMappings}.
+	 * 
+	 * @param response with webpage
+	 * @param url of webpage
+	 * @return detail
+	 * @throws RemoteDocumentNotFoundException if webpage can't be processed
+	 */
+	protected Object extractHtmlDetail(HttpResponseContent response, String url) throws RemoteDocumentNotFoundException {
+		if (response.contentType != null && response.contentType.contains("text/html")) {
+
+			try {
+				Document doc = Jsoup.parse(new ByteArrayInputStream(response.content), null, url);
+
+				if (htmlFieldMappings == null) {
+					return doc.html();
+				} else {
+					return extractHtmlFields(doc, htmlFieldMappings);
+				}
+			} catch (Exception e) {
+				throw new RemoteDocumentNotFoundException("HTML document can't be processed: " + e.getMessage(), e);
+			}
+		} else {
+			throw new RemoteDocumentNotFoundException("HTML document can't be processed as it is not html but: "
+					+ response.contentType);
+		}
+	}
+
+	/**
+	 * Compile html mapping configuration into extraction plan, so configuration is not read and CSS selectors are not
+	 * parsed again for each webpage.
+	 * 
+	 * @param htmlMapping configuration to compile, may be null
+	 * @return extraction plan, null if htmlMapping is null
+	 * @throws SettingsException if CSS selector is invalid
+	 * @throws ClassCastException if configuration structure is invalid
+	 */
+	protected static List<HtmlFieldMapping> compileHtmlMapping(Map<String, Map<String, Object>> htmlMapping) {
+		if (htmlMapping == null)
+			return null;
+		List<HtmlFieldMapping> ret = new ArrayList<HtmlFieldMapping>(htmlMapping.size());
+		for (String dataField : htmlMapping.keySet()) {
+			Map<String, Object> fieldMappingConfig = htmlMapping.get(dataField);
+			if (fieldMappingConfig == null)
+				throw new ClassCastException("Mapping of field " + dataField + " is not defined");
+			String cssSelector = Utils.trimToNull((String) fieldMappingConfig.get(CFG_HM_CSS_SELECTOR));
+			Evaluator evaluator = null;
+			if (cssSelector != null) {
+				try {
+					evaluator = QueryParser.parse(cssSelector);
+				} catch (Selector.SelectorParseException e) {
+					throw new SettingsException("'remote/" + CFG_HTML_MAPPING + "/" + dataField + "/" + CFG_HM_CSS_SELECTOR
+							+ "' is invalid: " + e.getMessage());
+				}
+			}
+			ret.add(new HtmlFieldMapping(dataField, evaluator, XContentMapValues.nodeBooleanValue(
+					fieldMappingConfig.get(CFG_HM_STRIP_HTML), false), Utils.trimToNull((String) fieldMappingConfig
+					.get(CFG_HM_VALUE_ATTRIBUTE))));
+		}
+		return ret;
+	}
+
+	/**
+	 * Extract fields from webpage. Elements for all fields with CSS selector are collected in one pass through the
+	 * document.
+	 * 
+	 * @param doc webpage
+	 * @param mappings extraction plan
+	 * @return map with extracted fields
+	 */
+	protected static Map<String, String> extractHtmlFields(final Document doc, final List<HtmlFieldMapping> mappings) {
+		final Elements[] selected = new Elements[mappings.size()];
+		boolean anySelector = false;
+		for (int i = 0; i < selected.length; i++) {
+			if (mappings.get(i).evaluator != null) {
+				selected[i] = new Elements();
+				anySelector = true;
+			}
+		}
+		if (anySelector) {
+			new NodeTraversor(new NodeVisitor() {
+
+				@Override
+				public void head(Node node, int depth) {
+					if (node instanceof Element) {
+						Element element = (Element) node;
+						for (int i = 0; i < selected.length; i++) {
+							if (selected[i] != null && mappings.get(i).evaluator.matches(doc, element))
+								selected[i].add(element);
+						}
+					}
+				}
+
+				@Override
+				public void tail(Node node, int depth) {
+				}
+			}).traverse(doc);
+		}
+
+		Map<String, String> ret = new HashMap<>();
+		for (int i = 0; i < selected.length; i++) {
+			HtmlFieldMapping mapping = mappings.get(i);
+			String value = null;
+			if (mapping.evaluator != null) {
+				Elements elements = selected[i];
+				if (!elements.isEmpty()) {
+					if (mapping.valueAttribute != null) {
+						StringBuilder sb = new StringBuilder();
+						for (Element e : elements) {
+							String v = Utils.trimToNull(e.attr(mapping.valueAttribute));
+							if (v != null) {
+								if (sb.length() > 0) {
+									sb.append(" ");
+								}
+								sb.append(v);
+							}
+						}
+						value = Utils.trimToNull(sb.toString());
+					} else {
+						if (mapping.stripHtml) {
+							value = convertElementsToText(elements);
+						} else {
+							if (elements.size() == 1) {
+								value = elements.html();
+							} else {
+								value = elements.outerHtml();
+							}
+						}
+					}
+				}
+			} else {
+				if (mapping.stripHtml) {
+					value = convertNodeToText(doc);
+				} else {
+					value = doc.html();
+				}
+			}
+			ret.put(mapping.dataField, value);
+		}
+		return ret;
+	}
+
+	/**
+	 * Get permits limiting number of parallel requests to host of URL.
+	 * 
+	 * @param url to get permits for
+	 * @return permits or null if number of requests is not limited
+	 */
+	protected Semaphore getHostPermits(String url) {
+		if (crawlThreads <= 1)
+			return null;
+		String host;
+		try {
+			host = new URL(url).getHost().toLowerCase();
+		} catch (MalformedURLException e) {
+			return null;
+		}
+		Semaphore ret = hostPermits.get(host);
+		if (ret == null) {
+			hostPermits.putIfAbsent(host, new Semaphore(crawlMaxConnectionsPerHost));
+			ret = hostPermits.get(host);
+		}
+		return ret;
+	}
+
+	/**
+	 * Compiled mapping of one field extracted from webpage.
+	 * 
+	 * @see GetSitemapHtmlClient#compileHtmlMapping(Map)
+	 */
+	protected static class HtmlFieldMapping {
+
+		protected final String dataField;
+
+		/**
+		 * Parsed CSS selector, null if whole webpage is used.
+		 */
+		protected final Evaluator evaluator;
+
+		protected final boolean stripHtml;
+
+		protected final String valueAttribute;
+
+		protected HtmlFieldMapping(String dataField, Evaluator evaluator, boolean stripHtml, String valueAttribute) {
+			this.dataField = dataField;
+			this.evaluator = evaluator;
+			this.stripHtml = stripHtml;
+			this.valueAttribute = valueAttribute;
+		}
+	}
+
+	/**
+	 * Webpage loaded from remote system.
+	 */
+	protected static class HtmlPage {
+
+		protected final Object detail;
+
+		protected HtmlPage(Object detail) {
+			this.detail = detail;
+		}
+	}
+
+	/**
+	 * Loads webpages for documents returned from one {@link GetSitemapHtmlClient#getChangedDocuments} call in parallel,
+	 * ahead of {@link GetSitemapHtmlClient#getChangedDocumentDetails(String, String, Map)} calls. Number of webpages
+	 * loaded ahead is limited so memory used by loaded webpages is bounded. Results are taken in the same order as
+	 * documents are processed by indexer.
+	 */
+	protected class PageCrawler {
+
+		private final String spaceKey;
+
+		private final List<Map<String, Object>> documents;
+
+		private final boolean incremental;
+
+		private final int window;
+
+		private int next = 0;
+
+		private final Map<Map<String, Object>, Future<HtmlPage>> futures =
+				new IdentityHashMap<Map<String, Object>, Future<HtmlPage>>();
+
+		protected PageCrawler(String spaceKey, List<Map<String, Object>> documents, int window) {
+			this.spaceKey = spaceKey;
+			this.documents = documents;
+			this.window = window;
+			this.incremental = incrementalUpdateSpaces.contains(spaceKey);
+		}
+
+		/**
+		 * Take webpage loading for document and start loading of next ones.
+		 * 
+		 * @param document to take webpage for
+		 * @return future with webpage or null if document is not handled by this crawler
+		 */
+		protected synchronized Future<HtmlPage> take(Map<String, Object> document) {
+			while (next < documents.size() && futures.size() < window) {
+				submit(documents.get(next++));
+			}
+			return futures.remove(document);
+		}
+
+		private void submit(Map<String, Object> document) {
+			final String url = (String) document.get(DOC_FIELD_URL);
+			if (url == null)
+				return;
+			final String documentId = (String) document.get(DOC_FIELD_ID);
+			final Date since = getNotModifiedSince(spaceKey, document);
+			futures.put(document, crawlExecutor.submit(new Callable<HtmlPage>() {
+
+				@Override
+				public HtmlPage call() throws Exception {
+					return loadHtmlPage(url, incremental, since, spaceKey, documentId);
+				}
+			}));
+		}
+
+		/**
+		 * Cancel loading of all webpages not taken yet.
+		 */
+		protected synchronized void cancel() {
+			next = documents.size();
+			for (Future<HtmlPage> f : futures.values()) {
+				f.cancel(true);
+			}
+			futures.clear();
+		}
+	}
+
 	protected static String convertNodeToText(Node node) {
 		if (node == null)
 			return "";
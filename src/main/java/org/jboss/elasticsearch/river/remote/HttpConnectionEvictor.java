@@ -0,0 +1,68 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.HttpClientConnectionManager;
+
+/**
+ * Background task closing expired and idle connections kept in http client connection pool, so connection closed by
+ * server in the meantime is not leased for next request (which then fails with <code>NoHttpResponseException</code>).
+ * Runs in thread obtained from {@link IESIntegration#acquireIndexingThread(String, Runnable)}, stopped by interruption
+ * of this thread.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class HttpConnectionEvictor implements Runnable {
+
+	private final HttpClientConnectionManager connectionManager;
+
+	private final long idleTimeout;
+
+	private final long interval;
+
+	/**
+	 * Create evictor.
+	 * 
+	 * @param connectionManager to evict connections from
+	 * @param idleTimeout connections idle longer than this are closed [ms]
+	 * @param interval between two checks [ms]
+	 */
+	public HttpConnectionEvictor(HttpClientConnectionManager connectionManager, long idleTimeout, long interval) {
+		this.connectionManager = connectionManager;
+		this.idleTimeout = idleTimeout;
+		this.interval = interval;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				return;
+			}
+			evict();
+		}
+	}
+
+	/**
+	 * Close expired and idle connections.
+	 */
+	protected void evict() {
+		connectionManager.closeExpiredConnections();
+		connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return idle timeout [ms]
+	 */
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+}
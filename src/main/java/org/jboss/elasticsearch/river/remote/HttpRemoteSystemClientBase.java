@@ -5,15 +5,23 @@
  */
 package org.jboss.elasticsearch.river.remote;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.http.Consts;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
 import org.apache.http.auth.AuthScope;
@@ -29,16 +37,21 @@ import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.config.ConnectionConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.settings.SettingsException;
+import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.support.XContentMapValues;
 
 /**
@@ -46,7 +59,7 @@ import org.elasticsearch.common.xcontent.support.XContentMapValues;
  * 
  * @author Vlastimil Elias (velias at redhat dot com)
  */
-public abstract class HttpRemoteSystemClientBase implements IRemoteSystemClient {
+public abstract class HttpRemoteSystemClientBase implements IRemoteSystemClient, IDocumentStateAware {
 
 	protected static final String CFG_PASSWORD = "pwd";
 
@@ -54,39 +67,135 @@ public abstract class HttpRemoteSystemClientBase implements IRemoteSystemClient
 
 	protected static final String CFG_TIMEOUT = "timeout";
 
+	protected static final String CFG_HTTP_CACHE_SIZE = "httpCacheSize";
+
+	protected static final String CFG_HTTP_CACHE_FILE = "httpCacheFile";
+
+	protected static final String CFG_COMPRESSION = "compression";
+
+	protected static final String CFG_HTTP_MAX_CONNECTIONS_PER_ROUTE = "httpMaxConnectionsPerRoute";
+
+	protected static final String CFG_HTTP_MAX_CONNECTIONS_TOTAL = "httpMaxConnectionsTotal";
+
+	protected static final String CFG_HTTP_KEEP_ALIVE = "httpKeepAlive";
+
+	protected static final String CFG_HTTP_IDLE_TIMEOUT = "httpIdleTimeout";
+
+	protected static final String CFG_HTTP_STALE_CONNECTION_CHECK = "httpStaleConnectionCheck";
+
+	/**
+	 * Interval between two runs of {@link #connectionEvictor} [ms].
+	 */
+	protected static final long CONNECTION_EVICTOR_INTERVAL = 5 * 1000;
+
+	/**
+	 * Min interval between two writes of {@link #validatorCache} into {@link #validatorCacheFile} [ms].
+	 */
+	protected static final long VALIDATOR_CACHE_STORE_INTERVAL = 60 * 1000;
+
 	protected ESLogger myLogger = null;
 
 	protected CloseableHttpClient httpclient;
 
+	/**
+	 * Connection pool used by {@link #httpclient}.
+	 */
+	protected PoolingHttpClientConnectionManager connectionManager;
+
+	/**
+	 * Evictor of idle connections from {@link #connectionManager}. Null if not running.
+	 */
+	protected HttpConnectionEvictor connectionEvictor;
+
+	/**
+	 * Thread {@link #connectionEvictor} runs in. Null if not running.
+	 */
+	protected Thread connectionEvictorThread;
+
 	protected boolean isAuthConfigured = false;
 
 	protected IDocumentIndexStructureBuilder indexStructureBuilder;
 
+	/**
+	 * Cache of validators used for conditional GET requests. Null if not configured.
+	 * 
+	 * @see #performConditionalHttpGetCall(String, Map, boolean, String, String, String)
+	 */
+	protected HttpValidatorCache validatorCache;
+
+	/**
+	 * File {@link #validatorCache} is persisted into. Null if cache is not persisted.
+	 */
+	protected File validatorCacheFile;
+
+	private final AtomicLong validatorCacheStored = new AtomicLong();
+
+	/**
+	 * Statistics of bytes transferred from remote system.
+	 */
+	protected final HttpTransferStats transferStats = new HttpTransferStats();
+
 	/**
 	 * DO NOT FORGET to call this from {@link #init(Map, boolean, IPwdLoader)} in your subclass!!!!
 	 * 
 	 * @param logger to beused
+	 * @param esIntegration to obtain connection evictor thread from
 	 * @param config to be read
 	 * @param pwdLoader to be used (can be null)
 	 * @param url base url to be used for authentication config - host part is used
 	 * @return username for authentication if any configured
 	 */
-	protected String initHttpClient(ESLogger logger, Map<String, Object> config, IPwdLoader pwdLoader, String url) {
+	protected String initHttpClient(ESLogger logger, IESIntegration esIntegration, Map<String, Object> config,
+			IPwdLoader pwdLoader, String url) {
 		this.myLogger = logger;
 
+		int maxPerRoute = XContentMapValues.nodeIntegerValue(config.get(CFG_HTTP_MAX_CONNECTIONS_PER_ROUTE), 20);
+		if (maxPerRoute < 1) {
+			throw new SettingsException("'remote/" + CFG_HTTP_MAX_CONNECTIONS_PER_ROUTE + "' must be positive number");
+		}
+		int maxTotal = XContentMapValues.nodeIntegerValue(config.get(CFG_HTTP_MAX_CONNECTIONS_TOTAL), maxPerRoute);
+		if (maxTotal < 1) {
+			throw new SettingsException("'remote/" + CFG_HTTP_MAX_CONNECTIONS_TOTAL + "' must be positive number");
+		}
+		final long keepAlive = Utils.parseTimeValue(config, CFG_HTTP_KEEP_ALIVE, 30, TimeUnit.SECONDS);
+		if (keepAlive < 1) {
+			throw new SettingsException("'remote/" + CFG_HTTP_KEEP_ALIVE + "' must be positive number");
+		}
+		long idleTimeout = Utils.parseTimeValue(config, CFG_HTTP_IDLE_TIMEOUT, 10, TimeUnit.SECONDS);
+		if (idleTimeout < 0) {
+			throw new SettingsException("'remote/" + CFG_HTTP_IDLE_TIMEOUT + "' must be positive number");
+		}
+
 		PoolingHttpClientConnectionManager connManager = new PoolingHttpClientConnectionManager();
-		connManager.setDefaultMaxPerRoute(20);
-		connManager.setMaxTotal(20);
+		connManager.setDefaultMaxPerRoute(maxPerRoute);
+		connManager.setMaxTotal(maxTotal);
 
 		ConnectionConfig connectionConfig = ConnectionConfig.custom().setCharset(Consts.UTF_8).build();
 		connManager.setDefaultConnectionConfig(connectionConfig);
 
 		HttpClientBuilder clientBuilder = HttpClients.custom().setConnectionManager(connManager);
+		// server provided keep-alive timeout is used if shorter than configured one
+		clientBuilder.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+			@Override
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				long ret = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+				return (ret > 0 && ret < keepAlive) ? ret : keepAlive;
+			}
+		});
+
+		// client sends 'Accept-Encoding: gzip,deflate' and decompresses response stream on the fly, unless disabled
+		if (!XContentMapValues.nodeBooleanValue(config.get(CFG_COMPRESSION), true)) {
+			clientBuilder.disableContentCompression();
+		}
+		clientBuilder.addInterceptorFirst(transferStats.getWireInterceptor());
+		clientBuilder.addInterceptorLast(transferStats.getDecodedInterceptor());
 
 		Integer timeout = new Long(Utils.parseTimeValue(config, CFG_TIMEOUT, 5, TimeUnit.SECONDS)).intValue();
 
 		if (timeout != null) {
-			RequestConfig requestConfig = RequestConfig.custom().setSocketTimeout(timeout).setConnectTimeout(timeout).build();
+			RequestConfig requestConfig = RequestConfig.custom().setSocketTimeout(timeout).setConnectTimeout(timeout)
+					.setStaleConnectionCheckEnabled(
+							XContentMapValues.nodeBooleanValue(config.get(CFG_HTTP_STALE_CONNECTION_CHECK), true)).build();
 			clientBuilder.setDefaultRequestConfig(requestConfig);
 		}
 
@@ -114,10 +223,138 @@ public abstract class HttpRemoteSystemClientBase implements IRemoteSystemClient
 		} else {
 			remoteUsername = null;
 		}
+		close();
 		httpclient = clientBuilder.build();
+		connectionManager = connManager;
+		if (idleTimeout > 0) {
+			connectionEvictor = new HttpConnectionEvictor(connManager, idleTimeout, Math.min(idleTimeout,
+					CONNECTION_EVICTOR_INTERVAL));
+			connectionEvictorThread = esIntegration.acquireIndexingThread("remote_river_http_evictor_"
+					+ esIntegration.riverName().getName(), connectionEvictor);
+			connectionEvictorThread.start();
+		}
+
+		initValidatorCache(config);
 		return remoteUsername;
 	}
 
+	private void initValidatorCache(Map<String, Object> config) {
+		int cacheSize = XContentMapValues.nodeIntegerValue(config.get(CFG_HTTP_CACHE_SIZE), 0);
+		if (cacheSize < 0) {
+			throw new SettingsException("'remote/" + CFG_HTTP_CACHE_SIZE + "' must be positive number");
+		}
+		validatorCache = null;
+		validatorCacheFile = null;
+		if (cacheSize == 0)
+			return;
+		validatorCache = new HttpValidatorCache(cacheSize);
+		String file = Utils.trimToNull(XContentMapValues.nodeStringValue(config.get(CFG_HTTP_CACHE_FILE), null));
+		if (file != null) {
+			validatorCacheFile = new File(file);
+			try {
+				validatorCache.load(validatorCacheFile);
+				myLogger.info("Loaded {} HTTP validators from {}", validatorCache.size(), validatorCacheFile);
+			} catch (IOException e) {
+				myLogger.warn("Unable to load HTTP validators from {}, so cache starts empty: {}", validatorCacheFile,
+						e.getMessage());
+			}
+		}
+		validatorCacheStored.set(System.currentTimeMillis());
+	}
+
+	@Override
+	public void commitDocumentsState(String spaceKey, Collection<String> documentIds) {
+		if (validatorCache == null)
+			return;
+		validatorCache.commit(spaceKey, documentIds);
+		storeValidatorCache(false);
+	}
+
+	@Override
+	public void discardDocumentsState(String spaceKey) {
+		if (validatorCache != null)
+			validatorCache.discardStaged(spaceKey);
+	}
+
+	@Override
+	public void commitSpaceState(String spaceKey) {
+		// validators are committed per document
+	}
+
+	/**
+	 * Stop connection evictor and close http client with all pooled connections. Validators are stored if cache is
+	 * persisted.
+	 */
+	public void close() {
+		if (connectionEvictorThread != null) {
+			connectionEvictorThread.interrupt();
+			connectionEvictorThread = null;
+		}
+		connectionEvictor = null;
+		storeValidatorCache(true);
+		if (httpclient != null) {
+			try {
+				httpclient.close();
+			} catch (IOException e) {
+				myLogger.warn("Unable to close http client: {}", e.getMessage());
+			}
+			httpclient = null;
+		}
+		connectionManager = null;
+	}
+
+	/**
+	 * Write actual state of http connection pool into JSON object.
+	 * 
+	 * @param builder to write state into
+	 * @throws IOException
+	 */
+	public void buildConnectionPoolDocument(XContentBuilder builder) throws IOException {
+		builder.startObject();
+		PoolingHttpClientConnectionManager cm = connectionManager;
+		if (cm != null) {
+			PoolStats ps = cm.getTotalStats();
+			builder.field("max_total", ps.getMax());
+			builder.field("max_per_route", cm.getDefaultMaxPerRoute());
+			builder.field("leased", ps.getLeased());
+			builder.field("available", ps.getAvailable());
+			builder.field("pending", ps.getPending());
+		}
+		builder.endObject();
+	}
+
+	/**
+	 * Get statistics of bytes transferred from remote system.
+	 * 
+	 * @return statistics, never null
+	 */
+	public HttpTransferStats getTransferStats() {
+		return transferStats;
+	}
+
+	/**
+	 * Store {@link #validatorCache} into {@link #validatorCacheFile} if it changed and
+	 * {@link #VALIDATOR_CACHE_STORE_INTERVAL} elapsed since last write. Failure is logged only.
+	 * 
+	 * @param force if true then interval is not checked
+	 */
+	protected void storeValidatorCache(boolean force) {
+		if (validatorCache == null || validatorCacheFile == null || !validatorCache.isChanged())
+			return;
+		long now = System.currentTimeMillis();
+		long last = validatorCacheStored.get();
+		if (!force && now - last < VALIDATOR_CACHE_STORE_INTERVAL)
+			return;
+		// one writer at a time
+		if (!validatorCacheStored.compareAndSet(last, now))
+			return;
+		try {
+			validatorCache.store(validatorCacheFile);
+		} catch (IOException e) {
+			myLogger.warn("Unable to store HTTP validators into {}: {}", validatorCacheFile, e.getMessage());
+		}
+	}
+
 	/**
 	 * Get url from configuration and validate it for format, and for presence.
 	 * 
@@ -186,6 +423,129 @@ public abstract class HttpRemoteSystemClientBase implements IRemoteSystemClient
      */
     protected HttpResponseContent performHttpCall(String url, Map<String, String> headers, HttpMethodType methodType) 
            throws Exception, HttpCallException {
+
+        return performHttpCall(url, headers, methodType, false, false, null, null, null, CONTENT_READER);
+    }
+
+	/**
+	 * Perform defined HTTP GET request and pass content of successful response to handler as stream, so it is not
+	 * buffered in memory. Connection is closed without reading rest of content if handler fails.
+	 * 
+	 * @param url to perform GET request for
+	 * @param headers to be used for request. Can be null.
+	 * @param handler to process response content
+	 * @return value returned from handler
+	 * @throws HttpCallException in case of failed http call
+	 * @throws Exception in case of unsuccessful call or thrown by handler
+	 */
+	protected <T> T performHttpGetCall(String url, Map<String, String> headers, HttpResponseStreamHandler<T> handler)
+			throws Exception, HttpCallException {
+
+		return performHttpCall(url, headers, HttpMethodType.GET, false, false, null, null, null, streamReader(handler));
+	}
+
+	/**
+	 * Perform conditional HTTP GET request for document content. Validators of successful response are staged in
+	 * {@link #validatorCache} and put into it by {@link #commitDocumentsState(String, Collection)} once document is
+	 * written into search index. Then they are sent in next request for the same URL if asked, so server may respond by
+	 * <code>304 Not Modified</code>. Calls {@link #performHttpGetCall(String, Map)} if cache is not configured.
+	 * 
+	 * @param url to perform GET request for
+	 * @param headers to be used for request. Can be null.
+	 * @param sendValidators if true then validators from cache are sent in request. Use false if content must be
+	 *          processed even if not modified (eg. during full update) - validators are refreshed only then.
+	 * @param spaceKey key of Space document is for
+	 * @param documentId id of document content is loaded for
+	 * @param listingHash hash of document data from documents listing, validators are sent only if they were stored
+	 *          with the same hash, so document is processed again if its listed data changed. May be null.
+	 * @return response from server if successful
+	 * @throws HttpCallException in case of failed http call, with status code 304 if content is not modified
+	 * @throws Exception in case of unsuccessful call
+	 */
+	protected HttpResponseContent performConditionalHttpGetCall(String url, Map<String, String> headers,
+			boolean sendValidators, String spaceKey, String documentId, String listingHash) throws Exception,
+			HttpCallException {
+
+		if (validatorCache == null)
+			return performHttpGetCall(url, headers);
+		return performHttpCall(url, headers, HttpMethodType.GET, true, sendValidators, spaceKey, documentId,
+				listingHash, CONTENT_READER);
+	}
+
+	/**
+	 * Perform conditional HTTP GET request and pass content of successful response to handler as stream. Validators of
+	 * successful response are put into {@link #validatorCache} once handler finishes, so use it only for content which
+	 * is not indexed as document (eg. sitemaps).
+	 * 
+	 * @param url to perform GET request for
+	 * @param headers to be used for request. Can be null.
+	 * @param sendValidators if true then validators from cache are sent in request
+	 * @param handler to process response content
+	 * @return value returned from handler
+	 * @throws HttpCallException in case of failed http call, with status code 304 if content is not modified
+	 * @throws Exception in case of unsuccessful call or thrown by handler
+	 * @see #performConditionalHttpGetCall(String, Map, boolean, String, String, String)
+	 * @see #performHttpGetCall(String, Map, HttpResponseStreamHandler)
+	 */
+	protected <T> T performConditionalHttpGetCall(String url, Map<String, String> headers, boolean sendValidators,
+			HttpResponseStreamHandler<T> handler) throws Exception, HttpCallException {
+
+		if (validatorCache == null)
+			return performHttpGetCall(url, headers, handler);
+		return performHttpCall(url, headers, HttpMethodType.GET, true, sendValidators, null, null, null,
+				streamReader(handler));
+	}
+
+	private static <T> ResponseReader<T> streamReader(final HttpResponseStreamHandler<T> handler) {
+		return new ResponseReader<T>() {
+
+			@Override
+			public T read(HttpResponse response) throws Exception {
+				HttpEntity entity = response.getEntity();
+				InputStream content = entity != null ? entity.getContent() : null;
+				T ret = handler.handle(getContentType(response), content != null ? content : new ByteArrayInputStream(
+						new byte[0]));
+				// read rest of content so connection can be reused
+				EntityUtils.consume(entity);
+				return ret;
+			}
+		};
+	}
+
+	private static String getContentType(HttpResponse response) {
+		return getHeaderValue(response, "Content-Type");
+	}
+
+	private static String getHeaderValue(HttpResponse response, String name) {
+		Header h = response.getFirstHeader(name);
+		return h != null ? h.getValue() : null;
+	}
+
+	/**
+	 * Reader of successful HTTP response, called before response is closed.
+	 */
+	private static interface ResponseReader<T> {
+		T read(HttpResponse response) throws Exception;
+	}
+
+	/**
+	 * Reader buffering whole response content.
+	 */
+	private static final ResponseReader<HttpResponseContent> CONTENT_READER = new ResponseReader<HttpResponseContent>() {
+
+		@Override
+		public HttpResponseContent read(HttpResponse response) throws Exception {
+			byte[] responseContent = null;
+			if (response.getEntity() != null) {
+				responseContent = EntityUtils.toByteArray(response.getEntity());
+			}
+			return new HttpResponseContent(getContentType(response), responseContent);
+		}
+	};
+
+    private <T> T performHttpCall(String url, Map<String, String> headers, HttpMethodType methodType,
+            boolean useValidators, boolean sendValidators, String spaceKey, String documentId, String listingHash,
+            ResponseReader<T> reader) throws Exception, HttpCallException {
         
         myLogger.debug("Going to perform remote system HTTP request to the the {}", url);
         
@@ -211,6 +571,17 @@ public abstract class HttpRemoteSystemClientBase implements IRemoteSystemClient
             for (String headerName : headers.keySet())
                 method.addHeader(headerName, headers.get(headerName));
         }
+        HttpValidatorCache cache = useValidators ? validatorCache : null;
+        if (cache != null && sendValidators) {
+            HttpValidatorCache.Validators validators = cache.get(url);
+            // listed data of document changed so it must be processed again even if content is not modified
+            if (validators != null && validators.isListingHashMatching(listingHash)) {
+                if (validators.etag != null)
+                    method.setHeader("If-None-Match", validators.etag);
+                if (validators.lastModified != null && method.getFirstHeader("If-Modified-Since") == null)
+                    method.setHeader("If-Modified-Since", validators.lastModified);
+            }
+        }
         CloseableHttpResponse response = null;
         try {
             HttpHost targetHost = new HttpHost(builder.getHost(), builder.getPort(), builder.getScheme());
@@ -225,16 +596,27 @@ public abstract class HttpRemoteSystemClientBase implements IRemoteSystemClient
      
             response = httpclient.execute(targetHost, method, localcontext);
             int statusCode = response.getStatusLine().getStatusCode();
-            byte[] responseContent = null;
-            if (response.getEntity() != null) {
-                responseContent = EntityUtils.toByteArray(response.getEntity());
-            }
             if (statusCode != HttpStatus.SC_OK) {
+                if (cache != null && statusCode != HttpStatus.SC_NOT_MODIFIED)
+                    cache.remove(url);
+                byte[] responseContent = null;
+                if (response.getEntity() != null) {
+                    responseContent = EntityUtils.toByteArray(response.getEntity());
+                }
                 throw new HttpCallException(url, statusCode, responseContent != null ? new String(responseContent) : "");
             }
-            Header h = response.getFirstHeader("Content-Type");
-     
-            return new HttpResponseContent(h != null ? h.getValue() : null, responseContent);
+            T ret = reader.read(response);
+            if (cache != null) {
+                // stored only when content is processed successfully, and document content only when it is indexed
+                if (documentId != null) {
+                    cache.stage(spaceKey, documentId, url, getHeaderValue(response, "ETag"),
+                            getHeaderValue(response, "Last-Modified"), listingHash);
+                } else {
+                    cache.put(url, getHeaderValue(response, "ETag"), getHeaderValue(response, "Last-Modified"));
+                    storeValidatorCache(false);
+                }
+            }
+            return ret;
         } finally {
             if (response != null)
                 response.close();
@@ -260,6 +642,24 @@ public abstract class HttpRemoteSystemClientBase implements IRemoteSystemClient
 
 	}
 
+	/**
+	 * Handler of content of successful HTTP response read as stream.
+	 * 
+	 * @see HttpRemoteSystemClientBase#performHttpGetCall(String, Map, HttpResponseStreamHandler)
+	 */
+	public static interface HttpResponseStreamHandler<T> {
+
+		/**
+		 * Process response content.
+		 * 
+		 * @param contentType of response, may be null
+		 * @param content stream with response content, empty if response has no content. Released by caller.
+		 * @return result of processing
+		 * @throws Exception
+		 */
+		T handle(String contentType, InputStream content) throws Exception;
+	}
+
 	public static final class HttpCallException extends Exception {
 		int statusCode;
 
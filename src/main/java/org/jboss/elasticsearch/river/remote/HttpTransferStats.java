@@ -0,0 +1,199 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HttpContext;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Statistics of HTTP response bodies transferred from remote system. Counts bytes received over the wire (compressed
+ * if server used <code>Content-Encoding</code>) and bytes of decoded content read by river, so effect of transfer
+ * compression can be seen. Bytes are counted as response body is read, by interceptors registered into http client.
+ * Thread safe.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ * @see HttpRemoteSystemClientBase#initHttpClient(org.elasticsearch.common.logging.ESLogger, IESIntegration,
+ *      java.util.Map, IPwdLoader, String)
+ */
+public class HttpTransferStats {
+
+	protected final AtomicLong responses = new AtomicLong();
+	protected final AtomicLong compressedResponses = new AtomicLong();
+	protected final AtomicLong wireBytes = new AtomicLong();
+	protected final AtomicLong decodedBytes = new AtomicLong();
+
+	private final HttpResponseInterceptor wireInterceptor = new CountingInterceptor(true);
+	private final HttpResponseInterceptor decodedInterceptor = new CountingInterceptor(false);
+
+	/**
+	 * Get interceptor counting bytes received over the wire. Must be executed before content decoding interceptor, so
+	 * register it by {@link org.apache.http.impl.client.HttpClientBuilder#addInterceptorFirst(HttpResponseInterceptor)}.
+	 * 
+	 * @return interceptor
+	 */
+	public HttpResponseInterceptor getWireInterceptor() {
+		return wireInterceptor;
+	}
+
+	/**
+	 * Get interceptor counting bytes of decoded content. Must be executed after content decoding interceptor, so
+	 * register it by {@link org.apache.http.impl.client.HttpClientBuilder#addInterceptorLast(HttpResponseInterceptor)}.
+	 * 
+	 * @return interceptor
+	 */
+	public HttpResponseInterceptor getDecodedInterceptor() {
+		return decodedInterceptor;
+	}
+
+	/**
+	 * @return number of responses with body
+	 */
+	public long getResponses() {
+		return responses.get();
+	}
+
+	/**
+	 * @return number of responses with compressed body
+	 */
+	public long getCompressedResponses() {
+		return compressedResponses.get();
+	}
+
+	/**
+	 * @return number of response body bytes received over the wire
+	 */
+	public long getWireBytes() {
+		return wireBytes.get();
+	}
+
+	/**
+	 * @return number of response body bytes after decoding
+	 */
+	public long getDecodedBytes() {
+		return decodedBytes.get();
+	}
+
+	/**
+	 * Write actual statistics into JSON object.
+	 * 
+	 * @param builder to write statistics into
+	 * @throws IOException
+	 */
+	public void buildDocument(XContentBuilder builder) throws IOException {
+		long wire = wireBytes.get();
+		long decoded = decodedBytes.get();
+		builder.startObject();
+		builder.field("responses", responses.get());
+		builder.field("compressed_responses", compressedResponses.get());
+		builder.field("wire_bytes", wire);
+		builder.field("decoded_bytes", decoded);
+		if (wire > 0)
+			builder.field("compression_ratio", Math.round(decoded * 100d / wire) / 100d);
+		builder.endObject();
+	}
+
+	private final class CountingInterceptor implements HttpResponseInterceptor {
+
+		private final boolean wire;
+
+		CountingInterceptor(boolean wire) {
+			this.wire = wire;
+		}
+
+		@Override
+		public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+			HttpEntity entity = response.getEntity();
+			if (entity == null)
+				return;
+			if (wire) {
+				responses.incrementAndGet();
+				Header ce = entity.getContentEncoding();
+				if (ce != null && !"identity".equalsIgnoreCase(ce.getValue()))
+					compressedResponses.incrementAndGet();
+			}
+			response.setEntity(new CountingEntity(entity, wire ? wireBytes : decodedBytes));
+		}
+	}
+
+	/**
+	 * Entity counting bytes read from content of wrapped entity.
+	 */
+	protected static class CountingEntity extends HttpEntityWrapper {
+
+		private final AtomicLong counter;
+
+		protected CountingEntity(HttpEntity wrapped, AtomicLong counter) {
+			super(wrapped);
+			this.counter = counter;
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			return new CountingInputStream(super.getContent(), counter);
+		}
+
+		@Override
+		public void writeTo(OutputStream outstream) throws IOException {
+			InputStream in = getContent();
+			try {
+				byte[] buffer = new byte[4096];
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					outstream.write(buffer, 0, n);
+				}
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	private static final class CountingInputStream extends FilterInputStream {
+
+		private final AtomicLong counter;
+
+		CountingInputStream(InputStream in, AtomicLong counter) {
+			super(in);
+			this.counter = counter;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0)
+				counter.incrementAndGet();
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0)
+				counter.addAndGet(n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long s = super.skip(n);
+			if (s > 0)
+				counter.addAndGet(s);
+			return s;
+		}
+	}
+
+}
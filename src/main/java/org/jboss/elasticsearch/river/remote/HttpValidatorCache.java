@@ -0,0 +1,351 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded cache of HTTP validators (<code>ETag</code> and <code>Last-Modified</code> response headers) of loaded URLs,
+ * used to perform conditional GET requests so unchanged content is not transferred and processed again. Least recently
+ * used URLs are dropped when cache is full. Content may be stored into file and loaded back, so it survives river
+ * restart. Shared by all threads of one river, thread safe.
+ * <p>
+ * Validators of document content may be staged by {@link #stage(String, String, String, String, String)} and put into
+ * cache by {@link #commit(String, Collection)} once document is written into search index, so document is not skipped
+ * as not modified in next incremental update if it was not indexed. Hash of document data obtained from documents
+ * listing may be kept with validators of document content, so they are not used if listed data changed.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ * @see HttpRemoteSystemClientBase#performConditionalHttpGetCall(String, Map, boolean, String, String)
+ */
+public class HttpValidatorCache {
+
+	private static final String FILE_ENCODING = "UTF-8";
+
+	private final int maxSize;
+
+	private final LinkedHashMap<String, Validators> cache;
+
+	private boolean changed = false;
+
+	/**
+	 * Staged validators, key is Space key, then document id.
+	 */
+	private final Map<String, Map<String, Staged>> staged = new HashMap<String, Map<String, Staged>>();
+
+	/**
+	 * Create cache.
+	 * 
+	 * @param maxSize max number of URLs kept in cache
+	 */
+	public HttpValidatorCache(final int maxSize) {
+		this.maxSize = maxSize;
+		cache = new LinkedHashMap<String, Validators>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Validators> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Get validators of URL.
+	 * 
+	 * @param url to get validators for
+	 * @return validators or null if not known
+	 */
+	public synchronized Validators get(String url) {
+		return cache.get(url);
+	}
+
+	/**
+	 * Store validators of URL from last successful response.
+	 * 
+	 * @param url to store validators for
+	 * @param etag value of <code>ETag</code> response header, may be null
+	 * @param lastModified value of <code>Last-Modified</code> response header, may be null
+	 */
+	public void put(String url, String etag, String lastModified) {
+		put(url, etag, lastModified, null);
+	}
+
+	/**
+	 * Store validators of URL from last successful response.
+	 * 
+	 * @param url to store validators for
+	 * @param etag value of <code>ETag</code> response header, may be null
+	 * @param lastModified value of <code>Last-Modified</code> response header, may be null
+	 * @param listingHash hash of document data from documents listing, may be null
+	 */
+	public synchronized void put(String url, String etag, String lastModified, String listingHash) {
+		if (etag == null && lastModified == null) {
+			if (cache.remove(url) != null)
+				changed = true;
+			return;
+		}
+		Validators v = new Validators(etag, lastModified, listingHash);
+		if (!v.equals(cache.put(url, v)))
+			changed = true;
+	}
+
+	/**
+	 * Remove validators of URL, so next request for it is not conditional.
+	 * 
+	 * @param url to remove validators for
+	 */
+	public synchronized void remove(String url) {
+		if (cache.remove(url) != null)
+			changed = true;
+	}
+
+	/**
+	 * Stage validators of URL with document content. They are put into cache by {@link #commit(String, Collection)}.
+	 * 
+	 * @param spaceKey key of Space document is for
+	 * @param documentId id of document
+	 * @param url document content is loaded from
+	 * @param etag value of <code>ETag</code> response header, may be null
+	 * @param lastModified value of <code>Last-Modified</code> response header, may be null
+	 * @param listingHash hash of document data from documents listing, may be null
+	 */
+	public synchronized void stage(String spaceKey, String documentId, String url, String etag, String lastModified,
+			String listingHash) {
+		Map<String, Staged> s = staged.get(spaceKey);
+		if (s == null) {
+			s = new HashMap<String, Staged>();
+			staged.put(spaceKey, s);
+		}
+		s.put(documentId, new Staged(url, etag, lastModified, listingHash));
+	}
+
+	/**
+	 * Put validators staged for documents into cache.
+	 * 
+	 * @param spaceKey key of Space documents are for
+	 * @param documentIds ids of documents written into search index
+	 */
+	public synchronized void commit(String spaceKey, Collection<String> documentIds) {
+		Map<String, Staged> s = staged.get(spaceKey);
+		if (s == null)
+			return;
+		for (String documentId : documentIds) {
+			Staged v = s.remove(documentId);
+			if (v != null)
+				put(v.url, v.etag, v.lastModified, v.listingHash);
+		}
+		if (s.isEmpty())
+			staged.remove(spaceKey);
+	}
+
+	/**
+	 * Discard all validators staged for documents of Space and not committed yet.
+	 * 
+	 * @param spaceKey key of Space to discard validators for
+	 */
+	public synchronized void discardStaged(String spaceKey) {
+		staged.remove(spaceKey);
+	}
+
+	/**
+	 * @param spaceKey key of Space
+	 * @return number of documents of Space with staged validators
+	 */
+	public synchronized int stagedSize(String spaceKey) {
+		Map<String, Staged> s = staged.get(spaceKey);
+		return s != null ? s.size() : 0;
+	}
+
+	/**
+	 * @return number of URLs in cache
+	 */
+	public synchronized int size() {
+		return cache.size();
+	}
+
+	/**
+	 * @return max number of URLs kept in cache
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return true if content of cache changed since it was created, loaded or stored last time
+	 */
+	public synchronized boolean isChanged() {
+		return changed;
+	}
+
+	/**
+	 * Load content of cache from file written by {@link #store(File)}. Nothing is loaded if file doesn't exist.
+	 * 
+	 * @param file to load from
+	 * @throws IOException
+	 */
+	public void load(File file) throws IOException {
+		if (!file.exists())
+			return;
+		List<String[]> lines = new ArrayList<String[]>();
+		Reader r = new InputStreamReader(new FileInputStream(file), FILE_ENCODING);
+		try {
+			BufferedReader reader = new BufferedReader(r);
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				// listing hash is not present in files stored by older versions
+				if ((fields.length == 3 || fields.length == 4) && !fields[0].isEmpty())
+					lines.add(fields);
+			}
+		} finally {
+			r.close();
+		}
+		synchronized (this) {
+			cache.clear();
+			for (String[] fields : lines) {
+				put(fields[0], Utils.trimToNull(fields[1]), Utils.trimToNull(fields[2]),
+						fields.length > 3 ? Utils.trimToNull(fields[3]) : null);
+			}
+			changed = false;
+		}
+	}
+
+	/**
+	 * Store content of cache into file. File is replaced atomically if possible, so it is never left half written.
+	 * 
+	 * @param file to store into
+	 * @throws IOException
+	 */
+	public void store(File file) throws IOException {
+		List<String> lines;
+		synchronized (this) {
+			lines = new ArrayList<String>(cache.size());
+			// from least recently used, so order is kept after load
+			for (Map.Entry<String, Validators> e : cache.entrySet()) {
+				Validators v = e.getValue();
+				lines.add(e.getKey() + "\t" + (v.etag != null ? v.etag : "") + "\t"
+						+ (v.lastModified != null ? v.lastModified : "") + "\t"
+						+ (v.listingHash != null ? v.listingHash : ""));
+			}
+			changed = false;
+		}
+		File tmp = new File(file.getPath() + ".tmp");
+		Writer w = new OutputStreamWriter(new FileOutputStream(tmp), FILE_ENCODING);
+		try {
+			BufferedWriter writer = new BufferedWriter(w);
+			for (String line : lines) {
+				writer.write(line);
+				writer.newLine();
+			}
+			writer.flush();
+		} finally {
+			w.close();
+		}
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file))
+				throw new IOException("Unable to rename " + tmp + " to " + file);
+		}
+	}
+
+	/**
+	 * Validators staged for document.
+	 */
+	private static final class Staged {
+
+		final String url;
+		final String etag;
+		final String lastModified;
+		final String listingHash;
+
+		Staged(String url, String etag, String lastModified, String listingHash) {
+			this.url = url;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.listingHash = listingHash;
+		}
+	}
+
+	/**
+	 * HTTP validators of one URL. Immutable.
+	 */
+	public static final class Validators {
+
+		/**
+		 * Value of <code>ETag</code> header, null if not provided by server.
+		 */
+		public final String etag;
+
+		/**
+		 * Value of <code>Last-Modified</code> header, null if not provided by server.
+		 */
+		public final String lastModified;
+
+		/**
+		 * Hash of document data from documents listing at the time content was loaded, null if not used.
+		 */
+		public final String listingHash;
+
+		public Validators(String etag, String lastModified) {
+			this(etag, lastModified, null);
+		}
+
+		public Validators(String etag, String lastModified, String listingHash) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.listingHash = listingHash;
+		}
+
+		/**
+		 * Check if validators may be used for request with given listing hash, ie. document data from documents listing
+		 * are the same as when validators were stored.
+		 * 
+		 * @param listingHash hash of actual document data from documents listing, may be null
+		 * @return true if validators may be used
+		 */
+		public boolean isListingHashMatching(String listingHash) {
+			return this.listingHash == null ? listingHash == null : this.listingHash.equals(listingHash);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Validators))
+				return false;
+			Validators o = (Validators) obj;
+			return (etag == null ? o.etag == null : etag.equals(o.etag))
+					&& (lastModified == null ? o.lastModified == null : lastModified.equals(o.lastModified))
+					&& o.isListingHashMatching(listingHash);
+		}
+
+		@Override
+		public int hashCode() {
+			return ((etag != null ? etag.hashCode() : 0) * 31 + (lastModified != null ? lastModified.hashCode() : 0)) * 31
+					+ (listingHash != null ? listingHash.hashCode() : 0);
+		}
+
+		@Override
+		public String toString() {
+			return "Validators [etag=" + etag + ", lastModified=" + lastModified + ", listingHash=" + listingHash + "]";
+		}
+	}
+
+}
@@ -5,8 +5,10 @@
  */
 package org.jboss.elasticsearch.river.remote;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.Map;
+import java.util.Set;
 
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.search.SearchRequestBuilder;
@@ -36,6 +38,41 @@ public interface IDocumentIndexStructureBuilder {
 	 */
 	String getDocumentSearchIndexName(String spaceKey);
 
+	/**
+	 * Write all documents for given Space into another index than the one returned from
+	 * {@link #getDocumentSearchIndexName(String)} normally. Used during full update performed with
+	 * {@link FullUpdateStrategy#NEW_INDEX}.
+	 * 
+	 * @param spaceKey to redirect documents for
+	 * @param indexName name of index to be used for Space, <code>null</code> to remove redirection
+	 */
+	void setSpaceIndexNameOverride(String spaceKey, String indexName);
+
+	/**
+	 * Get strategy to be used to write documents during full update.
+	 * 
+	 * @return full update strategy
+	 */
+	FullUpdateStrategy getFullUpdateStrategy();
+
+	/**
+	 * Get index settings to be applied temporarily on search index during full update performed with
+	 * {@link FullUpdateStrategy#IN_PLACE}.
+	 * 
+	 * @return map with index settings or null if not configured
+	 */
+	Map<String, String> getFullUpdateIndexSettings();
+
+	/**
+	 * Get projection of remote document data which are necessary for indexing, so remote system client is able to
+	 * discard all other data during parsing of remote system responses. New instance must be returned for each call as
+	 * client may extend it.
+	 * 
+	 * @return projection relative to the root of document data (detail is under
+	 *         {@link SpaceIndexerBase#KEY_DETAIL}), or null if all data must be kept
+	 */
+	RemoteDataProjection getRemoteDataProjection();
+
 	/**
 	 * Get unique identifier for document from data obtained from remote system.
 	 * 
@@ -93,6 +130,64 @@ public interface IDocumentIndexStructureBuilder {
 	 */
 	void buildSearchForIndexedDocumentsWithRemoteId(SearchRequestBuilder srb, String spaceKey, String remoteId);
 
+	/**
+	 * Check if comments removed from re-indexed documents must be deleted from search index immediately, not only during
+	 * next full update.
+	 * 
+	 * @return true if reconciliation of comments is enabled
+	 * @see #collectIndexedDocumentIds(BulkRequestBuilder, Set, Set)
+	 * @see #buildSearchForIndexedCommentsOfDocuments(SearchRequestBuilder, String, Collection)
+	 */
+	boolean isCommentReconciliationEnabled();
+
+	/**
+	 * Collect ids of documents and comments written into search index by bulk request prepared by
+	 * {@link #indexDocument(BulkRequestBuilder, String, Map)}.
+	 * 
+	 * @param esBulk bulk request to collect ids from
+	 * @param documentIds set to add remote ids of indexed documents into
+	 * @param commentIds set to add ids of indexed comments into
+	 */
+	void collectIndexedDocumentIds(BulkRequestBuilder esBulk, Set<String> documentIds, Set<String> commentIds);
+
+	/**
+	 * Check if search index document type is used for comments indexed as separate documents.
+	 * 
+	 * @param typeName name of search index document type
+	 * @return true if type is used for comments
+	 */
+	boolean isCommentType(String typeName);
+
+	/**
+	 * Construct search request to find comment documents indexed for given remote document ids. Used to find comments
+	 * which are not in the remote document anymore. Results from this query are processed by
+	 * {@link #deleteESDocument(BulkRequestBuilder, SearchHit)}
+	 * 
+	 * @param srb search request builder to add necessary conditions into
+	 * @param spaceKey to search comments for
+	 * @param remoteIds of documents to search comments for
+	 */
+	void buildSearchForIndexedCommentsOfDocuments(SearchRequestBuilder srb, String spaceKey, Collection<String> remoteIds);
+
+	/**
+	 * Check if only changed fields of documents written into search index before are written by
+	 * {@link #indexDocument(BulkRequestBuilder, String, Map)}.
+	 * 
+	 * @return true if partial updates are enabled
+	 * @see #discardDocumentFingerprints(String, BulkRequestBuilder)
+	 */
+	boolean isPartialUpdateEnabled();
+
+	/**
+	 * Forget state of documents used for partial updates, so they are written whole next time. Must be called if bulk
+	 * request prepared by {@link #indexDocument(BulkRequestBuilder, String, Map)} is not written into search index
+	 * successfully.
+	 * 
+	 * @param spaceKey key of Space documents are for
+	 * @param esBulk bulk request with documents to forget, null to forget all documents of Space
+	 */
+	void discardDocumentFingerprints(String spaceKey, BulkRequestBuilder esBulk);
+
 	/**
 	 * Delete remote doc related es document (document or comment) from search index. Query to obtain documents to be
 	 * deleted is constructed using
@@ -0,0 +1,44 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.util.Collection;
+
+/**
+ * Optional interface of {@link IRemoteSystemClient} implementation which keeps state of documents loaded from remote
+ * system (eg. HTTP validators used to skip not modified documents in next incremental update). Such state may be used
+ * only once document is written into search index, so it is committed by indexer after successful bulk update only.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ * @see SpaceIndexerBase#executeBulkUpdate(org.elasticsearch.action.bulk.BulkRequestBuilder)
+ */
+public interface IDocumentStateAware {
+
+	/**
+	 * Commit state of documents written into search index successfully.
+	 * 
+	 * @param spaceKey key of Space documents are for
+	 * @param documentIds ids of written documents
+	 */
+	void commitDocumentsState(String spaceKey, Collection<String> documentIds);
+
+	/**
+	 * Commit state of Space kept for next indexing (eg. time of load of documents). Called when indexing of Space
+	 * finishes successfully and all loaded documents are written into search index.
+	 * 
+	 * @param spaceKey key of Space to commit state for
+	 */
+	void commitSpaceState(String spaceKey);
+
+	/**
+	 * Discard state of all documents of Space not committed by {@link #commitDocumentsState(String, Collection)}. Called
+	 * when indexing of Space finishes, successfully or not.
+	 * 
+	 * @param spaceKey key of Space to discard state for
+	 */
+	void discardDocumentsState(String spaceKey);
+
+}
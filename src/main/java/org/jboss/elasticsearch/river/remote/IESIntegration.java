@@ -8,6 +8,8 @@ package org.jboss.elasticsearch.river.remote;
 import java.io.IOException;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
 
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
@@ -96,7 +98,8 @@ public interface IESIntegration {
 	BulkRequestBuilder prepareESBulkRequestBuilder();
 
 	/**
-	 * Execute ElasticSearch bulk request against ElasticSearch cluster.
+	 * Execute ElasticSearch bulk request against ElasticSearch cluster. Call may be blocked or delayed if writes are
+	 * throttled because cluster is not able to handle them.
 	 * 
 	 * @param esBulk to perform
 	 * @throws ElasticsearchException in case of fatal ES update failure
@@ -105,6 +108,16 @@ public interface IESIntegration {
 	 */
 	void executeESBulkRequest(BulkRequestBuilder esBulk) throws ElasticsearchException, BulkUpdatePartialFailureException;
 
+	/**
+	 * Get number of documents indexer should put into one bulk request for given Space. Size actually controlled by
+	 * adaptive bulk size controller for target index of the Space is returned if configured.
+	 * 
+	 * @param spaceKey to get bulk size for
+	 * @param defaultSize returned if adaptive bulk size is not used
+	 * @return number of documents for one bulk request
+	 */
+	int getBulkSize(String spaceKey, int defaultSize);
+
 	/**
 	 * Acquire thread from ElasticSearch infrastructure to run indexing.
 	 * 
@@ -114,6 +127,14 @@ public interface IESIntegration {
 	 */
 	Thread acquireIndexingThread(String threadName, Runnable runnable);
 
+	/**
+	 * Acquire factory of threads from ElasticSearch infrastructure, to be used by thread pools of river components.
+	 * 
+	 * @param namePrefix prefix of names of created threads
+	 * @return {@link ThreadFactory} creating daemon threads
+	 */
+	ThreadFactory acquireThreadFactory(String namePrefix);
+
 	/**
 	 * Refresh search index to be up to date for search operations. See
 	 * {@link IndicesAdminClient#refresh(org.elasticsearch.action.admin.indices.refresh.RefreshRequest)}.
@@ -122,6 +143,59 @@ public interface IESIntegration {
 	 */
 	void refreshSearchIndex(String indexName);
 
+	/**
+	 * Create new search index to be filled during full update performed with {@link FullUpdateStrategy#NEW_INDEX}.
+	 * Settings and mappings are copied from index currently used for search if exists. Replicas and refresh are disabled
+	 * for new index until {@link #switchIndexAfterFullUpdate(String, String)} is called.
+	 * 
+	 * @param searchIndexName name of index (or index alias) currently used for search
+	 * @param newIndexName name of new index to be created
+	 * @throws Exception
+	 * @see #switchIndexAfterFullUpdate(String, String)
+	 * @see #deleteSearchIndex(String)
+	 */
+	void createIndexForFullUpdate(String searchIndexName, String newIndexName) throws Exception;
+
+	/**
+	 * Finish full update performed with {@link FullUpdateStrategy#NEW_INDEX}. Original replicas and refresh settings are
+	 * restored for new index, alias used for search is atomically switched to it and previous index is deleted.
+	 * 
+	 * @param searchIndexName name of alias used for search
+	 * @param newIndexName name of index filled during full update
+	 * @throws Exception if alias is not switched
+	 * @see #createIndexForFullUpdate(String, String)
+	 */
+	void switchIndexAfterFullUpdate(String searchIndexName, String newIndexName) throws Exception;
+
+	/**
+	 * Delete search index. Used to drop index created by {@link #createIndexForFullUpdate(String, String)} if full
+	 * update failed.
+	 * 
+	 * @param indexName to delete
+	 */
+	void deleteSearchIndex(String indexName);
+
+	/**
+	 * Apply index settings temporarily on search index, eg. to speed up full update. Original values are stored
+	 * persistently, so they can be restored even after river restart. Calls are reference counted per index, so settings
+	 * are applied only by first call and restored by last call of {@link #restoreTemporaryIndexSettings(String)}.
+	 * 
+	 * @param indexName name of index (or alias) to apply settings on
+	 * @param settings to apply, keys may omit <code>index.</code> prefix
+	 * @return true if settings are applied (or applied already by another caller), so
+	 *         {@link #restoreTemporaryIndexSettings(String)} must be called later. false if index doesn't exist.
+	 * @throws Exception
+	 */
+	boolean applyTemporaryIndexSettings(String indexName, Map<String, String> settings) throws Exception;
+
+	/**
+	 * Restore index settings changed by {@link #applyTemporaryIndexSettings(String, Map)} if called by last user of
+	 * them.
+	 * 
+	 * @param indexName name of index (or alias) to restore settings for
+	 */
+	void restoreTemporaryIndexSettings(String indexName);
+
 	/**
 	 * Prepare builder for Scroll Search request. See http://www.elasticsearch.org/guide/reference/java-api/search.html.
 	 * 
@@ -166,4 +240,12 @@ public interface IESIntegration {
 	 */
 	public ESLogger createLogger(Class<?> clazz);
 
+	/**
+	 * Get indexing mode used by the river for Spaces, as configured by <code>remote/listDocumentsMode</code> (or legacy
+	 * <code>remote/simpleGetDocuments</code>). Available when remote system client is initialized.
+	 * 
+	 * @return indexing mode
+	 */
+	public SpaceIndexingMode getSpaceIndexingMode();
+
 }
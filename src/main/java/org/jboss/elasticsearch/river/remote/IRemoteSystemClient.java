@@ -6,6 +6,7 @@ import java.util.Map;
 
 import org.elasticsearch.common.settings.SettingsException;
 import org.jboss.elasticsearch.river.remote.exception.RemoteDocumentNotFoundException;
+import org.jboss.elasticsearch.river.remote.exception.RemoteDocumentNotModifiedException;
 
 /**
  * Interface for Remote system calls Client implementation. Only one instance is created by river, so implementation
@@ -33,7 +34,7 @@ public interface IRemoteSystemClient {
 	 * fields necessary for indexing etc.). Called after <code>init</code method.
 	 * 
 	 * @param indexStructureBuilder
-	 * @see IDocumentIndexStructureBuilder#getRequiredRemoteCallFields()
+	 * @see IDocumentIndexStructureBuilder#getRemoteDataProjection()
 	 */
 	public void setIndexStructureBuilder(IDocumentIndexStructureBuilder indexStructureBuilder);
 
@@ -69,10 +70,11 @@ public interface IRemoteSystemClient {
 	 * @return detailed document informations parsed from remote system reply (may be Map, or List, or simple value). May
 	 *         be null.
 	 * @throws RemoteDocumentNotFoundException if document is not found on remote server
+	 * @throws RemoteDocumentNotModifiedException if document is not modified since last indexing so it is not indexed
 	 * @throws Exception in case of other problems
 	 */
 	public abstract Object getChangedDocumentDetails(String spaceKey, String documentId, Map<String, Object> document)
-			throws RemoteDocumentNotFoundException, Exception;
+			throws RemoteDocumentNotFoundException, RemoteDocumentNotModifiedException, Exception;
 
 	/**
 	 * Get actual index structure builder.
@@ -0,0 +1,169 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+
+/**
+ * Precompiled mapping of one field from remote document data into indexed document. Created from
+ * <code>index/fields</code> or <code>index/comment_fields</code> configuration once, so path to the remote value is
+ * split and value filter is resolved only once and not for each indexed document. Immutable so thread safe.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ * @see DocumentWithCommentsIndexStructureBuilder
+ */
+public final class IndexFieldAccessor {
+
+	private final String indexField;
+	private final String valuePath;
+	private final String[] valuePathElements;
+	private final Map<String, String> valueFilter;
+
+	/**
+	 * Create accessor.
+	 * 
+	 * @param indexField name of field in index
+	 * @param valuePath path to get value from remote data, dot notation can be used for nested values
+	 * @param valueFilter filter applied on value, null or empty if no filter is used
+	 */
+	public IndexFieldAccessor(String indexField, String valuePath, Map<String, String> valueFilter) {
+		this.indexField = indexField;
+		this.valuePath = valuePath;
+		this.valuePathElements = valuePath.split("\\.");
+		if (valueFilter != null && !valueFilter.isEmpty())
+			this.valueFilter = Collections.unmodifiableMap(valueFilter);
+		else
+			this.valueFilter = null;
+	}
+
+	/**
+	 * Compile fields mapping configuration into accessors.
+	 * 
+	 * @param fieldsConfig fields configuration structure (<code>index/fields</code> or <code>index/comment_fields</code>
+	 *          ). Key is name of field in index, value is configuration of field. Can be null.
+	 * @param filtersConfig filters configuration structure (<code>index/value_filters</code>) to resolve filters from.
+	 * @return array of accessors, never null
+	 */
+	public static IndexFieldAccessor[] compile(Map<String, Map<String, String>> fieldsConfig,
+			Map<String, Map<String, String>> filtersConfig) {
+		if (fieldsConfig == null || fieldsConfig.isEmpty())
+			return new IndexFieldAccessor[0];
+		List<IndexFieldAccessor> ret = new ArrayList<IndexFieldAccessor>(fieldsConfig.size());
+		for (Map.Entry<String, Map<String, String>> e : fieldsConfig.entrySet()) {
+			Map<String, String> fieldConfig = e.getValue();
+			String filterName = fieldConfig.get(DocumentWithCommentsIndexStructureBuilder.CONFIG_FIELDS_VALUEFILTER);
+			Map<String, String> filter = null;
+			if (!Utils.isEmpty(filterName) && filtersConfig != null)
+				filter = filtersConfig.get(filterName);
+			ret.add(new IndexFieldAccessor(e.getKey(), fieldConfig
+					.get(DocumentWithCommentsIndexStructureBuilder.CONFIG_FIELDS_REMOTEFIELD), filter));
+		}
+		return ret.toArray(new IndexFieldAccessor[ret.size()]);
+	}
+
+	/**
+	 * Extract value from remote data. Same semantics as {@link XContentMapValues#extractValue(String, Map)}, but path is
+	 * not split again for each call.
+	 * 
+	 * @param values remote data to extract value from
+	 * @return extracted value or null
+	 */
+	public Object extractValue(Map<String, Object> values) {
+		if (values == null)
+			return null;
+		if (valuePathElements.length == 1)
+			return values.get(valuePath);
+		return extractValue(valuePathElements, 0, values);
+	}
+
+	/**
+	 * Copy value from remote data into index document field directly from JSON bytes of {@link CompactJSONDocument},
+	 * so value is not parsed into {@link Map}s and {@link List}s. Possible only if no value filter is used and value
+	 * was not accessed yet.
+	 * 
+	 * @param values remote data to copy value from
+	 * @param out builder to write index document field into
+	 * @return <code>true</code> if value was copied, <code>false</code> if it must be obtained by
+	 *         {@link #extractValue(Map)}
+	 * @throws IOException
+	 * @see CompactJSONDocument#copyField(String, String, XContentBuilder)
+	 */
+	public boolean copyValue(Map<String, Object> values, XContentBuilder out) throws IOException {
+		if (valueFilter != null || values == null)
+			return false;
+		Object current = values;
+		int last = valuePathElements.length - 1;
+		for (int i = 0; i < last; i++) {
+			if (!(current instanceof Map))
+				return false;
+			current = ((Map<?, ?>) current).get(valuePathElements[i]);
+		}
+		if (!(current instanceof CompactJSONDocument))
+			return false;
+		return ((CompactJSONDocument) current).copyField(valuePathElements[last], indexField, out);
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static Object extractValue(String[] pathElements, int index, Object currentValue) {
+		if (index == pathElements.length)
+			return currentValue;
+		if (currentValue == null)
+			return null;
+		if (currentValue instanceof Map) {
+			Map map = (Map) currentValue;
+			String key = pathElements[index];
+			Object mapValue = map.get(key);
+			int nextIndex = index + 1;
+			while (mapValue == null && nextIndex != pathElements.length) {
+				// keys containing dot
+				key = key + "." + pathElements[nextIndex];
+				mapValue = map.get(key);
+				nextIndex++;
+			}
+			return extractValue(pathElements, nextIndex, mapValue);
+		}
+		if (currentValue instanceof List) {
+			List valueList = (List) currentValue;
+			List<Object> newList = new ArrayList<Object>(valueList.size());
+			for (Object o : valueList) {
+				Object listValue = extractValue(pathElements, index, o);
+				if (listValue != null)
+					newList.add(listValue);
+			}
+			return newList;
+		}
+		return null;
+	}
+
+	/**
+	 * @return name of field in index
+	 */
+	public String getIndexField() {
+		return indexField;
+	}
+
+	/**
+	 * @return path to get value from remote data
+	 */
+	public String getValuePath() {
+		return valuePath;
+	}
+
+	/**
+	 * @return filter applied on value, null if no filter is used
+	 */
+	public Map<String, String> getValueFilter() {
+		return valueFilter;
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tree of paths in remote document data which are necessary for indexing. Used to discard all other data during
+ * parsing of remote system responses. Each node of tree represents one JSON object - field of object is kept only if
+ * there is child node for it. Node with whole subtree kept is represented by {@link #isAll()}. Paths use the same dot
+ * notation as {@link org.elasticsearch.common.xcontent.support.XContentMapValues#extractValue(String, Map)}, so
+ * projection is applied to all objects in JSON array and dotted field names are supported too.
+ * <p>
+ * Not thread safe during construction, may be shared by more threads after that.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ * @see IDocumentIndexStructureBuilder#getRemoteDataProjection()
+ */
+public class RemoteDataProjection {
+
+	/**
+	 * Child nodes. Key is field name. Null if whole subtree is kept.
+	 */
+	private Map<String, RemoteDataProjection> children = new HashMap<String, RemoteDataProjection>();
+
+	/**
+	 * If <code>true</code> then JSON objects this node is applied on are read into {@link CompactJSONDocument}.
+	 */
+	private boolean compactDocument = false;
+
+	/**
+	 * Create projection which keeps nothing. Use {@link #addPath(String)} to add necessary paths.
+	 */
+	public RemoteDataProjection() {
+	}
+
+	/**
+	 * Create projection which keeps whole data.
+	 * 
+	 * @return projection
+	 */
+	public static RemoteDataProjection all() {
+		RemoteDataProjection ret = new RemoteDataProjection();
+		ret.children = null;
+		return ret;
+	}
+
+	/**
+	 * Add path to be kept with whole subtree.
+	 * 
+	 * @param path in dot notation, ignored if empty
+	 * @return this projection
+	 */
+	public RemoteDataProjection addPath(String path) {
+		return addPath(path, all());
+	}
+
+	/**
+	 * Add path to be kept with given projection applied on its value.
+	 * 
+	 * @param path in dot notation, ignored if empty
+	 * @param projection to apply on value of path
+	 * @return this projection
+	 */
+	public RemoteDataProjection addPath(String path, RemoteDataProjection projection) {
+		if (Utils.isEmpty(path))
+			return this;
+		RemoteDataProjection node = this;
+		for (String element : path.split("\\.")) {
+			if (node.isAll())
+				return this;
+			RemoteDataProjection child = node.children.get(element);
+			if (child == null) {
+				child = new RemoteDataProjection();
+				node.children.put(element, child);
+			}
+			node = child;
+		}
+		node.merge(projection);
+		return this;
+	}
+
+	private void merge(RemoteDataProjection other) {
+		if (other.compactDocument)
+			compactDocument = true;
+		if (isAll())
+			return;
+		if (other.isAll()) {
+			children = null;
+			return;
+		}
+		for (Map.Entry<String, RemoteDataProjection> e : other.children.entrySet()) {
+			RemoteDataProjection child = children.get(e.getKey());
+			if (child == null) {
+				child = new RemoteDataProjection();
+				children.put(e.getKey(), child);
+			}
+			child.merge(e.getValue());
+		}
+	}
+
+	/**
+	 * Check if whole subtree is kept by this node.
+	 * 
+	 * @return true if whole subtree is kept
+	 */
+	public boolean isAll() {
+		return children == null;
+	}
+
+	/**
+	 * Check if JSON objects this node is applied on are read into {@link CompactJSONDocument}.
+	 * 
+	 * @return true if objects are read into compact document
+	 */
+	public boolean isCompactDocument() {
+		return compactDocument;
+	}
+
+	/**
+	 * Set if JSON objects this node is applied on are read into {@link CompactJSONDocument}. Not inherited by child
+	 * nodes.
+	 * 
+	 * @param compactDocument true to read objects into compact document
+	 * @return this projection
+	 */
+	public RemoteDataProjection setCompactDocument(boolean compactDocument) {
+		this.compactDocument = compactDocument;
+		return this;
+	}
+
+	/**
+	 * Get projection to be applied on value of field of JSON object represented by this node.
+	 * 
+	 * @param fieldName name of field, may contain dots
+	 * @return projection for field value, or null if field is not kept
+	 */
+	public RemoteDataProjection getChild(String fieldName) {
+		if (isAll())
+			return this;
+		if (fieldName == null)
+			return null;
+		RemoteDataProjection ret = children.get(fieldName);
+		if (ret == null && fieldName.indexOf('.') > 0) {
+			// dotted field name in data
+			ret = this;
+			for (String element : fieldName.split("\\.")) {
+				ret = ret.getChild(element);
+				if (ret == null)
+					return null;
+			}
+		}
+		return ret;
+	}
+
+	@Override
+	public String toString() {
+		return isAll() ? "*" : children.toString();
+	}
+
+}
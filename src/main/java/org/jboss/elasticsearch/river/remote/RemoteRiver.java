@@ -3,35 +3,57 @@ package org.jboss.elasticsearch.river.remote;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
+import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsResponse;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
 import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
-import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.client.IndicesAdminClient;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
 import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.SettingsException;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.support.XContentMapValues;
 import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.river.AbstractRiverComponent;
 import org.elasticsearch.river.River;
 import org.elasticsearch.river.RiverName;
@@ -82,6 +104,17 @@ public class RemoteRiver extends AbstractRiverComponent implements River, IESInt
 	 */
 	protected IRemoteSystemClient remoteSystemClient;
 
+	/**
+	 * Configuration {@link #remoteSystemClient} was initialized with, used to initialize it again in {@link #start()}.
+	 */
+	protected Map<String, Object> remoteSystemClientSettings;
+
+	/**
+	 * True if resources of {@link #remoteSystemClient} were released by {@link #stop(boolean)}, so it must be initialized
+	 * again before indexing is started.
+	 */
+	protected boolean remoteSystemClientClosed = false;
+
 	/**
 	 * Configured index structure builder to be used.
 	 */
@@ -250,6 +283,7 @@ public class RemoteRiver extends AbstractRiverComponent implements River, IESInt
 			}
 			String remoteClientClass = Utils.trimToNull(XContentMapValues.nodeStringValue(
 					remoteSettings.get("remoteClientClass"), null));
+			closeRemoteSystemClient();
 			if (remoteClientClass != null) {
 				try {
 					remoteSystemClient = (IRemoteSystemClient) Class.forName(remoteClientClass).newInstance();
@@ -261,6 +295,8 @@ public class RemoteRiver extends AbstractRiverComponent implements River, IESInt
 				remoteSystemClient = new GetJSONClient();
 			}
 			remoteSystemClient.init(this, remoteSettings, allIndexedSpacesKeysNextRefresh != Long.MAX_VALUE, this);
+			remoteSystemClientSettings = remoteSettings;
+			remoteSystemClientClosed = false;
 		} else {
 			throw new SettingsException("'remote' element of river configuration structure not found");
 		}
@@ -274,6 +310,50 @@ public class RemoteRiver extends AbstractRiverComponent implements River, IESInt
 			indexName = riverName.name();
 			typeName = INDEX_DOCUMENT_TYPE_NAME_DEFAULT;
 		}
+		if (indexSettings != null && indexSettings.containsKey(CONFIG_BULK_RETRY_MAX)) {
+			bulkRetryMax = XContentMapValues.nodeIntegerValue(indexSettings.get(CONFIG_BULK_RETRY_MAX), BULK_RETRY_MAX_DEFAULT);
+			if (bulkRetryMax < 0)
+				throw new SettingsException("'index/" + CONFIG_BULK_RETRY_MAX + "' must be 0 or positive number");
+		}
+		bulkRetryBackoff = Utils.parseTimeValue(indexSettings, CONFIG_BULK_RETRY_BACKOFF, BULK_RETRY_BACKOFF_DEFAULT,
+				TimeUnit.MILLISECONDS);
+		bulkRetryBackoffMax = Utils.parseTimeValue(indexSettings, CONFIG_BULK_RETRY_BACKOFF_MAX,
+				BULK_RETRY_BACKOFF_MAX_DEFAULT, TimeUnit.MILLISECONDS);
+		if (indexSettings != null) {
+			bulkSizeAdaptive = XContentMapValues.nodeBooleanValue(indexSettings.get(CONFIG_BULK_SIZE_ADAPTIVE), false);
+			bulkSizeMin = XContentMapValues.nodeIntegerValue(indexSettings.get(CONFIG_BULK_SIZE_MIN), BULK_SIZE_MIN_DEFAULT);
+			bulkSizeMax = XContentMapValues.nodeIntegerValue(indexSettings.get(CONFIG_BULK_SIZE_MAX), BULK_SIZE_MAX_DEFAULT);
+			bulkSizeInitial = XContentMapValues.nodeIntegerValue(indexSettings.get(CONFIG_BULK_SIZE_INITIAL),
+					BULK_SIZE_INITIAL_DEFAULT);
+			if (bulkSizeMin < 1 || bulkSizeMax < bulkSizeMin)
+				throw new SettingsException("'index/" + CONFIG_BULK_SIZE_MIN + "' must be positive number and 'index/"
+						+ CONFIG_BULK_SIZE_MAX + "' must not be lower than it");
+		}
+		bulkSizeTargetLatency = Utils.parseTimeValue(indexSettings, CONFIG_BULK_SIZE_TARGET_LATENCY,
+				BULK_SIZE_TARGET_LATENCY_DEFAULT, TimeUnit.MILLISECONDS);
+		bulkSizeControllers.clear();
+		writeGovernor = null;
+		if (indexSettings != null && XContentMapValues.nodeBooleanValue(indexSettings.get(CONFIG_WRITE_THROTTLE), false)) {
+			int queueHigh = XContentMapValues.nodeIntegerValue(indexSettings.get(CONFIG_WRITE_THROTTLE_QUEUE_HIGH),
+					WRITE_THROTTLE_QUEUE_HIGH_DEFAULT);
+			if (queueHigh < 1 || queueHigh > 100)
+				throw new SettingsException("'index/" + CONFIG_WRITE_THROTTLE_QUEUE_HIGH + "' must be number from 1 to 100");
+			writeGovernor = new WriteGovernor(client, this, Utils.parseTimeValue(indexSettings,
+					CONFIG_WRITE_THROTTLE_SAMPLE_INTERVAL, WRITE_THROTTLE_SAMPLE_INTERVAL_DEFAULT, TimeUnit.MILLISECONDS),
+					queueHigh, Utils.parseTimeValue(indexSettings, CONFIG_WRITE_THROTTLE_DELAY, WRITE_THROTTLE_DELAY_DEFAULT,
+							TimeUnit.MILLISECONDS));
+		}
+
+		documentTransformThreads = 0;
+		if (indexSettings != null) {
+			documentTransformThreads = XContentMapValues.nodeIntegerValue(indexSettings.get(CONFIG_TRANSFORM_THREADS), 0);
+			documentTransformQueueSize = XContentMapValues.nodeIntegerValue(indexSettings.get(CONFIG_TRANSFORM_QUEUE_SIZE),
+					TRANSFORM_QUEUE_SIZE_DEFAULT);
+			if (documentTransformThreads < 0)
+				throw new SettingsException("'index/" + CONFIG_TRANSFORM_THREADS + "' must be 0 or positive number");
+			if (documentTransformQueueSize < 1)
+				throw new SettingsException("'index/" + CONFIG_TRANSFORM_QUEUE_SIZE + "' must be positive number");
+		}
 
 		Map<String, Object> activityLogSettings = null;
 		if (settings.containsKey("activity_log")) {
@@ -290,6 +370,12 @@ public class RemoteRiver extends AbstractRiverComponent implements River, IESInt
 
 		documentIndexStructureBuilder = new DocumentWithCommentsIndexStructureBuilder(this, indexName, typeName,
 				indexSettings, spaceIndexingMode.isUpdateDateMandatory());
+		// fingerprints are discarded at the beginning of each full update so partial update would never be used
+		if (documentIndexStructureBuilder.isPartialUpdateEnabled() && !spaceIndexingMode.isIncrementalUpdateSupported()) {
+			throw new SettingsException("'index/" + DocumentWithCommentsIndexStructureBuilder.CONFIG_PARTIALUPDATES
+					+ "' can't be used with '" + spaceIndexingMode.getConfigValue()
+					+ "' list documents mode as it performs full updates only");
+		}
 		preparePreprocessors(indexSettings, documentIndexStructureBuilder);
 
 		remoteSystemClient.setIndexStructureBuilder(documentIndexStructureBuilder);
@@ -342,6 +428,7 @@ public class RemoteRiver extends AbstractRiverComponent implements River, IESInt
 			addRunningInstance(this);
 		}
 		refreshSearchIndex(getRiverIndexName());
+		restoreTemporaryIndexSettingsLeftovers();
 		try {
 			if ((permanentStopDate = readDatetimeValue(null, PERMSTOREPROP_RIVER_STOPPED_PERMANENTLY)) != null) {
 				logger
@@ -352,12 +439,26 @@ public class RemoteRiver extends AbstractRiverComponent implements River, IESInt
 			// OK, we will start river
 		}
 		logger.info("starting Remote River indexing process");
+		startRemoteSystemClient();
 		closed = false;
 		lastRestartDate = new Date();
-		coordinatorInstance = new SpaceIndexerCoordinator(remoteSystemClient, this, documentIndexStructureBuilder,
-				indexUpdatePeriod, maxIndexingThreads, indexFullUpdatePeriod, indexFullUpdateCronExpression, spaceIndexingMode);
+		SpaceIndexerCoordinator coordinator = new SpaceIndexerCoordinator(remoteSystemClient, this,
+				documentIndexStructureBuilder, indexUpdatePeriod, maxIndexingThreads, indexFullUpdatePeriod,
+				indexFullUpdateCronExpression, spaceIndexingMode);
+		if (documentTransformThreads > 0) {
+			documentTransformPool = new DocumentTransformPool(riverName().getName(), documentTransformThreads,
+					documentTransformQueueSize);
+			coordinator.setDocumentTransformPool(documentTransformPool);
+		}
+		coordinator.setCommentReconciliation(documentIndexStructureBuilder.isCommentReconciliationEnabled());
+		coordinator.setPartialUpdates(documentIndexStructureBuilder.isPartialUpdateEnabled());
+		coordinatorInstance = coordinator;
 		coordinatorThread = acquireIndexingThread("remote_river_coordinator", coordinatorInstance);
 		coordinatorThread.start();
+		if (writeGovernor != null) {
+			writeGovernorThread = acquireIndexingThread("remote_river_write_governor", writeGovernor);
+			writeGovernorThread.start();
+		}
 	}
 
 	@Override
@@ -367,14 +468,45 @@ public class RemoteRiver extends AbstractRiverComponent implements River, IESInt
 		if (coordinatorThread != null) {
 			coordinatorThread.interrupt();
 		}
+		if (writeGovernorThread != null) {
+			writeGovernorThread.interrupt();
+		}
 		// free instances created in #start()
 		coordinatorThread = null;
 		coordinatorInstance = null;
+		writeGovernorThread = null;
+		if (documentTransformPool != null) {
+			documentTransformPool.shutdown();
+			documentTransformPool = null;
+		}
+		closeRemoteSystemClient();
 		synchronized (riverInstances) {
 			riverInstances.remove(riverName().getName());
 		}
 	}
 
+	/**
+	 * Release resources held by remote system client, eg. pooled http connections.
+	 */
+	protected void closeRemoteSystemClient() {
+		if (remoteSystemClient instanceof HttpRemoteSystemClientBase) {
+			((HttpRemoteSystemClientBase) remoteSystemClient).close();
+			remoteSystemClientClosed = true;
+		}
+	}
+
+	/**
+	 * Initialize remote system client again if its resources were released by {@link #stop(boolean)}.
+	 */
+	protected void startRemoteSystemClient() {
+		if (remoteSystemClientClosed && remoteSystemClientSettings != null) {
+			remoteSystemClient.init(this, remoteSystemClientSettings, allIndexedSpacesKeysNextRefresh != Long.MAX_VALUE,
+					this);
+			remoteSystemClient.setIndexStructureBuilder(documentIndexStructureBuilder);
+		}
+		remoteSystemClientClosed = false;
+	}
+
 	/**
 	 * Stop remote river, but leave instance existing in {@link #riverInstances} so it can be found over management REST
 	 * calls and/or reconfigured and started later again. Note that standard ES river {@link #close()} method
@@ -389,9 +521,19 @@ public class RemoteRiver extends AbstractRiverComponent implements River, IESInt
 		if (coordinatorThread != null) {
 			coordinatorThread.interrupt();
 		}
+		if (writeGovernorThread != null) {
+			writeGovernorThread.interrupt();
+		}
 		// free instances created in #start()
 		coordinatorThread = null;
 		coordinatorInstance = null;
+		writeGovernorThread = null;
+		if (documentTransformPool != null) {
+			documentTransformPool.shutdown();
+			documentTransformPool = null;
+		}
+		// connection evictor and crawl threads are not necessary while stopped, client is initialized again in #start()
+		closeRemoteSystemClient();
 		if (permanent) {
 			try {
 				permanentStopDate = new Date();
@@ -527,6 +669,34 @@ public class RemoteRiver extends AbstractRiverComponent implements River, IESInt
 		else if (permanentStopDate != null)
 			builder.field("stopped_permanently", permanentStopDate);
 		builder.endObject();
+		builder.startObject("bulk_retry");
+		builder.field("retry_max", bulkRetryMax);
+		builder.field("items_retried", bulkRetryItemsRetried.get());
+		builder.field("items_recovered", bulkRetryItemsRecovered.get());
+		builder.field("items_exhausted", bulkRetryItemsExhausted.get());
+		builder.endObject();
+		if (bulkSizeAdaptive) {
+			builder.startArray("bulk_size");
+			for (BulkSizeController bsc : bulkSizeControllers.values()) {
+				bsc.buildDocument(builder);
+			}
+			builder.endArray();
+		}
+		if (writeGovernor != null) {
+			builder.field("write_throttle");
+			writeGovernor.buildDocument(builder);
+		}
+		DocumentTransformPool dtp = documentTransformPool;
+		if (dtp != null) {
+			builder.field("document_transform");
+			dtp.buildDocument(builder);
+		}
+		if (remoteSystemClient instanceof HttpRemoteSystemClientBase) {
+			builder.field("http_transfer");
+			((HttpRemoteSystemClientBase) remoteSystemClient).getTransferStats().buildDocument(builder);
+			builder.field("http_connection_pool");
+			((HttpRemoteSystemClientBase) remoteSystemClient).buildConnectionPoolDocument(builder);
+		}
 		if (esNode != null) {
 			builder.startObject("node");
 			builder.field("id", esNode.getId());
@@ -810,39 +980,647 @@ public class RemoteRiver extends AbstractRiverComponent implements River, IESInt
 		return client.prepareBulk();
 	}
 
+	protected static final String CONFIG_BULK_RETRY_MAX = "bulk_retry_max";
+	protected static final String CONFIG_BULK_RETRY_BACKOFF = "bulk_retry_backoff";
+	protected static final String CONFIG_BULK_RETRY_BACKOFF_MAX = "bulk_retry_backoff_max";
+
+	protected static final int BULK_RETRY_MAX_DEFAULT = 3;
+	protected static final long BULK_RETRY_BACKOFF_DEFAULT = 500;
+	protected static final long BULK_RETRY_BACKOFF_MAX_DEFAULT = 30000;
+
+	/**
+	 * Max number of retries of bulk items rejected by ES due temporary overload. 0 means no retry.
+	 */
+	protected int bulkRetryMax = BULK_RETRY_MAX_DEFAULT;
+
+	/**
+	 * Delay before first retry of rejected bulk items [ms]. Doubled for each next retry.
+	 */
+	protected long bulkRetryBackoff = BULK_RETRY_BACKOFF_DEFAULT;
+
+	/**
+	 * Max delay between retries of rejected bulk items [ms].
+	 */
+	protected long bulkRetryBackoffMax = BULK_RETRY_BACKOFF_MAX_DEFAULT;
+
+	/**
+	 * Number of bulk items retried since river start (each item is counted once even if retried more times).
+	 */
+	protected final AtomicLong bulkRetryItemsRetried = new AtomicLong();
+
+	/**
+	 * Number of retried bulk items written successfully by some retry.
+	 */
+	protected final AtomicLong bulkRetryItemsRecovered = new AtomicLong();
+
+	/**
+	 * Number of retried bulk items still rejected after last retry, so counted as failed.
+	 */
+	protected final AtomicLong bulkRetryItemsExhausted = new AtomicLong();
+
+	protected static final String CONFIG_BULK_SIZE_ADAPTIVE = "bulk_size_adaptive";
+	protected static final String CONFIG_BULK_SIZE_MIN = "bulk_size_min";
+	protected static final String CONFIG_BULK_SIZE_MAX = "bulk_size_max";
+	protected static final String CONFIG_BULK_SIZE_INITIAL = "bulk_size_initial";
+	protected static final String CONFIG_BULK_SIZE_TARGET_LATENCY = "bulk_size_target_latency";
+
+	protected static final int BULK_SIZE_MIN_DEFAULT = 10;
+	protected static final int BULK_SIZE_MAX_DEFAULT = 1000;
+	protected static final int BULK_SIZE_INITIAL_DEFAULT = 100;
+	protected static final long BULK_SIZE_TARGET_LATENCY_DEFAULT = 1000;
+
+	/**
+	 * If <code>true</code> then bulk requests from indexers are split into smaller ones with size controlled by
+	 * {@link BulkSizeController} for each target index.
+	 */
+	protected boolean bulkSizeAdaptive = false;
+
+	protected int bulkSizeMin = BULK_SIZE_MIN_DEFAULT;
+	protected int bulkSizeMax = BULK_SIZE_MAX_DEFAULT;
+	protected int bulkSizeInitial = BULK_SIZE_INITIAL_DEFAULT;
+	protected long bulkSizeTargetLatency = BULK_SIZE_TARGET_LATENCY_DEFAULT;
+
+	/**
+	 * Adaptive bulk size controllers for target indices. Key is index name.
+	 */
+	protected final Map<String, BulkSizeController> bulkSizeControllers = new ConcurrentHashMap<String, BulkSizeController>();
+
+	protected static final String CONFIG_WRITE_THROTTLE = "write_throttle";
+	protected static final String CONFIG_WRITE_THROTTLE_SAMPLE_INTERVAL = "write_throttle_sample_interval";
+	protected static final String CONFIG_WRITE_THROTTLE_QUEUE_HIGH = "write_throttle_queue_high";
+	protected static final String CONFIG_WRITE_THROTTLE_DELAY = "write_throttle_delay";
+
+	protected static final long WRITE_THROTTLE_SAMPLE_INTERVAL_DEFAULT = 5000;
+	protected static final int WRITE_THROTTLE_QUEUE_HIGH_DEFAULT = 80;
+	protected static final long WRITE_THROTTLE_DELAY_DEFAULT = 1000;
+
+	/**
+	 * Governor used to pause or slow down writes when cluster is not able to handle them. Null if write throttling is
+	 * not enabled.
+	 */
+	protected WriteGovernor writeGovernor;
+
+	/**
+	 * Thread running {@link #writeGovernor} to sample cluster state. Started in {@link #start()}.
+	 */
+	protected Thread writeGovernorThread;
+
+	protected static final String CONFIG_TRANSFORM_THREADS = "transform_threads";
+	protected static final String CONFIG_TRANSFORM_QUEUE_SIZE = "transform_queue_size";
+
+	protected static final int TRANSFORM_QUEUE_SIZE_DEFAULT = 100;
+
+	/**
+	 * Number of threads used to transform documents in parallel, 0 means documents are transformed in indexer threads.
+	 */
+	protected int documentTransformThreads = 0;
+
+	protected int documentTransformQueueSize = TRANSFORM_QUEUE_SIZE_DEFAULT;
+
+	/**
+	 * Pool used to transform documents in parallel. Created in {@link #start()} if {@link #documentTransformThreads} is
+	 * positive.
+	 */
+	protected volatile DocumentTransformPool documentTransformPool;
+
 	@Override
 	public void executeESBulkRequest(BulkRequestBuilder esBulk) throws ElasticsearchException,
 			BulkUpdatePartialFailureException {
-		BulkResponse response = esBulk.execute().actionGet();
-		if (response.hasFailures()) {
+		BulkItemResponse[] items;
+		BulkSizeController bsc = getBulkSizeController(esBulk);
+		if (bsc != null) {
+			items = executeESBulkRequestAdaptive(esBulk, bsc);
+		} else {
+			items = executeESBulkRequestWithRetry(esBulk, null);
+		}
+		boolean hasFailures = false;
+		for (BulkItemResponse bir : items) {
+			if (bir.isFailed()) {
+				hasFailures = true;
+				break;
+			}
+		}
+		if (hasFailures) {
 			boolean containsSuccess = false;
 			int numOfFailures = 0;
-			for (BulkItemResponse bir : response.getItems()) {
+			int numOfVersionConflicts = 0;
+			int numOfCommentVersionConflicts = 0;
+			StringBuilder failureMessage = new StringBuilder("failure in bulk execution:");
+			for (int i = 0; i < items.length; i++) {
+				BulkItemResponse bir = items[i];
 				if (!bir.isFailed()) {
 					containsSuccess = true;
+				} else if (bir.getFailure().getStatus() == RestStatus.CONFLICT) {
+					// newer version of document is in index already, which is not an error
+					containsSuccess = true;
+					if (documentIndexStructureBuilder != null && documentIndexStructureBuilder.isCommentType(bir.getType()))
+						numOfCommentVersionConflicts++;
+					else
+						numOfVersionConflicts++;
 				} else {
 					numOfFailures++;
+					failureMessage.append("\n[").append(i).append("]: index [").append(bir.getIndex())
+							.append("], type [").append(bir.getType()).append("], id [").append(bir.getId())
+							.append("], message [").append(bir.getFailureMessage()).append("]");
 				}
 			}
 			if (containsSuccess) {
-				throw new BulkUpdatePartialFailureException(response.buildFailureMessage(), numOfFailures);
+				throw new BulkUpdatePartialFailureException(numOfFailures > 0 ? failureMessage.toString() : null,
+						numOfFailures, numOfVersionConflicts, numOfCommentVersionConflicts);
 			} else {
 				throw new ElasticsearchException("Failed to completely execute ES index bulk update for " + numOfFailures
-						+ " commands: " + response.buildFailureMessage());
+						+ " commands: " + failureMessage);
 			}
 		}
 	}
 
+	@Override
+	public int getBulkSize(String spaceKey, int defaultSize) {
+		BulkSizeController bsc = getBulkSizeController(documentIndexStructureBuilder.getDocumentSearchIndexName(spaceKey));
+		if (bsc == null)
+			return defaultSize;
+		return bsc.getSize();
+	}
+
+	/**
+	 * Get adaptive bulk size controller for index targeted by bulk request, see
+	 * {@link #getBulkTargetIndex(BulkRequestBuilder)}.
+	 * 
+	 * @param esBulk to get controller for
+	 * @return controller or null if adaptive bulk size is not used
+	 */
+	protected BulkSizeController getBulkSizeController(BulkRequestBuilder esBulk) {
+		if (!bulkSizeAdaptive)
+			return null;
+		return getBulkSizeController(getBulkTargetIndex(esBulk));
+	}
+
+	/**
+	 * Get adaptive bulk size controller for index, create it if not exists yet.
+	 * 
+	 * @param index to get controller for
+	 * @return controller or null if adaptive bulk size is not used or index is not known
+	 */
+	protected BulkSizeController getBulkSizeController(String index) {
+		if (!bulkSizeAdaptive || index == null)
+			return null;
+		synchronized (bulkSizeControllers) {
+			BulkSizeController bsc = bulkSizeControllers.get(index);
+			if (bsc == null) {
+				bsc = new BulkSizeController(index, bulkSizeMin, bulkSizeMax, bulkSizeInitial, bulkSizeTargetLatency);
+				bulkSizeControllers.put(index, bsc);
+			}
+			return bsc;
+		}
+	}
+
+	/**
+	 * Get name of index targeted by bulk request. Index of first request in bulk is used, requests into river index (eg.
+	 * stored indexing checkpoint) are skipped.
+	 * 
+	 * @param esBulk to get index for
+	 * @return index name or null if not known
+	 */
+	protected String getBulkTargetIndex(BulkRequestBuilder esBulk) {
+		String riverIndexName = getRiverIndexName();
+		for (ActionRequest<?> request : esBulk.request().requests()) {
+			String index = null;
+			if (request instanceof IndexRequest)
+				index = ((IndexRequest) request).index();
+			else if (request instanceof DeleteRequest)
+				index = ((DeleteRequest) request).index();
+			else if (request instanceof UpdateRequest)
+				index = ((UpdateRequest) request).index();
+			if (index != null && !index.equals(riverIndexName))
+				return index;
+		}
+		return null;
+	}
+
+	/**
+	 * Execute bulk request split into more smaller bulk requests with size given by adaptive controller.
+	 * 
+	 * @param esBulk to execute
+	 * @param bsc controller used to get bulk size
+	 * @return responses for all items of original bulk request, in same order as requests in it.
+	 * @throws ElasticsearchException if some of bulk requests fails completely. Next bulks are not executed in this case.
+	 */
+	protected BulkItemResponse[] executeESBulkRequestAdaptive(BulkRequestBuilder esBulk, BulkSizeController bsc)
+			throws ElasticsearchException {
+		List<ActionRequest> requests = esBulk.request().requests();
+		if (requests.size() <= bsc.getSize())
+			return executeESBulkRequestWithRetry(esBulk, bsc);
+
+		List<BulkItemResponse> ret = new ArrayList<BulkItemResponse>(requests.size());
+		int from = 0;
+		while (from < requests.size()) {
+			int to = Math.min(requests.size(), from + bsc.getSize());
+			BulkRequestBuilder partBulk = client.prepareBulk();
+			for (int i = from; i < to; i++) {
+				partBulk.request().add(requests.get(i));
+			}
+			ret.addAll(Arrays.asList(executeESBulkRequestWithRetry(partBulk, bsc)));
+			from = to;
+		}
+		return ret.toArray(new BulkItemResponse[ret.size()]);
+	}
+
+	/**
+	 * Execute bulk request and re-submit items rejected by ES due temporary overload (see
+	 * {@link #isBulkItemRetryable(BulkItemResponse)}) with exponential backoff, up to {@link #bulkRetryMax} times. Write
+	 * permit from {@link #writeGovernor} is acquired before each attempt.
+	 * 
+	 * @param esBulk to execute
+	 * @param bsc adaptive bulk size controller to report latency and rejections to, may be null
+	 * @return responses for all items of original bulk request, in same order as requests in it. Response from last
+	 *         attempt is used for retried items.
+	 * @throws ElasticsearchException if whole bulk request fails
+	 */
+	protected BulkItemResponse[] executeESBulkRequestWithRetry(BulkRequestBuilder esBulk, BulkSizeController bsc)
+			throws ElasticsearchException {
+		BulkItemResponse[] ret = null;
+		List<Integer> retriedItemIds = null;
+		BulkRequestBuilder currentBulk = esBulk;
+		WriteGovernor governor = writeGovernor;
+		String governedIndex = governor != null ? getBulkTargetIndex(esBulk) : null;
+		for (int attempt = 0;; attempt++) {
+			if (governedIndex != null)
+				governor.acquireWritePermit(governedIndex);
+			BulkItemResponse[] items;
+			long startTime = System.currentTimeMillis();
+			try {
+				items = currentBulk.execute().actionGet().getItems();
+			} catch (EsRejectedExecutionException e) {
+				if (bsc != null)
+					bsc.bulkRejected();
+				// whole bulk rejected, so we simply try it again
+				if (attempt >= bulkRetryMax || closed)
+					throw e;
+				logger.debug("Whole ES bulk request rejected, going to retry it: {}", e.getMessage());
+				if (!waitBeforeBulkRetry(attempt))
+					throw e;
+				continue;
+			}
+
+			List<Integer> retryableItemIds = new ArrayList<Integer>();
+			if (ret == null) {
+				ret = items;
+				for (int i = 0; i < ret.length; i++) {
+					if (isBulkItemRetryable(ret[i]))
+						retryableItemIds.add(i);
+				}
+			} else {
+				int recovered = 0;
+				for (int i = 0; i < items.length; i++) {
+					int itemId = retriedItemIds.get(i);
+					ret[itemId] = items[i];
+					if (isBulkItemRetryable(items[i]))
+						retryableItemIds.add(itemId);
+					else if (!items[i].isFailed() || items[i].getFailure().getStatus() == RestStatus.CONFLICT)
+						recovered++;
+				}
+				bulkRetryItemsRecovered.addAndGet(recovered);
+			}
+
+			if (bsc != null) {
+				if (retryableItemIds.isEmpty())
+					bsc.bulkExecuted(items.length, System.currentTimeMillis() - startTime);
+				else
+					bsc.bulkRejected();
+			}
+			if (retryableItemIds.isEmpty())
+				return ret;
+			if (attempt >= bulkRetryMax || closed) {
+				if (attempt > 0)
+					bulkRetryItemsExhausted.addAndGet(retryableItemIds.size());
+				logger.warn("{} ES bulk items rejected and not retried anymore after {} retries", retryableItemIds.size(),
+						attempt);
+				return ret;
+			}
+			if (attempt == 0)
+				bulkRetryItemsRetried.addAndGet(retryableItemIds.size());
+			logger.debug("{} ES bulk items rejected, going to retry them", retryableItemIds.size());
+			if (!waitBeforeBulkRetry(attempt))
+				return ret;
+
+			List<ActionRequest> requests = esBulk.request().requests();
+			currentBulk = client.prepareBulk();
+			for (Integer itemId : retryableItemIds) {
+				currentBulk.request().add(requests.get(itemId));
+			}
+			retriedItemIds = retryableItemIds;
+		}
+	}
+
+	/**
+	 * Check if bulk item failed due temporary ES overload (eg. full bulk thread pool queue), so it has a sense to retry
+	 * it.
+	 * 
+	 * @param bir bulk item response to check
+	 * @return true if item failed and is retryable
+	 */
+	protected static boolean isBulkItemRetryable(BulkItemResponse bir) {
+		if (!bir.isFailed())
+			return false;
+		RestStatus status = bir.getFailure().getStatus();
+		if (status == RestStatus.TOO_MANY_REQUESTS || status == RestStatus.SERVICE_UNAVAILABLE)
+			return true;
+		String message = bir.getFailureMessage();
+		return message != null && message.contains(EsRejectedExecutionException.class.getSimpleName());
+	}
+
+	/**
+	 * Wait before next retry of bulk items. Delay grows exponentially with attempt number up to
+	 * {@link #bulkRetryBackoffMax}, and random jitter is applied to spread retries from more indexing threads.
+	 * 
+	 * @param attempt number of attempt which failed, starting from 0
+	 * @return true if waited, false if interrupted so retry should not be performed
+	 */
+	protected boolean waitBeforeBulkRetry(int attempt) {
+		long delay = Math.min(bulkRetryBackoffMax, bulkRetryBackoff << Math.min(attempt, 30));
+		if (delay > 1) {
+			delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+		}
+		try {
+			Thread.sleep(delay);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
 	@Override
 	public Thread acquireIndexingThread(String threadName, Runnable runnable) {
 		return EsExecutors.daemonThreadFactory(settings.globalSettings(), threadName).newThread(runnable);
 	}
 
+	@Override
+	public ThreadFactory acquireThreadFactory(String namePrefix) {
+		return EsExecutors.daemonThreadFactory(settings.globalSettings(), namePrefix);
+	}
+
 	@Override
 	public void refreshSearchIndex(String indexName) {
 		client.admin().indices().prepareRefresh(indexName).execute().actionGet();
 	}
 
+	/**
+	 * Index settings not copied into new index in {@link #createIndexForFullUpdate(String, String)}, because they are
+	 * maintained by ElasticSearch itself.
+	 */
+	protected static final Set<String> INDEX_SETTINGS_NOT_COPIED = new HashSet<String>(Arrays.asList("index.uuid",
+			"index.version.created", "index.version.upgraded", "index.creation_date"));
+
+	protected static final String INDEX_SETTING_REPLICAS = "index.number_of_replicas";
+	protected static final String INDEX_SETTING_REFRESH_INTERVAL = "index.refresh_interval";
+
+	/**
+	 * Replicas and refresh settings to be restored in {@link #switchIndexAfterFullUpdate(String, String)}. Key is name
+	 * of index created in {@link #createIndexForFullUpdate(String, String)}.
+	 */
+	protected Map<String, Settings> fullUpdateIndexSettingsToRestore = new ConcurrentHashMap<String, Settings>();
+
+	@Override
+	public void createIndexForFullUpdate(String searchIndexName, String newIndexName) throws Exception {
+		IndicesAdminClient iac = client.admin().indices();
+		CreateIndexRequestBuilder cirb = iac.prepareCreate(newIndexName);
+		if (iac.prepareExists(searchIndexName).execute().actionGet().isExists()) {
+			GetSettingsResponse gsr = iac.prepareGetSettings(searchIndexName).execute().actionGet();
+			Iterator<Settings> itSettings = gsr.getIndexToSettings().valuesIt();
+			if (itSettings.hasNext()) {
+				ImmutableSettings.Builder sb = ImmutableSettings.settingsBuilder();
+				for (Map.Entry<String, String> e : itSettings.next().getAsMap().entrySet()) {
+					if (!INDEX_SETTINGS_NOT_COPIED.contains(e.getKey()))
+						sb.put(e.getKey(), e.getValue());
+				}
+				cirb.setSettings(sb.build());
+			}
+			GetMappingsResponse gmr = iac.prepareGetMappings(searchIndexName).execute().actionGet();
+			Iterator<ImmutableOpenMap<String, MappingMetaData>> itMappings = gmr.getMappings().valuesIt();
+			if (itMappings.hasNext()) {
+				ImmutableOpenMap<String, MappingMetaData> typeMappings = itMappings.next();
+				Iterator<String> itTypes = typeMappings.keysIt();
+				while (itTypes.hasNext()) {
+					String type = itTypes.next();
+					cirb.addMapping(type, typeMappings.get(type).sourceAsMap());
+				}
+			}
+		}
+		cirb.execute().actionGet();
+		client.admin().cluster().prepareHealth(newIndexName).setWaitForYellowStatus().execute().actionGet();
+
+		// remember settings applied by ElasticSearch (including index templates) to restore them at the end
+		Settings createdSettings = iac.prepareGetSettings(newIndexName).execute().actionGet().getIndexToSettings()
+				.get(newIndexName);
+		fullUpdateIndexSettingsToRestore.put(
+				newIndexName,
+				ImmutableSettings.settingsBuilder()
+						.put(INDEX_SETTING_REPLICAS, createdSettings.get(INDEX_SETTING_REPLICAS, "1"))
+						.put(INDEX_SETTING_REFRESH_INTERVAL, createdSettings.get(INDEX_SETTING_REFRESH_INTERVAL, "1s")).build());
+		iac.prepareUpdateSettings(newIndexName)
+				.setSettings(
+						ImmutableSettings.settingsBuilder().put(INDEX_SETTING_REPLICAS, 0).put(INDEX_SETTING_REFRESH_INTERVAL, "-1")
+								.build()).execute().actionGet();
+		logger.info("Created index {} for full update of search index {}", newIndexName, searchIndexName);
+	}
+
+	@Override
+	public void switchIndexAfterFullUpdate(String searchIndexName, String newIndexName) throws Exception {
+		IndicesAdminClient iac = client.admin().indices();
+		Settings settingsToRestore = fullUpdateIndexSettingsToRestore.remove(newIndexName);
+		if (settingsToRestore != null) {
+			iac.prepareUpdateSettings(newIndexName).setSettings(settingsToRestore).execute().actionGet();
+		}
+		refreshSearchIndex(newIndexName);
+
+		List<String> oldIndices = new ArrayList<String>();
+		Iterator<String> itAliasedIndices = iac.prepareGetAliases(searchIndexName).execute().actionGet().getAliases()
+				.keysIt();
+		while (itAliasedIndices.hasNext()) {
+			oldIndices.add(itAliasedIndices.next());
+		}
+
+		if (!oldIndices.isEmpty()) {
+			IndicesAliasesRequestBuilder iarb = iac.prepareAliases();
+			for (String oldIndex : oldIndices) {
+				iarb.removeAlias(oldIndex, searchIndexName);
+			}
+			iarb.addAlias(newIndexName, searchIndexName).execute().actionGet();
+			for (String oldIndex : oldIndices) {
+				try {
+					deleteSearchIndex(oldIndex);
+				} catch (Exception e) {
+					logger.warn("Unable to delete index {} previously used for search under alias {} due: {}", oldIndex,
+							searchIndexName, e.getMessage());
+				}
+			}
+		} else {
+			if (iac.prepareExists(searchIndexName).execute().actionGet().isExists()) {
+				// index with alias name exists, so it must be deleted before alias is created
+				logger.warn("Search index {} is not an alias, so it is deleted and replaced by alias to index {} now. "
+						+ "Search results are not available for a while.", searchIndexName, newIndexName);
+				deleteSearchIndex(searchIndexName);
+			}
+			iac.prepareAliases().addAlias(newIndexName, searchIndexName).execute().actionGet();
+		}
+		logger.info("Search index alias {} switched to index {}", searchIndexName, newIndexName);
+	}
+
+	@Override
+	public void deleteSearchIndex(String indexName) {
+		fullUpdateIndexSettingsToRestore.remove(indexName);
+		client.admin().indices().prepareDelete(indexName).execute().actionGet();
+	}
+
+	/**
+	 * Name of property where original values of index settings changed by
+	 * {@link #applyTemporaryIndexSettings(String, Map)} are stored.
+	 */
+	protected static final String PERMSTOREPROP_TEMPORARY_INDEX_SETTINGS = "temporary_index_settings";
+
+	protected static final String STORE_FIELD_INDEX_NAME = "indexName";
+	protected static final String STORE_FIELD_SETTINGS = "settings";
+
+	/**
+	 * Default values of index settings which are commonly changed by {@link #applyTemporaryIndexSettings(String, Map)}.
+	 * Used to restore setting which was not set on index explicitly.
+	 */
+	protected static final Map<String, String> INDEX_SETTINGS_DEFAULTS = new HashMap<String, String>();
+	static {
+		INDEX_SETTINGS_DEFAULTS.put(INDEX_SETTING_REFRESH_INTERVAL, "1s");
+		INDEX_SETTINGS_DEFAULTS.put(INDEX_SETTING_REPLICAS, "1");
+		INDEX_SETTINGS_DEFAULTS.put("index.translog.flush_threshold_size", "200mb");
+		INDEX_SETTINGS_DEFAULTS.put("index.translog.flush_threshold_ops", Integer.toString(Integer.MAX_VALUE));
+		INDEX_SETTINGS_DEFAULTS.put("index.translog.flush_threshold_period", "30m");
+		INDEX_SETTINGS_DEFAULTS.put("index.translog.interval", "5s");
+		INDEX_SETTINGS_DEFAULTS.put("index.translog.disable_flush", "false");
+	}
+
+	/**
+	 * Number of callers of {@link #applyTemporaryIndexSettings(String, Map)} per index name which didn't call
+	 * {@link #restoreTemporaryIndexSettings(String)} yet.
+	 */
+	protected final Map<String, Integer> temporaryIndexSettingsRefCount = new HashMap<String, Integer>();
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public boolean applyTemporaryIndexSettings(String indexName, Map<String, String> settings) throws Exception {
+		synchronized (temporaryIndexSettingsRefCount) {
+			Integer refCount = temporaryIndexSettingsRefCount.get(indexName);
+			if (refCount == null) {
+				IndicesAdminClient iac = client.admin().indices();
+				if (!iac.prepareExists(indexName).execute().actionGet().isExists()) {
+					logger.debug("Index {} doesn't exist, so temporary settings are not applied", indexName);
+					return false;
+				}
+				String documentName = prepareValueStoreDocumentName(indexName, PERMSTOREPROP_TEMPORARY_INDEX_SETTINGS);
+				Map<String, String> originalSettings = null;
+				GetResponse storedResp = client.prepareGet(getRiverIndexName(), riverName.name(), documentName).execute()
+						.actionGet();
+				if (storedResp.isExists()) {
+					// settings not restored yet from previous run, so current values are not original
+					originalSettings = (Map<String, String>) storedResp.getSourceAsMap().get(STORE_FIELD_SETTINGS);
+				}
+				if (originalSettings == null) {
+					originalSettings = new HashMap<String, String>();
+				}
+
+				Iterator<Settings> itSettings = iac.prepareGetSettings(indexName).execute().actionGet().getIndexToSettings()
+						.valuesIt();
+				Settings currentSettings = itSettings.hasNext() ? itSettings.next() : ImmutableSettings.EMPTY;
+				ImmutableSettings.Builder newSettings = ImmutableSettings.settingsBuilder();
+				for (Map.Entry<String, String> e : settings.entrySet()) {
+					String key = e.getKey().startsWith("index.") ? e.getKey() : "index." + e.getKey();
+					if (!originalSettings.containsKey(key)) {
+						String originalValue = currentSettings.get(key, INDEX_SETTINGS_DEFAULTS.get(key));
+						if (originalValue == null) {
+							logger.warn("Index setting {} is not applied temporarily on index {} because it's original value "
+									+ "is unknown and can't be restored.", key, indexName);
+							continue;
+						}
+						originalSettings.put(key, originalValue);
+					}
+					newSettings.put(key, e.getValue());
+				}
+
+				client.prepareIndex(getRiverIndexName(), riverName.name(), documentName)
+						.setSource(
+								jsonBuilder().startObject().field("propertyName", PERMSTOREPROP_TEMPORARY_INDEX_SETTINGS)
+										.field(STORE_FIELD_INDEX_NAME, indexName).field(STORE_FIELD_SETTINGS, originalSettings)
+										.endObject()).execute().actionGet();
+				iac.prepareUpdateSettings(indexName).setSettings(newSettings.build()).execute().actionGet();
+				logger.info("Temporary settings {} applied on index {}", settings, indexName);
+				refCount = 0;
+			}
+			temporaryIndexSettingsRefCount.put(indexName, refCount + 1);
+			return true;
+		}
+	}
+
+	@Override
+	public void restoreTemporaryIndexSettings(String indexName) {
+		synchronized (temporaryIndexSettingsRefCount) {
+			Integer refCount = temporaryIndexSettingsRefCount.get(indexName);
+			if (refCount == null)
+				return;
+			if (refCount > 1) {
+				temporaryIndexSettingsRefCount.put(indexName, refCount - 1);
+				return;
+			}
+			temporaryIndexSettingsRefCount.remove(indexName);
+			restoreTemporaryIndexSettingsFromStore(indexName);
+		}
+	}
+
+	/**
+	 * Restore original index settings stored by {@link #applyTemporaryIndexSettings(String, Map)} and delete them from
+	 * store.
+	 * 
+	 * @param indexName to restore settings for
+	 */
+	@SuppressWarnings("unchecked")
+	protected void restoreTemporaryIndexSettingsFromStore(String indexName) {
+		String documentName = prepareValueStoreDocumentName(indexName, PERMSTOREPROP_TEMPORARY_INDEX_SETTINGS);
+		GetResponse storedResp = client.prepareGet(getRiverIndexName(), riverName.name(), documentName).execute()
+				.actionGet();
+		if (storedResp.isExists()) {
+			Map<String, Object> originalSettings = (Map<String, Object>) storedResp.getSourceAsMap().get(
+					STORE_FIELD_SETTINGS);
+			if (originalSettings != null && !originalSettings.isEmpty()
+					&& client.admin().indices().prepareExists(indexName).execute().actionGet().isExists()) {
+				client.admin().indices().prepareUpdateSettings(indexName).setSettings(originalSettings).execute()
+						.actionGet();
+				logger.info("Original settings {} restored on index {}", originalSettings, indexName);
+			}
+			client.prepareDelete(getRiverIndexName(), riverName.name(), documentName).execute().actionGet();
+		}
+	}
+
+	/**
+	 * Restore original index settings which was not restored due river stop or node failure.
+	 * 
+	 * @see #applyTemporaryIndexSettings(String, Map)
+	 */
+	protected void restoreTemporaryIndexSettingsLeftovers() {
+		try {
+			SearchResponse sr = client.prepareSearch(getRiverIndexName()).setTypes(riverName.name())
+					.setQuery(QueryBuilders.matchQuery("propertyName", PERMSTOREPROP_TEMPORARY_INDEX_SETTINGS))
+					.addField(STORE_FIELD_INDEX_NAME).setSize(1000).execute().actionGet();
+			for (SearchHit hit : sr.getHits()) {
+				if (hit.field(STORE_FIELD_INDEX_NAME) != null) {
+					String indexName = hit.field(STORE_FIELD_INDEX_NAME).getValue();
+					synchronized (temporaryIndexSettingsRefCount) {
+						if (!temporaryIndexSettingsRefCount.containsKey(indexName))
+							restoreTemporaryIndexSettingsFromStore(indexName);
+					}
+				}
+			}
+		} catch (Exception e) {
+			logger.warn("Unable to restore temporary index settings left from previous run due: {}", e.getMessage());
+		}
+	}
+
 	private static final long ES_SCROLL_KEEPALIVE = 60000;
 
 	@Override
@@ -883,4 +1661,9 @@ public class RemoteRiver extends AbstractRiverComponent implements River, IESInt
 		return Loggers.getLogger(clazz, settings.globalSettings(), riverName);
 	}
 
+	@Override
+	public SpaceIndexingMode getSpaceIndexingMode() {
+		return spaceIndexingMode;
+	}
+
 }
@@ -57,14 +57,23 @@ public class SpaceByLastUpdateTimestampIndexer extends SpaceIndexerBase {
 			updatedAfter = readLastDocumentUpdatedDate(spaceKey);
 		}
 		Date updatedAfterStarting = updatedAfter;
-		if (updatedAfter == null)
+		if (updatedAfter == null) {
 			indexingInfo.fullUpdate = true;
+			prepareFullUpdate();
+		}
 		Date lastDocumentUpdatedDate = null;
 
 		int startAt = 0;
 
 		logger.info("Go to perform {} update for Space {}", indexingInfo.fullUpdate ? "full" : "incremental", spaceKey);
 
+		// pages are coalesced into one bulk request until it contains bulk size of documents
+		int updatedInThisBulk = 0;
+		boolean deletedInThisBulk = false;
+		boolean notModifiedInThisBulk = false;
+		BulkRequestBuilder esBulk = null;
+		int maxInThisBulk = 0;
+
 		boolean cont = true;
 		while (cont) {
 			if (isClosed())
@@ -84,12 +93,15 @@ public class SpaceByLastUpdateTimestampIndexer extends SpaceIndexerBase {
 					throw new InterruptedException("Interrupted because River is closed");
 
 				Date firstDocumentUpdatedDate = null;
-				int updatedInThisBulk = 0;
-				boolean deletedInThisBulk = false;
-				BulkRequestBuilder esBulk = esIntegrationComponent.prepareESBulkRequestBuilder();
+				if (esBulk == null) {
+					esBulk = esIntegrationComponent.prepareESBulkRequestBuilder();
+					maxInThisBulk = esIntegrationComponent.getBulkSize(spaceKey, 0);
+				}
 				for (Map<String, Object> document : res.getDocuments()) {
 					String documentId = getDocumentIdChecked(document);
-					if (getDocumentDetail(documentId, document)) {
+					DocumentDetailStatus status = loadDocumentDetail(documentId, document);
+					if (status != DocumentDetailStatus.NOT_FOUND) {
+						// listed timestamp of not modified document moves checkpoint also
 						lastDocumentUpdatedDate = documentIndexStructureBuilder.extractDocumentUpdated(document);
 						logger.debug("Go to update index for document '{}' with updated {}", documentId, lastDocumentUpdatedDate);
 						if (lastDocumentUpdatedDate == null) {
@@ -99,10 +111,12 @@ public class SpaceByLastUpdateTimestampIndexer extends SpaceIndexerBase {
 							firstDocumentUpdatedDate = lastDocumentUpdatedDate;
 						}
 
-						if (documentIndexStructureBuilder.extractDocumentDeleted(document)) {
+						if (status == DocumentDetailStatus.NOT_MODIFIED) {
+							notModifiedInThisBulk = true;
+						} else if (documentIndexStructureBuilder.extractDocumentDeleted(document)) {
 							deletedInThisBulk = prepareDeleteByRemoteDocumentId(esBulk, documentId) || deletedInThisBulk;
 						} else {
-							documentIndexStructureBuilder.indexDocument(esBulk, spaceKey, document);
+							indexDocument(esBulk, document);
 							updatedInThisBulk++;
 						}
 					}
@@ -110,14 +124,6 @@ public class SpaceByLastUpdateTimestampIndexer extends SpaceIndexerBase {
 						throw new InterruptedException("Interrupted because River is closed");
 				}
 
-				if (lastDocumentUpdatedDate != null)
-					storeLastDocumentUpdatedDate(esBulk, spaceKey, lastDocumentUpdatedDate);
-
-				if (updatedInThisBulk > 0 || deletedInThisBulk) {
-					executeBulkUpdate(esBulk);
-					indexingInfo.documentsUpdated += updatedInThisBulk;
-				}
-
 				// next logic depends on documents sorted by update timestamp ascending when returned from remote system
 				if (lastDocumentUpdatedDate != null && firstDocumentUpdatedDate != null
 						&& !lastDocumentUpdatedDate.equals(firstDocumentUpdatedDate)) {
@@ -163,6 +169,24 @@ public class SpaceByLastUpdateTimestampIndexer extends SpaceIndexerBase {
 
 				}
 			}
+
+			if (esBulk != null && (!cont || updatedInThisBulk >= maxInThisBulk)) {
+				if (lastDocumentUpdatedDate != null) {
+					// checkpoint must follow documents in bulk
+					addTransformedDocuments(esBulk);
+					storeLastDocumentUpdatedDate(esBulk, spaceKey, lastDocumentUpdatedDate);
+				}
+
+				// bulk with checkpoint only is executed so not modified documents are not checked again
+				if (updatedInThisBulk > 0 || deletedInThisBulk || notModifiedInThisBulk) {
+					executeBulkUpdate(esBulk);
+					indexingInfo.documentsUpdated += updatedInThisBulk;
+				}
+				esBulk = null;
+				updatedInThisBulk = 0;
+				deletedInThisBulk = false;
+				notModifiedInThisBulk = false;
+			}
 		}
 
 		if (indexingInfo.documentsUpdated > 0 && lastDocumentUpdatedDate != null && updatedAfterStarting != null
@@ -173,6 +197,38 @@ public class SpaceByLastUpdateTimestampIndexer extends SpaceIndexerBase {
 		}
 	}
 
+	/**
+	 * Date of last indexed document update stored before full update into new index started. Restored if this update
+	 * fails, as documents indexed during it are lost.
+	 */
+	protected Date lastDocumentUpdatedDateBeforeFullUpdate;
+
+	@Override
+	protected void prepareFullUpdate() throws Exception {
+		if (fullUpdateNewIndexName == null
+				&& documentIndexStructureBuilder.getFullUpdateStrategy() == FullUpdateStrategy.NEW_INDEX) {
+			lastDocumentUpdatedDateBeforeFullUpdate = readLastDocumentUpdatedDate(spaceKey);
+		}
+		super.prepareFullUpdate();
+	}
+
+	@Override
+	protected void cancelFullUpdateIntoNewIndex() {
+		if (fullUpdateNewIndexName == null)
+			return;
+		super.cancelFullUpdateIntoNewIndex();
+		try {
+			if (lastDocumentUpdatedDateBeforeFullUpdate != null) {
+				storeLastDocumentUpdatedDate(null, spaceKey, lastDocumentUpdatedDateBeforeFullUpdate);
+			} else {
+				esIntegrationComponent.deleteDatetimeValue(spaceKey, STORE_PROPERTYNAME_LAST_INDEXED_DOC_UPDATE_DATE);
+			}
+		} catch (Exception e) {
+			logger.warn("Unable to restore last indexed document update date for Space {} due: {}", spaceKey,
+					e.getMessage());
+		}
+	}
+
 	/**
 	 * Get date of last document updated for given Space from persistent store inside ES cluster, so we can continue in
 	 * update process from this point.
@@ -6,15 +6,23 @@
 package org.jboss.elasticsearch.river.remote;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.search.SearchHit;
 import org.jboss.elasticsearch.river.remote.exception.RemoteDocumentNotFoundException;
+import org.jboss.elasticsearch.river.remote.exception.RemoteDocumentNotModifiedException;
 
 /**
  * Base abstract class for indexers used to run one index update process for one Space.
@@ -53,6 +61,66 @@ public abstract class SpaceIndexerBase implements Runnable {
 	 */
 	protected SpaceIndexingInfo indexingInfo;
 
+	/**
+	 * Name of index used for search of Space documents. Set only during full update performed with
+	 * {@link FullUpdateStrategy#NEW_INDEX}.
+	 */
+	protected String fullUpdateSearchIndexName;
+
+	/**
+	 * Name of new index filled by full update performed with {@link FullUpdateStrategy#NEW_INDEX}. Null if no such
+	 * update is in progress.
+	 */
+	protected String fullUpdateNewIndexName;
+
+	/**
+	 * Name of index with temporary settings applied for full update. Null if no such settings are applied.
+	 * 
+	 * @see IDocumentIndexStructureBuilder#getFullUpdateIndexSettings()
+	 */
+	protected String fullUpdateTunedIndexName;
+
+	/**
+	 * Pool used to transform documents in parallel. Null if documents are transformed directly in indexer thread.
+	 * 
+	 * @see #indexDocument(BulkRequestBuilder, Map)
+	 */
+	protected DocumentTransformPool documentTransformPool;
+
+	/**
+	 * Documents submitted into {@link #documentTransformPool} and not added into bulk request yet, in original order.
+	 */
+	protected final List<Future<BulkRequestBuilder>> pendingTransforms = new ArrayList<Future<BulkRequestBuilder>>();
+
+	/**
+	 * If <code>true</code> then comments removed from documents re-indexed in bulk are deleted in the same bulk.
+	 * 
+	 * @see #reconcileComments(BulkRequestBuilder)
+	 */
+	protected boolean commentReconciliation = false;
+
+	/**
+	 * If <code>true</code> then documents may be written by partial updates, so state of documents kept for them must be
+	 * discarded if documents are not written into search index.
+	 * 
+	 * @see IDocumentIndexStructureBuilder#discardDocumentFingerprints(String, BulkRequestBuilder)
+	 */
+	protected boolean partialUpdates = false;
+
+	/**
+	 * Ids of documents added into actual bulk request, state kept for them by {@link IDocumentStateAware} remote system
+	 * client is committed once bulk is written successfully. Filled only if client is {@link IDocumentStateAware}.
+	 * 
+	 * @see #executeBulkUpdate(BulkRequestBuilder)
+	 */
+	protected final List<String> documentIdsInBulk = new ArrayList<String>();
+
+	/**
+	 * Set to <code>true</code> if some documents failed to be written into search index, so state of Space kept by
+	 * {@link IDocumentStateAware} remote system client can't be committed when indexing finishes.
+	 */
+	protected boolean documentsNotWritten = false;
+
 	/**
 	 * Create and configure indexer.
 	 * 
@@ -76,8 +144,15 @@ public abstract class SpaceIndexerBase implements Runnable {
 		startTime = System.currentTimeMillis();
 		indexingInfo.startDate = new Date(startTime);
 		try {
+			if (indexingInfo.fullUpdate)
+				prepareFullUpdate();
 			processUpdate();
-			processDelete(new Date(startTime));
+			if (fullUpdateNewIndexName != null)
+				finishFullUpdateIntoNewIndex();
+			else
+				processDelete(new Date(startTime));
+			if (remoteSystemClient instanceof IDocumentStateAware && !documentsNotWritten)
+				((IDocumentStateAware) remoteSystemClient).commitSpaceState(spaceKey);
 			indexingInfo.timeElapsed = (System.currentTimeMillis() - startTime);
 			indexingInfo.finishedOK = true;
 			esIntegrationComponent.reportIndexingFinished(indexingInfo);
@@ -91,6 +166,9 @@ public abstract class SpaceIndexerBase implements Runnable {
 										+ indexingInfo.getErrorMessage(), spaceKey, indexingInfo.documentsWithError);
 			}
 		} catch (Throwable e) {
+			cancelFullUpdateIntoNewIndex();
+			if (partialUpdates)
+				documentIndexStructureBuilder.discardDocumentFingerprints(spaceKey, null);
 			indexingInfo.timeElapsed = (System.currentTimeMillis() - startTime);
 			indexingInfo.addErrorMessage(e.getMessage());
 			indexingInfo.finishedOK = false;
@@ -101,6 +179,10 @@ public abstract class SpaceIndexerBase implements Runnable {
 				cause = null;
 			logger.error("Failed {} update for Space {} due: {}", cause, indexingInfo.fullUpdate ? "full" : "incremental",
 					spaceKey, e.getMessage());
+		} finally {
+			restoreFullUpdateIndexSettings();
+			if (remoteSystemClient instanceof IDocumentStateAware)
+				((IDocumentStateAware) remoteSystemClient).discardDocumentsState(spaceKey);
 		}
 	}
 
@@ -112,29 +194,147 @@ public abstract class SpaceIndexerBase implements Runnable {
 	 */
 	protected abstract void processUpdate() throws Exception;
 
+	/**
+	 * Prepare full update of Space. New index is created and Space documents are redirected into it if
+	 * {@link FullUpdateStrategy#NEW_INDEX} is used, temporary index settings are applied otherwise if configured. Must
+	 * be called when {@link #indexingInfo.fullUpdate} is set to true before any document is written, may be called more
+	 * times.
+	 * 
+	 * @throws Exception
+	 */
+	protected void prepareFullUpdate() throws Exception {
+		if (fullUpdateNewIndexName != null || fullUpdateTunedIndexName != null)
+			return;
+		// whole documents are rewritten during full update
+		if (partialUpdates)
+			documentIndexStructureBuilder.discardDocumentFingerprints(spaceKey, null);
+		if (documentIndexStructureBuilder.getFullUpdateStrategy() != FullUpdateStrategy.NEW_INDEX) {
+			Map<String, String> tempSettings = documentIndexStructureBuilder.getFullUpdateIndexSettings();
+			if (tempSettings != null) {
+				String indexName = documentIndexStructureBuilder.getDocumentSearchIndexName(spaceKey);
+				if (esIntegrationComponent.applyTemporaryIndexSettings(indexName, tempSettings))
+					fullUpdateTunedIndexName = indexName;
+			}
+			return;
+		}
+		fullUpdateSearchIndexName = documentIndexStructureBuilder.getDocumentSearchIndexName(spaceKey);
+		String newIndexName = fullUpdateSearchIndexName + "_" + startTime;
+		logger.info("Full update for Space {} is performed into new index {}", spaceKey, newIndexName);
+		esIntegrationComponent.createIndexForFullUpdate(fullUpdateSearchIndexName, newIndexName);
+		fullUpdateNewIndexName = newIndexName;
+		documentIndexStructureBuilder.setSpaceIndexNameOverride(spaceKey, newIndexName);
+	}
+
+	/**
+	 * Switch search to the new index filled during full update. No delete of documents is necessary in this case.
+	 * 
+	 * @throws Exception
+	 * @see #prepareFullUpdate()
+	 */
+	protected void finishFullUpdateIntoNewIndex() throws Exception {
+		documentIndexStructureBuilder.setSpaceIndexNameOverride(spaceKey, null);
+		esIntegrationComponent.switchIndexAfterFullUpdate(fullUpdateSearchIndexName, fullUpdateNewIndexName);
+		fullUpdateNewIndexName = null;
+	}
+
+	/**
+	 * Drop new index created for full update if update failed, so search continues over previous index. Nothing is done
+	 * if no full update into new index is in progress.
+	 * 
+	 * @see #prepareFullUpdate()
+	 */
+	protected void cancelFullUpdateIntoNewIndex() {
+		if (fullUpdateNewIndexName == null)
+			return;
+		documentIndexStructureBuilder.setSpaceIndexNameOverride(spaceKey, null);
+		try {
+			esIntegrationComponent.deleteSearchIndex(fullUpdateNewIndexName);
+		} catch (Exception e) {
+			logger.warn("Unable to delete index {} created for failed full update of Space {} due: {}",
+					fullUpdateNewIndexName, spaceKey, e.getMessage());
+		}
+		fullUpdateNewIndexName = null;
+	}
+
+	/**
+	 * Restore index settings applied temporarily for full update, if any.
+	 * 
+	 * @see #prepareFullUpdate()
+	 */
+	protected void restoreFullUpdateIndexSettings() {
+		if (fullUpdateTunedIndexName == null)
+			return;
+		try {
+			esIntegrationComponent.restoreTemporaryIndexSettings(fullUpdateTunedIndexName);
+		} catch (Exception e) {
+			logger.warn("Unable to restore settings of index {} after full update of Space {} due: {}",
+					fullUpdateTunedIndexName, spaceKey, e.getMessage());
+		}
+		fullUpdateTunedIndexName = null;
+	}
+
+	/**
+	 * Result of document detail loading.
+	 * 
+	 * @see SpaceIndexerBase#loadDocumentDetail(String, Map)
+	 */
+	protected static enum DocumentDetailStatus {
+		/**
+		 * Document detail is loaded correctly, document must be indexed.
+		 */
+		LOADED,
+		/**
+		 * Document is not found in remote system or can't be processed, it is skipped.
+		 */
+		NOT_FOUND,
+		/**
+		 * Document is not modified since last indexing, so it is not indexed again.
+		 */
+		NOT_MODIFIED
+	}
+
 	/**
 	 * Get document detail from remote system if configured, place it under <code>detail</code> key in data.
-	 * {@link IRemoteSystemClient#getChangedDocumentDetails(String, String, Map)} is used inside.
 	 * 
 	 * @param documentId of document to get
 	 * @param document structure to get details for and place them into
-	 * @return true if document is found correctly, false if not found in remote system
+	 * @return true if document is found correctly, false if not found in remote system or not modified since last
+	 *         indexing
 	 * @throws Exception in case of runtime problem
+	 * @see #loadDocumentDetail(String, Map)
 	 */
 	protected boolean getDocumentDetail(String documentId, Map<String, Object> document) throws Exception {
+		return loadDocumentDetail(documentId, document) == DocumentDetailStatus.LOADED;
+	}
+
+	/**
+	 * Get document detail from remote system if configured, place it under <code>detail</code> key in data.
+	 * {@link IRemoteSystemClient#getChangedDocumentDetails(String, String, Map)} is used inside.
+	 * 
+	 * @param documentId of document to get
+	 * @param document structure to get details for and place them into
+	 * @return status of document detail loading
+	 * @throws Exception in case of runtime problem
+	 */
+	protected DocumentDetailStatus loadDocumentDetail(String documentId, Map<String, Object> document)
+			throws Exception {
 		try {
 			Object detail = remoteSystemClient.getChangedDocumentDetails(spaceKey, documentId, document);
 			if (detail != null) {
 				document.put(KEY_DETAIL, detail);
 			}
-			return true;
+			return DocumentDetailStatus.LOADED;
 		} catch (RemoteDocumentNotFoundException e) {
 			// skip rest of processing in this case
 			String msg = "Detail processing problem for document with id ' documentId', so we skip it: " + e.getMessage();
 			indexingInfo.addErrorMessage(msg);
 			indexingInfo.documentsWithError++;
 			logger.warn(msg);
-			return false;
+			return DocumentDetailStatus.NOT_FOUND;
+		} catch (RemoteDocumentNotModifiedException e) {
+			// skip rest of processing in this case
+			logger.debug("Document with id '{}' not modified since last indexing, so we skip it", documentId);
+			return DocumentDetailStatus.NOT_MODIFIED;
 		}
 	}
 
@@ -154,16 +354,124 @@ public abstract class SpaceIndexerBase implements Runnable {
 		return documentId;
 	}
 
-	protected void executeBulkUpdate(BulkRequestBuilder esBulk) {
+	/**
+	 * Store/Update document obtained from remote system into search index using
+	 * {@link IDocumentIndexStructureBuilder#indexDocument(BulkRequestBuilder, String, Map)}. If
+	 * {@link #documentTransformPool} is available then document is transformed in parallel and added into bulk request
+	 * later in {@link #addTransformedDocuments(BulkRequestBuilder)}, so original order of documents is kept.
+	 * {@link CompactJSONDocument} is released once transformed.
+	 * 
+	 * @param esBulk bulk request to add document into
+	 * @param document data obtained from remote system to be indexed
+	 * @throws Exception
+	 */
+	protected void indexDocument(BulkRequestBuilder esBulk, Map<String, Object> document) throws Exception {
+		if (remoteSystemClient instanceof IDocumentStateAware)
+			documentIdsInBulk.add(documentIndexStructureBuilder.extractDocumentId(document));
+		if (documentTransformPool == null) {
+			try {
+				documentIndexStructureBuilder.indexDocument(esBulk, spaceKey, document);
+			} finally {
+				CompactJSONDocument.release(document);
+			}
+		} else {
+			pendingTransforms.add(documentTransformPool.submit(documentIndexStructureBuilder,
+					esIntegrationComponent.prepareESBulkRequestBuilder(), spaceKey, document));
+		}
+	}
+
+	/**
+	 * Wait for all documents submitted for parallel transformation in {@link #indexDocument(BulkRequestBuilder, Map)}
+	 * and add them into bulk request in original order. Must be called before any other request is added into bulk, and
+	 * before bulk is executed.
+	 * 
+	 * @param esBulk bulk request to add transformed documents into
+	 * @throws Exception thrown from document transformation
+	 */
+	protected void addTransformedDocuments(BulkRequestBuilder esBulk) throws Exception {
+		if (pendingTransforms.isEmpty())
+			return;
+		try {
+			for (Future<BulkRequestBuilder> f : pendingTransforms) {
+				BulkRequestBuilder part;
+				try {
+					part = f.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception)
+						throw (Exception) e.getCause();
+					throw e;
+				}
+				for (ActionRequest request : part.request().requests()) {
+					esBulk.request().add(request);
+				}
+			}
+		} finally {
+			for (Future<BulkRequestBuilder> f : pendingTransforms) {
+				f.cancel(false);
+			}
+			pendingTransforms.clear();
+		}
+	}
+
+	/**
+	 * Execute bulk request with documents indexed by {@link #indexDocument(BulkRequestBuilder, Map)}. State of documents
+	 * kept by remote system client is committed only if all documents are written (or skipped due version conflict).
+	 * 
+	 * @param esBulk bulk request to execute
+	 * @throws Exception
+	 */
+	protected void executeBulkUpdate(BulkRequestBuilder esBulk) throws Exception {
+		try {
+			addTransformedDocuments(esBulk);
+			if (commentReconciliation)
+				reconcileComments(esBulk);
+			executeBulkUpdateInternal(esBulk);
+		} finally {
+			documentIdsInBulk.clear();
+		}
+	}
+
+	private void executeBulkUpdateInternal(BulkRequestBuilder esBulk) throws Exception {
 		try {
 			esIntegrationComponent.executeESBulkRequest(esBulk);
+			commitDocumentsState();
 		} catch (BulkUpdatePartialFailureException e) {
-			indexingInfo.addErrorMessage(e.getMessage());
-			indexingInfo.documentsWithError += e.getNumOfFailures();
-			indexingInfo.documentsUpdated -= e.getNumOfFailures();
+			// we do not know which documents failed, so state of all of them is dropped
+			if (e.getNumOfFailures() == 0)
+				commitDocumentsState();
+			else
+				documentsNotWritten = true;
+			if (partialUpdates)
+				documentIndexStructureBuilder.discardDocumentFingerprints(spaceKey, esBulk);
+			if (e.getNumOfFailures() > 0) {
+				indexingInfo.addErrorMessage(e.getMessage());
+				indexingInfo.documentsWithError += e.getNumOfFailures();
+				indexingInfo.documentsUpdated -= e.getNumOfFailures();
+			}
+			if (e.getNumOfVersionConflicts() > 0) {
+				logger.debug("{} documents not written for Space {} because newer version is in index already",
+						e.getNumOfVersionConflicts(), spaceKey);
+				indexingInfo.versionConflicts += e.getNumOfVersionConflicts();
+				indexingInfo.documentsUpdated -= e.getNumOfVersionConflicts();
+			}
+			if (e.getNumOfCommentVersionConflicts() > 0) {
+				logger.debug("{} comments not written for Space {} because newer version is in index already",
+						e.getNumOfCommentVersionConflicts(), spaceKey);
+				indexingInfo.commentVersionConflicts += e.getNumOfCommentVersionConflicts();
+			}
+		} catch (RuntimeException e) {
+			if (partialUpdates)
+				documentIndexStructureBuilder.discardDocumentFingerprints(spaceKey, esBulk);
+			throw e;
 		}
 	}
 
+	private void commitDocumentsState() {
+		if (remoteSystemClient instanceof IDocumentStateAware && !documentIdsInBulk.isEmpty())
+			((IDocumentStateAware) remoteSystemClient).commitDocumentsState(spaceKey,
+					new ArrayList<String>(documentIdsInBulk));
+	}
+
 	/**
 	 * Process delete of documents from search index for configured Space. A {@link #deleteCount} field is updated inside
 	 * of this method.
@@ -224,6 +532,8 @@ public abstract class SpaceIndexerBase implements Runnable {
 	 */
 	protected boolean prepareDeleteByRemoteDocumentId(BulkRequestBuilder esBulk, String documentId)
 			throws InterruptedException, Exception {
+		// keep order of requests in bulk if the same document is indexed and deleted
+		addTransformedDocuments(esBulk);
 		boolean deletedInThisBulk = false;
 		String indexName = documentIndexStructureBuilder.getDocumentSearchIndexName(spaceKey);
 		esIntegrationComponent.refreshSearchIndex(indexName);
@@ -254,6 +564,51 @@ public abstract class SpaceIndexerBase implements Runnable {
 		return deletedInThisBulk;
 	}
 
+	/**
+	 * Prepare delete of comments indexed for documents re-indexed in given bulk, which are not in these documents
+	 * anymore. All indexed comments of all documents in bulk are obtained by one search request, so it is cheaper than
+	 * delete of all comments before each document is indexed.
+	 * 
+	 * @param esBulk with indexed documents to prepare comment deletes into
+	 * @return true if at least one delete has been prepared in the method
+	 * @throws Exception
+	 * @see IDocumentIndexStructureBuilder#buildSearchForIndexedCommentsOfDocuments(SearchRequestBuilder, String,
+	 *      java.util.Collection)
+	 */
+	protected boolean reconcileComments(BulkRequestBuilder esBulk) throws Exception {
+		Set<String> documentIds = new HashSet<String>();
+		Set<String> commentIds = new HashSet<String>();
+		documentIndexStructureBuilder.collectIndexedDocumentIds(esBulk, documentIds, commentIds);
+		if (documentIds.isEmpty())
+			return false;
+
+		boolean deletedInThisBulk = false;
+		String indexName = documentIndexStructureBuilder.getDocumentSearchIndexName(spaceKey);
+		logger.debug("go to reconcile indexed comments for space {} and {} documents", spaceKey, documentIds.size());
+		SearchRequestBuilder srb = esIntegrationComponent.prepareESScrollSearchRequestBuilder(indexName);
+		documentIndexStructureBuilder.buildSearchForIndexedCommentsOfDocuments(srb, spaceKey, documentIds);
+
+		SearchResponse scrollResp = esIntegrationComponent.executeESSearchRequest(srb);
+
+		if (scrollResp.getHits().getTotalHits() > 0) {
+			if (isClosed())
+				throw new InterruptedException("Interrupted because River is closed");
+			scrollResp = esIntegrationComponent.executeESScrollSearchNextRequest(scrollResp);
+			while (scrollResp.getHits().getHits().length > 0) {
+				for (SearchHit hit : scrollResp.getHits()) {
+					if (!commentIds.contains(hit.getId())) {
+						logger.debug("Go to delete stale indexed comment for ES document id {}", hit.getId());
+						documentIndexStructureBuilder.deleteESDocument(esBulk, hit);
+						indexingInfo.commentsDeleted++;
+						deletedInThisBulk = true;
+					}
+				}
+				scrollResp = esIntegrationComponent.executeESScrollSearchNextRequest(scrollResp);
+			}
+		}
+		return deletedInThisBulk;
+	}
+
 	/**
 	 * Check if we must interrupt update process because ElasticSearch runtime needs it.
 	 * 
@@ -118,6 +118,21 @@ public class SpaceIndexerCoordinator implements ISpaceIndexerCoordinator {
 	 */
 	protected final Map<String, SpaceIndexerBase> spaceIndexers = new HashMap<String, SpaceIndexerBase>();
 
+	/**
+	 * Pool passed to started Space indexers to transform documents in parallel. May be null.
+	 */
+	protected DocumentTransformPool documentTransformPool;
+
+	/**
+	 * Passed to started Space indexers to delete comments removed from re-indexed documents.
+	 */
+	protected boolean commentReconciliation = false;
+
+	/**
+	 * Passed to started Space indexers to discard state of documents not written into search index.
+	 */
+	protected boolean partialUpdates = false;
+
 	/**
 	 * Constructor with parameters.
 	 * 
@@ -265,6 +280,9 @@ public class SpaceIndexerCoordinator implements ISpaceIndexerCoordinator {
 			}
 
 			SpaceIndexerBase indexer = prepareSpaceIndexer(spaceKey, fullUpdateNecessary);
+			indexer.documentTransformPool = documentTransformPool;
+			indexer.commentReconciliation = commentReconciliation;
+			indexer.partialUpdates = partialUpdates;
 			Thread it = esIntegrationComponent.acquireIndexingThread("remote_river_indexer_" + spaceKey, indexer);
 			esIntegrationComponent.storeDatetimeValue(spaceKey, STORE_PROPERTYNAME_LAST_INDEX_UPDATE_START_DATE, new Date(),
 					null);
@@ -418,6 +436,35 @@ public class SpaceIndexerCoordinator implements ISpaceIndexerCoordinator {
 		}
 	}
 
+	/**
+	 * Configuration - Set pool to be used by Space indexers started later to transform documents in parallel.
+	 * 
+	 * @param documentTransformPool to use, null to transform documents in indexer threads
+	 */
+	public void setDocumentTransformPool(DocumentTransformPool documentTransformPool) {
+		this.documentTransformPool = documentTransformPool;
+	}
+
+	/**
+	 * Configuration - Set if Space indexers started later delete comments removed from re-indexed documents.
+	 * 
+	 * @param commentReconciliation to set
+	 * @see IDocumentIndexStructureBuilder#isCommentReconciliationEnabled()
+	 */
+	public void setCommentReconciliation(boolean commentReconciliation) {
+		this.commentReconciliation = commentReconciliation;
+	}
+
+	/**
+	 * Configuration - Set if Space indexers started later write documents by partial updates.
+	 * 
+	 * @param partialUpdates to set
+	 * @see IDocumentIndexStructureBuilder#isPartialUpdateEnabled()
+	 */
+	public void setPartialUpdates(boolean partialUpdates) {
+		this.partialUpdates = partialUpdates;
+	}
+
 	/**
 	 * Configuration - Set period of index automatic full update from remote system [ms]. value <= 0 means never.
 	 * 
@@ -20,6 +20,8 @@ public class SpaceIndexingInfo {
 
 	private static final String DOCFIELD_DOCUMENTS_DELETED = "documents_deleted";
 	private static final String DOCFIELD_COMMENTS_DELETED = "comments_deleted";
+	private static final String DOCFIELD_VERSION_CONFLICTS = "version_conflicts";
+	private static final String DOCFIELD_COMMENT_VERSION_CONFLICTS = "comment_version_conflicts";
 	private static final String DOCVAL_RESULT_OK = "OK";
 	private static final String DOCVAL_TYPE_FULL = "FULL";
 	public static final String DOCFIELD_ERROR_MESSAGE = "error_message";
@@ -56,6 +58,15 @@ public class SpaceIndexingInfo {
 	 * Number of comments saved as separate es documents deleted during this indexing run.
 	 */
 	public int commentsDeleted;
+	/**
+	 * Number of es documents not written during this indexing run because newer version of them was in index already.
+	 */
+	public int versionConflicts;
+	/**
+	 * Number of comments saved as separate es documents not written during this indexing run because newer version of
+	 * them was in index already.
+	 */
+	public int commentVersionConflicts;
 
 	/**
 	 * Date of indexing start.
@@ -165,6 +176,8 @@ public class SpaceIndexingInfo {
 		builder.field(DOCFIELD_DOCUMENTS_DELETED, documentsDeleted);
 		builder.field(DOCFIELD_COMMENTS_DELETED, commentsDeleted);
 		builder.field(DOCFIELD_DOCUMENTS_WITH_ERROR, documentsWithError);
+		builder.field(DOCFIELD_VERSION_CONFLICTS, versionConflicts);
+		builder.field(DOCFIELD_COMMENT_VERSION_CONFLICTS, commentVersionConflicts);
 		if (printFinalStatus) {
 			builder.field(DOCFIELD_RESULT, finishedOK ? DOCVAL_RESULT_OK : "ERROR");
 			builder.field(DOCFIELD_TIME_ELAPSED, timeElapsed + "ms");
@@ -192,6 +205,11 @@ public class SpaceIndexingInfo {
 		ret.documentsDeleted = Utils.nodeIntegerValue(document.get(DOCFIELD_DOCUMENTS_DELETED));
 		ret.commentsDeleted = Utils.nodeIntegerValue(document.get(DOCFIELD_COMMENTS_DELETED));
 		ret.documentsWithError = Utils.nodeIntegerValue(document.get(DOCFIELD_DOCUMENTS_WITH_ERROR));
+		// conflicts are not available in documents stored by older versions of river
+		Integer vc = Utils.nodeIntegerValue(document.get(DOCFIELD_VERSION_CONFLICTS));
+		ret.versionConflicts = vc != null ? vc : 0;
+		vc = Utils.nodeIntegerValue(document.get(DOCFIELD_COMMENT_VERSION_CONFLICTS));
+		ret.commentVersionConflicts = vc != null ? vc : 0;
 		ret.finishedOK = DOCVAL_RESULT_OK.equals(document.get(DOCFIELD_RESULT));
 		ret.timeElapsed = Long.parseLong(((String) document.get(DOCFIELD_TIME_ELAPSED)).replace("ms", ""));
 		ret.addErrorMessage((String) document.get(DOCFIELD_ERROR_MESSAGE));
@@ -42,6 +42,12 @@ public class SpacePaginatingIndexer extends SpaceIndexerBase {
 
 		logger.info("Go to perform full update for Space {}", spaceKey);
 
+		// pages are coalesced into one bulk request until it contains bulk size of documents
+		int updatedInThisBulk = 0;
+		boolean deletedInThisBulk = false;
+		BulkRequestBuilder esBulk = null;
+		int maxInThisBulk = 0;
+
 		boolean cont = true;
 		while (cont) {
 			if (isClosed())
@@ -59,9 +65,10 @@ public class SpacePaginatingIndexer extends SpaceIndexerBase {
 				if (isClosed())
 					throw new InterruptedException("Interrupted because River is closed");
 
-				int updatedInThisBulk = 0;
-				boolean deletedInThisBulk = false;
-				BulkRequestBuilder esBulk = esIntegrationComponent.prepareESBulkRequestBuilder();
+				if (esBulk == null) {
+					esBulk = esIntegrationComponent.prepareESBulkRequestBuilder();
+					maxInThisBulk = esIntegrationComponent.getBulkSize(spaceKey, 0);
+				}
 				for (Map<String, Object> document : res.getDocuments()) {
 					String documentId = getDocumentIdChecked(document);
 					if (getDocumentDetail(documentId, document)) {
@@ -69,7 +76,7 @@ public class SpacePaginatingIndexer extends SpaceIndexerBase {
 						if (documentIndexStructureBuilder.extractDocumentDeleted(document)) {
 							deletedInThisBulk = prepareDeleteByRemoteDocumentId(esBulk, documentId) || deletedInThisBulk;
 						} else {
-							documentIndexStructureBuilder.indexDocument(esBulk, spaceKey, document);
+							indexDocument(esBulk, document);
 							updatedInThisBulk++;
 						}
 					}
@@ -77,16 +84,21 @@ public class SpacePaginatingIndexer extends SpaceIndexerBase {
 						throw new InterruptedException("Interrupted because River is closed");
 				}
 
-				if (updatedInThisBulk > 0 || deletedInThisBulk) {
-					executeBulkUpdate(esBulk);
-					indexingInfo.documentsUpdated += updatedInThisBulk;
-				}
-
 				startAt = res.getStartAt() + res.getDocumentsCount();
 				if (res.getTotal() != null) {
 					cont = res.getTotal() > startAt;
 				}
 			}
+
+			if (esBulk != null && (!cont || updatedInThisBulk >= maxInThisBulk)) {
+				if (updatedInThisBulk > 0 || deletedInThisBulk) {
+					executeBulkUpdate(esBulk);
+					indexingInfo.documentsUpdated += updatedInThisBulk;
+				}
+				esBulk = null;
+				updatedInThisBulk = 0;
+				deletedInThisBulk = false;
+			}
 		}
 	}
 }
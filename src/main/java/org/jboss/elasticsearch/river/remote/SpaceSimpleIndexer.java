@@ -11,7 +11,8 @@ import org.elasticsearch.action.bulk.BulkRequestBuilder;
 
 /**
  * Class used to run one index update process for one Space. Full indexing is done always with one call to get list of
- * documents from emote system.
+ * documents from emote system. Documents are written in bulk requests of size given by
+ * {@link IESIntegration#getBulkSize(String, int)}.
  * <p>
  * Can be used only for one run, then must be discarded and new instance created!
  * 
@@ -53,6 +54,7 @@ public class SpaceSimpleIndexer extends SpaceIndexerBase {
 			int updatedInThisBulk = 0;
 			boolean deletedInThisBulk = false;
 			BulkRequestBuilder esBulk = esIntegrationComponent.prepareESBulkRequestBuilder();
+			int maxInThisBulk = esIntegrationComponent.getBulkSize(spaceKey, bulkSize);
 			for (Map<String, Object> document : res.getDocuments()) {
 				String documentId = getDocumentIdChecked(document);
 				if (getDocumentDetail(documentId, document)) {
@@ -60,13 +62,14 @@ public class SpaceSimpleIndexer extends SpaceIndexerBase {
 					if (documentIndexStructureBuilder.extractDocumentDeleted(document)) {
 						deletedInThisBulk = prepareDeleteByRemoteDocumentId(esBulk, documentId) || deletedInThisBulk;
 					} else {
-						documentIndexStructureBuilder.indexDocument(esBulk, spaceKey, document);
+						indexDocument(esBulk, document);
 						updatedInThisBulk++;
 					}
-					if (updatedInThisBulk >= bulkSize) {
+					if (updatedInThisBulk >= maxInThisBulk) {
 						executeBulkUpdate(esBulk);
 						indexingInfo.documentsUpdated += updatedInThisBulk;
 						esBulk = esIntegrationComponent.prepareESBulkRequestBuilder();
+						maxInThisBulk = esIntegrationComponent.getBulkSize(spaceKey, bulkSize);
 						updatedInThisBulk = 0;
 						deletedInThisBulk = false;
 					}
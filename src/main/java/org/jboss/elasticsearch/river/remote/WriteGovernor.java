@@ -0,0 +1,355 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthStatus;
+import org.elasticsearch.action.admin.cluster.health.ClusterIndexHealth;
+import org.elasticsearch.action.admin.cluster.node.info.NodeInfo;
+import org.elasticsearch.action.admin.cluster.node.info.NodesInfoResponse;
+import org.elasticsearch.action.admin.cluster.node.stats.NodeStats;
+import org.elasticsearch.action.admin.cluster.node.stats.NodesStatsResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.threadpool.ThreadPoolStats;
+
+/**
+ * Governor of writes into ElasticSearch cluster. Samples cluster health, aliases and bulk thread pool stats of all nodes
+ * in given interval by background thread (see {@link #run()}), and pauses or slows down bulk requests from indexers
+ * when cluster is not able to handle them:
+ * <ul>
+ * <li>writes into index are paused while index health is RED. Alias is resolved to concrete indices, writes into it are
+ * paused while health of some of them is RED.
+ * <li>writes are slowed down (delayed) while bulk thread pool queue on some node is filled over high watermark, or some
+ * bulk request was rejected by node since last sample.
+ * </ul>
+ * Last sample is kept as immutable snapshot, so indexer threads asking for write permit never wait for sampling nor
+ * for each other. Thread safe.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class WriteGovernor implements Runnable {
+
+	protected static final String THREAD_POOL_BULK = "bulk";
+
+	/**
+	 * State of write throttling.
+	 */
+	public static enum State {
+		/**
+		 * writes are not throttled
+		 */
+		NONE,
+		/**
+		 * writes are delayed
+		 */
+		SLOW,
+		/**
+		 * writes are paused
+		 */
+		PAUSE;
+	}
+
+	/**
+	 * Immutable snapshot of sampled cluster state.
+	 */
+	protected static final class Sample {
+
+		protected final Date date;
+		protected final ClusterHealthStatus clusterStatus;
+		/**
+		 * Health status of concrete indices.
+		 */
+		protected final Map<String, ClusterHealthStatus> indexStatus;
+		/**
+		 * Concrete indices for each alias.
+		 */
+		protected final Map<String, Set<String>> aliasIndices;
+		protected final int bulkQueueMaxPercent;
+		protected final boolean bulkRejectedSinceLastSample;
+
+		protected Sample(Date date, ClusterHealthStatus clusterStatus, Map<String, ClusterHealthStatus> indexStatus,
+				Map<String, Set<String>> aliasIndices, int bulkQueueMaxPercent, boolean bulkRejectedSinceLastSample) {
+			this.date = date;
+			this.clusterStatus = clusterStatus;
+			this.indexStatus = indexStatus;
+			this.aliasIndices = aliasIndices;
+			this.bulkQueueMaxPercent = bulkQueueMaxPercent;
+			this.bulkRejectedSinceLastSample = bulkRejectedSinceLastSample;
+		}
+
+		/**
+		 * Get health status of index. Alias is resolved to concrete indices, worst status of them is returned.
+		 * 
+		 * @param indexName name of index or alias
+		 * @return health status or null if index is not known
+		 */
+		protected ClusterHealthStatus getIndexStatus(String indexName) {
+			ClusterHealthStatus ret = indexStatus.get(indexName);
+			if (ret != null)
+				return ret;
+			Set<String> indices = aliasIndices.get(indexName);
+			if (indices == null)
+				return null;
+			for (String index : indices) {
+				ClusterHealthStatus s = indexStatus.get(index);
+				if (s != null && (ret == null || s.value() > ret.value()))
+					ret = s;
+			}
+			return ret;
+		}
+	}
+
+	protected static final Sample EMPTY_SAMPLE = new Sample(null, null,
+			Collections.<String, ClusterHealthStatus> emptyMap(), Collections.<String, Set<String>> emptyMap(), 0, false);
+
+	private final Client client;
+	private final IESIntegration esIntegration;
+	private final ESLogger logger;
+
+	private final long sampleInterval;
+	private final int queueHighPercent;
+	private final long slowDelay;
+
+	protected volatile Sample sample = EMPTY_SAMPLE;
+	/**
+	 * Number of rejected bulk requests per node from last sample. Used by sampling thread only.
+	 */
+	private final Map<String, Long> bulkRejectedLast = new HashMap<String, Long>();
+
+	private volatile State lastState = State.NONE;
+	private volatile String lastReason;
+
+	private final AtomicLong pausedTime = new AtomicLong();
+	private final AtomicLong slowedBulks = new AtomicLong();
+
+	/**
+	 * Create governor. Run it in background thread to sample cluster state.
+	 * 
+	 * @param client ES client used to sample cluster state
+	 * @param esIntegration used to check if river is closed and create logger
+	 * @param sampleInterval interval of cluster state sampling [ms]
+	 * @param queueHighPercent how much (in percent) may be bulk thread pool queue filled on any node before writes are
+	 *          slowed down
+	 * @param slowDelay delay of bulk request when writes are slowed down [ms]
+	 * @see IESIntegration#acquireIndexingThread(String, Runnable)
+	 */
+	public WriteGovernor(Client client, IESIntegration esIntegration, long sampleInterval, int queueHighPercent,
+			long slowDelay) {
+		this.client = client;
+		this.esIntegration = esIntegration;
+		this.logger = esIntegration.createLogger(WriteGovernor.class);
+		this.sampleInterval = sampleInterval;
+		this.queueHighPercent = queueHighPercent;
+		this.slowDelay = slowDelay;
+	}
+
+	/**
+	 * Sample cluster state in configured interval until river is closed or thread is interrupted.
+	 */
+	@Override
+	public void run() {
+		while (!esIntegration.isClosed()) {
+			sample();
+			try {
+				Thread.sleep(sampleInterval);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Wait until write into given index is allowed. Blocks while writes are paused, waits for configured delay if writes
+	 * are slowed down.
+	 * 
+	 * @param indexName name of index write goes to
+	 * @throws ElasticsearchException if river is closed or thread interrupted during wait
+	 */
+	public void acquireWritePermit(String indexName) throws ElasticsearchException {
+		long pauseStart = -1;
+		try {
+			while (true) {
+				State state = getState(indexName);
+				if (state == State.PAUSE) {
+					if (pauseStart < 0) {
+						pauseStart = System.currentTimeMillis();
+						logger.info("Writes into index {} paused: {}", indexName, lastReason);
+					}
+					if (esIntegration.isClosed())
+						throw new ElasticsearchException("Interrupted because River is closed");
+					Thread.sleep(sampleInterval);
+					continue;
+				}
+				if (state == State.SLOW) {
+					slowedBulks.incrementAndGet();
+					logger.debug("Writes into index {} slowed down: {}", indexName, lastReason);
+					Thread.sleep(slowDelay);
+				}
+				return;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ElasticsearchException("Interrupted during wait for write permit", e);
+		} finally {
+			if (pauseStart >= 0) {
+				pausedTime.addAndGet(System.currentTimeMillis() - pauseStart);
+			}
+		}
+	}
+
+	/**
+	 * Get throttling state for writes into given index from last sample of cluster state.
+	 * 
+	 * @param indexName name of index or alias to get state for
+	 * @return state
+	 */
+	public State getState(String indexName) {
+		Sample s = sample;
+		State ret = State.NONE;
+		String reason = null;
+		if (s.getIndexStatus(indexName) == ClusterHealthStatus.RED) {
+			ret = State.PAUSE;
+			reason = "health of index " + indexName + " is RED";
+		} else if (s.bulkQueueMaxPercent >= queueHighPercent) {
+			ret = State.SLOW;
+			reason = "bulk thread pool queue is " + s.bulkQueueMaxPercent + "% full";
+		} else if (s.bulkRejectedSinceLastSample) {
+			ret = State.SLOW;
+			reason = "bulk requests rejected by cluster";
+		}
+		lastState = ret;
+		lastReason = reason;
+		return ret;
+	}
+
+	/**
+	 * Sample actual state of cluster. Errors are only logged, previous sample is kept in this case. Called from sampling
+	 * thread only.
+	 */
+	protected void sample() {
+		try {
+			Date date = new Date();
+			ClusterHealthResponse health = client.admin().cluster().prepareHealth().execute().actionGet();
+			Map<String, ClusterHealthStatus> is = new HashMap<String, ClusterHealthStatus>();
+			for (ClusterIndexHealth ih : health.getIndices().values()) {
+				is.put(ih.getIndex(), ih.getStatus());
+			}
+
+			Map<String, Set<String>> aliasIndices = new HashMap<String, Set<String>>();
+			MetaData metaData = client.admin().cluster().prepareState().clear().setMetaData(true).execute().actionGet()
+					.getState().getMetaData();
+			for (IndexMetaData imd : metaData) {
+				for (Iterator<String> it = imd.getAliases().keysIt(); it.hasNext();) {
+					String alias = it.next();
+					Set<String> indices = aliasIndices.get(alias);
+					if (indices == null) {
+						indices = new HashSet<String>();
+						aliasIndices.put(alias, indices);
+					}
+					indices.add(imd.getIndex());
+				}
+			}
+
+			Map<String, Long> queueCapacity = new HashMap<String, Long>();
+			NodesInfoResponse nodesInfo = client.admin().cluster().prepareNodesInfo().clear().setThreadPool(true).execute()
+					.actionGet();
+			for (NodeInfo ni : nodesInfo.getNodes()) {
+				if (ni.getThreadPool() != null) {
+					for (ThreadPool.Info tpi : ni.getThreadPool()) {
+						if (THREAD_POOL_BULK.equals(tpi.getName()) && tpi.getQueueSize() != null) {
+							queueCapacity.put(ni.getNode().getId(), tpi.getQueueSize().singles());
+						}
+					}
+				}
+			}
+
+			int maxPercent = 0;
+			boolean rejected = false;
+			NodesStatsResponse nodesStats = client.admin().cluster().prepareNodesStats().clear().setThreadPool(true)
+					.execute().actionGet();
+			for (NodeStats ns : nodesStats.getNodes()) {
+				if (ns.getThreadPool() == null)
+					continue;
+				String nodeId = ns.getNode().getId();
+				for (ThreadPoolStats.Stats tps : ns.getThreadPool()) {
+					if (THREAD_POOL_BULK.equals(tps.getName())) {
+						Long capacity = queueCapacity.get(nodeId);
+						maxPercent = Math.max(maxPercent, countQueuePercent(tps.getQueue(), capacity));
+						Long lastRejected = bulkRejectedLast.put(nodeId, tps.getRejected());
+						if (lastRejected != null && tps.getRejected() > lastRejected)
+							rejected = true;
+					}
+				}
+			}
+			sample = new Sample(date, health.getStatus(), is, aliasIndices, maxPercent, rejected);
+		} catch (Exception e) {
+			logger.warn("Unable to sample cluster state for write throttling: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Count how much is queue filled.
+	 * 
+	 * @param queue actual number of items in queue
+	 * @param capacity of queue, null or negative if unbounded
+	 * @return percent of queue capacity filled, 0 for unbounded queue
+	 */
+	protected static int countQueuePercent(int queue, Long capacity) {
+		if (capacity == null || capacity <= 0)
+			return 0;
+		return (int) Math.min(100, (queue * 100L) / capacity);
+	}
+
+	/**
+	 * Get last computed state.
+	 * 
+	 * @return last state
+	 */
+	public State getLastState() {
+		return lastState;
+	}
+
+	/**
+	 * Write actual state of governor into JSON object.
+	 * 
+	 * @param builder to write state into
+	 * @throws IOException
+	 */
+	public void buildDocument(XContentBuilder builder) throws IOException {
+		Sample s = sample;
+		String reason = lastReason;
+		builder.startObject();
+		builder.field("state", lastState.name().toLowerCase(Locale.ENGLISH));
+		if (reason != null)
+			builder.field("reason", reason);
+		if (s.date != null)
+			builder.field("last_sample", s.date);
+		if (s.clusterStatus != null)
+			builder.field("cluster_status", s.clusterStatus.name());
+		builder.field("bulk_queue_max_percent", s.bulkQueueMaxPercent);
+		builder.field("paused_time", pausedTime.get());
+		builder.field("slowed_bulks", slowedBulks.get());
+		builder.endObject();
+	}
+
+}
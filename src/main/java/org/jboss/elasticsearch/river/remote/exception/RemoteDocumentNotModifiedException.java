@@ -0,0 +1,23 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote.exception;
+
+/**
+ * Exception used when remote document details are not modified since last indexing, so document doesn't need to be
+ * indexed again.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class RemoteDocumentNotModifiedException extends Exception {
+
+	public RemoteDocumentNotModifiedException() {
+	}
+
+	public RemoteDocumentNotModifiedException(String message) {
+		super(message);
+	}
+
+}
@@ -19,31 +19,32 @@ package org.jboss.elasticsearch.river.remote.sitemap;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.zip.GZIPInputStream;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.commons.io.input.BOMInputStream;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.jboss.elasticsearch.river.remote.sitemap.AbstractSiteMap.SitemapType;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.ErrorHandler;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-import org.xml.sax.SAXParseException;
 
 /**
+ * Sitemap parser. XML formats are read by streaming StAX parser, so entries can be passed to
+ * {@link SiteMapURLHandler} one by one without building whole document in memory, see
+ * {@link #walkSiteMap(String, InputStream, URL, SiteMapURLHandler)}.
+ * 
  * @author http://code.google.com/p/crawler-commons
  */
 public class SiteMapParser {
@@ -53,12 +54,19 @@ public class SiteMapParser {
 	/** According to the specs, 50K URLs per Sitemap is the max */
 	private static final int MAX_URLS = 50000;
 
-	/** Sitemap docs must be limited to 10MB (10,485,760 bytes) */
+	/**
+	 * Sitemap docs must be limited to 10MB (10,485,760 bytes). Default of {@link #setMaxBytes(int)}.
+	 */
 	public static int MAX_BYTES_ALLOWED = 10485760;
 
+	private static final XMLInputFactory xmlInputFactory = createXMLInputFactory();
+
 	/** True (by default) if invalid URLs should be rejected */
 	private boolean strict;
 
+	/** Max size of sitemap content after decompression */
+	private int maxBytes = MAX_BYTES_ALLOWED;
+
 	public SiteMapParser() {
 		this(true);
 	}
@@ -67,6 +75,13 @@ public class SiteMapParser {
 		this.strict = strict;
 	}
 
+	private static XMLInputFactory createXMLInputFactory() {
+		XMLInputFactory f = XMLInputFactory.newInstance();
+		f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		f.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		return f;
+	}
+
 	/**
 	 * @return whether invalid URLs will be rejected
 	 */
@@ -74,11 +89,67 @@ public class SiteMapParser {
 		return strict;
 	}
 
+	/**
+	 * @return max size of sitemap content in bytes, after decompression for gzipped sitemaps
+	 */
+	public int getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Set max size of sitemap content. Parsing fails with {@link IOException} when more bytes are read. Gzipped sitemap
+	 * is limited on decompressed content.
+	 * 
+	 * @param maxBytes max size in bytes
+	 */
+	public void setMaxBytes(int maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
 	/**
 	 * Returns a SiteMap or SiteMapIndex given a content type, byte content and the URL of a sitemap
 	 */
 	public AbstractSiteMap parseSiteMap(String contentType, byte[] content, URL url) throws UnknownFormatException,
 			IOException {
+		final List<SiteMapURL> urls = new ArrayList<SiteMapURL>();
+		AbstractSiteMap asm = walkSiteMap(contentType, new ByteArrayInputStream(content), url, new SiteMapURLHandler() {
+
+			@Override
+			public void handleSiteMapURL(SiteMapURL sUrl) {
+				urls.add(sUrl);
+			}
+		}, MAX_URLS);
+		if (!asm.isIndex()) {
+			SiteMap sitemap = (SiteMap) asm;
+			for (SiteMapURL sUrl : urls) {
+				sitemap.addSiteMapUrl(sUrl);
+			}
+		}
+		return asm;
+	}
+
+	/**
+	 * Parse sitemap from stream and pass its entries to handler as they are read, so memory used does not depend on
+	 * sitemap size. There is no limit of number of entries, size of content is limited by {@link #getMaxBytes()}.
+	 * 
+	 * @param contentType of sitemap content, may be null
+	 * @param content stream to read sitemap from, not closed by this method
+	 * @param url of sitemap
+	 * @param handler to pass sitemap entries to
+	 * @return SiteMapIndex with listed sitemaps if content is sitemap index (handler is not called in this case). SiteMap
+	 *         with type set but without any URLs otherwise.
+	 * @throws UnknownFormatException if content format is unknown or it is not valid XML
+	 * @throws IOException
+	 */
+	public AbstractSiteMap walkSiteMap(String contentType, InputStream content, URL url, SiteMapURLHandler handler)
+			throws UnknownFormatException, IOException {
+		return walkSiteMap(contentType, content, url, handler, Integer.MAX_VALUE);
+	}
+
+	private AbstractSiteMap walkSiteMap(String contentType, InputStream content, URL url, SiteMapURLHandler handler,
+			int maxUrls) throws UnknownFormatException, IOException {
+		if (contentType == null)
+			contentType = "";
 
 		// Use extension or MIME type to determine how we should try
 		// to process the response
@@ -87,58 +158,41 @@ public class SiteMapParser {
 				|| contentType.contains("application/rss+xml")) {
 
 			// Try parsing the XML which could be in a number of formats
-			return processXml(url, content);
+			return processXml(url, new LimitedInputStream(content, maxBytes), handler, maxUrls);
 		} else if (url.getPath().endsWith(".txt") || contentType.contains("text/plain")) {
 			// plain text
-			return (AbstractSiteMap) processText(content, url.toString());
+			return processText(new LimitedInputStream(content, maxBytes), url.toString(), handler, maxUrls);
 		} else if (url.getPath().endsWith(".gz") || contentType.contains("application/gzip")
 				|| contentType.contains("application/x-gzip") || contentType.contains("application/x-gunzip")
 				|| contentType.contains("application/gzipped") || contentType.contains("application/gzip-compressed")
 				|| contentType.contains("application/x-compress") || contentType.contains("gzip/document")
 				|| contentType.contains("application/octet-stream")) {
-			return processGzip(url, content);
+			return processGzip(url, content, handler, maxUrls);
 		}
 		throw new UnknownFormatException("Unknown format " + contentType + " at " + url);
 	}
 
-	/**
-	 * Parse the given XML content.
-	 * 
-	 * @param sitemapUrl
-	 * @param xmlContent
-	 * @return
-	 * @throws UnknownFormatException
-	 */
-	private AbstractSiteMap processXml(URL sitemapUrl, byte[] xmlContent) throws UnknownFormatException {
-
-		BOMInputStream bomIs = new BOMInputStream(new ByteArrayInputStream(xmlContent));
-		InputSource is = new InputSource();
-		is.setCharacterStream(new BufferedReader(new InputStreamReader(bomIs)));
-		return processXml(sitemapUrl, is);
-	}
-
 	/**
 	 * Process a text-based Sitemap. Text sitemaps only list URLs but no priorities, last mods, etc.
 	 * 
 	 * @param content
 	 * @throws IOException
 	 */
-	private SiteMap processText(byte[] content, String sitemapUrl) throws IOException {
+	private SiteMap processText(InputStream content, String sitemapUrl, SiteMapURLHandler handler, int maxUrls)
+			throws IOException {
 
 		logger.debug("Processing textual Sitemap");
 
 		SiteMap textSiteMap = new SiteMap(sitemapUrl);
 		textSiteMap.setType(SitemapType.TEXT);
 
-		BOMInputStream bomIs = new BOMInputStream(new ByteArrayInputStream(content));
-		@SuppressWarnings("resource")
-		BufferedReader reader = new BufferedReader(new InputStreamReader(bomIs));
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new BOMInputStream(content)));
 
 		String line;
 
 		int i = 1;
-		while ((line = reader.readLine()) != null) {
-			if (line.length() > 0 && i <= MAX_URLS) {
+		while ((line = reader.readLine()) != null && i <= maxUrls) {
+			if (line.length() > 0) {
 				try {
 					URL url = new URL(line);
 					boolean valid = urlIsLegal(textSiteMap.getBaseUrl(), url.toString());
@@ -150,8 +204,7 @@ public class SiteMapParser {
 							logger.debug(sb.toString());
 						}
 						i++;
-						SiteMapURL surl = new SiteMapURL(url, valid);
-						textSiteMap.addSiteMapUrl(surl);
+						handler.handleSiteMapURL(new SiteMapURL(url, valid));
 					}
 				} catch (MalformedURLException e) {
 					logger.debug("Bad URL [" + line + "].");
@@ -166,81 +219,61 @@ public class SiteMapParser {
 	 * Decompress the gzipped content and process the resulting XML Sitemap.
 	 * 
 	 * @param url - URL of the gzipped content
-	 * @param response - Gzipped content
-	 * @throws MalformedURLException
+	 * @param content - Gzipped content
 	 * @throws IOException
 	 * @throws UnknownFormatException
 	 */
-	private AbstractSiteMap processGzip(URL url, byte[] response) throws MalformedURLException, IOException,
-			UnknownFormatException {
+	private AbstractSiteMap processGzip(URL url, InputStream content, SiteMapURLHandler handler, int maxUrls)
+			throws IOException, UnknownFormatException {
 
 		logger.debug("Processing gzip");
 
-		AbstractSiteMap smi;
-
-		InputStream is = new ByteArrayInputStream(response);
-
-		// Remove .gz ending
-		String xmlUrl = url.toString().replaceFirst("\\.gz$", "");
-
-		logger.debug("XML url = " + xmlUrl);
-
-		BOMInputStream decompressed = new BOMInputStream(new GZIPInputStream(is));
-		InputSource in = new InputSource(decompressed);
-		in.setSystemId(xmlUrl);
-		smi = processXml(url, in);
-		decompressed.close();
-		return smi;
+		// decompressed on the fly, so limit is applied on decompressed content without buffering it
+		return processXml(url, new LimitedInputStream(new GZIPInputStream(content), maxBytes), handler, maxUrls);
 	}
 
 	/**
-	 * Parse the given XML content.
+	 * Parse the given XML content. Format is determined by the root element.
 	 * 
 	 * @param sitemapUrl
-	 * @param is
+	 * @param content
 	 * @throws UnknownFormatException
 	 */
-	private AbstractSiteMap processXml(URL sitemapUrl, InputSource is) throws UnknownFormatException {
-
-		Document doc = null;
+	private AbstractSiteMap processXml(URL sitemapUrl, LimitedInputStream content, SiteMapURLHandler handler,
+			int maxUrls) throws UnknownFormatException, IOException {
 
+		XMLStreamReader reader = null;
 		try {
-			DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-			DocumentBuilder db = dbf.newDocumentBuilder();
-			db.setErrorHandler(new ErrorHandler() {
-
-				@Override
-				public void warning(SAXParseException exception) throws SAXException {
-					logger.warn("Sitemap XML warning: " + exception.getMessage());
-				}
-
-				@Override
-				public void fatalError(SAXParseException exception) throws SAXException {
-					logger.warn("Sitemap XML fatalError: " + exception.getMessage());
-				}
-
-				@Override
-				public void error(SAXParseException exception) throws SAXException {
-					logger.warn("Sitemap XML error: " + exception.getMessage());
-
+			// encoding is detected by the parser from the XML declaration
+			reader = xmlInputFactory.createXMLStreamReader(new BOMInputStream(content));
+			while (reader.hasNext()) {
+				if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+					String name = elementName(reader);
+					if ("sitemapindex".equals(name)) {
+						return parseSitemapIndex(sitemapUrl, reader, maxUrls);
+					} else if ("urlset".equals(name)) {
+						// This is a regular Sitemap
+						return parseXmlSitemap(sitemapUrl, reader, handler);
+					} else if ("feed".equals(name)) {
+						return parseAtom(sitemapUrl, reader, handler, maxUrls);
+					} else if ("rss".equals(name)) {
+						return parseRSS(sitemapUrl, reader, handler, maxUrls);
+					}
 				}
-			});
-			doc = db.parse(is);
-		} catch (Exception e) {
+			}
+		} catch (XMLStreamException e) {
+			// parser wraps exception thrown by stream
+			content.checkLimit(sitemapUrl);
+			logger.warn("Sitemap XML error: " + e.getMessage());
 			throw new UnknownFormatException("Error parsing XML for " + sitemapUrl);
-		}
-
-		// See if this is a sitemap index
-		NodeList nodeList = doc.getElementsByTagName("sitemapindex");
-		if (nodeList.getLength() > 0) {
-			nodeList = doc.getElementsByTagName("sitemap");
-			return parseSitemapIndex(sitemapUrl, nodeList);
-		} else if (doc.getElementsByTagName("urlset").getLength() > 0) {
-			// This is a regular Sitemap
-			return parseXmlSitemap(sitemapUrl, doc);
-		} else if (doc.getElementsByTagName("link").getLength() > 0) {
-			// Could be RSS or Atom
-			return parseSyndicationFormat(sitemapUrl, doc);
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (XMLStreamException e) {
+					// nothing to do
+				}
+			}
 		}
 		throw new UnknownFormatException("Unknown XML format for " + sitemapUrl);
 	}
@@ -252,48 +285,57 @@ public class SiteMapParser {
 	 * >http://www.example.com/catalog?item=12&amp;desc=vacation_hawaii</loc> <changefreq>weekly</changefreq> </url>
 	 * </urlset>
 	 * 
-	 * @param doc
+	 * @param reader positioned on <code>urlset</code> element
 	 */
-	private SiteMap parseXmlSitemap(URL sitemapUrl, Document doc) {
+	private SiteMap parseXmlSitemap(URL sitemapUrl, XMLStreamReader reader, SiteMapURLHandler handler)
+			throws XMLStreamException {
 
 		SiteMap sitemap = new SiteMap(sitemapUrl);
 		sitemap.setType(SitemapType.XML);
 
-		NodeList list = doc.getElementsByTagName("url");
-
 		// Loop through the <url>s
-		for (int i = 0; i < list.getLength(); i++) {
-
-			Node n = list.item(i);
-
-			if (n.getNodeType() == Node.ELEMENT_NODE) {
-				Element elem = (Element) n;
-
-				String loc = getElementValue(elem, "loc");
+		int i = 0;
+		while (nextChildElement(reader)) {
+			if (!"url".equals(elementName(reader))) {
+				skipElement(reader);
+				continue;
+			}
+			i++;
+			String loc = null;
+			String lastMod = null;
+			String changeFreq = null;
+			String priority = null;
+			while (nextChildElement(reader)) {
+				String name = elementName(reader);
+				if ("loc".equals(name) && loc == null) {
+					loc = readText(reader);
+				} else if ("lastmod".equals(name) && lastMod == null) {
+					lastMod = readText(reader);
+				} else if ("changefreq".equals(name) && changeFreq == null) {
+					changeFreq = readText(reader);
+				} else if ("priority".equals(name) && priority == null) {
+					priority = readText(reader);
+				} else {
+					skipElement(reader);
+				}
+			}
 
-				URL url = null;
-				try {
-					url = new URL(loc);
-					String lastMod = getElementValue(elem, "lastmod");
-					String changeFreq = getElementValue(elem, "changefreq");
-					String priority = getElementValue(elem, "priority");
-					boolean valid = urlIsLegal(sitemap.getBaseUrl(), url.toString());
+			try {
+				URL url = new URL(loc);
+				boolean valid = urlIsLegal(sitemap.getBaseUrl(), url.toString());
 
-					if (valid || !strict) {
-						SiteMapURL sUrl = new SiteMapURL(url.toString(), lastMod, changeFreq, priority, valid);
-						sitemap.addSiteMapUrl(sUrl);
-						if (logger.isDebugEnabled()) {
-							StringBuffer sb = new StringBuffer("  ");
-							sb.append(i + 1).append(". ").append(sUrl);
-							logger.debug(sb.toString());
-						}
+				if (valid || !strict) {
+					SiteMapURL sUrl = new SiteMapURL(url.toString(), lastMod, changeFreq, priority, valid);
+					handler.handleSiteMapURL(sUrl);
+					if (logger.isDebugEnabled()) {
+						StringBuffer sb = new StringBuffer("  ");
+						sb.append(i).append(". ").append(sUrl);
+						logger.debug(sb.toString());
 					}
-				} catch (MalformedURLException e) {
-					// e.printStackTrace();
-
-					// Can't create an entry with a bad URL
-					logger.debug("Bad url: [" + loc + "]");
 				}
+			} catch (MalformedURLException e) {
+				// Can't create an entry with a bad URL
+				logger.debug("Bad url: [" + loc + "]");
 			}
 		}
 		sitemap.setProcessed(true);
@@ -308,9 +350,9 @@ public class SiteMapParser {
 	 * <loc>http://www.example.com/sitemap2.xml.gz</loc> <lastmod>2005-01-01</lastmod> </sitemap> </sitemapindex>
 	 * 
 	 * @param url - URL of Sitemap Index
-	 * @param nodeList
+	 * @param reader positioned on <code>sitemapindex</code> element
 	 */
-	private SiteMapIndex parseSitemapIndex(URL url, NodeList nodeList) {
+	private SiteMapIndex parseSitemapIndex(URL url, XMLStreamReader reader, int maxUrls) throws XMLStreamException {
 
 		logger.debug("Parsing Sitemap Index");
 
@@ -318,81 +360,61 @@ public class SiteMapParser {
 		sitemapIndex.setType(SitemapType.INDEX);
 
 		// Loop through the <sitemap>s
-		for (int i = 0; i < nodeList.getLength() && i < MAX_URLS; i++) {
-
-			Node firstNode = nodeList.item(i);
-
-			URL sitemapUrl = null;
-			Date lastModified = null;
-
-			if (firstNode.getNodeType() == Node.ELEMENT_NODE) {
-				Element elem = (Element) firstNode;
-				String loc = getElementValue(elem, "loc");
-
-				// try the text content when no loc element
-				// has been specified
-				if (loc == null) {
-					loc = elem.getTextContent().trim();
+		int i = 0;
+		while (nextChildElement(reader)) {
+			if (!"sitemap".equals(elementName(reader)) || i >= maxUrls) {
+				skipElement(reader);
+				continue;
+			}
+			i++;
+			String loc = null;
+			String lastmod = null;
+			StringBuilder text = new StringBuilder();
+			int event;
+			while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String name = elementName(reader);
+					if ("loc".equals(name) && loc == null) {
+						loc = readText(reader);
+					} else if ("lastmod".equals(name) && lastmod == null) {
+						lastmod = readText(reader);
+					} else {
+						skipElement(reader);
+					}
+				} else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+					text.append(reader.getText());
 				}
+			}
 
-				try {
-					sitemapUrl = new URL(loc);
-					String lastmod = getElementValue(elem, "lastmod");
-					lastModified = SiteMap.convertToDate(lastmod);
+			// try the text content when no loc element
+			// has been specified
+			if (loc == null) {
+				loc = text.toString().trim();
+			}
 
-					// Right now we are not worried about sitemapUrls that point
-					// to different websites.
+			try {
+				URL sitemapUrl = new URL(loc);
+				Date lastModified = SiteMap.convertToDate(lastmod);
 
-					SiteMap s = new SiteMap(sitemapUrl, lastModified);
-					sitemapIndex.addSitemap(s);
-					if (logger.isDebugEnabled()) {
-						StringBuffer sb = new StringBuffer("  ");
-						sb.append(i + 1).append(". ").append(s);
-						logger.debug(sb.toString());
-					}
-				} catch (MalformedURLException e) {
-					// e.printStackTrace();
+				// Right now we are not worried about sitemapUrls that point
+				// to different websites.
 
-					// Don't create an entry for a bad URL
-					logger.debug("Bad url: [" + loc + "]");
+				SiteMap s = new SiteMap(sitemapUrl, lastModified);
+				sitemapIndex.addSitemap(s);
+				if (logger.isDebugEnabled()) {
+					StringBuffer sb = new StringBuffer("  ");
+					sb.append(i).append(". ").append(s);
+					logger.debug(sb.toString());
 				}
+			} catch (MalformedURLException e) {
+				// Don't create an entry for a bad URL
+				logger.debug("Bad url: [" + loc + "]");
 			}
 		}
 		sitemapIndex.setProcessed(true);
 		return sitemapIndex;
 	}
 
-	/**
-	 * Parse the XML document, looking for "feed" element to determine if it's an Atom doc and "rss" to determine if it's
-	 * an RSS doc.
-	 * 
-	 * @param sitemapUrl
-	 * @param doc - XML document to parse
-	 * @throws UnknownFormatException if XML does not appear to be Arom or RSS
-	 */
-	private SiteMap parseSyndicationFormat(URL sitemapUrl, Document doc) throws UnknownFormatException {
-
-		SiteMap sitemap = new SiteMap(sitemapUrl);
-
-		// See if this is an Atom feed by looking for "feed" element
-		NodeList list = doc.getElementsByTagName("feed");
-		if (list.getLength() > 0) {
-			parseAtom(sitemap, (Element) list.item(0), doc);
-			sitemap.setProcessed(true);
-			return sitemap;
-		} else {
-			// See if RSS feed by looking for "rss" element
-			list = doc.getElementsByTagName("rss");
-			if (list.getLength() > 0) {
-				parseRSS(sitemap, doc);
-				sitemap.setProcessed(true);
-				return sitemap;
-			} else {
-				throw new UnknownFormatException("Unknown syndication format at " + sitemapUrl);
-			}
-		}
-	}
-
 	/**
 	 * Parse the XML document which is assumed to be in Atom format. Atom 1.0 example:
 	 * 
@@ -408,55 +430,43 @@ public class SiteMapParser {
 	 * 
 	 * </feed>
 	 * 
-	 * @param elem
-	 * @param doc
+	 * @param reader positioned on <code>feed</code> element
 	 */
-	private void parseAtom(SiteMap sitemap, Element elem, Document doc) {
+	private SiteMap parseAtom(URL sitemapUrl, XMLStreamReader reader, SiteMapURLHandler handler, int maxUrls)
+			throws XMLStreamException {
 
 		// Grab items from <feed><entry><link href="URL" /></entry></feed>
 		// Use lastmod date from <feed><modified>DATE</modified></feed>
 
 		logger.debug("Parsing Atom XML");
 
+		SiteMap sitemap = new SiteMap(sitemapUrl);
 		sitemap.setType(SitemapType.ATOM);
-
-		String lastMod = getElementValue(elem, "modified");
-		logger.debug("lastMod=" + lastMod);
-
-		NodeList list = doc.getElementsByTagName("entry");
-
-		// Loop through the <entry>s
-		for (int i = 0; i < list.getLength() && i < MAX_URLS; i++) {
-
-			Node n = list.item(i);
-
-			if (n.getNodeType() == Node.ELEMENT_NODE) {
-				elem = (Element) n;
-
-				String href = getElementAttributeValue(elem, "link", "href");
-				logger.debug("href=" + href);
-
-				URL url = null;
-				try {
-					url = new URL(href);
-					boolean valid = urlIsLegal(sitemap.getBaseUrl(), url.toString());
-
-					if (valid || !strict) {
-						SiteMapURL sUrl = new SiteMapURL(url.toString(), lastMod, null, null, valid);
-						sitemap.addSiteMapUrl(sUrl);
-						if (logger.isDebugEnabled()) {
-							StringBuffer sb = new StringBuffer("  ");
-							sb.append(i + 1).append(". ").append(sUrl);
-							logger.debug(sb.toString());
-						}
+		FeedEntries entries = new FeedEntries(sitemap, handler, maxUrls);
+
+		while (nextChildElement(reader)) {
+			String name = elementName(reader);
+			if ("modified".equals(name) && !entries.lastModKnown) {
+				entries.setLastMod(readText(reader));
+			} else if ("entry".equals(name)) {
+				String href = null;
+				boolean linkFound = false;
+				while (nextChildElement(reader)) {
+					if ("link".equals(elementName(reader)) && !linkFound) {
+						linkFound = true;
+						href = reader.getAttributeValue(null, "href");
 					}
-				} catch (MalformedURLException e) {
-					// Can't create an entry with a bad URL
-					logger.debug("Bad url: [" + href + "]");
+					skipElement(reader);
 				}
-
+				logger.debug("href=" + href);
+				entries.add(href);
+			} else {
+				skipElement(reader);
 			}
 		}
+		entries.finish();
+		sitemap.setProcessed(true);
+		return sitemap;
 	}
 
 	/**
@@ -481,96 +491,183 @@ public class SiteMapParser {
 	 * 
 	 * </channel> </rss>
 	 * 
-	 * @param sitemap
-	 * @param doc
+	 * @param reader positioned on <code>rss</code> element
 	 */
-	private void parseRSS(SiteMap sitemap, Document doc) {
+	private SiteMap parseRSS(URL sitemapUrl, XMLStreamReader reader, SiteMapURLHandler handler, int maxUrls)
+			throws XMLStreamException {
 
 		// Grab items from <item><link>URL</link></item>
-		// and last modified date from <pubDate>DATE</pubDate>
+		// and last modified date from <channel><pubDate>DATE</pubDate></channel>
 
 		logger.debug("Parsing RSS doc");
-		sitemap.setType(SitemapType.RSS);
-		NodeList list = doc.getElementsByTagName("channel");
-		Element elem = (Element) list.item(0);
-
-		// Treat publication date as last mod (Tue, 10 Jun 2003 04:00:00 GMT)
-		String lastMod = getElementValue(elem, "pubDate");
-
-		logger.debug("lastMod=" + lastMod);
 
-		list = doc.getElementsByTagName("item");
+		SiteMap sitemap = new SiteMap(sitemapUrl);
+		sitemap.setType(SitemapType.RSS);
+		FeedEntries entries = new FeedEntries(sitemap, handler, maxUrls);
 
-		// Loop through the <item>s
-		for (int i = 0; i < list.getLength() && i < MAX_URLS; i++) {
+		while (nextChildElement(reader)) {
+			if (!"channel".equals(elementName(reader))) {
+				skipElement(reader);
+				continue;
+			}
+			while (nextChildElement(reader)) {
+				String name = elementName(reader);
+				if ("pubDate".equals(name) && !entries.lastModKnown) {
+					// Treat publication date as last mod (Tue, 10 Jun 2003 04:00:00 GMT)
+					entries.setLastMod(readText(reader));
+				} else if ("item".equals(name)) {
+					String link = null;
+					boolean linkFound = false;
+					while (nextChildElement(reader)) {
+						if ("link".equals(elementName(reader)) && !linkFound) {
+							linkFound = true;
+							link = readText(reader);
+						} else {
+							skipElement(reader);
+						}
+					}
+					logger.debug("link=" + link);
+					entries.add(link);
+				} else {
+					skipElement(reader);
+				}
+			}
+		}
+		entries.finish();
+		sitemap.setProcessed(true);
+		return sitemap;
+	}
 
-			Node n = list.item(i);
+	/**
+	 * Entries of RSS or Atom feed. All entries get last modification date of the feed, so entries read before the date
+	 * element are held back until it is found or feed ends.
+	 */
+	private class FeedEntries {
+
+		private final SiteMap sitemap;
+		private final SiteMapURLHandler handler;
+		private final int maxUrls;
+		private final List<SiteMapURL> pending = new ArrayList<SiteMapURL>();
+		private String lastMod;
+		boolean lastModKnown = false;
+		private int count = 0;
+
+		FeedEntries(SiteMap sitemap, SiteMapURLHandler handler, int maxUrls) {
+			this.sitemap = sitemap;
+			this.handler = handler;
+			this.maxUrls = maxUrls;
+		}
 
-			if (n.getNodeType() == Node.ELEMENT_NODE) {
-				elem = (Element) n;
+		void setLastMod(String lastMod) {
+			logger.debug("lastMod=" + lastMod);
+			this.lastMod = lastMod;
+			lastModKnown = true;
+			for (SiteMapURL sUrl : pending) {
+				sUrl.setLastModified(lastMod);
+				handler.handleSiteMapURL(sUrl);
+			}
+			pending.clear();
+		}
 
-				String link = getElementValue(elem, "link");
-				logger.debug("link=" + link);
+		void add(String link) {
+			if (count >= maxUrls)
+				return;
+			count++;
+			try {
+				URL url = new URL(link);
+				boolean valid = urlIsLegal(sitemap.getBaseUrl(), url.toString());
 
-				try {
-					URL url = new URL(link);
-					boolean valid = urlIsLegal(sitemap.getBaseUrl(), url.toString());
-
-					if (valid || !strict) {
-						SiteMapURL sUrl = new SiteMapURL(url.toString(), lastMod, null, null, valid);
-						sitemap.addSiteMapUrl(sUrl);
-						if (logger.isDebugEnabled()) {
-							StringBuffer sb = new StringBuffer("  ");
-							sb.append(i + 1).append(". ").append(sUrl);
-							logger.debug(sb.toString());
-						}
+				if (valid || !strict) {
+					SiteMapURL sUrl = new SiteMapURL(url.toString(), lastMod, null, null, valid);
+					if (logger.isDebugEnabled()) {
+						StringBuffer sb = new StringBuffer("  ");
+						sb.append(count).append(". ").append(sUrl);
+						logger.debug(sb.toString());
 					}
-				} catch (MalformedURLException e) {
-					// Can't create an entry with a bad URL
-					logger.debug("Bad url: [" + link + "]");
+					if (lastModKnown)
+						handler.handleSiteMapURL(sUrl);
+					else
+						pending.add(sUrl);
 				}
+			} catch (MalformedURLException e) {
+				// Can't create an entry with a bad URL
+				logger.debug("Bad url: [" + link + "]");
 			}
 		}
+
+		void finish() {
+			for (SiteMapURL sUrl : pending) {
+				handler.handleSiteMapURL(sUrl);
+			}
+			pending.clear();
+		}
+	}
+
+	/**
+	 * Get qualified name of current element, the same as DOM tag name.
+	 */
+	private static String elementName(XMLStreamReader reader) {
+		String prefix = reader.getPrefix();
+		if (prefix == null || prefix.isEmpty())
+			return reader.getLocalName();
+		return prefix + ":" + reader.getLocalName();
 	}
 
 	/**
-	 * Get the element's textual content.
+	 * Move to next child element of current element.
 	 * 
-	 * @param elem
-	 * @param elementName
-	 * @return
+	 * @param reader positioned on start of parent element or end of previous child element
+	 * @return true if reader is positioned on start of next child element, false if it is on end of parent element
 	 */
-	private String getElementValue(Element elem, String elementName) {
-
-		NodeList list = elem.getElementsByTagName(elementName);
-		Element e = (Element) list.item(0);
-		if (e != null) {
-			NodeList children = e.getChildNodes();
-			if (children.item(0) != null) {
-				return ((Node) children.item(0)).getNodeValue().trim();
-			}
+	private static boolean nextChildElement(XMLStreamReader reader) throws XMLStreamException {
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				return true;
+			if (event == XMLStreamConstants.END_ELEMENT)
+				return false;
 		}
-
-		return null;
+		return false;
 	}
 
 	/**
-	 * Get the element's attribute value.
+	 * Get the element's textual content, including text of nested elements.
 	 * 
-	 * @param elem
-	 * @param elementName
-	 * @param attributeName
-	 * @return
+	 * @param reader positioned on start of element, is on end of it after call
+	 * @return trimmed text, null if empty
 	 */
-	private String getElementAttributeValue(Element elem, String elementName, String attributeName) {
-
-		NodeList list = elem.getElementsByTagName(elementName);
-		Element e = (Element) list.item(0);
-		if (e != null) {
-			return e.getAttribute(attributeName);
+	private static String readText(XMLStreamReader reader) throws XMLStreamException {
+		StringBuilder sb = new StringBuilder();
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			} else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+				sb.append(reader.getText());
+			}
 		}
+		String ret = sb.toString().trim();
+		return ret.isEmpty() ? null : ret;
+	}
 
-		return null;
+	/**
+	 * Skip the element with all its content.
+	 * 
+	 * @param reader positioned on start of element, is on end of it after call
+	 */
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
 	}
 
 	/**
@@ -600,4 +697,63 @@ public class SiteMapParser {
 		return ret;
 	}
 
+	/**
+	 * Stream failing when more than given number of bytes is read from it.
+	 */
+	private static final class LimitedInputStream extends FilterInputStream {
+
+		private final long limit;
+		private long count;
+
+		LimitedInputStream(InputStream in, long limit) {
+			super(in);
+			this.limit = limit;
+		}
+
+		private void count(long n) throws IOException {
+			if (n > 0) {
+				count += n;
+				if (count > limit)
+					throw new IOException("Sitemap content is larger than " + limit + " bytes");
+			}
+		}
+
+		/**
+		 * Throw exception if limit was exceeded.
+		 * 
+		 * @param url of sitemap for error message
+		 * @throws IOException if limit was exceeded
+		 */
+		void checkLimit(URL url) throws IOException {
+			if (count > limit)
+				throw new IOException("Sitemap content is larger than " + limit + " bytes for " + url);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0)
+				count(1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			count(n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long ret = super.skip(n);
+			count(ret);
+			return ret;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
 }
@@ -0,0 +1,83 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link BulkSizeController}.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class BulkSizeControllerTest {
+
+	@Test
+	public void constructor() {
+		Assert.assertEquals(100, new BulkSizeController("idx", 10, 1000, 100, 1000).getSize());
+		Assert.assertEquals(10, new BulkSizeController("idx", 10, 1000, 5, 1000).getSize());
+		Assert.assertEquals(1000, new BulkSizeController("idx", 10, 1000, 5000, 1000).getSize());
+		Assert.assertEquals("idx", new BulkSizeController("idx", 10, 1000, 100, 1000).getIndexName());
+	}
+
+	@Test
+	public void bulkExecuted() {
+		BulkSizeController tested = new BulkSizeController("idx", 10, 125, 100, 1000);
+
+		// case - not full bulk doesn't grow size
+		tested.bulkExecuted(50, 100);
+		Assert.assertEquals(100, tested.getSize());
+
+		// case - full fast bulk grows size additively up to max
+		tested.bulkExecuted(100, 100);
+		Assert.assertEquals(110, tested.getSize());
+		tested.bulkExecuted(110, 1000);
+		Assert.assertEquals(120, tested.getSize());
+		tested.bulkExecuted(120, 100);
+		Assert.assertEquals(125, tested.getSize());
+		tested.bulkExecuted(125, 100);
+		Assert.assertEquals(125, tested.getSize());
+
+		// case - slow bulk decreases size multiplicatively down to min
+		tested.bulkExecuted(125, 1001);
+		Assert.assertEquals(62, tested.getSize());
+		tested.bulkExecuted(10, 5000);
+		Assert.assertEquals(31, tested.getSize());
+		tested.bulkExecuted(10, 5000);
+		Assert.assertEquals(15, tested.getSize());
+		tested.bulkExecuted(10, 5000);
+		Assert.assertEquals(10, tested.getSize());
+		tested.bulkExecuted(10, 5000);
+		Assert.assertEquals(10, tested.getSize());
+	}
+
+	@Test
+	public void bulkRejected() {
+		BulkSizeController tested = new BulkSizeController("idx", 10, 1000, 100, 1000);
+		tested.bulkRejected();
+		Assert.assertEquals(50, tested.getSize());
+		tested.bulkRejected();
+		Assert.assertEquals(25, tested.getSize());
+		tested.bulkRejected();
+		Assert.assertEquals(12, tested.getSize());
+		tested.bulkRejected();
+		Assert.assertEquals(10, tested.getSize());
+	}
+
+	@Test
+	public void buildDocument() throws Exception {
+		BulkSizeController tested = new BulkSizeController("idx", 10, 1000, 100, 1000);
+		tested.bulkExecuted(100, 200);
+		tested.bulkRejected();
+		XContentBuilder builder = XContentFactory.jsonBuilder();
+		tested.buildDocument(builder);
+		Assert.assertEquals("{\"index\":\"idx\",\"size\":55,\"last_latency\":200,\"increases\":1,\"decreases\":1}",
+				builder.string());
+	}
+
+}
@@ -0,0 +1,182 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.jboss.elasticsearch.river.remote.testtools.TestUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link CompactJSONDocument}.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class CompactJSONDocumentTest {
+
+	private static final String DOC = "{\"id\" : \"a1\", \"count\":10, \"nothing\":null, \"flag\":true,"
+			+ " \"fields\":{\"reporter\":{\"name\":\"john\",\"email\":\"j@t.org\"},\"tags\":[\"x\",\"y\"]},"
+			+ " \"history\":[{\"x\":1},{\"x\":2}]}";
+
+	protected static CompactJSONDocument read(String json, RemoteDataProjection projection) throws Exception {
+		XContentParser parser = JsonXContent.jsonXContent.createParser(json.getBytes("UTF-8"));
+		try {
+			parser.nextToken();
+			return CompactJSONDocument.read(parser, projection, null, false);
+		} finally {
+			parser.close();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void read_get() throws Exception {
+		CompactJSONDocument tested = read(DOC, null);
+		Assert.assertEquals(6, tested.size());
+		Assert.assertTrue(tested.getDataSize() > 0);
+		Assert.assertTrue(tested.getDataSize() < DOC.length());
+
+		Assert.assertEquals("a1", tested.get("id"));
+		Assert.assertEquals(10, ((Number) tested.get("count")).intValue());
+		Assert.assertNull(tested.get("nothing"));
+		Assert.assertTrue(tested.containsKey("nothing"));
+		Assert.assertEquals(Boolean.TRUE, tested.get("flag"));
+		Assert.assertNull(tested.get("unknown"));
+		Assert.assertFalse(tested.containsKey("unknown"));
+		Assert.assertEquals("john", XContentMapValues.extractValue("fields.reporter.name", tested));
+		Assert.assertEquals(2, ((List<Object>) XContentMapValues.extractValue("history.x", tested)).size());
+
+		// same structure as from plain parsing
+		Assert.assertEquals(TestUtils.getJSONMapFromString(DOC), tested);
+		Assert.assertEquals(tested, TestUtils.getJSONMapFromString(DOC));
+		Assert.assertEquals(TestUtils.getJSONMapFromString(DOC).hashCode(), tested.hashCode());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void modifications() throws Exception {
+		CompactJSONDocument tested = read(DOC, null);
+
+		// case - nested value change is kept
+		((Map<String, Object>) tested.get("fields")).put("new", "nv");
+		Assert.assertEquals("nv", XContentMapValues.extractValue("fields.new", tested));
+
+		// case - put existing and new field
+		Assert.assertEquals("a1", tested.put("id", "a2"));
+		Assert.assertEquals("a2", tested.get("id"));
+		Assert.assertNull(tested.put("spaceKey", "ORG"));
+		Assert.assertEquals("ORG", tested.get("spaceKey"));
+		Assert.assertEquals(7, tested.size());
+		Map<String, Object> other = new HashMap<String, Object>();
+		other.put("a", "b");
+		tested.putAll(other);
+		Assert.assertEquals("b", tested.get("a"));
+		Assert.assertEquals(8, tested.size());
+
+		// case - remove
+		Assert.assertEquals(10, ((Number) tested.remove("count")).intValue());
+		Assert.assertFalse(tested.containsKey("count"));
+		Assert.assertNull(tested.get("count"));
+		Assert.assertNull(tested.remove("count"));
+		Assert.assertEquals("b", tested.remove("a"));
+		Assert.assertEquals(6, tested.size());
+		Assert.assertNull(tested.put("count", 5));
+		Assert.assertEquals(5, tested.get("count"));
+
+		// case - iteration and removal through iterator
+		int count = 0;
+		for (Iterator<Map.Entry<String, Object>> i = tested.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<String, Object> e = i.next();
+			count++;
+			if (e.getKey().equals("history") || e.getKey().equals("spaceKey"))
+				i.remove();
+			if (e.getKey().equals("flag"))
+				e.setValue(Boolean.FALSE);
+		}
+		Assert.assertEquals(7, count);
+		Assert.assertEquals(5, tested.size());
+		Assert.assertFalse(tested.containsKey("history"));
+		Assert.assertFalse(tested.containsKey("spaceKey"));
+		Assert.assertEquals(Boolean.FALSE, tested.get("flag"));
+
+		tested.clear();
+		Assert.assertTrue(tested.isEmpty());
+		Assert.assertNull(tested.get("id"));
+	}
+
+	@Test
+	public void read_projection() throws Exception {
+		RemoteDataProjection projection = new RemoteDataProjection().addPath("id").addPath("fields.reporter.name")
+				.addPath("history");
+		CompactJSONDocument tested = read(DOC, projection);
+		Assert.assertEquals(3, tested.size());
+		Assert.assertEquals("a1", tested.get("id"));
+		Assert.assertEquals("john", XContentMapValues.extractValue("fields.reporter.name", tested));
+		Assert.assertNull(XContentMapValues.extractValue("fields.reporter.email", tested));
+		Assert.assertNull(XContentMapValues.extractValue("fields.tags", tested));
+		Assert.assertEquals(2, ((List<?>) tested.get("history")).size());
+		Assert.assertNull(tested.get("count"));
+	}
+
+	@Test
+	public void read_duplicateField() throws Exception {
+		CompactJSONDocument tested = read("{\"a\":1,\"b\":[],\"a\":{\"c\":2}}", null);
+		Assert.assertEquals(2, tested.size());
+		Assert.assertEquals(2, ((Number) XContentMapValues.extractValue("a.c", tested)).intValue());
+	}
+
+	@Test
+	public void copyField() throws Exception {
+		CompactJSONDocument tested = read(DOC, null);
+		tested.put("spaceKey", "ORG");
+		tested.get("count");
+
+		XContentBuilder builder = XContentFactory.jsonBuilder();
+		builder.startObject();
+		Assert.assertTrue(tested.copyField("id", "doc_id", builder));
+		Assert.assertTrue(tested.copyField("fields", "f", builder));
+		Assert.assertTrue(tested.copyField("history", "history", builder));
+		// case - null value is not written
+		Assert.assertTrue(tested.copyField("nothing", "n", builder));
+		// case - unknown, parsed or put fields are not copied
+		Assert.assertFalse(tested.copyField("unknown", "u", builder));
+		Assert.assertFalse(tested.copyField("count", "c", builder));
+		Assert.assertFalse(tested.copyField("spaceKey", "s", builder));
+		builder.endObject();
+		Assert.assertEquals("{\"doc_id\":\"a1\",\"f\":{\"reporter\":{\"name\":\"john\",\"email\":\"j@t.org\"},"
+				+ "\"tags\":[\"x\",\"y\"]},\"history\":[{\"x\":1},{\"x\":2}]}", builder.string());
+
+		// case - changed field is not copied
+		tested.put("id", "a2");
+		Assert.assertFalse(tested.copyField("id", "doc_id", XContentFactory.jsonBuilder()));
+	}
+
+	@Test
+	public void release() throws Exception {
+		CompactJSONDocument tested = read(DOC, null);
+		tested.put("spaceKey", "ORG");
+		CompactJSONDocument.release(tested);
+		Assert.assertTrue(tested.isEmpty());
+		Assert.assertEquals(0, tested.getDataSize());
+		Assert.assertNull(tested.get("id"));
+
+		// case - other maps are not changed
+		Map<String, Object> other = new HashMap<String, Object>();
+		other.put("a", "b");
+		CompactJSONDocument.release(other);
+		Assert.assertEquals(1, other.size());
+	}
+
+}
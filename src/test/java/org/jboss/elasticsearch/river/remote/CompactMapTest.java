@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link CompactMap}.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class CompactMapTest {
+
+	@Test
+	public void basicOperations() {
+		CompactMap<String, Object> tested = new CompactMap<String, Object>(1);
+		Assert.assertTrue(tested.isEmpty());
+		Assert.assertNull(tested.get("a"));
+
+		Assert.assertNull(tested.put("a", "1"));
+		Assert.assertNull(tested.put("b", null));
+		Assert.assertNull(tested.put(null, "3"));
+		Assert.assertNull(tested.put("d", "4"));
+		Assert.assertEquals(4, tested.size());
+		Assert.assertEquals("1", tested.get("a"));
+		Assert.assertNull(tested.get("b"));
+		Assert.assertTrue(tested.containsKey("b"));
+		Assert.assertEquals("3", tested.get(null));
+		Assert.assertFalse(tested.containsKey("x"));
+
+		// case - replace value
+		Assert.assertEquals("1", tested.put("a", "11"));
+		Assert.assertEquals("11", tested.get("a"));
+		Assert.assertEquals(4, tested.size());
+
+		// case - remove keeps order of other entries
+		Assert.assertEquals("3", tested.remove(null));
+		Assert.assertNull(tested.remove("x"));
+		Assert.assertEquals(3, tested.size());
+		Assert.assertEquals("{a=11, b=null, d=4}", tested.toString());
+
+		// case - equals to other maps
+		Map<String, Object> hm = new HashMap<String, Object>();
+		hm.put("a", "11");
+		hm.put("b", null);
+		hm.put("d", "4");
+		Assert.assertEquals(hm, tested);
+		Assert.assertEquals(tested, hm);
+		Assert.assertEquals(hm.hashCode(), tested.hashCode());
+
+		tested.clear();
+		Assert.assertTrue(tested.isEmpty());
+		Assert.assertNull(tested.get("a"));
+	}
+
+	@Test
+	public void entrySetIterator() {
+		CompactMap<String, Object> tested = new CompactMap<String, Object>();
+		tested.put("a", "1");
+		tested.put("b", "2");
+		tested.put("c", "3");
+
+		Iterator<Map.Entry<String, Object>> i = tested.entrySet().iterator();
+		Map.Entry<String, Object> e = i.next();
+		Assert.assertEquals("a", e.getKey());
+		Assert.assertEquals("1", e.setValue("10"));
+		Assert.assertEquals("10", tested.get("a"));
+		e = i.next();
+		Assert.assertEquals("b", e.getKey());
+		i.remove();
+		try {
+			i.remove();
+			Assert.fail("IllegalStateException must be thrown");
+		} catch (IllegalStateException ex) {
+			// OK
+		}
+		e = i.next();
+		Assert.assertEquals("c", e.getKey());
+		Assert.assertFalse(i.hasNext());
+		Assert.assertEquals(2, tested.size());
+		Assert.assertEquals("{a=10, c=3}", tested.toString());
+
+		// case - keySet and values views
+		Assert.assertTrue(tested.keySet().contains("c"));
+		Assert.assertTrue(tested.values().contains("10"));
+		tested.keySet().remove("a");
+		Assert.assertEquals(1, tested.size());
+	}
+
+}
@@ -0,0 +1,53 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link DocumentFingerprintCache}.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class DocumentFingerprintCacheTest {
+
+	@Test
+	public void putRemove() throws Exception {
+		DocumentFingerprintCache tested = new DocumentFingerprintCache(3);
+		Assert.assertEquals(3, tested.getMaxSize());
+		DocumentFingerprint f1 = DocumentFingerprint.create("{\"a\":1}".getBytes("UTF-8"));
+		DocumentFingerprint f2 = DocumentFingerprint.create("{\"a\":2}".getBytes("UTF-8"));
+
+		Assert.assertNull(tested.put("idx", "1", f1));
+		Assert.assertSame(f1, tested.put("idx", "1", f2));
+		Assert.assertNull(tested.put("idx2", "1", f1));
+		Assert.assertEquals(2, tested.size());
+
+		tested.remove("idx", "1");
+		Assert.assertNull(tested.put("idx", "1", f1));
+
+		// case - remove whole index, index with same prefix is kept
+		tested.put("idx", "2", f1);
+		tested.removeIndex("idx");
+		Assert.assertEquals(1, tested.size());
+		Assert.assertSame(f1, tested.put("idx2", "1", f2));
+	}
+
+	@Test
+	public void put_leastRecentlyWrittenDropped() throws Exception {
+		DocumentFingerprintCache tested = new DocumentFingerprintCache(2);
+		DocumentFingerprint f = DocumentFingerprint.create("{\"a\":1}".getBytes("UTF-8"));
+		tested.put("idx", "1", f);
+		tested.put("idx", "2", f);
+		tested.put("idx", "1", f);
+		tested.put("idx", "3", f);
+		Assert.assertEquals(2, tested.size());
+		Assert.assertNotNull(tested.put("idx", "1", f));
+		Assert.assertNull(tested.put("idx", "2", f));
+	}
+
+}
@@ -0,0 +1,69 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link DocumentFingerprint}.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class DocumentFingerprintTest {
+
+	@Test
+	public void create() throws Exception {
+		DocumentFingerprint tested = create("{\"a\":\"value\",\"b\":{\"c\":[1,2]},\"d\":null}");
+		Assert.assertEquals(3, tested.getFieldCount());
+		Assert.assertEquals(7, tested.getSize(Collections.singleton("a")));
+		Assert.assertEquals(11, tested.getSize(Arrays.asList("b")));
+		Assert.assertEquals(22, tested.getSize(Arrays.asList("a", "b", "d", "unknown")));
+
+		try {
+			create("[1,2]");
+			Assert.fail("IOException expected");
+		} catch (IOException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void getChangedFields() throws Exception {
+		DocumentFingerprint previous = create("{\"a\":\"value\",\"b\":{\"c\":[1,2]},\"d\":1}");
+
+		// case - nothing changed
+		Assert.assertTrue(create("{\"a\":\"value\",\"b\":{\"c\":[1,2]},\"d\":1}").getChangedFields(previous).isEmpty());
+
+		// case - changed values
+		Assert.assertEquals(Arrays.asList("b", "d"),
+				create("{\"a\":\"value\",\"b\":{\"c\":[1,3]},\"d\":2}").getChangedFields(previous));
+
+		// case - new field, value hash does not depend on position
+		Assert.assertEquals(Arrays.asList("e"),
+				create("{\"e\":true,\"a\":\"value\",\"b\":{\"c\":[1,2]},\"d\":1}").getChangedFields(previous));
+
+		// case - removed field
+		Assert.assertNull(create("{\"a\":\"value\",\"d\":1}").getChangedFields(previous));
+	}
+
+	@Test
+	public void containsObject() throws Exception {
+		DocumentFingerprint tested = create("{\"a\":\"value\",\"b\":{\"c\":[1,2]},\"d\":[{\"e\":1}],\"f\":null}");
+		Assert.assertTrue(tested.containsObject(Arrays.asList("a", "b")));
+		Assert.assertFalse(tested.containsObject(Arrays.asList("a", "d", "f", "unknown")));
+		Assert.assertFalse(tested.containsObject(Collections.<String> emptyList()));
+	}
+
+	private static DocumentFingerprint create(String json) throws IOException {
+		return DocumentFingerprint.create(json.getBytes("UTF-8"));
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.jboss.elasticsearch.river.remote.testtools.TestUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+/**
+ * Unit test for {@link DocumentSourceBufferPool}.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class DocumentSourceBufferPoolTest {
+
+	@Test
+	public void acquireRelease() throws Exception {
+		DocumentSourceBufferPool tested = new DocumentSourceBufferPool();
+
+		DocumentSourceBufferPool.Buffer b1 = tested.acquire();
+		b1.builder().startObject().field("a", "b").endObject();
+		Assert.assertEquals("{\"a\":\"b\"}", new String(b1.toSource(), "UTF-8"));
+
+		// case - nested acquire gets other buffer
+		DocumentSourceBufferPool.Buffer b2 = tested.acquire();
+		Assert.assertNotSame(b1, b2);
+		tested.release(b2);
+		tested.release(b1);
+		Assert.assertEquals(2, tested.getBuffersAllocated());
+
+		// case - buffer of thread is reused and empty
+		DocumentSourceBufferPool.Buffer b3 = tested.acquire();
+		Assert.assertSame(b1, b3);
+		Assert.assertEquals(0, b3.size());
+		b3.builder().startObject().field("c", 1).endObject();
+		Assert.assertEquals("{\"c\":1}", new String(b3.toSource(), "UTF-8"));
+		tested.release(b3);
+		Assert.assertEquals(2, tested.getBuffersAllocated());
+		Assert.assertEquals(3, tested.getDocumentsBuilt());
+
+		tested.release(null);
+	}
+
+	@Test
+	public void release_shrink() throws Exception {
+		DocumentSourceBufferPool tested = new DocumentSourceBufferPool();
+		Assert.assertEquals(DocumentSourceBufferPool.MIN_BUFFER_SIZE, tested.getAverageSize());
+
+		// case - buffer grown by big document is shrunk back
+		DocumentSourceBufferPool.Buffer b = tested.acquire();
+		b.write(new byte[100000]);
+		Assert.assertTrue(b.capacity() >= 100000);
+		tested.release(b);
+		Assert.assertTrue(tested.getAverageSize() > DocumentSourceBufferPool.MIN_BUFFER_SIZE);
+		Assert.assertTrue(b.capacity() < 100000);
+		Assert.assertEquals(4 * tested.getAverageSize(), b.capacity());
+
+		// case - average follows recent documents
+		for (int i = 0; i < 100; i++) {
+			b = tested.acquire();
+			b.write(new byte[10]);
+			tested.release(b);
+		}
+		Assert.assertEquals(DocumentSourceBufferPool.MIN_BUFFER_SIZE, tested.getAverageSize());
+		Assert.assertEquals(4 * DocumentSourceBufferPool.MIN_BUFFER_SIZE, b.capacity());
+		Assert.assertEquals(2 * DocumentSourceBufferPool.MIN_BUFFER_SIZE, tested.getPreallocationSize());
+	}
+
+	/**
+	 * Measures bytes allocated per built document source with fresh <code>jsonBuilder()</code> and with pooled buffer.
+	 * Result is only logged as it depends on JVM, so it is not a pass/fail check. Works only on JVMs supporting thread
+	 * allocated memory measurement.
+	 */
+	@Test
+	public void allocatedBytesPerDocument() throws Exception {
+		java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		if (!(mx instanceof com.sun.management.ThreadMXBean)
+				|| !((com.sun.management.ThreadMXBean) mx).isThreadAllocatedMemoryEnabled())
+			return;
+		com.sun.management.ThreadMXBean tmx = (com.sun.management.ThreadMXBean) mx;
+		long threadId = Thread.currentThread().getId();
+
+		Map<String, Object> document = TestUtils.readDocumentJsonDataFromClasspathFile("ORG-1501");
+		DocumentSourceBufferPool tested = new DocumentSourceBufferPool();
+		int count = 500;
+
+		// warm up
+		buildUnpooled(document, count);
+		buildPooled(tested, document, count);
+
+		long start = tmx.getThreadAllocatedBytes(threadId);
+		buildUnpooled(document, count);
+		long unpooled = (tmx.getThreadAllocatedBytes(threadId) - start) / count;
+
+		start = tmx.getThreadAllocatedBytes(threadId);
+		buildPooled(tested, document, count);
+		long pooled = (tmx.getThreadAllocatedBytes(threadId) - start) / count;
+
+		System.out.println("Bytes allocated per document source - unpooled: " + unpooled + ", pooled: " + pooled);
+	}
+
+	private void buildUnpooled(Map<String, Object> document, int count) throws Exception {
+		for (int i = 0; i < count; i++) {
+			XContentBuilder out = jsonBuilder();
+			out.map(document);
+			out.bytes();
+		}
+	}
+
+	private void buildPooled(DocumentSourceBufferPool pool, Map<String, Object> document, int count) throws Exception {
+		for (int i = 0; i < count; i++) {
+			DocumentSourceBufferPool.Buffer buffer = pool.acquire();
+			try {
+				buffer.builder().map(document);
+				buffer.toSource();
+			} finally {
+				pool.release(buffer);
+			}
+		}
+	}
+
+}
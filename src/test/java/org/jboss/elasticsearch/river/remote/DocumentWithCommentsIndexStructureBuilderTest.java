@@ -10,21 +10,30 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.map.DeserializationConfig;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.elasticsearch.common.settings.SettingsException;
 import org.elasticsearch.common.xcontent.XContent;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentGenerator;
+import org.elasticsearch.index.VersionType;
 import org.elasticsearch.river.RiverName;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
 import org.jboss.elasticsearch.river.remote.testtools.TestUtils;
 import org.jboss.elasticsearch.tools.content.StructuredContentPreprocessor;
 import org.junit.Assert;
@@ -34,6 +43,7 @@ import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -401,7 +411,7 @@ public class DocumentWithCommentsIndexStructureBuilderTest {
 	}
 
 	@Test
-	public void prepareIssueIndexedDocument() throws Exception {
+	public void buildIndexedDocumentSource_commentModes() throws Exception {
 		DocumentWithCommentsIndexStructureBuilder tested = new DocumentWithCommentsIndexStructureBuilder(
 				mockEsIntegrationComponent(), "search_index", "issue_type",
 				loadTestSettings("/index_structure_configuration_test_ok.json"), true);
@@ -410,8 +420,8 @@ public class DocumentWithCommentsIndexStructureBuilderTest {
 		{
 			tested.commentIndexingMode = CommentIndexingMode.NONE;
 
-			String res = tested.prepareIndexedDocument("ORG", TestUtils.readDocumentJsonDataFromClasspathFile("ORG-1501"))
-					.string();
+			String res = new String(tested.buildIndexedDocumentSource("ORG",
+					TestUtils.readDocumentJsonDataFromClasspathFile("ORG-1501")), "UTF-8");
 			assertTrue(
 					"Should equals",
 					toJsonNode(res).equals(
@@ -424,8 +434,8 @@ public class DocumentWithCommentsIndexStructureBuilderTest {
 		{
 			tested.commentIndexingMode = CommentIndexingMode.CHILD;
 
-			String res = tested.prepareIndexedDocument("ORG", TestUtils.readDocumentJsonDataFromClasspathFile("ORG-1501"))
-					.string();
+			String res = new String(tested.buildIndexedDocumentSource("ORG",
+					TestUtils.readDocumentJsonDataFromClasspathFile("ORG-1501")), "UTF-8");
 			assertTrue(
 					"Should equals",
 					toJsonNode(res).equals(
@@ -437,8 +447,8 @@ public class DocumentWithCommentsIndexStructureBuilderTest {
 		{
 			tested.commentIndexingMode = CommentIndexingMode.STANDALONE;
 
-			String res = tested.prepareIndexedDocument("ORG", TestUtils.readDocumentJsonDataFromClasspathFile("ORG-1501"))
-					.string();
+			String res = new String(tested.buildIndexedDocumentSource("ORG",
+					TestUtils.readDocumentJsonDataFromClasspathFile("ORG-1501")), "UTF-8");
 			assertTrue(
 					"Should equals",
 					toJsonNode(res).equals(
@@ -450,8 +460,8 @@ public class DocumentWithCommentsIndexStructureBuilderTest {
 		{
 			tested.commentIndexingMode = CommentIndexingMode.EMBEDDED;
 
-			String res = tested.prepareIndexedDocument("ORG", TestUtils.readDocumentJsonDataFromClasspathFile("ORG-1501"))
-					.string();
+			String res = new String(tested.buildIndexedDocumentSource("ORG",
+					TestUtils.readDocumentJsonDataFromClasspathFile("ORG-1501")), "UTF-8");
 			assertTrue(
 					"Should equals",
 					toJsonNode(res).equals(
@@ -463,8 +473,8 @@ public class DocumentWithCommentsIndexStructureBuilderTest {
 		{
 			tested.commentIndexingMode = CommentIndexingMode.EMBEDDED;
 
-			String res = tested.prepareIndexedDocument("ORG", TestUtils.readDocumentJsonDataFromClasspathFile("ORG-1523"))
-					.string();
+			String res = new String(tested.buildIndexedDocumentSource("ORG",
+					TestUtils.readDocumentJsonDataFromClasspathFile("ORG-1523")), "UTF-8");
 			System.out.println(res);
 			assertTrue(
 					"Should equals",
@@ -476,7 +486,46 @@ public class DocumentWithCommentsIndexStructureBuilderTest {
 	}
 
 	@Test
-	public void prepareCommentIndexedDocument() throws Exception {
+	public void buildIndexedDocumentSource() throws Exception {
+		DocumentWithCommentsIndexStructureBuilder tested = new DocumentWithCommentsIndexStructureBuilder(
+				mockEsIntegrationComponent(), "search_index", "issue_type",
+				loadTestSettings("/index_structure_configuration_test_ok.json"), true);
+		tested.remoteDataFieldForComments = "fields.comment.comments";
+		tested.commentIndexingMode = CommentIndexingMode.EMBEDDED;
+
+		// case - source built in pooled buffer is same as from builder, buffer is reused for more documents
+		for (int i = 0; i < 3; i++) {
+			for (String key : new String[] { "ORG-1501", "ORG-1523" }) {
+				XContentBuilder expected = jsonBuilder();
+				tested.writeIndexedDocument(expected, "ORG", TestUtils.readDocumentJsonDataFromClasspathFile(key));
+				String res = new String(tested.buildIndexedDocumentSource("ORG",
+						TestUtils.readDocumentJsonDataFromClasspathFile(key)), "UTF-8");
+				Assert.assertEquals(expected.string(), res);
+			}
+		}
+		Map<String, Object> issue = TestUtils.readDocumentJsonDataFromClasspathFile("ORG-1501");
+		for (Map<String, Object> comment : tested.extractComments(issue)) {
+			XContentBuilder expected = jsonBuilder();
+			tested.writeCommentIndexedDocument(expected, "ORG", "ORG-1501", comment);
+			String res = new String(tested.buildCommentIndexedDocumentSource("ORG", "ORG-1501", comment), "UTF-8");
+			Assert.assertEquals(expected.string(), res);
+		}
+		Assert.assertEquals(1, tested.sourceBufferPool.getBuffersAllocated());
+		Assert.assertEquals(8, tested.sourceBufferPool.getDocumentsBuilt());
+
+		// case - values copied directly from compact document give same document
+		for (String key : new String[] { "ORG-1501", "ORG-1523" }) {
+			XContentBuilder expected = jsonBuilder();
+			tested.writeIndexedDocument(expected, "ORG", TestUtils.readDocumentJsonDataFromClasspathFile(key));
+			CompactJSONDocument document = CompactJSONDocumentTest.read(
+					TestUtils.readStringFromClasspathFile("/test_documents_json/" + key + ".json"), null);
+			String res = new String(tested.buildIndexedDocumentSource("ORG", document), "UTF-8");
+			Assert.assertEquals(toJsonNode(expected.string()), toJsonNode(res));
+		}
+	}
+
+	@Test
+	public void buildCommentIndexedDocumentSource() throws Exception {
 		DocumentWithCommentsIndexStructureBuilder tested = new DocumentWithCommentsIndexStructureBuilder(
 				mockEsIntegrationComponent(), "search_index", "issue_type",
 				loadTestSettings("/index_structure_configuration_test_ok.json"), true);
@@ -484,7 +533,7 @@ public class DocumentWithCommentsIndexStructureBuilderTest {
 		Map<String, Object> issue = TestUtils.readDocumentJsonDataFromClasspathFile("ORG-1501");
 		List<Map<String, Object>> comments = tested.extractComments(issue);
 
-		String res = tested.prepareCommentIndexedDocument("ORG", "ORG-1501", comments.get(0)).string();
+		String res = new String(tested.buildCommentIndexedDocumentSource("ORG", "ORG-1501", comments.get(0)), "UTF-8");
 		assertTrue(
 				"Should equals",
 				toJsonNode(res)
@@ -493,6 +542,24 @@ public class DocumentWithCommentsIndexStructureBuilderTest {
 										.readStringFromClasspathFile("/asserts/prepareCommentIndexedDocument_ORG-1501_1.json"))));
 	}
 
+	@Test
+	public void isCommentType() {
+		DocumentWithCommentsIndexStructureBuilder tested = new DocumentWithCommentsIndexStructureBuilder(
+				mockEsIntegrationComponent(), "search_index", "issue_type",
+				loadTestSettings("/index_structure_configuration_test_ok.json"), true);
+		tested.commentTypeName = "comment_type";
+		Assert.assertTrue(tested.isCommentType("comment_type"));
+		Assert.assertFalse(tested.isCommentType("issue_type"));
+		Assert.assertFalse(tested.isCommentType(null));
+
+		// case - comments stored in same type as documents
+		tested.commentTypeName = "issue_type";
+		Assert.assertFalse(tested.isCommentType("issue_type"));
+
+		tested.commentTypeName = null;
+		Assert.assertFalse(tested.isCommentType("comment_type"));
+	}
+
 	@Test
 	public void extractDocumentId() {
 		DocumentWithCommentsIndexStructureBuilder tested = new DocumentWithCommentsIndexStructureBuilder(
@@ -707,6 +774,493 @@ public class DocumentWithCommentsIndexStructureBuilderTest {
 
 	}
 
+	@Test
+	public void getDocumentSearchIndexName() {
+		DocumentWithCommentsIndexStructureBuilder tested = new DocumentWithCommentsIndexStructureBuilder(
+				mockEsIntegrationComponent(), "search_index", "issue_type", createSettingsWithMandatoryFilled(), true);
+		Assert.assertEquals("search_index", tested.getDocumentSearchIndexName("ORG"));
+		Assert.assertEquals("search_index", tested.getDocumentSearchIndexName(null));
+
+		// case - space placeholder in index name
+		tested.indexName = "search_index_{space}";
+		Assert.assertEquals("search_index_org", tested.getDocumentSearchIndexName("ORG"));
+		Assert.assertEquals("search_index_aaa", tested.getDocumentSearchIndexName("aaa"));
+		Assert.assertEquals("search_index_{space}", tested.getDocumentSearchIndexName(null));
+
+		// case - override for space
+		tested.setSpaceIndexNameOverride("ORG", "search_index_org_123");
+		Assert.assertEquals("search_index_org_123", tested.getDocumentSearchIndexName("ORG"));
+		Assert.assertEquals("search_index_aaa", tested.getDocumentSearchIndexName("aaa"));
+		tested.setSpaceIndexNameOverride("ORG", null);
+		Assert.assertEquals("search_index_org", tested.getDocumentSearchIndexName("ORG"));
+
+		tested.indexName = null;
+		Assert.assertNull(tested.getDocumentSearchIndexName("ORG"));
+	}
+
+	@Test
+	public void configuration_fullUpdateStrategy() {
+		Map<String, Object> settings = createSettingsWithMandatoryFilled();
+		DocumentWithCommentsIndexStructureBuilder tested = new DocumentWithCommentsIndexStructureBuilder(
+				mockEsIntegrationComponent(), "search_index", "issue_type", settings, true);
+		Assert.assertEquals(FullUpdateStrategy.IN_PLACE, tested.getFullUpdateStrategy());
+
+		settings.put(DocumentWithCommentsIndexStructureBuilder.CONFIG_FULLUPDATESTRATEGY, "new_index");
+		tested = new DocumentWithCommentsIndexStructureBuilder(mockEsIntegrationComponent(), "search_index_{space}",
+				"issue_type", settings, true);
+		Assert.assertEquals(FullUpdateStrategy.NEW_INDEX, tested.getFullUpdateStrategy());
+
+		// case - new index strategy requires index per space
+		try {
+			new DocumentWithCommentsIndexStructureBuilder(mockEsIntegrationComponent(), "search_index", "issue_type",
+					settings, true);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void configuration_fullUpdateIndexSettings() {
+		Map<String, Object> settings = createSettingsWithMandatoryFilled();
+		DocumentWithCommentsIndexStructureBuilder tested = new DocumentWithCommentsIndexStructureBuilder(
+				mockEsIntegrationComponent(), "search_index", "issue_type", settings, true);
+		Assert.assertNull(tested.getFullUpdateIndexSettings());
+
+		Map<String, Object> fuis = new HashMap<String, Object>();
+		settings.put(DocumentWithCommentsIndexStructureBuilder.CONFIG_FULLUPDATEINDEXSETTINGS, fuis);
+		tested = new DocumentWithCommentsIndexStructureBuilder(mockEsIntegrationComponent(), "search_index", "issue_type",
+				settings, true);
+		Assert.assertNull(tested.getFullUpdateIndexSettings());
+
+		fuis.put("refresh_interval", "-1");
+		fuis.put("index.number_of_replicas", 0);
+		tested = new DocumentWithCommentsIndexStructureBuilder(mockEsIntegrationComponent(), "search_index", "issue_type",
+				settings, true);
+		Assert.assertEquals(2, tested.getFullUpdateIndexSettings().size());
+		Assert.assertEquals("-1", tested.getFullUpdateIndexSettings().get("refresh_interval"));
+		Assert.assertEquals("0", tested.getFullUpdateIndexSettings().get("index.number_of_replicas"));
+
+		// case - bad structure
+		fuis.put("translog", new HashMap<String, Object>());
+		try {
+			new DocumentWithCommentsIndexStructureBuilder(mockEsIntegrationComponent(), "search_index", "issue_type",
+					settings, true);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+		settings.put(DocumentWithCommentsIndexStructureBuilder.CONFIG_FULLUPDATEINDEXSETTINGS, "refresh_interval");
+		try {
+			new DocumentWithCommentsIndexStructureBuilder(mockEsIntegrationComponent(), "search_index", "issue_type",
+					settings, true);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void indexDocument_indexPerSpaceAndRouting() throws Exception {
+		Map<String, Object> settings = loadTestSettings("/index_structure_configuration_test_ok.json");
+		settings.put(DocumentWithCommentsIndexStructureBuilder.CONFIG_ROUTINGBYSPACE, true);
+		DocumentWithCommentsIndexStructureBuilder tested = new DocumentWithCommentsIndexStructureBuilder(
+				mockEsIntegrationComponent(), "search_index_{space}", "issue_type", settings, true);
+		Assert.assertTrue(tested.routingBySpace);
+		tested.remoteDataFieldForComments = "fields.comment.comments";
+		tested.commentIndexingMode = CommentIndexingMode.CHILD;
+		Client client = Mockito.mock(Client.class);
+
+		BulkRequestBuilder esBulk = new BulkRequestBuilder(client);
+		tested.indexDocument(esBulk, "ORG", TestUtils.readDocumentJsonDataFromClasspathFile("ORG-1501"));
+		Assert.assertEquals(3, esBulk.request().numberOfActions());
+		for (ActionRequest<?> ar : esBulk.request().requests()) {
+			IndexRequest ir = (IndexRequest) ar;
+			Assert.assertEquals("search_index_org", ir.index());
+			Assert.assertEquals("ORG", ir.routing());
+		}
+
+		// case - routing not used by default
+		tested.routingBySpace = false;
+		esBulk = new BulkRequestBuilder(client);
+		tested.indexDocument(esBulk, "ORG", TestUtils.readDocumentJsonDataFromClasspathFile("ORG-1501"));
+		Assert.assertEquals(3, esBulk.request().numberOfActions());
+		IndexRequest ir = (IndexRequest) esBulk.request().requests().get(0);
+		Assert.assertEquals("search_index_org", ir.index());
+		Assert.assertNull(ir.routing());
+	}
+
+	@Test
+	public void getRemoteDataProjection() {
+		// case - projection not used by default
+		Map<String, Object> settings = loadTestSettings("/index_structure_configuration_test_ok.json");
+		DocumentWithCommentsIndexStructureBuilder tested = new DocumentWithCommentsIndexStructureBuilder(
+				mockEsIntegrationComponent(), "search_index", "issue_type", settings, true);
+		Assert.assertFalse(tested.remoteDataProjection);
+		Assert.assertNull(tested.getRemoteDataProjection());
+
+		// case - projection from configuration with additional fields in array
+		settings.put(DocumentWithCommentsIndexStructureBuilder.CONFIG_REMOTEDATAPROJECTION, true);
+		List<String> additional = new ArrayList<String>();
+		additional.add("fields.labels");
+		additional.add(" detail.body ");
+		settings.put(DocumentWithCommentsIndexStructureBuilder.CONFIG_REMOTEDATAPROJECTIONFIELDS, additional);
+		tested = new DocumentWithCommentsIndexStructureBuilder(mockEsIntegrationComponent(), "search_index",
+				"issue_type", settings, true);
+		Assert.assertTrue(tested.remoteDataProjection);
+		Assert.assertEquals(2, tested.remoteDataProjectionFields.size());
+
+		RemoteDataProjection ret = tested.getRemoteDataProjection();
+		Assert.assertFalse(ret.isAll());
+		Assert.assertTrue(ret.getChild("document_id").isAll());
+		Assert.assertTrue(ret.getChild("updated").isAll());
+		Assert.assertTrue(ret.getChild("delFlag").isAll());
+		Assert.assertNull(ret.getChild("changelog"));
+		Assert.assertFalse(ret.getChild("fields").isAll());
+		Assert.assertTrue(ret.getChild("fields").getChild("created").isAll());
+		Assert.assertTrue(ret.getChild("fields").getChild("reporter").isAll());
+		Assert.assertTrue(ret.getChild("fields").getChild("fixVersions").isAll());
+		Assert.assertTrue(ret.getChild("fields").getChild("labels").isAll());
+		Assert.assertNull(ret.getChild("fields").getChild("history"));
+		Assert.assertFalse(ret.getChild("comments").isAll());
+		Assert.assertTrue(ret.getChild("comments").getChild("id").isAll());
+		Assert.assertTrue(ret.getChild("comments").getChild("body").isAll());
+		Assert.assertTrue(ret.getChild("comments").getChild("updateAuthor").isAll());
+		Assert.assertNull(ret.getChild("comments").getChild("renderedBody"));
+		Assert.assertTrue(ret.getChild("detail").getChild("body").isAll());
+		Assert.assertNull(ret.getChild("detail").getChild("html"));
+
+		// case - additional fields as comma separated string, comments not indexed
+		settings.put(DocumentWithCommentsIndexStructureBuilder.CONFIG_REMOTEDATAPROJECTIONFIELDS, "fields.labels, detail");
+		tested = new DocumentWithCommentsIndexStructureBuilder(mockEsIntegrationComponent(), "search_index",
+				"issue_type", settings, true);
+		tested.commentIndexingMode = CommentIndexingMode.NONE;
+		ret = tested.getRemoteDataProjection();
+		Assert.assertTrue(ret.getChild("fields").getChild("labels").isAll());
+		Assert.assertTrue(ret.getChild("detail").isAll());
+		Assert.assertNull(ret.getChild("comments"));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void indexDocument_externalVersioning() throws Exception {
+		Map<String, Object> settings = loadTestSettings("/index_structure_configuration_test_ok.json");
+		settings.put(DocumentWithCommentsIndexStructureBuilder.CONFIG_EXTERNALVERSIONING, true);
+		DocumentWithCommentsIndexStructureBuilder tested = new DocumentWithCommentsIndexStructureBuilder(
+				mockEsIntegrationComponent(), "search_index", "issue_type", settings, true);
+		Assert.assertTrue(tested.externalVersioning);
+		tested.remoteDataFieldForUpdated = "fields.updated";
+		tested.remoteDataFieldForComments = "fields.comment.comments";
+		tested.commentIndexingMode = CommentIndexingMode.CHILD;
+		Client client = Mockito.mock(Client.class);
+
+		long expectedVersion = DateTimeUtils.parseISODateTime("2012-09-06T02:26:53.000-0400").getTime();
+		BulkRequestBuilder esBulk = new BulkRequestBuilder(client);
+		tested.indexDocument(esBulk, "ORG", TestUtils.readDocumentJsonDataFromClasspathFile("ORG-1501"));
+		Assert.assertEquals(3, esBulk.request().numberOfActions());
+		for (ActionRequest<?> ar : esBulk.request().requests()) {
+			IndexRequest ir = (IndexRequest) ar;
+			Assert.assertEquals(expectedVersion, ir.version());
+			Assert.assertEquals(VersionType.EXTERNAL_GTE, ir.versionType());
+		}
+
+		// case - versioning not used by default
+		tested.externalVersioning = false;
+		esBulk = new BulkRequestBuilder(client);
+		tested.indexDocument(esBulk, "ORG", TestUtils.readDocumentJsonDataFromClasspathFile("ORG-1501"));
+		IndexRequest ir = (IndexRequest) esBulk.request().requests().get(0);
+		Assert.assertEquals(VersionType.INTERNAL, ir.versionType());
+
+		// case - date of update is mandatory for versioning
+		tested.externalVersioning = true;
+		Map<String, Object> doc = TestUtils.readDocumentJsonDataFromClasspathFile("ORG-1501");
+		((Map<String, Object>) doc.get("fields")).remove("updated");
+		try {
+			tested.indexDocument(new BulkRequestBuilder(client), "ORG", doc);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+
+		// case - remote field with date of update must be configured
+		settings = createSettingsWithMandatoryFilled();
+		settings.remove(DocumentWithCommentsIndexStructureBuilder.CONFIG_REMOTEFIELD_UPDATED);
+		settings.put(DocumentWithCommentsIndexStructureBuilder.CONFIG_EXTERNALVERSIONING, true);
+		try {
+			new DocumentWithCommentsIndexStructureBuilder(mockEsIntegrationComponent(), "search_index", "issue_type",
+					settings, false);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void buildSearchForIndexedDocuments_routing() {
+		Client client = Mockito.mock(Client.class);
+		DocumentWithCommentsIndexStructureBuilder tested = new DocumentWithCommentsIndexStructureBuilder(
+				mockEsIntegrationComponent(), "search_index", "issue_type", createSettingsWithMandatoryFilled(), true);
+
+		SearchRequestBuilder srb = new SearchRequestBuilder(client);
+		tested.buildSearchForIndexedDocumentsWithRemoteId(srb, "ORG", "ORG-1");
+		Assert.assertNull(srb.request().routing());
+
+		tested.routingBySpace = true;
+		srb = new SearchRequestBuilder(client);
+		tested.buildSearchForIndexedDocumentsWithRemoteId(srb, "ORG", "ORG-1");
+		Assert.assertEquals("ORG", srb.request().routing());
+		assertTrue(srb.toString().contains("_routing"));
+
+		srb = new SearchRequestBuilder(client);
+		tested.buildSearchForIndexedDocumentsNotUpdatedAfter(srb, "ORG", new Date());
+		Assert.assertEquals("ORG", srb.request().routing());
+	}
+
+	@Test
+	public void commentReconciliation() throws Exception {
+		Client client = Mockito.mock(Client.class);
+		Map<String, Object> settings = createSettingsWithMandatoryFilled();
+		DocumentWithCommentsIndexStructureBuilder tested = new DocumentWithCommentsIndexStructureBuilder(
+				mockEsIntegrationComponent(), "search_index", "issue_type", settings, true);
+		Assert.assertFalse(tested.commentReconciliation);
+		Assert.assertFalse(tested.isCommentReconciliationEnabled());
+
+		settings.put(DocumentWithCommentsIndexStructureBuilder.CONFIG_COMMENTRECONCILIATION, true);
+		tested = new DocumentWithCommentsIndexStructureBuilder(mockEsIntegrationComponent(), "search_index",
+				"issue_type", settings, true);
+		Assert.assertTrue(tested.commentReconciliation);
+
+		// case - enabled only if comments are indexed as extra documents
+		tested.commentIndexingMode = CommentIndexingMode.EMBEDDED;
+		Assert.assertFalse(tested.isCommentReconciliationEnabled());
+		tested.commentIndexingMode = CommentIndexingMode.NONE;
+		Assert.assertFalse(tested.isCommentReconciliationEnabled());
+		tested.commentIndexingMode = CommentIndexingMode.STANDALONE;
+		Assert.assertTrue(tested.isCommentReconciliationEnabled());
+		tested.commentIndexingMode = CommentIndexingMode.CHILD;
+		Assert.assertTrue(tested.isCommentReconciliationEnabled());
+
+		// case - rejected if comments are indexed with same type as documents
+		try {
+			Map<String, Object> config = loadTestSettings("/index_structure_configuration_test_ok.json");
+			config.put(DocumentWithCommentsIndexStructureBuilder.CONFIG_COMMENTRECONCILIATION, true);
+			new DocumentWithCommentsIndexStructureBuilder(mockEsIntegrationComponent(), "search_index",
+					"jira_issue_comment_type", config, true);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			Assert
+					.assertEquals(
+							"'index/comment_reconciliation' can't be used if 'index/comment_type' is same as document type, as comments can't be distinguished",
+							e.getMessage());
+		}
+
+		// case - collect ids of indexed documents and comments
+		tested.commentTypeName = "comment_type";
+		BulkRequestBuilder esBulk = new BulkRequestBuilder(client);
+		esBulk.add(new IndexRequest("search_index", "issue_type", "ORG-1"));
+		esBulk.add(new IndexRequest("search_index", "comment_type", "c1"));
+		esBulk.add(new IndexRequest("search_index", "comment_type", "c2"));
+		esBulk.add(new IndexRequest("search_index", "issue_type", "ORG-2"));
+		esBulk.add(new DeleteRequest("search_index", "comment_type", "c3"));
+		Set<String> documentIds = new HashSet<String>();
+		Set<String> commentIds = new HashSet<String>();
+		tested.collectIndexedDocumentIds(esBulk, documentIds, commentIds);
+		Assert.assertEquals(2, documentIds.size());
+		Assert.assertTrue(documentIds.contains("ORG-1"));
+		Assert.assertTrue(documentIds.contains("ORG-2"));
+		Assert.assertEquals(2, commentIds.size());
+		Assert.assertTrue(commentIds.contains("c1"));
+		Assert.assertTrue(commentIds.contains("c2"));
+
+		// case - search for comments of documents, routing requested for child comments
+		SearchRequestBuilder srb = new SearchRequestBuilder(client);
+		tested.buildSearchForIndexedCommentsOfDocuments(srb, "ORG", documentIds);
+		Assert.assertArrayEquals(new String[] { "comment_type" }, srb.request().types());
+		Assert.assertNull(srb.request().routing());
+		assertTrue(srb.toString().contains("_routing"));
+		assertTrue(srb.toString().contains("ORG-1"));
+		assertTrue(srb.toString().contains("ORG-2"));
+
+		tested.commentIndexingMode = CommentIndexingMode.STANDALONE;
+		srb = new SearchRequestBuilder(client);
+		tested.buildSearchForIndexedCommentsOfDocuments(srb, "ORG", documentIds);
+		Assert.assertFalse(srb.toString().contains("_routing"));
+
+		tested.routingBySpace = true;
+		srb = new SearchRequestBuilder(client);
+		tested.buildSearchForIndexedCommentsOfDocuments(srb, "ORG", documentIds);
+		Assert.assertEquals("ORG", srb.request().routing());
+		assertTrue(srb.toString().contains("_routing"));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void indexDocument_partialUpdates() throws Exception {
+		Client client = Mockito.mock(Client.class);
+		Map<String, Object> settings = createSettingsWithMandatoryFilled();
+		Map<String, Object> fields = (Map<String, Object>) settings
+				.get(DocumentWithCommentsIndexStructureBuilder.CONFIG_FIELDS);
+		fields.put("status", fieldConfig("status", null));
+		fields.put("description", fieldConfig("description", null));
+		DocumentWithCommentsIndexStructureBuilder tested = new DocumentWithCommentsIndexStructureBuilder(
+				mockEsIntegrationComponent(), "search_index", "issue_type", settings, true);
+		Assert.assertFalse(tested.isPartialUpdateEnabled());
+
+		settings.put(DocumentWithCommentsIndexStructureBuilder.CONFIG_PARTIALUPDATES, true);
+		settings.put(DocumentWithCommentsIndexStructureBuilder.CONFIG_PARTIALUPDATESCACHESIZE, 10);
+		tested = new DocumentWithCommentsIndexStructureBuilder(mockEsIntegrationComponent(), "search_index", "issue_type",
+				settings, true);
+		Assert.assertTrue(tested.isPartialUpdateEnabled());
+		Assert.assertEquals(10, tested.fingerprintCache.getMaxSize());
+		Assert.assertEquals(DocumentWithCommentsIndexStructureBuilder.PARTIAL_UPDATES_MAX_RATIO_DEFAULT,
+				tested.partialUpdateMaxRatio, 0.0001);
+
+		// case - first write of document is whole
+		BulkRequestBuilder esBulk = new BulkRequestBuilder(client);
+		tested.indexDocument(esBulk, "ORG", createPartialUpdateDocument("open", "long description"));
+		Assert.assertTrue(esBulk.request().requests().get(0) instanceof IndexRequest);
+
+		// case - only changed field written
+		esBulk = new BulkRequestBuilder(client);
+		tested.indexDocument(esBulk, "ORG", createPartialUpdateDocument("closed", "long description"));
+		UpdateRequest urq = (UpdateRequest) esBulk.request().requests().get(0);
+		Assert.assertEquals("search_index", urq.index());
+		Assert.assertEquals("issue_type", urq.type());
+		Assert.assertEquals("D1", urq.id());
+		Assert.assertEquals("{\"status\":\"closed\"}", urq.doc().source().toUtf8());
+
+		// case - nothing changed so document is not written at all
+		esBulk = new BulkRequestBuilder(client);
+		tested.indexDocument(esBulk, "ORG", createPartialUpdateDocument("closed", "long description"));
+		Assert.assertEquals(0, esBulk.request().numberOfActions());
+
+		// case - whole document written if changed field is object, as partial update merges nested fields
+		fields.put("component", fieldConfig("component", null));
+		tested = new DocumentWithCommentsIndexStructureBuilder(mockEsIntegrationComponent(), "search_index", "issue_type",
+				settings, true);
+		Map<String, Object> document = createPartialUpdateDocument("closed", "long description");
+		Map<String, Object> component = new HashMap<String, Object>();
+		component.put("a", 1);
+		component.put("b", 2);
+		document.put("component", component);
+		tested.indexDocument(new BulkRequestBuilder(client), "ORG", document);
+		document = createPartialUpdateDocument("closed", "long description");
+		component = new HashMap<String, Object>();
+		component.put("a", 1);
+		document.put("component", component);
+		esBulk = new BulkRequestBuilder(client);
+		tested.indexDocument(esBulk, "ORG", document);
+		Assert.assertTrue(esBulk.request().requests().get(0) instanceof IndexRequest);
+		fields.remove("component");
+		tested = new DocumentWithCommentsIndexStructureBuilder(mockEsIntegrationComponent(), "search_index", "issue_type",
+				settings, true);
+		tested.indexDocument(new BulkRequestBuilder(client), "ORG", createPartialUpdateDocument("closed",
+				"long description"));
+
+		// case - whole document written if big part of it changed
+		esBulk = new BulkRequestBuilder(client);
+		String longDescription = new String(new char[200]).replace('\0', 'x');
+		tested.indexDocument(esBulk, "ORG", createPartialUpdateDocument("closed", longDescription));
+		Assert.assertTrue(esBulk.request().requests().get(0) instanceof IndexRequest);
+
+		// case - documents from bulk discarded
+		tested.discardDocumentFingerprints("ORG", esBulk);
+		Assert.assertEquals(0, tested.fingerprintCache.size());
+		esBulk = new BulkRequestBuilder(client);
+		tested.indexDocument(esBulk, "ORG", createPartialUpdateDocument("closed", longDescription));
+		Assert.assertTrue(esBulk.request().requests().get(0) instanceof IndexRequest);
+
+		// case - documents of Space discarded
+		tested.discardDocumentFingerprints("ORG", null);
+		Assert.assertEquals(0, tested.fingerprintCache.size());
+
+		// case - deleted document discarded
+		tested.indexDocument(new BulkRequestBuilder(client), "ORG", createPartialUpdateDocument("open", "d"));
+		Assert.assertEquals(1, tested.fingerprintCache.size());
+		SearchHit hit = mock(SearchHit.class);
+		when(hit.getIndex()).thenReturn("search_index");
+		when(hit.getType()).thenReturn("issue_type");
+		when(hit.getId()).thenReturn("D1");
+		tested.deleteESDocument(new BulkRequestBuilder(client), hit);
+		Assert.assertEquals(0, tested.fingerprintCache.size());
+
+		// case - external versioning not supported
+		settings.put(DocumentWithCommentsIndexStructureBuilder.CONFIG_EXTERNALVERSIONING, true);
+		try {
+			new DocumentWithCommentsIndexStructureBuilder(mockEsIntegrationComponent(), "search_index", "issue_type",
+					settings, true);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+
+		// case - invalid ratio
+		settings.remove(DocumentWithCommentsIndexStructureBuilder.CONFIG_EXTERNALVERSIONING);
+		settings.put(DocumentWithCommentsIndexStructureBuilder.CONFIG_PARTIALUPDATESMAXRATIO, 2);
+		try {
+			new DocumentWithCommentsIndexStructureBuilder(mockEsIntegrationComponent(), "search_index", "issue_type",
+					settings, true);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+	}
+
+	private Map<String, String> fieldConfig(String remoteField, String filter) {
+		Map<String, String> ret = new HashMap<String, String>();
+		ret.put(DocumentWithCommentsIndexStructureBuilder.CONFIG_FIELDS_REMOTEFIELD, remoteField);
+		if (filter != null)
+			ret.put(DocumentWithCommentsIndexStructureBuilder.CONFIG_FIELDS_VALUEFILTER, filter);
+		return ret;
+	}
+
+	private Map<String, Object> createPartialUpdateDocument(String status, String description) {
+		Map<String, Object> document = new HashMap<String, Object>();
+		document.put("docid", "D1");
+		document.put("status", status);
+		document.put("description", description);
+		return document;
+	}
+
+	@Test
+	public void deleteESDocument() throws Exception {
+		DocumentWithCommentsIndexStructureBuilder tested = new DocumentWithCommentsIndexStructureBuilder(
+				mockEsIntegrationComponent(), "search_index_{space}", "issue_type", createSettingsWithMandatoryFilled(),
+				true);
+		Client client = Mockito.mock(Client.class);
+
+		// case - document without routing
+		{
+			BulkRequestBuilder esBulk = new BulkRequestBuilder(client);
+			SearchHit hit = mock(SearchHit.class);
+			when(hit.getIndex()).thenReturn("search_index_org");
+			when(hit.getType()).thenReturn("issue_type");
+			when(hit.getId()).thenReturn("ORG-1");
+			Assert.assertTrue(tested.deleteESDocument(esBulk, hit));
+			DeleteRequest dr = (DeleteRequest) esBulk.request().requests().get(0);
+			Assert.assertEquals("search_index_org", dr.index());
+			Assert.assertEquals("issue_type", dr.type());
+			Assert.assertEquals("ORG-1", dr.id());
+			Assert.assertNull(dr.routing());
+		}
+
+		// case - comment with routing
+		{
+			BulkRequestBuilder esBulk = new BulkRequestBuilder(client);
+			SearchHit hit = mock(SearchHit.class);
+			when(hit.getIndex()).thenReturn("search_index_org");
+			when(hit.getType()).thenReturn("comment_type");
+			when(hit.getId()).thenReturn("12345");
+			SearchHitField routingField = mock(SearchHitField.class);
+			when(routingField.getValue()).thenReturn("ORG");
+			when(hit.field("_routing")).thenReturn(routingField);
+			Assert.assertFalse(tested.deleteESDocument(esBulk, hit));
+			DeleteRequest dr = (DeleteRequest) esBulk.request().requests().get(0);
+			Assert.assertEquals("search_index_org", dr.index());
+			Assert.assertEquals("ORG", dr.routing());
+		}
+	}
+
 	@Test
 	public void addValueToTheIndex() throws Exception {
 		DocumentWithCommentsIndexStructureBuilder tested = new DocumentWithCommentsIndexStructureBuilder(
@@ -0,0 +1,44 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link FieldNamePool}.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class FieldNamePoolTest {
+
+	@Test
+	public void canonicalize() {
+		FieldNamePool tested = new FieldNamePool(2);
+		Assert.assertEquals(2, tested.getMaxSize());
+		Assert.assertNull(tested.canonicalize(null));
+
+		String a1 = new String("a");
+		String a2 = new String("a");
+		Assert.assertSame(a1, tested.canonicalize(a1));
+		Assert.assertSame(a1, tested.canonicalize(a2));
+		Assert.assertEquals(1, tested.size());
+
+		String b1 = new String("b");
+		Assert.assertSame(b1, tested.canonicalize(b1));
+		Assert.assertSame(b1, tested.canonicalize(new String("b")));
+		Assert.assertEquals(2, tested.size());
+
+		// case - pool is full so new names are returned as they are
+		String c1 = new String("c");
+		String c2 = new String("c");
+		Assert.assertSame(c1, tested.canonicalize(c1));
+		Assert.assertSame(c2, tested.canonicalize(c2));
+		Assert.assertEquals(2, tested.size());
+		Assert.assertSame(a1, tested.canonicalize(new String("a")));
+	}
+
+}
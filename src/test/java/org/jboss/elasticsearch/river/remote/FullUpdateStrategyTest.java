@@ -0,0 +1,36 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import org.elasticsearch.common.settings.SettingsException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link FullUpdateStrategy}.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class FullUpdateStrategyTest {
+
+	@Test
+	public void parseConfiguration() {
+		Assert.assertEquals(FullUpdateStrategy.IN_PLACE, FullUpdateStrategy.parseConfiguration("in_place"));
+		Assert.assertEquals(FullUpdateStrategy.IN_PLACE, FullUpdateStrategy.parseConfiguration("In_Place"));
+		Assert.assertEquals(FullUpdateStrategy.NEW_INDEX, FullUpdateStrategy.parseConfiguration("new_index"));
+		Assert.assertEquals(FullUpdateStrategy.NEW_INDEX, FullUpdateStrategy.parseConfiguration("New_Index"));
+		Assert.assertEquals(FullUpdateStrategy.IN_PLACE, FullUpdateStrategy.parseConfiguration(null));
+		Assert.assertEquals(FullUpdateStrategy.IN_PLACE, FullUpdateStrategy.parseConfiguration("  "));
+
+		try {
+			FullUpdateStrategy.parseConfiguration("nonsense");
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+	}
+
+}
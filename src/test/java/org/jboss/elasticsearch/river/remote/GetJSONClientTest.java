@@ -7,10 +7,13 @@ package org.jboss.elasticsearch.river.remote;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Assert;
 
@@ -18,11 +21,15 @@ import org.apache.http.HttpStatus;
 import org.elasticsearch.common.jackson.core.JsonParseException;
 import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.elasticsearch.common.settings.SettingsException;
+import org.elasticsearch.river.RiverName;
 import org.jboss.elasticsearch.river.remote.HttpRemoteSystemClientBase.HttpCallException;
 import org.jboss.elasticsearch.river.remote.HttpRemoteSystemClientBase.HttpMethodType;
 import org.jboss.elasticsearch.river.remote.exception.RemoteDocumentNotFoundException;
+import org.jboss.elasticsearch.river.remote.exception.RemoteDocumentNotModifiedException;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import static org.mockito.Mockito.mock;
 
@@ -87,9 +94,38 @@ public class GetJSONClientTest {
 			Assert.assertNull(tested.getSpacesResField);
 			Assert.assertFalse(tested.isAuthConfigured);
 			Assert.assertEquals(GetJSONClient.HEADER_ACCEPT_DEFAULT, tested.headers.get("Accept"));
+			Assert.assertEquals(GetJSONClient.FIELD_NAME_POOL_SIZE_DEFAULT, tested.fieldNamePool.getMaxSize());
+			Assert.assertFalse(tested.compactMaps);
+			Assert.assertFalse(tested.compactDocuments);
 			Mockito.verify(esMock).createLogger(GetJSONClient.class);
 		}
 
+		// case - field name pool disabled, compact maps enabled
+		{
+			GetJSONClient tested = new GetJSONClient();
+			Map<String, Object> config = new HashMap<String, Object>();
+			config.put(GetJSONClient.CFG_URL_GET_DOCUMENTS, "http://test.org/documents");
+			config.put(GetJSONClient.CFG_FIELD_NAME_POOL_SIZE, 0);
+			config.put(GetJSONClient.CFG_COMPACT_MAPS, true);
+			config.put(GetJSONClient.CFG_COMPACT_DOCUMENTS, true);
+			tested.init(mockEsIntegrationComponent(), config, false, null);
+			Assert.assertNull(tested.fieldNamePool);
+			Assert.assertTrue(tested.compactMaps);
+			Assert.assertTrue(tested.compactDocuments);
+		}
+
+		// case - error - negative field name pool size
+		try {
+			GetJSONClient tested = new GetJSONClient();
+			Map<String, Object> config = new HashMap<String, Object>();
+			config.put(GetJSONClient.CFG_URL_GET_DOCUMENTS, "http://test.org/documents");
+			config.put(GetJSONClient.CFG_FIELD_NAME_POOL_SIZE, -1);
+			tested.init(mockEsIntegrationComponent(), config, false, null);
+			Assert.fail("SettingsException not thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+
 		// case - error - getSpaces is required but not configured!
 		try {
 			GetJSONClient tested = new GetJSONClient();
@@ -475,6 +511,21 @@ public class GetJSONClientTest {
 			}
 		}
 
+		// case - HTTP code 304 means document is not modified so indexing is skipped
+		{
+			Map<String, Object> config = new HashMap<String, Object>();
+			config.put(GetJSONClient.CFG_URL_GET_DOCUMENTS,
+					"http://test.org/documents?docSpace={space}&docUpdatedAfter={updatedAfter}&startAtIndex={startAtIndex}");
+			config.put(GetJSONClient.CFG_URL_GET_DOCUMENT_DETAILS, "http://test.org/document?docSpace={space}&id={id}");
+			IRemoteSystemClient tested = createTestedInstanceWithHttpCallException(config, HttpStatus.SC_NOT_MODIFIED);
+			try {
+				tested.getChangedDocumentDetails("myspace", "myid", null);
+				Assert.fail("RemoteDocumentNotModifiedException expected");
+			} catch (RemoteDocumentNotModifiedException e) {
+				// OK
+			}
+		}
+
 		// case - other HTTP codes must throw RestCallHttpException to fail indexing completely
 		{
 			Map<String, Object> config = new HashMap<String, Object>();
@@ -491,6 +542,84 @@ public class GetJSONClientTest {
 		}
 	}
 
+	@Test
+	public void getChangedDocumentDetails_conditionalGetDuringIncrementalUpdateOnly() throws Exception {
+		Map<String, Object> config = new HashMap<String, Object>();
+		config.put(GetJSONClient.CFG_URL_GET_DOCUMENTS, "http://test.org/documents?docSpace={space}");
+		config.put(GetJSONClient.CFG_URL_GET_DOCUMENT_DETAILS, "http://test.org/document?docSpace={space}&id={id}");
+		final List<Boolean> sendValidators = new ArrayList<Boolean>();
+		final List<String> listingHashes = new ArrayList<String>();
+		GetJSONClient tested = new GetJSONClient() {
+			@Override
+			protected HttpResponseContent performHttpCall(String url, Map<String, String> headers,
+					HttpMethodType methodType) throws Exception, HttpCallException {
+				return new HttpResponseContent("application/json", "[]".getBytes("UTF-8"));
+			}
+
+			@Override
+			protected HttpResponseContent performConditionalHttpGetCall(String url, Map<String, String> headers,
+					boolean send, String spaceKey, String documentId, String listingHash) throws Exception,
+					HttpCallException {
+				sendValidators.add(send);
+				listingHashes.add(listingHash);
+				return new HttpResponseContent("application/json", "{}".getBytes("UTF-8"));
+			}
+		};
+		tested.init(mockEsIntegrationComponent(), config, false, null);
+
+		tested.getChangedDocumentDetails("myspace", "myid", null);
+		tested.getChangedDocuments("myspace", 0, false, null);
+		tested.getChangedDocumentDetails("myspace", "myid", null);
+		tested.getChangedDocumentDetails("otherspace", "myid", null);
+		tested.getChangedDocuments("myspace", 0, true, null);
+		tested.getChangedDocumentDetails("myspace", "myid", null);
+
+		Assert.assertEquals(5, sendValidators.size());
+		Assert.assertFalse(sendValidators.get(0));
+		Assert.assertTrue(sendValidators.get(1));
+		Assert.assertFalse(sendValidators.get(2));
+		Assert.assertFalse(sendValidators.get(3));
+		Assert.assertFalse(sendValidators.get(4));
+		Assert.assertNull(listingHashes.get(0));
+
+		// case - hash of listed document data passed so changed document is loaded again
+		Map<String, Object> document = new HashMap<String, Object>();
+		document.put("id", "myid");
+		document.put("updated", "2014-10-20");
+		tested.getChangedDocumentDetails("myspace", "myid", document);
+		Assert.assertEquals(GetJSONClient.getListingHash(document), listingHashes.get(5));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void getListingHash() throws Exception {
+		Assert.assertNull(GetJSONClient.getListingHash(null));
+
+		Map<String, Object> document = new HashMap<String, Object>();
+		document.put("id", "myid");
+		document.put("updated", "2014-10-20");
+		String hash = GetJSONClient.getListingHash(document);
+		Assert.assertNotNull(hash);
+		document.put("updated", "2014-10-21");
+		Assert.assertFalse(hash.equals(GetJSONClient.getListingHash(document)));
+
+		// case - compact document hashed from raw data, not affected by later changes
+		GetJSONClient tested = new GetJSONClient();
+		tested.compactDocuments = true;
+		tested.initProjections();
+		Map<String, Object> compact = (Map<String, Object>) tested.parseJSONResponse(
+				"{\"id\":\"myid\",\"updated\":\"2014-10-20\"}".getBytes("UTF-8"),
+				tested.documentDetailResponseProjection);
+		Assert.assertTrue(compact instanceof CompactJSONDocument);
+		hash = GetJSONClient.getListingHash(compact);
+		compact.put("detail", "value");
+		Assert.assertEquals(hash, GetJSONClient.getListingHash(compact));
+		Map<String, Object> compact2 = (Map<String, Object>) tested.parseJSONResponse(
+				"{\"id\":\"myid\",\"updated\":\"2014-10-21\"}".getBytes("UTF-8"),
+				tested.documentDetailResponseProjection);
+		Assert.assertFalse(hash.equals(GetJSONClient.getListingHash(compact2)));
+	}
+
 	@SuppressWarnings("unchecked")
 	@Test
 	public void getChangedDocumentDetails_urlFieldConfigured() throws Exception {
@@ -611,6 +740,243 @@ public class GetJSONClientTest {
 
 	}
 
+	@SuppressWarnings("unchecked")
+	@Test
+	public void parseJSONResponse() throws Exception {
+		GetJSONClient tested = new GetJSONClient();
+
+		// case - object on root level
+		Map<String, Object> rm = (Map<String, Object>) tested.parseJSONResponse("{\"item1\":\"val1\",\"item2\":[1,{\"a\":true}]}"
+				.getBytes("UTF-8"));
+		Assert.assertEquals(2, rm.size());
+		Assert.assertEquals("val1", rm.get("item1"));
+		Assert.assertEquals(1, ((List<Object>) rm.get("item2")).get(0));
+		Assert.assertEquals(Boolean.TRUE, ((Map<String, Object>) ((List<Object>) rm.get("item2")).get(1)).get("a"));
+
+		// case - array on root level
+		List<Object> rl = (List<Object>) tested.parseJSONResponse("[\"a\", 10, null, [true], {\"b\":\"c\"}]"
+				.getBytes("UTF-8"));
+		Assert.assertEquals(5, rl.size());
+		Assert.assertEquals("a", rl.get(0));
+		Assert.assertEquals(10, rl.get(1));
+		Assert.assertNull(rl.get(2));
+		Assert.assertEquals(Boolean.TRUE, ((List<Object>) rl.get(3)).get(0));
+		Assert.assertEquals("c", ((Map<String, Object>) rl.get(4)).get("b"));
+
+		// case - simple value on root level
+		Assert.assertEquals("text", tested.parseJSONResponse("\"text\"".getBytes("UTF-8")));
+		Assert.assertEquals(2.5d, tested.parseJSONResponse("2.5".getBytes("UTF-8")));
+
+		// case - unclosed array
+		try {
+			tested.parseJSONResponse("[\"a\", 10".getBytes("UTF-8"));
+			Assert.fail("JsonParseException expected");
+		} catch (JsonParseException e) {
+			// OK
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void parseJSONResponse_projection() throws Exception {
+		GetJSONClient tested = new GetJSONClient();
+		RemoteDataProjection projection = new RemoteDataProjection().addPath("id").addPath("fields.versions.name")
+				.addPath("fields.reporter");
+
+		Map<String, Object> rm = (Map<String, Object>) tested
+				.parseJSONResponse(
+						("{\"id\":\"a1\",\"history\":[{\"x\":{\"y\":1}}],\"html\":\"<p>text</p>\","
+								+ "\"fields\":{\"reporter\":{\"name\":\"john\",\"email\":\"j@t.org\"},\"other\":true,"
+								+ "\"versions\":[{\"name\":\"1.0\",\"id\":1},{\"id\":2}]}}").getBytes("UTF-8"),
+						projection);
+		Assert.assertEquals(2, rm.size());
+		Assert.assertEquals("a1", rm.get("id"));
+		Map<String, Object> fields = (Map<String, Object>) rm.get("fields");
+		Assert.assertEquals(2, fields.size());
+		Map<String, Object> reporter = (Map<String, Object>) fields.get("reporter");
+		Assert.assertEquals("john", reporter.get("name"));
+		Assert.assertEquals("j@t.org", reporter.get("email"));
+		List<Map<String, Object>> versions = (List<Map<String, Object>>) fields.get("versions");
+		Assert.assertEquals(2, versions.size());
+		Assert.assertEquals(1, versions.get(0).size());
+		Assert.assertEquals("1.0", versions.get(0).get("name"));
+		Assert.assertEquals(0, versions.get(1).size());
+
+		// case - projection applied on array of documents on root level
+		List<Map<String, Object>> rl = (List<Map<String, Object>>) tested.parseJSONResponse(
+				"[{\"id\":\"a1\",\"html\":\"t\"},{\"id\":\"a2\"}]".getBytes("UTF-8"), projection);
+		Assert.assertEquals(2, rl.size());
+		Assert.assertEquals(1, rl.get(0).size());
+		Assert.assertEquals("a2", rl.get(1).get("id"));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void parseJSONResponse_fieldNamePoolAndCompactMaps() throws Exception {
+		GetJSONClient tested = new GetJSONClient();
+		tested.fieldNamePool = new FieldNamePool(100);
+		tested.compactMaps = true;
+
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < 2; i++) {
+			if (i > 0)
+				sb.append(",");
+			sb.append("{\"id\":\"a").append(i).append("\",\"fields\":{");
+			for (int f = 0; f < GetJSONClient.COMPACT_MAP_MAX_SIZE + 1; f++) {
+				if (f > 0)
+					sb.append(",");
+				sb.append("\"f").append(f).append("\":").append(f);
+			}
+			sb.append("}}");
+		}
+		sb.append("]");
+
+		List<Map<String, Object>> rl = (List<Map<String, Object>>) tested.parseJSONResponse(sb.toString().getBytes(
+				"UTF-8"));
+		Assert.assertEquals(2, rl.size());
+		Map<String, Object> d0 = rl.get(0);
+		Map<String, Object> d1 = rl.get(1);
+		Assert.assertEquals("a0", d0.get("id"));
+		Assert.assertEquals("a1", d1.get("id"));
+		// small object is compact, big object is not
+		Assert.assertTrue(d0 instanceof CompactMap);
+		Map<String, Object> fields0 = (Map<String, Object>) d0.get("fields");
+		Assert.assertTrue(fields0 instanceof HashMap);
+		Assert.assertEquals(GetJSONClient.COMPACT_MAP_MAX_SIZE + 1, fields0.size());
+		Assert.assertEquals(8, ((Number) fields0.get("f8")).intValue());
+
+		// keys of both documents are the same instances
+		for (String key : d0.keySet()) {
+			Assert.assertSame(key, tested.fieldNamePool.canonicalize(key));
+		}
+		for (String key : fields0.keySet()) {
+			Assert.assertSame(key, tested.fieldNamePool.canonicalize(key));
+		}
+		for (String key : ((Map<String, Object>) d1.get("fields")).keySet()) {
+			Assert.assertSame(key, tested.fieldNamePool.canonicalize(key));
+		}
+		Assert.assertEquals(GetJSONClient.COMPACT_MAP_MAX_SIZE + 3, tested.fieldNamePool.size());
+
+		// same data as without pool and compact maps
+		tested.fieldNamePool = null;
+		tested.compactMaps = false;
+		Assert.assertEquals(tested.parseJSONResponse(sb.toString().getBytes("UTF-8")), rl);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void parseJSONResponse_compactDocuments() throws Exception {
+		GetJSONClient tested = new GetJSONClient();
+		tested.compactDocuments = true;
+		tested.getDocsResFieldDocuments = "items";
+		tested.getDocsResFieldTotalcount = "total";
+
+		byte[] data = "{\"total\":2,\"other\":\"x\",\"items\":[{\"id\":\"a1\",\"f\":{\"g\":1}},{\"id\":\"a2\"}]}"
+				.getBytes("UTF-8");
+		Map<String, Object> rm = (Map<String, Object>) tested.parseJSONResponse(data,
+				tested.buildDocumentsResponseProjection());
+		Assert.assertEquals(2, rm.size());
+		Assert.assertEquals(2, rm.get("total"));
+		List<Map<String, Object>> documents = (List<Map<String, Object>>) rm.get("items");
+		Assert.assertEquals(2, documents.size());
+		Assert.assertTrue(documents.get(0) instanceof CompactJSONDocument);
+		Assert.assertTrue(documents.get(1) instanceof CompactJSONDocument);
+		Assert.assertEquals("a1", documents.get(0).get("id"));
+		Assert.assertEquals(1, ((Number) ((Map<String, Object>) documents.get(0).get("f")).get("g")).intValue());
+		Assert.assertEquals("a2", documents.get(1).get("id"));
+
+		// case - documents in root, projection from builder applied
+		tested.getDocsResFieldDocuments = null;
+		IDocumentIndexStructureBuilder builderMock = mock(IDocumentIndexStructureBuilder.class);
+		tested.setIndexStructureBuilder(builderMock);
+		Mockito.when(builderMock.getRemoteDataProjection()).thenReturn(new RemoteDataProjection().addPath("id"),
+				new RemoteDataProjection().addPath("id"));
+		List<Map<String, Object>> rl = (List<Map<String, Object>>) tested.parseJSONResponse(
+				"[{\"id\":\"a1\",\"f\":{\"g\":1}}]".getBytes("UTF-8"), tested.buildDocumentsResponseProjection());
+		Assert.assertEquals(1, rl.size());
+		Assert.assertTrue(rl.get(0) instanceof CompactJSONDocument);
+		Assert.assertEquals(1, rl.get(0).size());
+		Assert.assertEquals("a1", rl.get(0).get("id"));
+
+		// case - detail response is compact too
+		Assert.assertTrue(tested.parseJSONResponse("{\"id\":\"a1\"}".getBytes("UTF-8"),
+				tested.buildDocumentDetailResponseProjection()) instanceof CompactJSONDocument);
+		tested.setIndexStructureBuilder(null);
+		Map<String, Object> detail = (Map<String, Object>) tested.parseJSONResponse(
+				"{\"id\":\"a1\",\"body\":\"b\"}".getBytes("UTF-8"), tested.buildDocumentDetailResponseProjection());
+		Assert.assertTrue(detail instanceof CompactJSONDocument);
+		Assert.assertEquals("b", detail.get("body"));
+	}
+
+	@Test
+	public void initProjections() {
+		GetJSONClient tested = new GetJSONClient();
+		tested.compactDocuments = true;
+		tested.getDocsResFieldDocuments = "items";
+		IDocumentIndexStructureBuilder builderMock = mock(IDocumentIndexStructureBuilder.class);
+		Mockito.when(builderMock.getRemoteDataProjection()).thenReturn(new RemoteDataProjection().addPath("id"),
+				new RemoteDataProjection().addPath("id").addPath("detail.body"));
+
+		// case - projections are built once when builder is set, not for each request
+		tested.setIndexStructureBuilder(builderMock);
+		Mockito.verify(builderMock, Mockito.times(2)).getRemoteDataProjection();
+		Assert.assertTrue(tested.documentsResponseProjection.getChild("items").isCompactDocument());
+		Assert.assertTrue(tested.documentsResponseProjection.getChild("items").getChild("id").isAll());
+		Assert.assertTrue(tested.documentDetailResponseProjection.isCompactDocument());
+		Assert.assertTrue(tested.documentDetailResponseProjection.getChild("body").isAll());
+
+		// case - no builder
+		tested.setIndexStructureBuilder(null);
+		Assert.assertTrue(tested.documentsResponseProjection.getChild("items").isCompactDocument());
+		Assert.assertTrue(tested.documentDetailResponseProjection.isAll());
+		Mockito.verifyNoMoreInteractions(builderMock);
+	}
+
+	@Test
+	public void getDocumentsResponseProjection() {
+		GetJSONClient tested = new GetJSONClient();
+		// case - no projection without index structure builder
+		Assert.assertNull(tested.buildDocumentsResponseProjection());
+		Assert.assertNull(tested.buildDocumentDetailResponseProjection());
+
+		// case - no projection if builder returns none
+		IDocumentIndexStructureBuilder builderMock = mock(IDocumentIndexStructureBuilder.class);
+		tested.setIndexStructureBuilder(builderMock);
+		Assert.assertNull(tested.buildDocumentsResponseProjection());
+		Assert.assertNull(tested.buildDocumentDetailResponseProjection());
+
+		// case - documents in root of response
+		Mockito.when(builderMock.getRemoteDataProjection()).thenReturn(new RemoteDataProjection().addPath("id"),
+				new RemoteDataProjection().addPath("id"), new RemoteDataProjection().addPath("id").addPath("detail.body"),
+				new RemoteDataProjection().addPath("id"));
+		tested.urlGetDocumentDetailsField = "url";
+		RemoteDataProjection ret = tested.buildDocumentsResponseProjection();
+		Assert.assertTrue(ret.getChild("id").isAll());
+		Assert.assertTrue(ret.getChild("url").isAll());
+
+		// case - documents in field of response
+		tested.getDocsResFieldDocuments = "data.items";
+		tested.getDocsResFieldTotalcount = "total";
+		tested.getRootResFieldsMapping = new HashMap<String, Object>();
+		tested.getRootResFieldsMapping.put("space", "meta.space");
+		ret = tested.buildDocumentsResponseProjection();
+		Assert.assertTrue(ret.getChild("data").getChild("items").getChild("id").isAll());
+		Assert.assertNull(ret.getChild("data").getChild("items").getChild("html"));
+		Assert.assertTrue(ret.getChild("total").isAll());
+		Assert.assertTrue(ret.getChild("meta").getChild("space").isAll());
+		Assert.assertNull(ret.getChild("id"));
+
+		// case - detail projection
+		ret = tested.buildDocumentDetailResponseProjection();
+		Assert.assertTrue(ret.getChild("body").isAll());
+		Assert.assertNull(ret.getChild("html"));
+
+		// case - detail not necessary at all
+		ret = tested.buildDocumentDetailResponseProjection();
+		Assert.assertFalse(ret.isAll());
+		Assert.assertNull(ret.getChild("body"));
+	}
+
 	@Test
 	public void enhanceUrlGetDocumentDetails() throws UnsupportedEncodingException {
 
@@ -671,6 +1037,32 @@ public class GetJSONClientTest {
 		IESIntegration esIntegrationMock = mock(IESIntegration.class);
 		Mockito.when(esIntegrationMock.createLogger(Mockito.any(Class.class))).thenReturn(
 				ESLoggerFactory.getLogger(GetJSONClient.class.getName()));
+		Mockito.when(esIntegrationMock.riverName()).thenReturn(new RiverName("remote", "my_river"));
+		Mockito.when(esIntegrationMock.acquireIndexingThread(Mockito.anyString(), Mockito.any(Runnable.class))).thenAnswer(
+				new Answer<Thread>() {
+					@Override
+					public Thread answer(InvocationOnMock invocation) throws Throwable {
+						Thread ret = new Thread((Runnable) invocation.getArguments()[1], (String) invocation.getArguments()[0]);
+						ret.setDaemon(true);
+						return ret;
+					}
+				});
+		Mockito.when(esIntegrationMock.acquireThreadFactory(Mockito.anyString())).thenAnswer(new Answer<ThreadFactory>() {
+			@Override
+			public ThreadFactory answer(InvocationOnMock invocation) throws Throwable {
+				final String namePrefix = (String) invocation.getArguments()[0];
+				return new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread ret = new Thread(r, namePrefix + "_" + count.incrementAndGet());
+						ret.setDaemon(true);
+						return ret;
+					}
+				};
+			}
+		});
 		return esIntegrationMock;
 	}
 
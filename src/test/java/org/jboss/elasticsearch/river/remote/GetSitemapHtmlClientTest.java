@@ -5,15 +5,23 @@
  */
 package org.jboss.elasticsearch.river.remote;
 
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.http.HttpStatus;
 import org.apache.http.client.ClientProtocolException;
-import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.elasticsearch.common.settings.SettingsException;
 import org.jboss.elasticsearch.river.remote.HttpRemoteSystemClientBase.HttpCallException;
 import org.jboss.elasticsearch.river.remote.exception.RemoteDocumentNotFoundException;
+import org.jboss.elasticsearch.river.remote.exception.RemoteDocumentNotModifiedException;
+import org.jboss.elasticsearch.river.remote.sitemap.SiteMapParser;
 import org.jboss.elasticsearch.river.remote.sitemap.SiteMapParserTest;
 import org.jboss.elasticsearch.river.remote.sitemap.UnknownFormatException;
 import org.jsoup.Jsoup;
@@ -21,8 +29,6 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
 
-import static org.mockito.Mockito.mock;
-
 /**
  * Unit test for {@link GetSitemapHtmlClient}.
  * 
@@ -148,6 +154,144 @@ public class GetSitemapHtmlClientTest {
 		} catch (SettingsException e) {
 			Assert.assertEquals("'remote/htmlMapping' configuration section is invalid", e.getMessage());
 		}
+		try {
+			GetSitemapHtmlClient tested = new GetSitemapHtmlClient();
+			Map<String, Object> config = new HashMap<String, Object>();
+			config.put(GetSitemapHtmlClient.CFG_URL_GET_SITEMAP, "http://test.org/documents");
+			Map<String, Object> htmlMapping = new HashMap<String, Object>();
+			htmlMapping.put("field", "no map");
+			config.put(GetSitemapHtmlClient.CFG_HTML_MAPPING, htmlMapping);
+			tested.init(mockEsIntegrationComponent(), config, false, null);
+			Assert.fail("SettingsException not thrown");
+		} catch (SettingsException e) {
+			Assert.assertEquals("'remote/htmlMapping' configuration section is invalid", e.getMessage());
+		}
+		try {
+			GetSitemapHtmlClient tested = new GetSitemapHtmlClient();
+			Map<String, Object> config = new HashMap<String, Object>();
+			config.put(GetSitemapHtmlClient.CFG_URL_GET_SITEMAP, "http://test.org/documents");
+			Map<String, Object> htmlMapping = new HashMap<String, Object>();
+			createMappingField(htmlMapping, "field", ":nonsense", true);
+			config.put(GetSitemapHtmlClient.CFG_HTML_MAPPING, htmlMapping);
+			tested.init(mockEsIntegrationComponent(), config, false, null);
+			Assert.fail("SettingsException not thrown");
+		} catch (SettingsException e) {
+			Assert.assertTrue(e.getMessage().startsWith("'remote/htmlMapping/field/cssSelector' is invalid"));
+		}
+
+		// case - html mapping is compiled
+		{
+			GetSitemapHtmlClient tested = new GetSitemapHtmlClient();
+			Map<String, Object> config = new HashMap<String, Object>();
+			config.put(GetSitemapHtmlClient.CFG_URL_GET_SITEMAP, "http://test.org/documents");
+			tested.init(mockEsIntegrationComponent(), config, false, null);
+			Assert.assertNull(tested.htmlFieldMappings);
+
+			Map<String, Object> htmlMapping = new HashMap<String, Object>();
+			createMappingField(htmlMapping, "field", " .myclass ", "content", true);
+			config.put(GetSitemapHtmlClient.CFG_HTML_MAPPING, htmlMapping);
+			tested.init(mockEsIntegrationComponent(), config, false, null);
+			Assert.assertEquals(1, tested.htmlFieldMappings.size());
+			GetSitemapHtmlClient.HtmlFieldMapping m = tested.htmlFieldMappings.get(0);
+			Assert.assertEquals("field", m.dataField);
+			Assert.assertNotNull(m.evaluator);
+			Assert.assertTrue(m.stripHtml);
+			Assert.assertEquals("content", m.valueAttribute);
+		}
+
+		// case - list documents mode
+		{
+			GetSitemapHtmlClient tested = new GetSitemapHtmlClient();
+			Map<String, Object> config = new HashMap<String, Object>();
+			config.put(GetSitemapHtmlClient.CFG_URL_GET_SITEMAP, "http://test.org/documents");
+			IESIntegration esMock = mockEsIntegrationComponent();
+			Mockito.when(esMock.getSpaceIndexingMode()).thenReturn(SpaceIndexingMode.UPDATE_TIMESTAMP);
+			tested.init(esMock, config, false, null);
+			Assert.assertTrue(tested.updateTimestampMode);
+
+			Mockito.when(esMock.getSpaceIndexingMode()).thenReturn(SpaceIndexingMode.SIMPLE);
+			tested.init(esMock, config, false, null);
+			Assert.assertFalse(tested.updateTimestampMode);
+		}
+
+		// case - sitemap max bytes configuration
+		{
+			GetSitemapHtmlClient tested = new GetSitemapHtmlClient();
+			Map<String, Object> config = new HashMap<String, Object>();
+			config.put(GetSitemapHtmlClient.CFG_URL_GET_SITEMAP, "http://test.org/documents");
+			tested.init(mockEsIntegrationComponent(), config, false, null);
+			Assert.assertEquals(SiteMapParser.MAX_BYTES_ALLOWED, tested.sitemapParser.getMaxBytes());
+
+			config.put(GetSitemapHtmlClient.CFG_SITEMAP_MAX_BYTES, 1000000000);
+			tested.init(mockEsIntegrationComponent(), config, false, null);
+			Assert.assertEquals(1000000000, tested.sitemapParser.getMaxBytes());
+		}
+		try {
+			GetSitemapHtmlClient tested = new GetSitemapHtmlClient();
+			Map<String, Object> config = new HashMap<String, Object>();
+			config.put(GetSitemapHtmlClient.CFG_URL_GET_SITEMAP, "http://test.org/documents");
+			config.put(GetSitemapHtmlClient.CFG_SITEMAP_MAX_BYTES, 0);
+			tested.init(mockEsIntegrationComponent(), config, false, null);
+			Assert.fail("SettingsException not thrown");
+		} catch (SettingsException e) {
+			Assert.assertEquals("'remote/sitemapMaxBytes' must be positive number", e.getMessage());
+		}
+
+		// case - crawl configuration
+		{
+			GetSitemapHtmlClient tested = new GetSitemapHtmlClient();
+			Map<String, Object> config = new HashMap<String, Object>();
+			config.put(GetSitemapHtmlClient.CFG_URL_GET_SITEMAP, "http://test.org/documents");
+			tested.init(mockEsIntegrationComponent(), config, false, null);
+			Assert.assertEquals(1, tested.crawlThreads);
+			Assert.assertEquals(4, tested.crawlMaxConnectionsPerHost);
+			Assert.assertNull(tested.crawlExecutor);
+
+			config.put(GetSitemapHtmlClient.CFG_CRAWL_THREADS, 8);
+			config.put(GetSitemapHtmlClient.CFG_CRAWL_MAX_CONNECTIONS_PER_HOST, "2");
+			IESIntegration esIntegration = mockEsIntegrationComponent();
+			tested.init(esIntegration, config, false, null);
+			Assert.assertEquals(8, tested.crawlThreads);
+			Assert.assertEquals(2, tested.crawlMaxConnectionsPerHost);
+			Assert.assertEquals(8, tested.crawlExecutor.getMaximumPoolSize());
+			// threads are named by river
+			Mockito.verify(esIntegration).acquireThreadFactory("remote_river_crawl_my_river");
+			Mockito.verify(esIntegration).acquireThreadFactory("remote_river_sitemap_my_river");
+			Assert.assertNotNull(tested.sitemapIndexThreadFactory);
+		}
+		try {
+			GetSitemapHtmlClient tested = new GetSitemapHtmlClient();
+			Map<String, Object> config = new HashMap<String, Object>();
+			config.put(GetSitemapHtmlClient.CFG_URL_GET_SITEMAP, "http://test.org/documents");
+			config.put(GetSitemapHtmlClient.CFG_CRAWL_MAX_CONNECTIONS_PER_HOST, 0);
+			tested.init(mockEsIntegrationComponent(), config, false, null);
+			Assert.fail("SettingsException not thrown");
+		} catch (SettingsException e) {
+			Assert.assertEquals("'remote/crawlMaxConnectionsPerHost' must be positive number", e.getMessage());
+		}
+
+		// case - sitemap index threads configuration
+		{
+			GetSitemapHtmlClient tested = new GetSitemapHtmlClient();
+			Map<String, Object> config = new HashMap<String, Object>();
+			config.put(GetSitemapHtmlClient.CFG_URL_GET_SITEMAP, "http://test.org/documents");
+			tested.init(mockEsIntegrationComponent(), config, false, null);
+			Assert.assertEquals(4, tested.sitemapIndexThreads);
+
+			config.put(GetSitemapHtmlClient.CFG_SITEMAP_INDEX_THREADS, "10");
+			tested.init(mockEsIntegrationComponent(), config, false, null);
+			Assert.assertEquals(10, tested.sitemapIndexThreads);
+		}
+		try {
+			GetSitemapHtmlClient tested = new GetSitemapHtmlClient();
+			Map<String, Object> config = new HashMap<String, Object>();
+			config.put(GetSitemapHtmlClient.CFG_URL_GET_SITEMAP, "http://test.org/documents");
+			config.put(GetSitemapHtmlClient.CFG_SITEMAP_INDEX_THREADS, 0);
+			tested.init(mockEsIntegrationComponent(), config, false, null);
+			Assert.fail("SettingsException not thrown");
+		} catch (SettingsException e) {
+			Assert.assertEquals("'remote/sitemapIndexThreads' must be positive number", e.getMessage());
+		}
 
 	}
 
@@ -255,18 +399,259 @@ public class GetSitemapHtmlClientTest {
 			Assert.assertEquals(0, chr.getStartAt());
 		}
 
-		// case - sitemap is index so we can't process it
+	}
+
+	private static final String URL_SITEMAP_INDEX = "http://www.example.com/sitemap_index.xml";
+	private static final String URL_SITEMAP_CHILD_1 = "http://www.example.com/sitemap1.xml";
+	private static final String URL_SITEMAP_CHILD_2 = "http://www.example.com/sitemap2.xml";
+
+	private static String sitemapIndex(String lastmod1, String lastmod2) {
+		return "<sitemapindex>" + "<sitemap><loc>" + URL_SITEMAP_CHILD_1 + "</loc><lastmod>" + lastmod1
+				+ "</lastmod></sitemap>" + "<sitemap><loc>" + URL_SITEMAP_CHILD_2 + "</loc><lastmod>" + lastmod2 + "</lastmod></sitemap>"
+				+ "</sitemapindex>";
+	}
+
+	private static final String SITEMAP_CHILD_1 = "<urlset>"
+			+ "<url><loc>http://www.example.com/a.html</loc><lastmod>2005-01-01</lastmod></url>"
+			+ "<url><loc>http://www.example.com/b.html</loc></url>" + "</urlset>";
+
+	private static final String SITEMAP_CHILD_2 = "<urlset>"
+			+ "<url><loc>http://www.example.com/b.html</loc><priority>0.3</priority></url>"
+			+ "<url><loc>http://www.example.com/c.html</loc></url>" + "</urlset>";
+
+	@Test
+	public void getChangedDocuments_sitemapIndex() throws Exception {
+		Map<String, Object> config = new HashMap<String, Object>();
+		config.put(GetSitemapHtmlClient.CFG_URL_GET_SITEMAP, URL_SITEMAP_INDEX);
+		final Map<String, String> responses = new HashMap<String, String>();
+		responses.put(URL_SITEMAP_INDEX, sitemapIndex("2005-01-01", "2005-01-01"));
+		responses.put(URL_SITEMAP_CHILD_1, SITEMAP_CHILD_1);
+		responses.put(URL_SITEMAP_CHILD_2, SITEMAP_CHILD_2);
+		final Map<String, Integer> calls = new HashMap<String, Integer>();
+		GetSitemapHtmlClient tested = new GetSitemapHtmlClientMock() {
+			@Override
+			protected HttpResponseContent performHttpGetCall(String url, Map<String, String> headers) throws Exception,
+					HttpCallException {
+				synchronized (calls) {
+					calls.put(url, calls.containsKey(url) ? calls.get(url) + 1 : 1);
+				}
+				if (!responses.containsKey(url))
+					throw new HttpCallException(url, HttpStatus.SC_NOT_FOUND, "");
+				return new HttpResponseContent(CT_XML, responses.get(url).getBytes("UTF-8"));
+			};
+
+		};
+		tested.init(mockEsIntegrationComponent(), config, false, null);
+
+		// case - all child sitemaps loaded, documents merged in order without duplicates
+		ChangedDocumentsResults chr = tested.getChangedDocuments("myspace", 0, true, null);
+		Assert.assertEquals(3, chr.getDocumentsCount());
+		assertDoc(chr.getDocuments().get(0), "http://www.example.com/a.html", "2005-01-01T00:00:00.0+0000", 0.5);
+		assertDoc(chr.getDocuments().get(1), "http://www.example.com/b.html", null, 0.3);
+		assertDoc(chr.getDocuments().get(2), "http://www.example.com/c.html", null, 0.5);
+		Assert.assertEquals(new Integer(1), calls.get(URL_SITEMAP_CHILD_1));
+		Assert.assertEquals(new Integer(1), calls.get(URL_SITEMAP_CHILD_2));
+
+		// case - child sitemaps not modified are not loaded again, documents are not shared with previous run
+		chr.getDocuments().get(0).put("detail", "some detail");
+		responses.put(URL_SITEMAP_INDEX, sitemapIndex("2005-01-01", "2005-01-02"));
+		chr = tested.getChangedDocuments("myspace", 0, true, null);
+		Assert.assertEquals(3, chr.getDocumentsCount());
+		assertDoc(chr.getDocuments().get(0), "http://www.example.com/a.html", "2005-01-01T00:00:00.0+0000", 0.5);
+		Assert.assertFalse(chr.getDocuments().get(0).containsKey("detail"));
+		Assert.assertEquals(new Integer(1), calls.get(URL_SITEMAP_CHILD_1));
+		Assert.assertEquals(new Integer(2), calls.get(URL_SITEMAP_CHILD_2));
+
+		// case - child sitemap load error
+		responses.remove(URL_SITEMAP_CHILD_1);
+		responses.put(URL_SITEMAP_INDEX, sitemapIndex("2005-01-03", "2005-01-02"));
 		try {
-			Map<String, Object> config = new HashMap<String, Object>();
-			config.put(GetSitemapHtmlClient.CFG_URL_GET_SITEMAP, SiteMapParserTest.URL_SITEMAP_XML);
-			GetSitemapHtmlClient tested = createTestedInstance(config, SiteMapParserTest.SITEMAP_XML_INDEX, CT_XML,
-					SiteMapParserTest.URL_SITEMAP_XML);
 			tested.getChangedDocuments("myspace", 0, true, null);
-			Assert.fail("Exception expected");
-		} catch (Exception e) {
-			Assert.assertEquals("Sitemap index format is not supported by this river!", e.getMessage());
+			Assert.fail("HttpCallException expected");
+		} catch (HttpCallException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void getChangedDocuments_updateTimestampMode() throws Exception {
+		Map<String, Object> config = new HashMap<String, Object>();
+		config.put(GetSitemapHtmlClient.CFG_URL_GET_SITEMAP, SiteMapParserTest.URL_SITEMAP_XML);
+		GetSitemapHtmlClient tested = createTestedInstance(config, SiteMapParserTest.SITEMAP_XML_NO_DECLARATIONS, CT_XML,
+				SiteMapParserTest.URL_SITEMAP_XML);
+		tested.updateTimestampMode = true;
+
+		// case - full update, documents without timestamp first with lowest timestamp then ordered by timestamp
+		ChangedDocumentsResults chr = tested.getChangedDocuments("myspace", 0, true,
+				DateTimeUtils.parseISODateTime("2004-12-24T00:00:00.0+0000"));
+		Assert.assertEquals(5, chr.getDocumentsCount());
+		Assert.assertEquals(new Integer(5), chr.getTotal());
+		assertDoc(chr.getDocuments().get(0), "http://www.example.com/catalog?item=12&desc=vacation_hawaii",
+				"2004-11-23T00:00:00.0+0000", 0.5);
+		Assert.assertTrue(tested.lastModifiedMissing.get("myspace").contains(chr.getDocuments().get(0)));
+		Assert.assertFalse(tested.lastModifiedMissing.get("myspace").contains(chr.getDocuments().get(1)));
+		assertDoc(chr.getDocuments().get(1), "http://www.example.com/catalog?item=83&desc=vacation_usa",
+				"2004-11-23T00:00:00.0+0000", 0.5);
+		assertDoc(chr.getDocuments().get(2), "http://www.example.com/catalog?item=73&desc=vacation_new_zealand",
+				"2004-12-23T00:00:00.0+0000", 0.5);
+		assertDoc(chr.getDocuments().get(3), "http://www.example.com/catalog?item=74&desc=vacation_newfoundland",
+				"2004-12-23T18:00:15.0+0000", 0.3);
+		assertDoc(chr.getDocuments().get(4), "http://www.example.com/", "2005-01-01T00:00:00.0+0000", 0.8);
+		Assert.assertNull(tested.notModifiedSince.get("myspace"));
+		Assert.assertFalse(tested.incrementalUpdateSpaces.contains("myspace"));
+		Date crawlStartDate = tested.crawlStartDates.get("myspace");
+		Assert.assertNotNull(crawlStartDate);
+
+		// case - incremental update, only documents modified after date and documents without timestamp with that date.
+		// No crawl finished yet so no date for conditional GET.
+		Date updatedAfter = DateTimeUtils.parseISODateTime("2004-12-23T00:00:00.0+0000");
+		chr = tested.getChangedDocuments("myspace", 0, false, updatedAfter);
+		Assert.assertEquals(3, chr.getDocumentsCount());
+		Assert.assertEquals(new Integer(3), chr.getTotal());
+		assertDoc(chr.getDocuments().get(0), "http://www.example.com/catalog?item=12&desc=vacation_hawaii",
+				"2004-12-23T00:00:00.0+0000", 0.5);
+		assertDoc(chr.getDocuments().get(1), "http://www.example.com/catalog?item=74&desc=vacation_newfoundland",
+				"2004-12-23T18:00:15.0+0000", 0.3);
+		assertDoc(chr.getDocuments().get(2), "http://www.example.com/", "2005-01-01T00:00:00.0+0000", 0.8);
+		Assert.assertNull(tested.notModifiedSince.get("myspace"));
+		Assert.assertTrue(tested.incrementalUpdateSpaces.contains("myspace"));
+
+		// case - start of successful crawl used for conditional GET, not indexing checkpoint
+		tested.commitSpaceState("myspace");
+		Assert.assertNull(tested.crawlStartDates.get("myspace"));
+		tested.getChangedDocuments("myspace", 0, false, updatedAfter);
+		Assert.assertEquals(crawlStartDate, tested.notModifiedSince.get("myspace"));
+
+		// case - start of failed crawl is discarded
+		tested.discardDocumentsState("myspace");
+		Assert.assertNull(tested.crawlStartDates.get("myspace"));
+		tested.getChangedDocuments("myspace", 0, false, updatedAfter);
+		Assert.assertEquals(crawlStartDate, tested.notModifiedSince.get("myspace"));
+
+		// case - state is kept per Space, full update of other Space doesn't change it
+		tested.getChangedDocuments("otherspace", 0, true, null);
+		Assert.assertFalse(tested.incrementalUpdateSpaces.contains("otherspace"));
+		Assert.assertNull(tested.notModifiedSince.get("otherspace"));
+		Assert.assertTrue(tested.incrementalUpdateSpaces.contains("myspace"));
+		Assert.assertEquals(crawlStartDate, tested.notModifiedSince.get("myspace"));
+
+		// case - pagination
+		chr = tested.getChangedDocuments("myspace", 2, false, updatedAfter);
+		Assert.assertEquals(1, chr.getDocumentsCount());
+		Assert.assertEquals(new Integer(3), chr.getTotal());
+		Assert.assertEquals(2, chr.getStartAt());
+		assertDoc(chr.getDocuments().get(0), "http://www.example.com/", "2005-01-01T00:00:00.0+0000", 0.8);
+	}
+
+	@Test
+	public void getChangedDocumentDetails_conditionalGet() throws Exception {
+		Map<String, Object> config = new HashMap<String, Object>();
+		config.put(GetSitemapHtmlClient.CFG_URL_GET_SITEMAP, "http://test.org/sitemap.xml");
+		final List<Map<String, String>> requestHeaders = new ArrayList<Map<String, String>>();
+		final boolean[] notModified = new boolean[1];
+		GetSitemapHtmlClient tested = new GetSitemapHtmlClientMock() {
+			@Override
+			protected HttpResponseContent performHttpGetCall(String url, Map<String, String> headers) throws Exception,
+					HttpCallException {
+				requestHeaders.add(headers);
+				if (notModified[0])
+					throw new HttpCallException(url, HttpStatus.SC_NOT_MODIFIED, "");
+				return new HttpResponseContent(CT_HTML, "<html><body>text</body></html>".getBytes("UTF-8"));
+			};
+		};
+		tested.init(mockEsIntegrationComponent(), config, false, null);
+
+		// case - full update, listed timestamp is kept
+		Map<String, Object> documentNoLastModified = new HashMap<String, Object>();
+		documentNoLastModified.put(GetSitemapHtmlClient.DOC_FIELD_URL, "http://test.org/doc");
+		documentNoLastModified.put(GetSitemapHtmlClient.DOC_FIELD_LAST_MODIFIED, "2014-01-01T00:00:00.0+0000");
+		tested.lastModifiedMissing.put("myspace", Collections.singleton(documentNoLastModified));
+		{
+			Assert.assertNotNull(tested.getChangedDocumentDetails("myspace", "myid", documentNoLastModified));
+			Assert.assertNull(requestHeaders.get(0));
+			Assert.assertEquals("2014-01-01T00:00:00.0+0000",
+					documentNoLastModified.get(GetSitemapHtmlClient.DOC_FIELD_LAST_MODIFIED));
+		}
+
+		// case - incremental update, document with timestamp from sitemap is loaded without condition
+		tested.incrementalUpdateSpaces.add("myspace");
+		tested.notModifiedSince.put("myspace", DateTimeUtils.parseISODateTime("2014-01-10T10:00:00.0+0000"));
+		{
+			Map<String, Object> document = new HashMap<>();
+			document.put(GetSitemapHtmlClient.DOC_FIELD_URL, "http://test.org/doc");
+			document.put(GetSitemapHtmlClient.DOC_FIELD_LAST_MODIFIED, "2014-01-05T00:00:00.0+0000");
+			Assert.assertNotNull(tested.getChangedDocumentDetails("myspace", "myid", document));
+			Assert.assertNull(requestHeaders.get(1));
+			Assert.assertEquals("2014-01-05T00:00:00.0+0000", document.get(GetSitemapHtmlClient.DOC_FIELD_LAST_MODIFIED));
+		}
+
+		// case - incremental update, document without timestamp is loaded by conditional GET with start of last crawl
+		notModified[0] = true;
+		try {
+			tested.getChangedDocumentDetails("myspace", "myid", documentNoLastModified);
+			Assert.fail("RemoteDocumentNotModifiedException expected");
+		} catch (RemoteDocumentNotModifiedException e) {
+			Assert.assertEquals("Fri, 10 Jan 2014 10:00:00 GMT", requestHeaders.get(2).get("If-Modified-Since"));
+		}
+	}
+
+	@Test
+	public void getChangedDocumentDetails_crawler() throws Exception {
+		Map<String, Object> config = new HashMap<String, Object>();
+		config.put(GetSitemapHtmlClient.CFG_URL_GET_SITEMAP, SiteMapParserTest.URL_SITEMAP_XML);
+		config.put(GetSitemapHtmlClient.CFG_CRAWL_THREADS, 4);
+		config.put(GetSitemapHtmlClient.CFG_CRAWL_MAX_CONNECTIONS_PER_HOST, 2);
+
+		final StringBuilder sitemap = new StringBuilder("<urlset>");
+		for (int i = 0; i < 10; i++) {
+			sitemap.append("<url><loc>http://www.example.com/page").append(i).append(".html</loc></url>");
 		}
+		sitemap.append("</urlset>");
 
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		GetSitemapHtmlClient tested = new GetSitemapHtmlClientMock() {
+			@Override
+			protected HttpResponseContent performHttpGetCall(String url, Map<String, String> headers) throws Exception,
+					HttpCallException {
+				if (SiteMapParserTest.URL_SITEMAP_XML.equals(url))
+					return new HttpResponseContent(CT_XML, sitemap.toString().getBytes("UTF-8"));
+				int r = running.incrementAndGet();
+				synchronized (maxRunning) {
+					if (r > maxRunning.get())
+						maxRunning.set(r);
+				}
+				Thread.sleep(20);
+				running.decrementAndGet();
+				return new HttpResponseContent(CT_HTML, ("<html><body>" + url + "</body></html>").getBytes("UTF-8"));
+			};
+		};
+		tested.init(mockEsIntegrationComponent(), config, false, null);
+
+		ChangedDocumentsResults chr = tested.getChangedDocuments("myspace", 0, true, null);
+		Assert.assertEquals(10, chr.getDocumentsCount());
+		Assert.assertNotNull(tested.crawlers.get("myspace"));
+
+		// details are returned in order of documents, parallel requests to one host are limited
+		for (Map<String, Object> document : chr.getDocuments()) {
+			String detail = (String) tested.getChangedDocumentDetails("myspace", "myid", document);
+			Assert.assertTrue(detail.contains((String) document.get(GetSitemapHtmlClient.DOC_FIELD_URL)));
+		}
+		Assert.assertTrue(maxRunning.get() <= 2);
+
+		// document not returned from last list call is loaded directly
+		Map<String, Object> document = new HashMap<String, Object>();
+		document.put(GetSitemapHtmlClient.DOC_FIELD_URL, "http://www.example.com/other.html");
+		String detail = (String) tested.getChangedDocumentDetails("myspace", "myid", document);
+		Assert.assertTrue(detail.contains("http://www.example.com/other.html"));
+
+		// case - crawl threads are terminated on close
+		tested.getChangedDocuments("myspace", 0, true, null);
+		ThreadPoolExecutor crawlExecutor = tested.crawlExecutor;
+		tested.close();
+		Assert.assertTrue(tested.crawlers.isEmpty());
+		Assert.assertNull(tested.crawlExecutor);
+		Assert.assertTrue(crawlExecutor.isShutdown());
 	}
 
 	private void assertDoc(Map<String, Object> map, String expectedUrl, String expectedDateLastModified,
@@ -456,7 +841,7 @@ public class GetSitemapHtmlClientTest {
 
 	private GetSitemapHtmlClient createTestedInstance(Map<String, Object> config, final String returnSitemapData,
 			final String returnContentType, final String expectadCallUrl) {
-		GetSitemapHtmlClient tested = new GetSitemapHtmlClient() {
+		GetSitemapHtmlClient tested = new GetSitemapHtmlClientMock() {
 			@Override
 			protected HttpResponseContent performHttpGetCall(String url, Map<String, String> headers) throws Exception,
 					HttpCallException {
@@ -471,7 +856,7 @@ public class GetSitemapHtmlClientTest {
 
 	private GetSitemapHtmlClient createTestedInstanceWithHttpCallException(Map<String, Object> config,
 			final Exception exception) {
-		GetSitemapHtmlClient tested = new GetSitemapHtmlClient() {
+		GetSitemapHtmlClient tested = new GetSitemapHtmlClientMock() {
 			@Override
 			protected HttpResponseContent performHttpGetCall(String url, Map<String, String> headers) throws Exception {
 				throw exception;
@@ -482,11 +867,22 @@ public class GetSitemapHtmlClientTest {
 		return tested;
 	}
 
+	/**
+	 * Client with streaming HTTP GET calls served by {@link #performHttpGetCall(String, Map)}, so tests override only
+	 * this one method.
+	 */
+	protected static class GetSitemapHtmlClientMock extends GetSitemapHtmlClient {
+
+		@Override
+		protected <T> T performHttpGetCall(String url, Map<String, String> headers, HttpResponseStreamHandler<T> handler)
+				throws Exception, HttpCallException {
+			HttpResponseContent response = performHttpGetCall(url, headers);
+			return handler.handle(response.contentType, new ByteArrayInputStream(response.content));
+		}
+	}
+
 	protected static IESIntegration mockEsIntegrationComponent() {
-		IESIntegration esIntegrationMock = mock(IESIntegration.class);
-		Mockito.when(esIntegrationMock.createLogger(Mockito.any(Class.class))).thenReturn(
-				ESLoggerFactory.getLogger(GetJSONClient.class.getName()));
-		return esIntegrationMock;
+		return GetJSONClientTest.mockEsIntegrationComponent();
 	}
 
 }
@@ -5,6 +5,8 @@
  */
 package org.jboss.elasticsearch.river.remote;
 
+import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -28,9 +30,12 @@ import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHeader;
 import org.apache.http.protocol.BasicHttpContext;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.settings.SettingsException;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
 import org.jboss.elasticsearch.river.remote.HttpRemoteSystemClientBase.HttpCallException;
 import org.jboss.elasticsearch.river.remote.HttpRemoteSystemClientBase.HttpResponseContent;
 import org.jboss.elasticsearch.river.remote.exception.RemoteDocumentNotFoundException;
@@ -105,6 +110,80 @@ public class HttpRemoteSystemClientBaseTest {
 		HttpRemoteSystemClientBase.getUrlFromConfig(config, "myprop", true);
 	}
 
+	@Test
+	public void initHttpClient_connectionPool() throws Exception {
+		HttpRemoteSystemClientBase tested = getTested();
+		IESIntegration esIntegrationMock = GetJSONClientTest.mockEsIntegrationComponent();
+		Map<String, Object> config = new HashMap<String, Object>();
+
+		// case - defaults
+		tested.initHttpClient(Loggers.getLogger("test logger"), esIntegrationMock, config, null, "http://test.org");
+		try {
+			Assert.assertEquals(20, tested.connectionManager.getDefaultMaxPerRoute());
+			Assert.assertEquals(20, tested.connectionManager.getMaxTotal());
+			Assert.assertEquals(10000, tested.connectionEvictor.getIdleTimeout());
+			Assert.assertTrue(tested.connectionEvictorThread.isAlive());
+			Mockito.verify(esIntegrationMock).acquireIndexingThread("remote_river_http_evictor_my_river",
+					tested.connectionEvictor);
+
+			XContentBuilder builder = XContentFactory.jsonBuilder();
+			tested.buildConnectionPoolDocument(builder);
+			Assert.assertEquals("{\"max_total\":20,\"max_per_route\":20,\"leased\":0,\"available\":0,\"pending\":0}",
+					builder.string());
+		} finally {
+			tested.close();
+		}
+
+		// case - configured values, evictor disabled, reinit closes previous evictor
+		config.put(HttpRemoteSystemClientBase.CFG_HTTP_MAX_CONNECTIONS_PER_ROUTE, "30");
+		config.put(HttpRemoteSystemClientBase.CFG_HTTP_MAX_CONNECTIONS_TOTAL, 50);
+		config.put(HttpRemoteSystemClientBase.CFG_HTTP_IDLE_TIMEOUT, "3s");
+		tested.initHttpClient(Loggers.getLogger("test logger"), esIntegrationMock, config, null, "http://test.org");
+		Assert.assertEquals(3000, tested.connectionEvictor.getIdleTimeout());
+		Thread evictor = tested.connectionEvictorThread;
+		config.put(HttpRemoteSystemClientBase.CFG_HTTP_IDLE_TIMEOUT, "0");
+		tested.initHttpClient(Loggers.getLogger("test logger"), esIntegrationMock, config, null, "http://test.org");
+		try {
+			Assert.assertEquals(30, tested.connectionManager.getDefaultMaxPerRoute());
+			Assert.assertEquals(50, tested.connectionManager.getMaxTotal());
+			Assert.assertNull(tested.connectionEvictor);
+			Assert.assertNull(tested.connectionEvictorThread);
+			evictor.join(5000);
+			Assert.assertFalse(evictor.isAlive());
+		} finally {
+			tested.close();
+		}
+		Assert.assertNull(tested.httpclient);
+		Assert.assertNull(tested.connectionManager);
+
+		// case - total defaults to per route value
+		config.clear();
+		config.put(HttpRemoteSystemClientBase.CFG_HTTP_MAX_CONNECTIONS_PER_ROUTE, 40);
+		tested.initHttpClient(Loggers.getLogger("test logger"), esIntegrationMock, config, null, "http://test.org");
+		try {
+			Assert.assertEquals(40, tested.connectionManager.getMaxTotal());
+		} finally {
+			tested.close();
+		}
+
+		// case - invalid values
+		assertInitHttpClientFails(tested, HttpRemoteSystemClientBase.CFG_HTTP_MAX_CONNECTIONS_PER_ROUTE, "0");
+		assertInitHttpClientFails(tested, HttpRemoteSystemClientBase.CFG_HTTP_MAX_CONNECTIONS_TOTAL, "-1");
+		assertInitHttpClientFails(tested, HttpRemoteSystemClientBase.CFG_HTTP_KEEP_ALIVE, "0");
+	}
+
+	private void assertInitHttpClientFails(HttpRemoteSystemClientBase tested, String key, Object value) {
+		Map<String, Object> config = new HashMap<String, Object>();
+		config.put(key, value);
+		try {
+			tested.initHttpClient(Loggers.getLogger("test logger"), GetJSONClientTest.mockEsIntegrationComponent(), config,
+					null, "http://test.org");
+			Assert.fail("SettingsException expected");
+		} catch (SettingsException e) {
+			Assert.assertEquals("'remote/" + key + "' must be positive number", e.getMessage());
+		}
+	}
+
 	@Test
 	public void performHttpGetCall_succes_noHeaders() throws HttpCallException, Exception {
 		HttpRemoteSystemClientBase tested = getTested();
@@ -216,6 +295,91 @@ public class HttpRemoteSystemClientBaseTest {
 	    Mockito.verifyNoMoreInteractions(tested.httpclient);
 	}
 
+	@Test
+	public void performConditionalHttpGetCall() throws HttpCallException, Exception {
+		HttpRemoteSystemClientBase tested = getTested();
+		tested.myLogger = Loggers.getLogger("test logger");
+		tested.httpclient = Mockito.mock(CloseableHttpClient.class);
+		tested.validatorCache = new HttpValidatorCache(10);
+		final List<String> sentIfNoneMatch = new ArrayList<String>();
+		final int[] statusCode = new int[] { HttpStatus.SC_OK };
+
+		Mockito.when(
+				tested.httpclient.execute(Mockito.any(HttpHost.class), Mockito.any(HttpGet.class),
+						Mockito.any(BasicHttpContext.class))).thenAnswer(new Answer<HttpResponse>() {
+
+			@Override
+			public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+				HttpRequestBase method = (HttpRequestBase) invocation.getArguments()[1];
+				Header inm = method.getFirstHeader("If-None-Match");
+				sentIfNoneMatch.add(inm != null ? inm.getValue() : null);
+
+				HttpResponse ret = Mockito.mock(CloseableHttpResponse.class);
+				StatusLine sl = Mockito.mock(StatusLine.class);
+				Mockito.when(sl.getStatusCode()).thenReturn(statusCode[0]);
+				Mockito.when(ret.getStatusLine()).thenReturn(sl);
+				if (statusCode[0] == HttpStatus.SC_OK) {
+					Mockito.when(ret.getEntity()).thenReturn(new StringEntity("response"));
+					Mockito.when(ret.getFirstHeader("ETag")).thenReturn(new BasicHeader("ETag", "\"v1\""));
+					Mockito.when(ret.getFirstHeader("Last-Modified")).thenReturn(
+							new BasicHeader("Last-Modified", "Mon, 20 Oct 2014 10:00:00 GMT"));
+				}
+				return ret;
+			}
+		});
+
+		// case - first call stages validators, they are used only after document is committed
+		HttpResponseContent ret = tested.performConditionalHttpGetCall("http://test.org", null, true, "space", "doc", null);
+		Assert.assertEquals("response", new String(ret.content));
+		Assert.assertNull(tested.validatorCache.get("http://test.org"));
+		Assert.assertEquals(1, tested.validatorCache.stagedSize("space"));
+
+		// case - discarded validators are not stored
+		tested.discardDocumentsState("space");
+		Assert.assertEquals(0, tested.validatorCache.stagedSize("space"));
+		Assert.assertNull(tested.validatorCache.get("http://test.org"));
+
+		// case - validators not sent if not requested, committed validators are stored
+		tested.performConditionalHttpGetCall("http://test.org", null, false, "space", "doc", null);
+		tested.commitDocumentsState("space", Arrays.asList("doc"));
+		Assert.assertEquals(new HttpValidatorCache.Validators("\"v1\"", "Mon, 20 Oct 2014 10:00:00 GMT"),
+				tested.validatorCache.get("http://test.org"));
+
+		// case - validators sent, not modified response
+		statusCode[0] = HttpStatus.SC_NOT_MODIFIED;
+		try {
+			tested.performConditionalHttpGetCall("http://test.org", null, true, "space", "doc", null);
+			Assert.fail("HttpCallException expected");
+		} catch (HttpCallException e) {
+			Assert.assertEquals(HttpStatus.SC_NOT_MODIFIED, e.getStatusCode());
+		}
+		Assert.assertNotNull(tested.validatorCache.get("http://test.org"));
+
+		// case - validators not sent if listed data of document changed, stored with new listing hash then
+		statusCode[0] = HttpStatus.SC_OK;
+		tested.performConditionalHttpGetCall("http://test.org", null, true, "space", "doc", "h2");
+		tested.commitDocumentsState("space", Arrays.asList("doc"));
+		Assert.assertEquals(new HttpValidatorCache.Validators("\"v1\"", "Mon, 20 Oct 2014 10:00:00 GMT", "h2"),
+				tested.validatorCache.get("http://test.org"));
+
+		// case - error response removes validators
+		statusCode[0] = HttpStatus.SC_NOT_FOUND;
+		try {
+			tested.performConditionalHttpGetCall("http://test.org", null, true, "space", "doc", "h2");
+			Assert.fail("HttpCallException expected");
+		} catch (HttpCallException e) {
+			Assert.assertEquals(HttpStatus.SC_NOT_FOUND, e.getStatusCode());
+		}
+		Assert.assertNull(tested.validatorCache.get("http://test.org"));
+
+		Assert.assertEquals(5, sentIfNoneMatch.size());
+		Assert.assertNull(sentIfNoneMatch.get(0));
+		Assert.assertNull(sentIfNoneMatch.get(1));
+		Assert.assertEquals("\"v1\"", sentIfNoneMatch.get(2));
+		Assert.assertNull(sentIfNoneMatch.get(3));
+		Assert.assertEquals("\"v1\"", sentIfNoneMatch.get(4));
+	}
+
 	private Answer<HttpResponse> prepereHttpResponseAnswer(final int statusCode, final String responseContent,
 			final String responseContentType, final Map<String, String> headersExpected, final boolean authExpected) {
 		return new Answer<HttpResponse>() {
@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.protocol.ResponseContentEncoding;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link HttpTransferStats}.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class HttpTransferStatsTest {
+
+	private static final String CONTENT = "[{\"id\":\"1\",\"title\":\"aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa\"},"
+			+ "{\"id\":\"2\",\"title\":\"aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa\"}]";
+
+	@Test
+	public void countCompressedResponse() throws Exception {
+		HttpTransferStats tested = new HttpTransferStats();
+
+		ByteArrayOutputStream gz = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(gz);
+		out.write(CONTENT.getBytes("UTF-8"));
+		out.close();
+		byte[] compressed = gz.toByteArray();
+
+		HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		ByteArrayEntity entity = new ByteArrayEntity(compressed);
+		entity.setContentEncoding("gzip");
+		response.setEntity(entity);
+
+		processResponse(tested, response);
+		Assert.assertEquals(CONTENT, EntityUtils.toString(response.getEntity(), "UTF-8"));
+
+		Assert.assertEquals(1, tested.getResponses());
+		Assert.assertEquals(1, tested.getCompressedResponses());
+		Assert.assertEquals(compressed.length, tested.getWireBytes());
+		Assert.assertEquals(CONTENT.length(), tested.getDecodedBytes());
+	}
+
+	@Test
+	public void countPlainResponse() throws Exception {
+		HttpTransferStats tested = new HttpTransferStats();
+
+		HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		response.setEntity(new ByteArrayEntity(CONTENT.getBytes("UTF-8")));
+		processResponse(tested, response);
+		Assert.assertEquals(CONTENT, EntityUtils.toString(response.getEntity(), "UTF-8"));
+
+		// case - response without body is not counted
+		processResponse(tested, new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_NOT_MODIFIED, "Not Modified"));
+
+		Assert.assertEquals(1, tested.getResponses());
+		Assert.assertEquals(0, tested.getCompressedResponses());
+		Assert.assertEquals(CONTENT.length(), tested.getWireBytes());
+		Assert.assertEquals(CONTENT.length(), tested.getDecodedBytes());
+	}
+
+	@Test
+	public void buildDocument() throws Exception {
+		HttpTransferStats tested = new HttpTransferStats();
+		XContentBuilder builder = XContentFactory.jsonBuilder();
+		tested.buildDocument(builder);
+		Assert.assertEquals("{\"responses\":0,\"compressed_responses\":0,\"wire_bytes\":0,\"decoded_bytes\":0}",
+				builder.string());
+
+		tested.responses.set(2);
+		tested.compressedResponses.set(1);
+		tested.wireBytes.set(300);
+		tested.decodedBytes.set(1000);
+		builder = XContentFactory.jsonBuilder();
+		tested.buildDocument(builder);
+		Assert.assertEquals(
+				"{\"responses\":2,\"compressed_responses\":1,\"wire_bytes\":300,\"decoded_bytes\":1000,\"compression_ratio\":3.33}",
+				builder.string());
+	}
+
+	/**
+	 * Run interceptors in the same order as http client does.
+	 */
+	private void processResponse(HttpTransferStats tested, HttpResponse response) throws Exception {
+		BasicHttpContext context = new BasicHttpContext();
+		tested.getWireInterceptor().process(response, context);
+		new ResponseContentEncoding().process(response, context);
+		tested.getDecodedInterceptor().process(response, context);
+	}
+
+}
@@ -0,0 +1,143 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link HttpValidatorCache}.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class HttpValidatorCacheTest {
+
+	@Test
+	public void putGetRemove() throws Exception {
+		HttpValidatorCache tested = new HttpValidatorCache(3);
+		Assert.assertEquals(3, tested.getMaxSize());
+		Assert.assertFalse(tested.isChanged());
+		Assert.assertNull(tested.get("http://a"));
+
+		tested.put("http://a", "\"e1\"", null);
+		Assert.assertTrue(tested.isChanged());
+		Assert.assertEquals(new HttpValidatorCache.Validators("\"e1\"", null), tested.get("http://a"));
+
+		tested.put("http://b", null, "Mon, 20 Oct 2014 10:00:00 GMT");
+		Assert.assertEquals("Mon, 20 Oct 2014 10:00:00 GMT", tested.get("http://b").lastModified);
+		Assert.assertNull(tested.get("http://b").etag);
+		Assert.assertEquals(2, tested.size());
+
+		// case - no validators in response removes old ones
+		tested.put("http://a", null, null);
+		Assert.assertNull(tested.get("http://a"));
+		Assert.assertEquals(1, tested.size());
+
+		tested.remove("http://b");
+		Assert.assertEquals(0, tested.size());
+	}
+
+	@Test
+	public void put_leastRecentlyUsedDropped() throws Exception {
+		HttpValidatorCache tested = new HttpValidatorCache(2);
+		tested.put("http://1", "e", null);
+		tested.put("http://2", "e", null);
+		tested.get("http://1");
+		tested.put("http://3", "e", null);
+		Assert.assertEquals(2, tested.size());
+		Assert.assertNotNull(tested.get("http://1"));
+		Assert.assertNull(tested.get("http://2"));
+		Assert.assertNotNull(tested.get("http://3"));
+	}
+
+	@Test
+	public void stageCommitDiscard() throws Exception {
+		HttpValidatorCache tested = new HttpValidatorCache(10);
+		tested.stage("space", "doc1", "http://1", "e1", null, "h1");
+		tested.stage("space", "doc2", "http://2", "e2", null, null);
+		tested.stage("other", "doc1", "http://o", "e3", null, null);
+		Assert.assertEquals(2, tested.stagedSize("space"));
+		Assert.assertEquals(0, tested.size());
+		Assert.assertFalse(tested.isChanged());
+
+		// case - only committed documents are put into cache
+		tested.commit("space", Arrays.asList("doc1", "unknown"));
+		Assert.assertTrue(tested.isChanged());
+		Assert.assertEquals(1, tested.size());
+		Assert.assertEquals(new HttpValidatorCache.Validators("e1", null, "h1"), tested.get("http://1"));
+		Assert.assertTrue(tested.get("http://1").isListingHashMatching("h1"));
+		Assert.assertFalse(tested.get("http://1").isListingHashMatching("h2"));
+		Assert.assertFalse(tested.get("http://1").isListingHashMatching(null));
+		Assert.assertEquals(1, tested.stagedSize("space"));
+
+		// case - discard affects given space only
+		tested.discardStaged("space");
+		Assert.assertEquals(0, tested.stagedSize("space"));
+		Assert.assertEquals(1, tested.stagedSize("other"));
+		tested.commit("space", Arrays.asList("doc2"));
+		Assert.assertNull(tested.get("http://2"));
+	}
+
+	@Test
+	public void storeLoad() throws Exception {
+		File file = File.createTempFile("validators", ".txt");
+		file.delete();
+		try {
+			HttpValidatorCache tested = new HttpValidatorCache(10);
+			// case - missing file loads nothing
+			tested.load(file);
+			Assert.assertEquals(0, tested.size());
+
+			tested.put("http://a", "\"e1\"", null);
+			tested.put("http://b", null, "Mon, 20 Oct 2014 10:00:00 GMT", "h2");
+			tested.put("http://c", "W/\"e3\"", "Tue, 21 Oct 2014 10:00:00 GMT");
+			tested.store(file);
+			Assert.assertFalse(tested.isChanged());
+			Assert.assertTrue(file.exists());
+			Assert.assertFalse(new File(file.getPath() + ".tmp").exists());
+
+			// store again to replace existing file
+			tested.remove("http://c");
+			tested.store(file);
+
+			HttpValidatorCache loaded = new HttpValidatorCache(10);
+			loaded.put("http://x", "e", null);
+			loaded.load(file);
+			Assert.assertFalse(loaded.isChanged());
+			Assert.assertEquals(2, loaded.size());
+			Assert.assertNull(loaded.get("http://x"));
+			Assert.assertEquals(new HttpValidatorCache.Validators("\"e1\"", null), loaded.get("http://a"));
+			Assert.assertEquals(new HttpValidatorCache.Validators(null, "Mon, 20 Oct 2014 10:00:00 GMT", "h2"),
+					loaded.get("http://b"));
+
+			// case - smaller cache keeps most recently used only
+			HttpValidatorCache small = new HttpValidatorCache(1);
+			small.load(file);
+			Assert.assertEquals(1, small.size());
+			Assert.assertNotNull(small.get("http://b"));
+
+			// case - file stored by older version without listing hash
+			Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+			try {
+				w.write("http://d\t\"e4\"\t\n");
+			} finally {
+				w.close();
+			}
+			loaded.load(file);
+			Assert.assertEquals(1, loaded.size());
+			Assert.assertEquals(new HttpValidatorCache.Validators("\"e4\"", null), loaded.get("http://d"));
+		} finally {
+			file.delete();
+		}
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link IndexFieldAccessor}.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class IndexFieldAccessorTest {
+
+	@Test
+	public void compile() {
+		Assert.assertEquals(0, IndexFieldAccessor.compile(null, null).length);
+		Assert.assertEquals(0,
+				IndexFieldAccessor.compile(new HashMap<String, Map<String, String>>(), null).length);
+
+		Map<String, Map<String, String>> filtersConfig = new HashMap<String, Map<String, String>>();
+		Map<String, String> userFilter = new HashMap<String, String>();
+		userFilter.put("name", "username");
+		filtersConfig.put("user", userFilter);
+
+		Map<String, Map<String, String>> fieldsConfig = new LinkedHashMap<String, Map<String, String>>();
+		fieldsConfig.put("created", fieldConfig("fields.created", null));
+		fieldsConfig.put("reporter", fieldConfig("fields.reporter", "user"));
+		fieldsConfig.put("unknown", fieldConfig("fields.unknown", "unknown_filter"));
+
+		IndexFieldAccessor[] ret = IndexFieldAccessor.compile(fieldsConfig, filtersConfig);
+		Assert.assertEquals(3, ret.length);
+		Assert.assertEquals("created", ret[0].getIndexField());
+		Assert.assertEquals("fields.created", ret[0].getValuePath());
+		Assert.assertNull(ret[0].getValueFilter());
+		Assert.assertEquals("reporter", ret[1].getIndexField());
+		Assert.assertEquals("fields.reporter", ret[1].getValuePath());
+		Assert.assertEquals(userFilter, ret[1].getValueFilter());
+		Assert.assertNull(ret[2].getValueFilter());
+	}
+
+	@Test
+	public void extractValue() {
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("simple", "sv");
+		values.put("dotted.key", "dkv");
+		Map<String, Object> fields = new HashMap<String, Object>();
+		values.put("fields", fields);
+		fields.put("created", "2012-01-01");
+		Map<String, Object> nested = new HashMap<String, Object>();
+		nested.put("name", "john");
+		fields.put("reporter", nested);
+		List<Object> list = new ArrayList<Object>();
+		Map<String, Object> li1 = new HashMap<String, Object>();
+		li1.put("name", "v1");
+		list.add(li1);
+		list.add(new HashMap<String, Object>());
+		Map<String, Object> li3 = new HashMap<String, Object>();
+		li3.put("name", "v3");
+		list.add(li3);
+		fields.put("versions", list);
+
+		assertExtractValue(values, "simple", "sv");
+		assertExtractValue(values, "dotted.key", "dkv");
+		assertExtractValue(values, "fields.created", "2012-01-01");
+		assertExtractValue(values, "fields.reporter", nested);
+		assertExtractValue(values, "fields.reporter.name", "john");
+		assertExtractValue(values, "fields.reporter.name.unknown", null);
+		assertExtractValue(values, "fields.unknown", null);
+		assertExtractValue(values, "unknown", null);
+		assertExtractValue(values, "fields.versions", list);
+		List<Object> expectedNames = new ArrayList<Object>();
+		expectedNames.add("v1");
+		expectedNames.add("v3");
+		assertExtractValue(values, "fields.versions.name", expectedNames);
+
+		Assert.assertNull(new IndexFieldAccessor("f", "simple", null).extractValue(null));
+	}
+
+	@Test
+	public void copyValue() throws Exception {
+		XContentParser parser = JsonXContent.jsonXContent.createParser("{\"id\":\"a1\",\"f\":{\"g\":1}}"
+				.getBytes("UTF-8"));
+		parser.nextToken();
+		CompactJSONDocument detail = CompactJSONDocument.read(parser, null, null, false);
+		parser.close();
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("simple", "sv");
+		values.put("detail", detail);
+
+		XContentBuilder out = XContentFactory.jsonBuilder();
+		out.startObject();
+		Assert.assertTrue(new IndexFieldAccessor("id", "detail.id", null).copyValue(values, out));
+		Assert.assertTrue(new IndexFieldAccessor("f", "detail.f", null).copyValue(values, out));
+		// case - value from other than compact document is not copied
+		Assert.assertFalse(new IndexFieldAccessor("s", "simple", null).copyValue(values, out));
+		Assert.assertFalse(new IndexFieldAccessor("u", "unknown.id", null).copyValue(values, out));
+		Assert.assertFalse(new IndexFieldAccessor("n", "detail.f.g", null).copyValue(values, out));
+		// case - value with filter is not copied
+		Map<String, String> filter = new HashMap<String, String>();
+		filter.put("g", "h");
+		Assert.assertFalse(new IndexFieldAccessor("f", "detail.f", filter).copyValue(values, out));
+		out.endObject();
+		Assert.assertEquals("{\"id\":\"a1\",\"f\":{\"g\":1}}", out.string());
+
+		// case - top level field of compact document
+		out = XContentFactory.jsonBuilder();
+		out.startObject();
+		Assert.assertTrue(new IndexFieldAccessor("doc_id", "id", null).copyValue(detail, out));
+		out.endObject();
+		Assert.assertEquals("{\"doc_id\":\"a1\"}", out.string());
+		Assert.assertFalse(new IndexFieldAccessor("f", "id", null).copyValue(null, out));
+	}
+
+	private void assertExtractValue(Map<String, Object> values, String valuePath, Object expected) {
+		Object actual = new IndexFieldAccessor("f", valuePath, null).extractValue(values);
+		Assert.assertEquals(expected, actual);
+		// same semantics as ES implementation
+		Assert.assertEquals(XContentMapValues.extractValue(valuePath, values), actual);
+	}
+
+	private Map<String, String> fieldConfig(String remoteField, String filter) {
+		Map<String, String> ret = new HashMap<String, String>();
+		ret.put(DocumentWithCommentsIndexStructureBuilder.CONFIG_FIELDS_REMOTEFIELD, remoteField);
+		if (filter != null)
+			ret.put(DocumentWithCommentsIndexStructureBuilder.CONFIG_FIELDS_VALUEFILTER, filter);
+		return ret;
+	}
+
+}
@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link RemoteDataProjection}.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class RemoteDataProjectionTest {
+
+	@Test
+	public void all() {
+		RemoteDataProjection tested = RemoteDataProjection.all();
+		Assert.assertTrue(tested.isAll());
+		Assert.assertSame(tested, tested.getChild("any"));
+		// adding path to all doesn't restrict it
+		tested.addPath("a.b");
+		Assert.assertTrue(tested.isAll());
+	}
+
+	@Test
+	public void addPath() {
+		RemoteDataProjection tested = new RemoteDataProjection();
+		Assert.assertFalse(tested.isAll());
+		Assert.assertNull(tested.getChild("a"));
+		Assert.assertNull(tested.getChild(null));
+
+		tested.addPath(null).addPath("").addPath("a.b.c").addPath("d");
+		Assert.assertFalse(tested.getChild("a").isAll());
+		Assert.assertFalse(tested.getChild("a").getChild("b").isAll());
+		Assert.assertTrue(tested.getChild("a").getChild("b").getChild("c").isAll());
+		Assert.assertNull(tested.getChild("a").getChild("x"));
+		Assert.assertTrue(tested.getChild("d").isAll());
+
+		// case - shorter path keeps whole subtree
+		tested.addPath("a.b");
+		Assert.assertTrue(tested.getChild("a").getChild("b").isAll());
+		// case - longer path doesn't restrict subtree kept already
+		tested.addPath("d.e");
+		Assert.assertTrue(tested.getChild("d").isAll());
+	}
+
+	@Test
+	public void addPath_projection() {
+		RemoteDataProjection sub = new RemoteDataProjection().addPath("id").addPath("author.name");
+		RemoteDataProjection tested = new RemoteDataProjection().addPath("comments.all", sub);
+		RemoteDataProjection comments = tested.getChild("comments").getChild("all");
+		Assert.assertTrue(comments.getChild("id").isAll());
+		Assert.assertTrue(comments.getChild("author").getChild("name").isAll());
+		Assert.assertNull(comments.getChild("body"));
+
+		// case - projections are merged
+		tested.addPath("comments.all", new RemoteDataProjection().addPath("body").addPath("author.email"));
+		Assert.assertTrue(comments.getChild("id").isAll());
+		Assert.assertTrue(comments.getChild("body").isAll());
+		Assert.assertTrue(comments.getChild("author").getChild("name").isAll());
+		Assert.assertTrue(comments.getChild("author").getChild("email").isAll());
+
+		// case - merged projection is copied so change of original one doesn't affect it
+		sub.addPath("other");
+		Assert.assertNull(comments.getChild("other"));
+	}
+
+	@Test
+	public void compactDocument() {
+		RemoteDataProjection tested = new RemoteDataProjection();
+		Assert.assertFalse(tested.isCompactDocument());
+		Assert.assertSame(tested, tested.setCompactDocument(true));
+		Assert.assertTrue(tested.isCompactDocument());
+
+		// case - flag is kept when projection is merged, but not inherited by children
+		RemoteDataProjection root = new RemoteDataProjection().addPath("items",
+				RemoteDataProjection.all().setCompactDocument(true));
+		Assert.assertFalse(root.isCompactDocument());
+		Assert.assertTrue(root.getChild("items").isCompactDocument());
+		Assert.assertTrue(root.getChild("items").isAll());
+
+		root = new RemoteDataProjection().addPath("items", new RemoteDataProjection().addPath("id").setCompactDocument(true));
+		Assert.assertTrue(root.getChild("items").isCompactDocument());
+		Assert.assertFalse(root.getChild("items").getChild("id").isCompactDocument());
+	}
+
+	@Test
+	public void getChild_dottedFieldName() {
+		RemoteDataProjection tested = new RemoteDataProjection().addPath("a.b.c").addPath("d");
+		Assert.assertFalse(tested.getChild("a.b").isAll());
+		Assert.assertTrue(tested.getChild("a.b.c").isAll());
+		Assert.assertTrue(tested.getChild("d.e").isAll());
+		Assert.assertNull(tested.getChild("a.x"));
+		Assert.assertNull(tested.getChild("x.y"));
+	}
+
+}
@@ -13,9 +13,14 @@ import java.util.Map;
 
 import junit.framework.Assert;
 
+import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.Version;
 import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.search.SearchRequestBuilder;
@@ -23,10 +28,12 @@ import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.node.DiscoveryNode;
 import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.SettingsException;
 import org.elasticsearch.common.transport.DummyTransportAddress;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.river.RiverName;
 import org.elasticsearch.river.RiverSettings;
 import org.jboss.elasticsearch.river.remote.testtools.DataPreprocessorMock;
@@ -37,6 +44,7 @@ import org.jboss.elasticsearch.tools.content.StructuredContentPreprocessor;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import static org.elasticsearch.client.Requests.indexRequest;
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 
 import static org.mockito.Mockito.mock;
@@ -95,6 +103,16 @@ public class RemoteRiverTest extends ESRealClientTestBase {
 		Assert.assertEquals(RemoteRiver.INDEX_DOCUMENT_TYPE_NAME_DEFAULT, tested.typeName);
 		Assert.assertEquals(tested.documentIndexStructureBuilder, tested.remoteSystemClient.getIndexStructureBuilder());
 		Assert.assertEquals(SpaceIndexingMode.UPDATE_TIMESTAMP, tested.spaceIndexingMode);
+		Assert.assertEquals(RemoteRiver.BULK_RETRY_MAX_DEFAULT, tested.bulkRetryMax);
+		Assert.assertEquals(RemoteRiver.BULK_RETRY_BACKOFF_DEFAULT, tested.bulkRetryBackoff);
+		Assert.assertEquals(RemoteRiver.BULK_RETRY_BACKOFF_MAX_DEFAULT, tested.bulkRetryBackoffMax);
+		Assert.assertFalse(tested.bulkSizeAdaptive);
+		Assert.assertEquals(RemoteRiver.BULK_SIZE_MIN_DEFAULT, tested.bulkSizeMin);
+		Assert.assertEquals(RemoteRiver.BULK_SIZE_MAX_DEFAULT, tested.bulkSizeMax);
+		Assert.assertEquals(RemoteRiver.BULK_SIZE_INITIAL_DEFAULT, tested.bulkSizeInitial);
+		Assert.assertEquals(RemoteRiver.BULK_SIZE_TARGET_LATENCY_DEFAULT, tested.bulkSizeTargetLatency);
+		Assert.assertNull(tested.writeGovernor);
+		Assert.assertEquals(0, tested.documentTransformThreads);
 
 		// case - test river configuration reading
 		remoteSettingsAdd.put("maxIndexingThreads", "5");
@@ -107,6 +125,17 @@ public class RemoteRiverTest extends ESRealClientTestBase {
 		Map<String, Object> indexSettings = (Map<String, Object>) toplevelSettingsAdd.get("index");
 		indexSettings.put("index", "my_index_name");
 		indexSettings.put("type", "type_test");
+		indexSettings.put(RemoteRiver.CONFIG_BULK_RETRY_MAX, "5");
+		indexSettings.put(RemoteRiver.CONFIG_BULK_RETRY_BACKOFF, "2s");
+		indexSettings.put(RemoteRiver.CONFIG_BULK_RETRY_BACKOFF_MAX, "1m");
+		indexSettings.put(RemoteRiver.CONFIG_BULK_SIZE_ADAPTIVE, "true");
+		indexSettings.put(RemoteRiver.CONFIG_BULK_SIZE_MIN, 20);
+		indexSettings.put(RemoteRiver.CONFIG_BULK_SIZE_MAX, "500");
+		indexSettings.put(RemoteRiver.CONFIG_BULK_SIZE_INITIAL, 50);
+		indexSettings.put(RemoteRiver.CONFIG_BULK_SIZE_TARGET_LATENCY, "2s");
+		indexSettings.put(RemoteRiver.CONFIG_WRITE_THROTTLE, true);
+		indexSettings.put(RemoteRiver.CONFIG_TRANSFORM_THREADS, 4);
+		indexSettings.put(RemoteRiver.CONFIG_TRANSFORM_QUEUE_SIZE, "40");
 		tested = prepareRiverInstanceForTest("https://issues.jboss.org", remoteSettingsAdd, toplevelSettingsAdd, false);
 
 		Assert.assertEquals(5, tested.maxIndexingThreads);
@@ -116,6 +145,17 @@ public class RemoteRiverTest extends ESRealClientTestBase {
 		Assert.assertEquals("my_index_name", tested.indexName);
 		Assert.assertEquals("type_test", tested.typeName);
 		Assert.assertEquals(SpaceIndexingMode.UPDATE_TIMESTAMP, tested.spaceIndexingMode);
+		Assert.assertEquals(5, tested.bulkRetryMax);
+		Assert.assertEquals(2000, tested.bulkRetryBackoff);
+		Assert.assertEquals(60000, tested.bulkRetryBackoffMax);
+		Assert.assertTrue(tested.bulkSizeAdaptive);
+		Assert.assertEquals(20, tested.bulkSizeMin);
+		Assert.assertEquals(500, tested.bulkSizeMax);
+		Assert.assertEquals(50, tested.bulkSizeInitial);
+		Assert.assertEquals(2000, tested.bulkSizeTargetLatency);
+		Assert.assertNotNull(tested.writeGovernor);
+		Assert.assertEquals(4, tested.documentTransformThreads);
+		Assert.assertEquals(40, tested.documentTransformQueueSize);
 		// assert index structure builder initialization
 		Assert.assertEquals(tested.documentIndexStructureBuilder, tested.remoteSystemClient.getIndexStructureBuilder());
 		Assert.assertEquals(tested.indexName,
@@ -161,6 +201,18 @@ public class RemoteRiverTest extends ESRealClientTestBase {
 							"Cron expression in indexFullUpdateCronExpression is invalid: '?' can only be specfied for Day-of-Month or Day-of-Week.",
 							e.getMessage());
 		}
+
+		// case - partial updates not supported for mode with full updates only
+		try {
+			remoteSettingsAdd.remove("indexFullUpdateCronExpression");
+			indexSettings.put(DocumentWithCommentsIndexStructureBuilder.CONFIG_PARTIALUPDATES, true);
+			tested = prepareRiverInstanceForTest("https://issues.jboss.org", remoteSettingsAdd, toplevelSettingsAdd, false);
+			Assert.fail("SettingsException expected");
+		} catch (SettingsException e) {
+			Assert.assertEquals(
+					"'index/partial_updates' can't be used with 'simple' list documents mode as it performs full updates only",
+					e.getMessage());
+		}
 	}
 
 	@Test
@@ -278,6 +330,37 @@ public class RemoteRiverTest extends ESRealClientTestBase {
 		Assert.assertNull(tested.coordinatorThread);
 		Assert.assertNull(tested.coordinatorInstance);
 		Assert.assertTrue(RemoteRiver.riverInstances.containsKey(tested.riverName().getName()));
+
+		// case - resources of http client are released
+		tested = prepareRiverInstanceForTest(null);
+		HttpRemoteSystemClientBase remoteClientMock = mock(HttpRemoteSystemClientBase.class);
+		tested.remoteSystemClient = remoteClientMock;
+		tested.closed = false;
+		tested.stop(false);
+		verify(remoteClientMock).close();
+		Assert.assertTrue(tested.remoteSystemClientClosed);
+	}
+
+	@Test
+	public void startRemoteSystemClient() throws Exception {
+		RemoteRiver tested = prepareRiverInstanceForTest(null);
+		IRemoteSystemClient remoteClientMock = tested.remoteSystemClient;
+		IDocumentIndexStructureBuilder structureBuilderMock = mock(IDocumentIndexStructureBuilder.class);
+		tested.documentIndexStructureBuilder = structureBuilderMock;
+		Map<String, Object> remoteSettings = new HashMap<String, Object>();
+		tested.remoteSystemClientSettings = remoteSettings;
+
+		// case - client not closed so not initialized again
+		tested.startRemoteSystemClient();
+		Mockito.verifyNoMoreInteractions(remoteClientMock);
+
+		// case - client closed by stop is initialized again
+		tested.remoteSystemClientClosed = true;
+		tested.allIndexedSpacesKeysNextRefresh = Long.MAX_VALUE;
+		tested.startRemoteSystemClient();
+		verify(remoteClientMock).init(tested, remoteSettings, false, tested);
+		verify(remoteClientMock).setIndexStructureBuilder(structureBuilderMock);
+		Assert.assertFalse(tested.remoteSystemClientClosed);
 	}
 
 	@Test
@@ -525,6 +608,210 @@ public class RemoteRiverTest extends ESRealClientTestBase {
 		verify(clientMock, times(1)).prepareBulk();
 	}
 
+	@SuppressWarnings("unchecked")
+	@Test
+	public void executeESBulkRequest_retry() throws Exception {
+		RemoteRiver tested = prepareRiverInstanceForTest(null);
+		tested.closed = false;
+		tested.bulkRetryBackoff = 1;
+		tested.bulkRetryMax = 2;
+		Client clientMock = tested.client;
+
+		// case - rejected item is retried and written, permanent failure is not retried
+		{
+			BulkRequestBuilder esBulk = prepareBulkRequestBuilderMock(3,
+					new BulkItemResponse[] { bulkItemOk(0), bulkItemFailed(1, RestStatus.TOO_MANY_REQUESTS),
+							bulkItemFailed(2, RestStatus.BAD_REQUEST) });
+			BulkRequestBuilder retryBulk = prepareBulkRequestBuilderMock(0, new BulkItemResponse[] { bulkItemOk(0) });
+			when(clientMock.prepareBulk()).thenReturn(retryBulk);
+
+			try {
+				tested.executeESBulkRequest(esBulk);
+				Assert.fail("BulkUpdatePartialFailureException must be thrown");
+			} catch (BulkUpdatePartialFailureException e) {
+				Assert.assertEquals(1, e.getNumOfFailures());
+				Assert.assertEquals(0, e.getNumOfVersionConflicts());
+				Assert.assertTrue(e.getMessage().contains("[2]"));
+			}
+			Assert.assertEquals(1, retryBulk.request().numberOfActions());
+			Assert.assertEquals("2", ((IndexRequest) retryBulk.request().requests().get(0)).id());
+			Assert.assertEquals(1, tested.bulkRetryItemsRetried.get());
+			Assert.assertEquals(1, tested.bulkRetryItemsRecovered.get());
+			Assert.assertEquals(0, tested.bulkRetryItemsExhausted.get());
+		}
+
+		// case - item rejected by all retries is counted as failure
+		{
+			reset(clientMock);
+			BulkRequestBuilder esBulk = prepareBulkRequestBuilderMock(2, new BulkItemResponse[] { bulkItemOk(0),
+					bulkItemFailed(1, RestStatus.SERVICE_UNAVAILABLE) });
+			BulkRequestBuilder retryBulk = prepareBulkRequestBuilderMock(0, new BulkItemResponse[] { bulkItemFailed(0,
+					RestStatus.TOO_MANY_REQUESTS) });
+			when(clientMock.prepareBulk()).thenReturn(retryBulk);
+
+			try {
+				tested.executeESBulkRequest(esBulk);
+				Assert.fail("BulkUpdatePartialFailureException must be thrown");
+			} catch (BulkUpdatePartialFailureException e) {
+				Assert.assertEquals(1, e.getNumOfFailures());
+			}
+			verify(clientMock, times(2)).prepareBulk();
+			Assert.assertEquals(2, tested.bulkRetryItemsRetried.get());
+			Assert.assertEquals(1, tested.bulkRetryItemsRecovered.get());
+			Assert.assertEquals(1, tested.bulkRetryItemsExhausted.get());
+		}
+
+		// case - write permit is acquired for each attempt
+		{
+			reset(clientMock);
+			WriteGovernor writeGovernorMock = mock(WriteGovernor.class);
+			tested.writeGovernor = writeGovernorMock;
+			BulkRequestBuilder esBulk = prepareBulkRequestBuilderMock(2, new BulkItemResponse[] { bulkItemOk(0),
+					bulkItemFailed(1, RestStatus.TOO_MANY_REQUESTS) });
+			BulkRequestBuilder retryBulk = prepareBulkRequestBuilderMock(0, new BulkItemResponse[] { bulkItemOk(0) });
+			when(clientMock.prepareBulk()).thenReturn(retryBulk);
+
+			tested.executeESBulkRequest(esBulk);
+			verify(writeGovernorMock, times(2)).acquireWritePermit("my_index");
+			tested.writeGovernor = null;
+		}
+
+		// case - no retry if disabled
+		{
+			reset(clientMock);
+			tested.bulkRetryMax = 0;
+			BulkRequestBuilder esBulk = prepareBulkRequestBuilderMock(1, new BulkItemResponse[] { bulkItemFailed(0,
+					RestStatus.TOO_MANY_REQUESTS) });
+			try {
+				tested.executeESBulkRequest(esBulk);
+				Assert.fail("ElasticsearchException must be thrown");
+			} catch (ElasticsearchException e) {
+				// OK
+			}
+			verify(clientMock, times(0)).prepareBulk();
+		}
+	}
+
+	@Test
+	public void executeESBulkRequest_versionConflicts() throws Exception {
+		RemoteRiver tested = prepareRiverInstanceForTest(null);
+		IDocumentIndexStructureBuilder structureBuilderMock = mock(IDocumentIndexStructureBuilder.class);
+		when(structureBuilderMock.isCommentType("my_comment")).thenReturn(true);
+		tested.documentIndexStructureBuilder = structureBuilderMock;
+
+		// case - conflicts of documents and comments counted separately
+		BulkRequestBuilder esBulk = prepareBulkRequestBuilderMock(4, new BulkItemResponse[] { bulkItemOk(0),
+				bulkItemFailed(1, RestStatus.CONFLICT), bulkItemFailed(2, "my_comment", RestStatus.CONFLICT),
+				bulkItemFailed(3, "my_comment", RestStatus.CONFLICT) });
+		try {
+			tested.executeESBulkRequest(esBulk);
+			Assert.fail("BulkUpdatePartialFailureException must be thrown");
+		} catch (BulkUpdatePartialFailureException e) {
+			Assert.assertEquals(0, e.getNumOfFailures());
+			Assert.assertEquals(1, e.getNumOfVersionConflicts());
+			Assert.assertEquals(2, e.getNumOfCommentVersionConflicts());
+			Assert.assertNull(e.getMessage());
+		}
+	}
+
+	@Test
+	public void executeESBulkRequest_adaptiveBulkSize() throws Exception {
+		RemoteRiver tested = prepareRiverInstanceForTest(null);
+		Client clientMock = tested.client;
+
+		// case - adaptive bulk size not used by default
+		BulkRequestBuilder esBulk = prepareBulkRequestBuilderMock(5, new BulkItemResponse[] { bulkItemOk(0),
+				bulkItemOk(1), bulkItemOk(2), bulkItemOk(3), bulkItemOk(4) });
+		tested.executeESBulkRequest(esBulk);
+		verify(esBulk).execute();
+		verify(clientMock, times(0)).prepareBulk();
+		Assert.assertTrue(tested.bulkSizeControllers.isEmpty());
+
+		// case - bulk split into smaller ones, size grows after fast full bulk
+		tested.bulkSizeAdaptive = true;
+		tested.bulkSizeMin = 1;
+		tested.bulkSizeInitial = 2;
+		esBulk = prepareBulkRequestBuilderMock(5, null);
+		BulkRequestBuilder part1 = prepareBulkRequestBuilderMock(0, new BulkItemResponse[] { bulkItemOk(0),
+				bulkItemOk(1) });
+		BulkRequestBuilder part2 = prepareBulkRequestBuilderMock(0, new BulkItemResponse[] { bulkItemOk(0),
+				bulkItemOk(1), bulkItemOk(2) });
+		when(clientMock.prepareBulk()).thenReturn(part1, part2);
+		tested.executeESBulkRequest(esBulk);
+		verify(esBulk, times(0)).execute();
+		Assert.assertEquals(2, part1.request().numberOfActions());
+		Assert.assertEquals(3, part2.request().numberOfActions());
+		Assert.assertEquals("3", ((IndexRequest) part2.request().requests().get(0)).id());
+		Assert.assertEquals(4, tested.bulkSizeControllers.get("my_index").getSize());
+
+		// case - small bulk is executed directly
+		esBulk = prepareBulkRequestBuilderMock(2, new BulkItemResponse[] { bulkItemOk(0), bulkItemOk(1) });
+		tested.executeESBulkRequest(esBulk);
+		verify(esBulk).execute();
+		Assert.assertEquals(4, tested.bulkSizeControllers.get("my_index").getSize());
+	}
+
+	@Test
+	public void getBulkSize() throws Exception {
+		RemoteRiver tested = prepareRiverInstanceForTest(null);
+		IDocumentIndexStructureBuilder structureBuilderMock = mock(IDocumentIndexStructureBuilder.class);
+		when(structureBuilderMock.getDocumentSearchIndexName("ORG")).thenReturn("my_index");
+		tested.documentIndexStructureBuilder = structureBuilderMock;
+
+		// case - default size if adaptive bulk size is not used
+		Assert.assertEquals(50, tested.getBulkSize("ORG", 50));
+		Assert.assertTrue(tested.bulkSizeControllers.isEmpty());
+
+		// case - size of controller for index of Space
+		tested.bulkSizeAdaptive = true;
+		tested.bulkSizeInitial = 200;
+		Assert.assertEquals(200, tested.getBulkSize("ORG", 50));
+		tested.bulkSizeControllers.get("my_index").bulkExecuted(200, 10);
+		Assert.assertEquals(200 + tested.bulkSizeMin, tested.getBulkSize("ORG", 50));
+	}
+
+	@Test
+	public void getBulkTargetIndex() throws Exception {
+		RemoteRiver tested = prepareRiverInstanceForTest(null);
+
+		Assert.assertNull(tested.getBulkTargetIndex(prepareBulkRequestBuilderMock(0, null)));
+		Assert.assertEquals("my_index", tested.getBulkTargetIndex(prepareBulkRequestBuilderMock(2, null)));
+
+		// case - requests into river index are skipped
+		BulkRequestBuilder esBulk = prepareBulkRequestBuilderMock(0, null);
+		esBulk.request().add(indexRequest(tested.getRiverIndexName()).type("my_river").id("checkpoint").source("{}"));
+		Assert.assertNull(tested.getBulkTargetIndex(esBulk));
+		esBulk.request().add(indexRequest("my_index").type("my_type").id("1").source("{}"));
+		Assert.assertEquals("my_index", tested.getBulkTargetIndex(esBulk));
+	}
+
+	@SuppressWarnings("unchecked")
+	private BulkRequestBuilder prepareBulkRequestBuilderMock(int numOfRequests, BulkItemResponse[] responses) {
+		BulkRequest bulkRequest = new BulkRequest();
+		for (int i = 1; i <= numOfRequests; i++) {
+			bulkRequest.add(indexRequest("my_index").type("my_type").id(i + "").source("{}"));
+		}
+		BulkRequestBuilder brb = mock(BulkRequestBuilder.class);
+		when(brb.request()).thenReturn(bulkRequest);
+		ListenableActionFuture<BulkResponse> lafMock = mock(ListenableActionFuture.class);
+		when(brb.execute()).thenReturn(lafMock);
+		when(lafMock.actionGet()).thenReturn(new BulkResponse(responses, 10));
+		return brb;
+	}
+
+	private BulkItemResponse bulkItemOk(int itemId) {
+		return new BulkItemResponse(itemId, "index", new IndexResponse("my_index", "my_type", itemId + "", 1, true));
+	}
+
+	private BulkItemResponse bulkItemFailed(int itemId, RestStatus status) {
+		return bulkItemFailed(itemId, "my_type", status);
+	}
+
+	private BulkItemResponse bulkItemFailed(int itemId, String type, RestStatus status) {
+		return new BulkItemResponse(itemId, "index", new BulkItemResponse.Failure("my_index", type, itemId + "", "error "
+				+ status, status));
+	}
+
 	@Test
 	public void reportIndexingFinished() throws Exception {
 		ISpaceIndexerCoordinator coordMock = mock(ISpaceIndexerCoordinator.class);
@@ -568,6 +855,115 @@ public class RemoteRiverTest extends ESRealClientTestBase {
 
 	}
 
+	@Test
+	public void createIndexForFullUpdate_switchIndexAfterFullUpdate() throws Exception {
+		try {
+			Client client = prepareESClientForUnitTest();
+
+			RemoteRiver tested = prepareRiverInstanceForTest(null);
+			tested.client = client;
+
+			// case - search index is not an alias yet
+			indexCreate("idx_org");
+			indexCreateMapping("idx_org", "doc", "{\"doc\":{\"properties\":{\"title\":{\"type\":\"string\"}}}}");
+			client.prepareIndex("idx_org", "doc", "1").setSource("title", "old").execute().actionGet();
+
+			tested.createIndexForFullUpdate("idx_org", "idx_org_1");
+			Settings s = client.admin().indices().prepareGetSettings("idx_org_1").execute().actionGet()
+					.getIndexToSettings().get("idx_org_1");
+			Assert.assertEquals("0", s.get(RemoteRiver.INDEX_SETTING_REPLICAS));
+			Assert.assertEquals("-1", s.get(RemoteRiver.INDEX_SETTING_REFRESH_INTERVAL));
+			Assert.assertNotNull(client.admin().indices().prepareGetMappings("idx_org_1").execute().actionGet()
+					.getMappings().get("idx_org_1").get("doc"));
+
+			client.prepareIndex("idx_org_1", "doc", "2").setSource("title", "new").execute().actionGet();
+			tested.switchIndexAfterFullUpdate("idx_org", "idx_org_1");
+			s = client.admin().indices().prepareGetSettings("idx_org_1").execute().actionGet().getIndexToSettings()
+					.get("idx_org_1");
+			Assert.assertEquals("1", s.get(RemoteRiver.INDEX_SETTING_REPLICAS));
+			Assert.assertEquals("1s", s.get(RemoteRiver.INDEX_SETTING_REFRESH_INTERVAL));
+			Assert.assertTrue(client.prepareGet("idx_org", "doc", "2").execute().actionGet().isExists());
+			Assert.assertFalse(client.prepareGet("idx_org", "doc", "1").execute().actionGet().isExists());
+
+			// case - search index is an alias already, old index is deleted
+			tested.createIndexForFullUpdate("idx_org", "idx_org_2");
+			client.prepareIndex("idx_org_2", "doc", "3").setSource("title", "newer").execute().actionGet();
+			tested.switchIndexAfterFullUpdate("idx_org", "idx_org_2");
+			Assert.assertTrue(client.prepareGet("idx_org", "doc", "3").execute().actionGet().isExists());
+			Assert.assertFalse(client.admin().indices().prepareExists("idx_org_1").execute().actionGet().isExists());
+
+			// case - index dropped after failure
+			tested.createIndexForFullUpdate("idx_org", "idx_org_3");
+			tested.deleteSearchIndex("idx_org_3");
+			Assert.assertFalse(client.admin().indices().prepareExists("idx_org_3").execute().actionGet().isExists());
+			Assert.assertTrue(tested.fullUpdateIndexSettingsToRestore.isEmpty());
+			Assert.assertTrue(client.prepareGet("idx_org", "doc", "3").execute().actionGet().isExists());
+		} finally {
+			finalizeESClientForUnitTest();
+		}
+	}
+
+	@Test
+	public void applyAndRestoreTemporaryIndexSettings() throws Exception {
+		try {
+			Client client = prepareESClientForUnitTest();
+
+			RemoteRiver tested = prepareRiverInstanceForTest(null);
+			tested.client = client;
+
+			indexCreate("_river");
+			Map<String, String> tempSettings = new HashMap<String, String>();
+			tempSettings.put("refresh_interval", "-1");
+			tempSettings.put("index.translog.flush_threshold_size", "1gb");
+			tempSettings.put("unknown_setting", "aa");
+
+			// case - index doesn't exist
+			Assert.assertFalse(tested.applyTemporaryIndexSettings("idx_tmp", tempSettings));
+			tested.restoreTemporaryIndexSettings("idx_tmp");
+
+			indexCreate("idx_tmp");
+			client.admin().indices().prepareUpdateSettings("idx_tmp")
+					.setSettings(ImmutableSettings.settingsBuilder().put("index.refresh_interval", "5s").build()).execute()
+					.actionGet();
+
+			// case - reference counting, settings applied by first call and restored by last call
+			Assert.assertTrue(tested.applyTemporaryIndexSettings("idx_tmp", tempSettings));
+			Assert.assertTrue(tested.applyTemporaryIndexSettings("idx_tmp", tempSettings));
+			Assert.assertEquals("-1", readIndexSetting(client, "idx_tmp", "index.refresh_interval"));
+			Assert.assertEquals("1gb", readIndexSetting(client, "idx_tmp", "index.translog.flush_threshold_size"));
+			Assert.assertNull(readIndexSetting(client, "idx_tmp", "index.unknown_setting"));
+
+			tested.restoreTemporaryIndexSettings("idx_tmp");
+			Assert.assertEquals("-1", readIndexSetting(client, "idx_tmp", "index.refresh_interval"));
+			tested.restoreTemporaryIndexSettings("idx_tmp");
+			Assert.assertEquals("5s", readIndexSetting(client, "idx_tmp", "index.refresh_interval"));
+			Assert.assertEquals("200mb", readIndexSetting(client, "idx_tmp", "index.translog.flush_threshold_size"));
+			Assert.assertTrue(tested.temporaryIndexSettingsRefCount.isEmpty());
+
+			// case - settings restored after river restart
+			Assert.assertTrue(tested.applyTemporaryIndexSettings("idx_tmp", tempSettings));
+			Assert.assertEquals("-1", readIndexSetting(client, "idx_tmp", "index.refresh_interval"));
+			tested = prepareRiverInstanceForTest(null);
+			tested.client = client;
+			tested.refreshSearchIndex(tested.getRiverIndexName());
+			tested.restoreTemporaryIndexSettingsLeftovers();
+			Assert.assertEquals("5s", readIndexSetting(client, "idx_tmp", "index.refresh_interval"));
+			Assert.assertFalse(client
+					.prepareGet(
+							"_river",
+							RIVER_NAME,
+							RemoteRiver.prepareValueStoreDocumentName("idx_tmp", RemoteRiver.PERMSTOREPROP_TEMPORARY_INDEX_SETTINGS))
+					.execute().actionGet().isExists());
+		} finally {
+			finalizeESClientForUnitTest();
+		}
+	}
+
+	private String readIndexSetting(Client client, String indexName, String key) {
+		return client.admin().indices().prepareGetSettings(indexName).execute().actionGet().getIndexToSettings()
+				.get(indexName).get(key);
+	}
+
 	@Test
 	public void prepareESScrollSearchRequestBuilder() throws Exception {
 		RemoteRiver tested = prepareRiverInstanceForTest(null);
@@ -27,6 +27,7 @@ import org.elasticsearch.search.internal.InternalSearchHit;
 import org.elasticsearch.search.internal.InternalSearchHits;
 import org.elasticsearch.search.internal.InternalSearchResponse;
 import org.jboss.elasticsearch.river.remote.exception.RemoteDocumentNotFoundException;
+import org.jboss.elasticsearch.river.remote.exception.RemoteDocumentNotModifiedException;
 import org.jboss.elasticsearch.river.remote.testtools.ProjectInfoMatcher;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -146,6 +147,7 @@ public class SpaceByLastUpdateTimestampIndexerTest {
 			verify(remoteClientMock, times(1)).getChangedDocuments("ORG", 0, true, null);
 			verify(esIntegrationMock, times(1)).readDatetimeValue(Mockito.any(String.class), Mockito.any(String.class));
 			verify(esIntegrationMock, times(1)).prepareESBulkRequestBuilder();
+			verify(esIntegrationMock, times(1)).getBulkSize("ORG", 0);
 			verify(documentIndexStructureBuilderMock, times(2)).indexDocument(Mockito.eq(brb), Mockito.eq("ORG"),
 					Mockito.any(Map.class));
 			verify(esIntegrationMock, times(1)).storeDatetimeValue(Mockito.eq("ORG"),
@@ -207,6 +209,7 @@ public class SpaceByLastUpdateTimestampIndexerTest {
 			verify(remoteClientMock, times(1)).getChangedDocuments("ORG", 0, true, null);
 			verify(esIntegrationMock, times(1)).readDatetimeValue(Mockito.any(String.class), Mockito.any(String.class));
 			verify(esIntegrationMock, times(1)).prepareESBulkRequestBuilder();
+			verify(esIntegrationMock, times(1)).getBulkSize("ORG", 0);
 			verify(documentIndexStructureBuilderMock, times(3)).indexDocument(Mockito.eq(brb), Mockito.eq("ORG"),
 					Mockito.any(Map.class));
 			verify(esIntegrationMock, times(1)).storeDatetimeValue(Mockito.eq("ORG"),
@@ -223,6 +226,76 @@ public class SpaceByLastUpdateTimestampIndexerTest {
 		}
 	}
 
+	@Test
+	public void processUpdate_BulkUpdateVersionConflicts() throws Exception {
+
+		IRemoteSystemClient remoteClientMock = mock(IRemoteSystemClient.class);
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		IDocumentIndexStructureBuilder documentIndexStructureBuilderMock = mock(IDocumentIndexStructureBuilder.class);
+		SpaceByLastUpdateTimestampIndexer tested = new SpaceByLastUpdateTimestampIndexer("ORG", false, remoteClientMock,
+				esIntegrationMock, documentIndexStructureBuilderMock);
+		Client client = Mockito.mock(Client.class);
+
+		List<Map<String, Object>> docs = new ArrayList<Map<String, Object>>();
+
+		// case - only version conflicts, no error reported
+		{
+			when(
+					esIntegrationMock.readDatetimeValue("ORG",
+							SpaceByLastUpdateTimestampIndexer.STORE_PROPERTYNAME_LAST_INDEXED_DOC_UPDATE_DATE)).thenReturn(null);
+			addDocumentMock(docs, "ORG-45", "2012-08-14T08:00:00.000-0400");
+			addDocumentMock(docs, "ORG-46", "2012-08-14T08:01:00.000-0400");
+			addDocumentMock(docs, "ORG-47", "2012-08-14T08:02:10.000-0400");
+
+			configureStructureBuilderMockDefaults(documentIndexStructureBuilderMock);
+			when(remoteClientMock.getChangedDocuments("ORG", 0, true, null)).thenReturn(
+					new ChangedDocumentsResults(docs, 0, 3));
+			BulkRequestBuilder brb = new BulkRequestBuilder(client);
+			when(esIntegrationMock.prepareESBulkRequestBuilder()).thenReturn(brb);
+			Mockito.doThrow(new BulkUpdatePartialFailureException(null, 0, 2)).when(esIntegrationMock)
+					.executeESBulkRequest(brb);
+
+			tested.processUpdate();
+			Assert.assertEquals(1, tested.indexingInfo.documentsUpdated);
+			Assert.assertEquals(0, tested.indexingInfo.documentsWithError);
+			Assert.assertEquals(2, tested.indexingInfo.versionConflicts);
+			Assert.assertNull(tested.indexingInfo.getErrorMessage());
+		}
+
+		// case - failures and version conflicts in one bulk
+		{
+			tested = new SpaceByLastUpdateTimestampIndexer("ORG", false, remoteClientMock, esIntegrationMock,
+					documentIndexStructureBuilderMock);
+			BulkRequestBuilder brb = new BulkRequestBuilder(client);
+			when(esIntegrationMock.prepareESBulkRequestBuilder()).thenReturn(brb);
+			Mockito.doThrow(new BulkUpdatePartialFailureException("bulk err message", 1, 1)).when(esIntegrationMock)
+					.executeESBulkRequest(brb);
+
+			tested.processUpdate();
+			Assert.assertEquals(1, tested.indexingInfo.documentsUpdated);
+			Assert.assertEquals(1, tested.indexingInfo.documentsWithError);
+			Assert.assertEquals(1, tested.indexingInfo.versionConflicts);
+			Assert.assertEquals("bulk err message", tested.indexingInfo.getErrorMessage());
+		}
+
+		// case - comment conflicts do not decrease number of updated documents
+		{
+			tested = new SpaceByLastUpdateTimestampIndexer("ORG", false, remoteClientMock, esIntegrationMock,
+					documentIndexStructureBuilderMock);
+			BulkRequestBuilder brb = new BulkRequestBuilder(client);
+			when(esIntegrationMock.prepareESBulkRequestBuilder()).thenReturn(brb);
+			Mockito.doThrow(new BulkUpdatePartialFailureException(null, 0, 1, 4)).when(esIntegrationMock)
+					.executeESBulkRequest(brb);
+
+			tested.processUpdate();
+			Assert.assertEquals(2, tested.indexingInfo.documentsUpdated);
+			Assert.assertEquals(0, tested.indexingInfo.documentsWithError);
+			Assert.assertEquals(1, tested.indexingInfo.versionConflicts);
+			Assert.assertEquals(4, tested.indexingInfo.commentVersionConflicts);
+			Assert.assertNull(tested.indexingInfo.getErrorMessage());
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	@Test
 	public void processUpdate_Error_BulkUpdateComplete() throws Exception {
@@ -272,6 +345,7 @@ public class SpaceByLastUpdateTimestampIndexerTest {
 			verify(remoteClientMock, times(1)).getChangedDocuments("ORG", 0, true, null);
 			verify(esIntegrationMock, times(1)).readDatetimeValue(Mockito.any(String.class), Mockito.any(String.class));
 			verify(esIntegrationMock, times(1)).prepareESBulkRequestBuilder();
+			verify(esIntegrationMock, times(1)).getBulkSize("ORG", 0);
 			verify(documentIndexStructureBuilderMock, times(3)).indexDocument(Mockito.eq(brb), Mockito.eq("ORG"),
 					Mockito.any(Map.class));
 			verify(esIntegrationMock, times(1)).storeDatetimeValue(Mockito.eq("ORG"),
@@ -334,6 +408,7 @@ public class SpaceByLastUpdateTimestampIndexerTest {
 			verify(remoteClientMock, times(1)).getChangedDocuments("ORG", 0, true, null);
 			verify(esIntegrationMock, times(1)).readDatetimeValue(Mockito.any(String.class), Mockito.any(String.class));
 			verify(esIntegrationMock, times(1)).prepareESBulkRequestBuilder();
+			verify(esIntegrationMock, times(1)).getBulkSize("ORG", 0);
 			verify(documentIndexStructureBuilderMock, times(0)).indexDocument(Mockito.eq(brb), Mockito.eq("ORG"),
 					Mockito.any(Map.class));
 			verify(esIntegrationMock, times(0)).storeDatetimeValue(Mockito.eq("ORG"),
@@ -406,6 +481,7 @@ public class SpaceByLastUpdateTimestampIndexerTest {
 		Assert.assertEquals(3, tested.indexingInfo.documentsWithError);
 		verify(esIntegrationMock, times(1)).readDatetimeValue(Mockito.any(String.class), Mockito.any(String.class));
 		verify(esIntegrationMock, times(3)).prepareESBulkRequestBuilder();
+		verify(esIntegrationMock, times(3)).getBulkSize("ORG", 0);
 		verify(remoteClientMock, times(1)).getChangedDocuments("ORG", 0, true, null);
 		verify(remoteClientMock, times(1)).getChangedDocuments("ORG", 3, true, null);
 		verify(remoteClientMock, times(1)).getChangedDocuments("ORG", 6, true, null);
@@ -466,6 +542,7 @@ public class SpaceByLastUpdateTimestampIndexerTest {
 		verify(remoteClientMock, times(1)).getChangedDocuments("ORG", 0, false, mockDateAfter);
 		verify(esIntegrationMock, times(1)).readDatetimeValue(Mockito.any(String.class), Mockito.any(String.class));
 		verify(esIntegrationMock, times(1)).prepareESBulkRequestBuilder();
+		verify(esIntegrationMock, times(1)).getBulkSize("ORG", 0);
 		verify(documentIndexStructureBuilderMock, times(1)).indexDocument(Mockito.eq(brb), Mockito.eq("ORG"),
 				Mockito.any(Map.class));
 		verify(esIntegrationMock, times(1)).storeDatetimeValue(Mockito.eq("ORG"),
@@ -529,6 +606,7 @@ public class SpaceByLastUpdateTimestampIndexerTest {
 		Assert.assertTrue(tested.indexingInfo.fullUpdate);
 		verify(esIntegrationMock, times(1)).readDatetimeValue(Mockito.any(String.class), Mockito.any(String.class));
 		verify(esIntegrationMock, times(3)).prepareESBulkRequestBuilder();
+		verify(esIntegrationMock, times(3)).getBulkSize("ORG", 0);
 		verify(remoteClientMock, times(1)).getChangedDocuments("ORG", 0, true, null);
 		verify(remoteClientMock, times(1)).getChangedDocuments("ORG", 0, true, after2);
 		verify(remoteClientMock, times(1)).getChangedDocuments("ORG", 0, true, after3);
@@ -606,6 +684,7 @@ public class SpaceByLastUpdateTimestampIndexerTest {
 		Assert.assertEquals(0, tested.indexingInfo.documentsWithError);
 		verify(esIntegrationMock, times(1)).readDatetimeValue(Mockito.any(String.class), Mockito.any(String.class));
 		verify(esIntegrationMock, times(3)).prepareESBulkRequestBuilder();
+		verify(esIntegrationMock, times(3)).getBulkSize("ORG", 0);
 		verify(remoteClientMock, times(1)).getChangedDocuments("ORG", 0, true, null);
 		verify(remoteClientMock, times(1)).getChangedDocuments("ORG", 3, true, null);
 		verify(remoteClientMock, times(1)).getChangedDocuments("ORG", 6, true, null);
@@ -728,6 +807,217 @@ public class SpaceByLastUpdateTimestampIndexerTest {
 
 	}
 
+	@Test
+	public void run_fullUpdateIntoNewIndex() throws Exception {
+		IRemoteSystemClient remoteClientMock = mock(IRemoteSystemClient.class);
+		IDocumentIndexStructureBuilder documentIndexStructureBuilderMock = mock(IDocumentIndexStructureBuilder.class);
+		configureStructureBuilderMockDefaults(documentIndexStructureBuilderMock);
+		when(documentIndexStructureBuilderMock.getFullUpdateStrategy()).thenReturn(FullUpdateStrategy.NEW_INDEX);
+		when(documentIndexStructureBuilderMock.getDocumentSearchIndexName("ORG")).thenReturn("index_org");
+		Client client = Mockito.mock(Client.class);
+
+		List<Map<String, Object>> docs = new ArrayList<Map<String, Object>>();
+		addDocumentMock(docs, "ORG-45", "2012-08-14T08:00:00.000-0400");
+		addDocumentMock(docs, "ORG-46", "2012-08-14T08:00:00.000-0400");
+		addDocumentMock(docs, "ORG-47", "2012-08-14T08:00:00.000-0400");
+
+		// case - full update finished OK, index switched and no delete performed
+		{
+			IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+			SpaceByLastUpdateTimestampIndexer tested = new SpaceByLastUpdateTimestampIndexer("ORG", true, remoteClientMock,
+					esIntegrationMock, documentIndexStructureBuilderMock);
+			when(remoteClientMock.getChangedDocuments("ORG", 0, true, null)).thenReturn(
+					new ChangedDocumentsResults(docs, 0, 3));
+			when(esIntegrationMock.prepareESBulkRequestBuilder()).thenReturn(new BulkRequestBuilder(client));
+
+			tested.run();
+			String newIndexName = "index_org_" + tested.startTime;
+			verify(esIntegrationMock, times(1)).createIndexForFullUpdate("index_org", newIndexName);
+			verify(documentIndexStructureBuilderMock).setSpaceIndexNameOverride("ORG", newIndexName);
+			verify(documentIndexStructureBuilderMock).setSpaceIndexNameOverride("ORG", null);
+			verify(esIntegrationMock, times(1)).switchIndexAfterFullUpdate("index_org", newIndexName);
+			verify(esIntegrationMock, times(0)).deleteSearchIndex(Mockito.anyString());
+			verify(esIntegrationMock, times(0)).prepareESScrollSearchRequestBuilder(Mockito.anyString());
+			verify(esIntegrationMock, times(1)).reportIndexingFinished(
+					Mockito.argThat(new ProjectInfoMatcher("ORG", true, true, 3, 0, null)));
+			Assert.assertNull(tested.fullUpdateNewIndexName);
+		}
+
+		// case - full update failed, new index deleted and last indexed document date restored
+		{
+			reset(remoteClientMock);
+			reset(documentIndexStructureBuilderMock);
+			configureStructureBuilderMockDefaults(documentIndexStructureBuilderMock);
+			when(documentIndexStructureBuilderMock.getFullUpdateStrategy()).thenReturn(FullUpdateStrategy.NEW_INDEX);
+			when(documentIndexStructureBuilderMock.getDocumentSearchIndexName("ORG")).thenReturn("index_org");
+			IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+			SpaceByLastUpdateTimestampIndexer tested = new SpaceByLastUpdateTimestampIndexer("ORG", true, remoteClientMock,
+					esIntegrationMock, documentIndexStructureBuilderMock);
+			Date lastUpdatedDate = DateTimeUtils.parseISODateTime("2012-08-14T07:00:00.000-0400");
+			when(
+					esIntegrationMock.readDatetimeValue("ORG",
+							SpaceByLastUpdateTimestampIndexer.STORE_PROPERTYNAME_LAST_INDEXED_DOC_UPDATE_DATE)).thenReturn(
+					lastUpdatedDate);
+			when(remoteClientMock.getChangedDocuments("ORG", 0, true, null)).thenReturn(
+					new ChangedDocumentsResults(docs, 0, 4));
+			when(remoteClientMock.getChangedDocuments("ORG", 3, true, null)).thenThrow(new Exception("Remote call error"));
+			when(esIntegrationMock.prepareESBulkRequestBuilder()).thenReturn(new BulkRequestBuilder(client));
+
+			tested.run();
+			String newIndexName = "index_org_" + tested.startTime;
+			verify(esIntegrationMock, times(1)).createIndexForFullUpdate("index_org", newIndexName);
+			verify(esIntegrationMock, times(0)).switchIndexAfterFullUpdate(Mockito.anyString(), Mockito.anyString());
+			verify(esIntegrationMock, times(1)).deleteSearchIndex(newIndexName);
+			verify(documentIndexStructureBuilderMock).setSpaceIndexNameOverride("ORG", null);
+			verify(esIntegrationMock, times(1)).storeDatetimeValue("ORG",
+					SpaceByLastUpdateTimestampIndexer.STORE_PROPERTYNAME_LAST_INDEXED_DOC_UPDATE_DATE, lastUpdatedDate, null);
+			verify(esIntegrationMock, times(1)).reportIndexingFinished(
+					Mockito.argThat(new ProjectInfoMatcher("ORG", true, false, 3, 0, "Remote call error")));
+		}
+	}
+
+	@Test
+	public void run_fullUpdateTemporaryIndexSettings() throws Exception {
+		IRemoteSystemClient remoteClientMock = mock(IRemoteSystemClient.class);
+		IDocumentIndexStructureBuilder documentIndexStructureBuilderMock = mock(IDocumentIndexStructureBuilder.class);
+		configureStructureBuilderMockDefaults(documentIndexStructureBuilderMock);
+		Map<String, String> tempSettings = new HashMap<String, String>();
+		tempSettings.put("refresh_interval", "-1");
+		when(documentIndexStructureBuilderMock.getFullUpdateStrategy()).thenReturn(FullUpdateStrategy.IN_PLACE);
+		when(documentIndexStructureBuilderMock.getFullUpdateIndexSettings()).thenReturn(tempSettings);
+		when(documentIndexStructureBuilderMock.getDocumentSearchIndexName("ORG")).thenReturn("index_org");
+		Client client = Mockito.mock(Client.class);
+
+		List<Map<String, Object>> docs = new ArrayList<Map<String, Object>>();
+		addDocumentMock(docs, "ORG-45", "2012-08-14T08:00:00.000-0400");
+
+		// case - incremental update, no settings applied
+		{
+			IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+			SpaceByLastUpdateTimestampIndexer tested = new SpaceByLastUpdateTimestampIndexer("ORG", false, remoteClientMock,
+					esIntegrationMock, documentIndexStructureBuilderMock);
+			Date lastUpdatedDate = DateTimeUtils.parseISODateTime("2012-08-14T07:00:00.000-0400");
+			when(
+					esIntegrationMock.readDatetimeValue("ORG",
+							SpaceByLastUpdateTimestampIndexer.STORE_PROPERTYNAME_LAST_INDEXED_DOC_UPDATE_DATE)).thenReturn(
+					lastUpdatedDate);
+			when(remoteClientMock.getChangedDocuments("ORG", 0, false, lastUpdatedDate)).thenReturn(
+					new ChangedDocumentsResults(docs, 0, 1));
+			when(esIntegrationMock.prepareESBulkRequestBuilder()).thenReturn(new BulkRequestBuilder(client));
+
+			tested.run();
+			verify(esIntegrationMock, times(0)).applyTemporaryIndexSettings(Mockito.anyString(), Mockito.anyMap());
+			verify(esIntegrationMock, times(0)).restoreTemporaryIndexSettings(Mockito.anyString());
+		}
+
+		// case - full update failed, settings restored anyway
+		{
+			reset(remoteClientMock);
+			IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+			SpaceByLastUpdateTimestampIndexer tested = new SpaceByLastUpdateTimestampIndexer("ORG", true, remoteClientMock,
+					esIntegrationMock, documentIndexStructureBuilderMock);
+			when(esIntegrationMock.applyTemporaryIndexSettings("index_org", tempSettings)).thenReturn(true);
+			when(remoteClientMock.getChangedDocuments("ORG", 0, true, null)).thenThrow(new Exception("Remote call error"));
+
+			tested.run();
+			verify(esIntegrationMock, times(1)).applyTemporaryIndexSettings("index_org", tempSettings);
+			verify(esIntegrationMock, times(1)).restoreTemporaryIndexSettings("index_org");
+			verify(esIntegrationMock, times(1)).reportIndexingFinished(
+					Mockito.argThat(new ProjectInfoMatcher("ORG", true, false, 0, 0, "Remote call error")));
+			Assert.assertNull(tested.fullUpdateTunedIndexName);
+		}
+
+		// case - index doesn't exist so settings are not applied and not restored
+		{
+			reset(remoteClientMock);
+			IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+			SpaceByLastUpdateTimestampIndexer tested = new SpaceByLastUpdateTimestampIndexer("ORG", true, remoteClientMock,
+					esIntegrationMock, documentIndexStructureBuilderMock);
+			when(esIntegrationMock.applyTemporaryIndexSettings("index_org", tempSettings)).thenReturn(false);
+			when(remoteClientMock.getChangedDocuments("ORG", 0, true, null)).thenReturn(
+					new ChangedDocumentsResults(new ArrayList<Map<String, Object>>(), 0, 0));
+
+			tested.run();
+			verify(esIntegrationMock, times(0)).restoreTemporaryIndexSettings(Mockito.anyString());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void processUpdate_NotModifiedDocumentsMoveCheckpoint() throws Exception {
+		IRemoteSystemClient remoteClientMock = mock(IRemoteSystemClient.class);
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		IDocumentIndexStructureBuilder documentIndexStructureBuilderMock = mock(IDocumentIndexStructureBuilder.class);
+		configureStructureBuilderMockDefaults(documentIndexStructureBuilderMock);
+		SpaceByLastUpdateTimestampIndexer tested = new SpaceByLastUpdateTimestampIndexer("ORG", false, remoteClientMock,
+				esIntegrationMock, documentIndexStructureBuilderMock);
+
+		Date updatedAfter = DateTimeUtils.parseISODateTime("2012-08-14T07:00:00.000-0400");
+		when(
+				esIntegrationMock.readDatetimeValue("ORG",
+						SpaceByLastUpdateTimestampIndexer.STORE_PROPERTYNAME_LAST_INDEXED_DOC_UPDATE_DATE)).thenReturn(
+				updatedAfter);
+		List<Map<String, Object>> docs = new ArrayList<Map<String, Object>>();
+		addDocumentMock(docs, "ORG-45", "2012-08-14T08:00:00.000-0400");
+		addDocumentMock(docs, "ORG-46", "2012-08-14T08:01:00.000-0400");
+		// case - no total in response, all documents not modified
+		when(remoteClientMock.getChangedDocuments("ORG", 0, false, updatedAfter)).thenReturn(
+				new ChangedDocumentsResults(docs, 0, null));
+		Date lastDate = DateTimeUtils.parseISODateTime("2012-08-14T08:01:00.000-0400");
+		when(remoteClientMock.getChangedDocuments("ORG", 0, false, lastDate)).thenReturn(
+				new ChangedDocumentsResults(new ArrayList<Map<String, Object>>(), 0, null));
+		when(
+				remoteClientMock.getChangedDocumentDetails(Mockito.eq("ORG"), Mockito.anyString(),
+						(Map<String, Object>) Mockito.notNull())).thenThrow(new RemoteDocumentNotModifiedException());
+		BulkRequestBuilder brb = new BulkRequestBuilder(Mockito.mock(Client.class));
+		when(esIntegrationMock.prepareESBulkRequestBuilder()).thenReturn(brb);
+
+		tested.processUpdate();
+		Assert.assertEquals(0, tested.indexingInfo.documentsUpdated);
+		Assert.assertEquals(0, tested.indexingInfo.documentsWithError);
+		verify(documentIndexStructureBuilderMock, times(0)).indexDocument(Mockito.any(BulkRequestBuilder.class),
+				Mockito.anyString(), Mockito.any(Map.class));
+		verify(esIntegrationMock).storeDatetimeValue("ORG",
+				SpaceByLastUpdateTimestampIndexer.STORE_PROPERTYNAME_LAST_INDEXED_DOC_UPDATE_DATE, lastDate, brb);
+		verify(esIntegrationMock).executeESBulkRequest(brb);
+		verify(remoteClientMock).getChangedDocuments("ORG", 0, false, lastDate);
+	}
+
+	@Test
+	public void processUpdate_transformedDocumentsBeforeCheckpoint() throws Exception {
+		IRemoteSystemClient remoteClientMock = mock(IRemoteSystemClient.class);
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		IDocumentIndexStructureBuilder documentIndexStructureBuilderMock = mock(IDocumentIndexStructureBuilder.class);
+		configureStructureBuilderMockDefaults(documentIndexStructureBuilderMock);
+		final List<String> calls = new ArrayList<String>();
+		SpaceByLastUpdateTimestampIndexer tested = new SpaceByLastUpdateTimestampIndexer("ORG", false, remoteClientMock,
+				esIntegrationMock, documentIndexStructureBuilderMock) {
+			@Override
+			protected void addTransformedDocuments(BulkRequestBuilder esBulk) throws Exception {
+				calls.add("transformed");
+			}
+		};
+		Mockito.doAnswer(new Answer<Object>() {
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				calls.add("checkpoint");
+				return null;
+			}
+		}).when(esIntegrationMock).storeDatetimeValue(Mockito.eq("ORG"),
+				Mockito.eq(SpaceByLastUpdateTimestampIndexer.STORE_PROPERTYNAME_LAST_INDEXED_DOC_UPDATE_DATE),
+				Mockito.any(Date.class), Mockito.any(BulkRequestBuilder.class));
+
+		List<Map<String, Object>> docs = new ArrayList<Map<String, Object>>();
+		addDocumentMock(docs, "ORG-45", "2012-08-14T08:00:00.000-0400");
+		when(remoteClientMock.getChangedDocuments("ORG", 0, true, null)).thenReturn(
+				new ChangedDocumentsResults(docs, 0, 1));
+		when(esIntegrationMock.prepareESBulkRequestBuilder()).thenReturn(
+				new BulkRequestBuilder(Mockito.mock(Client.class)));
+
+		tested.processUpdate();
+		Assert.assertEquals("transformed", calls.get(0));
+		Assert.assertEquals("checkpoint", calls.get(1));
+	}
+
 	/**
 	 * @param documentIndexStructureBuilderMock
 	 */
@@ -852,6 +1142,7 @@ public class SpaceByLastUpdateTimestampIndexerTest {
 			verify(esIntegrationMock).prepareESScrollSearchRequestBuilder(testIndexName);
 			verify(esIntegrationMock).executeESSearchRequest(srbmock);
 			verify(esIntegrationMock).prepareESBulkRequestBuilder();
+			verify(esIntegrationMock).getBulkSize("ORG", 0);
 			verify(esIntegrationMock, times(3)).isClosed();
 			verify(esIntegrationMock, times(3)).executeESScrollSearchNextRequest(Mockito.any(SearchResponse.class));
 			verify(documentIndexStructureBuilderMock).deleteESDocument(brbmock, hit1_1);
@@ -5,16 +5,35 @@
  */
 package org.jboss.elasticsearch.river.remote;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-
+import java.util.Set;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
 import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.text.StringText;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.elasticsearch.search.internal.InternalSearchHits;
+import org.elasticsearch.search.internal.InternalSearchResponse;
 import org.jboss.elasticsearch.river.remote.exception.RemoteDocumentNotFoundException;
+import org.jboss.elasticsearch.river.remote.exception.RemoteDocumentNotModifiedException;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 /**
  * Unit test for {@link SpaceIndexerBase}.
@@ -97,6 +116,7 @@ public class SpaceIndexerBaseTest {
 			Mockito.when(tested.remoteSystemClient.getChangedDocumentDetails(SPACE, DOC_ID, document)).thenReturn(detail);
 
 			Assert.assertTrue(tested.getDocumentDetail(DOC_ID, document));
+			Assert.assertEquals(SpaceIndexerBase.DocumentDetailStatus.LOADED, tested.loadDocumentDetail(DOC_ID, document));
 
 			Assert.assertEquals(detail, document.get(SpaceIndexerBase.KEY_DETAIL));
 		}
@@ -125,6 +145,22 @@ public class SpaceIndexerBaseTest {
 			Mockito.verify(tested.indexingInfo).addErrorMessage(Mockito.anyString());
 		}
 
+		// case - remote document RemoteDocumentNotModifiedException
+		{
+			Mockito.reset(tested.remoteSystemClient, tested.indexingInfo);
+			tested.indexingInfo.documentsWithError = 0;
+			Map<String, Object> document = new HashMap<String, Object>();
+			Mockito.when(tested.remoteSystemClient.getChangedDocumentDetails(SPACE, DOC_ID, document)).thenThrow(
+					new RemoteDocumentNotModifiedException("msg"));
+
+			Assert.assertFalse(tested.getDocumentDetail(DOC_ID, document));
+			Assert.assertEquals(SpaceIndexerBase.DocumentDetailStatus.NOT_MODIFIED,
+					tested.loadDocumentDetail(DOC_ID, document));
+			Assert.assertEquals(null, document.get(SpaceIndexerBase.KEY_DETAIL));
+			Assert.assertEquals(0, tested.indexingInfo.documentsWithError);
+			Mockito.verify(tested.indexingInfo, Mockito.times(0)).addErrorMessage(Mockito.anyString());
+		}
+
 		// case - other exception
 		{
 			Mockito.reset(tested.remoteSystemClient, tested.indexingInfo);
@@ -146,6 +182,248 @@ public class SpaceIndexerBaseTest {
 
 	}
 
+	@Test
+	public void indexDocument_releaseCompactDocument() throws Exception {
+		TestIndexer tested = getTested();
+		BulkRequestBuilder esBulk = new BulkRequestBuilder(mock(Client.class));
+
+		CompactJSONDocument document = CompactJSONDocumentTest.read("{\"id\":\"d1\"}", null);
+		tested.indexDocument(esBulk, document);
+		Mockito.verify(tested.documentIndexStructureBuilder).indexDocument(esBulk, SPACE, document);
+		Assert.assertTrue(document.isEmpty());
+
+		// case - released even if indexing fails
+		document = CompactJSONDocumentTest.read("{\"id\":\"d2\"}", null);
+		Mockito.doThrow(new IllegalArgumentException()).when(tested.documentIndexStructureBuilder)
+				.indexDocument(esBulk, SPACE, document);
+		try {
+			tested.indexDocument(esBulk, document);
+			Assert.fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			Assert.assertTrue(document.isEmpty());
+		}
+	}
+
+	@Test
+	public void indexDocument_transformPool() throws Exception {
+		TestIndexer tested = getTested();
+		Client client = mock(Client.class);
+		when(tested.esIntegrationComponent.prepareESBulkRequestBuilder()).thenReturn(new BulkRequestBuilder(client),
+				new BulkRequestBuilder(client), new BulkRequestBuilder(client), new BulkRequestBuilder(client),
+				new BulkRequestBuilder(client));
+
+		// builder used from more threads so Mockito mock can't be used
+		tested = new TestIndexer(SPACE, tested.remoteSystemClient, tested.esIntegrationComponent,
+				(IDocumentIndexStructureBuilder) Proxy.newProxyInstance(getClass().getClassLoader(),
+						new Class[] { IDocumentIndexStructureBuilder.class }, new InvocationHandler() {
+
+							@SuppressWarnings("unchecked")
+							@Override
+							public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+								if (!"indexDocument".equals(method.getName()))
+									throw new UnsupportedOperationException(method.getName());
+								Map<String, Object> document = (Map<String, Object>) args[2];
+								Thread.sleep((Integer) document.get("sleep"));
+								if (document.containsKey("fail"))
+									throw new IllegalArgumentException("transform failed");
+								((BulkRequestBuilder) args[0]).add(new IndexRequest("idx", "type", (String) document.get("id")));
+								return null;
+							}
+						}));
+		tested.indexingInfo = Mockito.mock(SpaceIndexingInfo.class);
+		tested.logger = Mockito.mock(ESLogger.class);
+		tested.documentTransformPool = new DocumentTransformPool("river", 3, 10);
+		try {
+			// case - original order kept even if later documents are transformed faster
+			BulkRequestBuilder esBulk = new BulkRequestBuilder(client);
+			tested.indexDocument(esBulk, createTransformedDocument("d1", 200, false));
+			tested.indexDocument(esBulk, createTransformedDocument("d2", 100, false));
+			tested.indexDocument(esBulk, createTransformedDocument("d3", 0, false));
+			Assert.assertEquals(0, esBulk.numberOfActions());
+			tested.addTransformedDocuments(esBulk);
+			Assert.assertEquals(3, esBulk.numberOfActions());
+			Assert.assertEquals("d1", ((IndexRequest) esBulk.request().requests().get(0)).id());
+			Assert.assertEquals("d2", ((IndexRequest) esBulk.request().requests().get(1)).id());
+			Assert.assertEquals("d3", ((IndexRequest) esBulk.request().requests().get(2)).id());
+			Assert.assertTrue(tested.pendingTransforms.isEmpty());
+
+			// case - exception from transformation is thrown
+			esBulk = new BulkRequestBuilder(client);
+			tested.indexDocument(esBulk, createTransformedDocument("d4", 0, true));
+			tested.indexDocument(esBulk, createTransformedDocument("d5", 0, false));
+			try {
+				tested.addTransformedDocuments(esBulk);
+				Assert.fail("IllegalArgumentException expected");
+			} catch (IllegalArgumentException e) {
+				Assert.assertEquals("transform failed", e.getMessage());
+			}
+			Assert.assertTrue(tested.pendingTransforms.isEmpty());
+		} finally {
+			tested.documentTransformPool.shutdown();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void reconcileComments() throws Exception {
+		TestIndexer tested = getTested();
+		tested.indexingInfo = new SpaceIndexingInfo(SPACE, false);
+		Client client = mock(Client.class);
+		IDocumentIndexStructureBuilder documentIndexStructureBuilderMock = tested.documentIndexStructureBuilder;
+		IESIntegration esIntegrationMock = tested.esIntegrationComponent;
+
+		// case - nothing searched if no document is indexed in bulk
+		BulkRequestBuilder esBulk = new BulkRequestBuilder(client);
+		Assert.assertFalse(tested.reconcileComments(esBulk));
+		Mockito.verify(documentIndexStructureBuilderMock).collectIndexedDocumentIds(Mockito.eq(esBulk),
+				Mockito.any(Set.class), Mockito.any(Set.class));
+		Mockito.verifyNoMoreInteractions(esIntegrationMock);
+		Mockito.verifyNoMoreInteractions(documentIndexStructureBuilderMock);
+
+		// case - indexed comments not in bulk are deleted
+		Mockito.reset(documentIndexStructureBuilderMock);
+		Mockito.doAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				((Set<String>) invocation.getArguments()[1]).add(DOC_ID);
+				((Set<String>) invocation.getArguments()[2]).add("c1");
+				return null;
+			}
+		}).when(documentIndexStructureBuilderMock).collectIndexedDocumentIds(Mockito.eq(esBulk), Mockito.any(Set.class),
+				Mockito.any(Set.class));
+		when(documentIndexStructureBuilderMock.getDocumentSearchIndexName(SPACE)).thenReturn("index");
+		SearchRequestBuilder srb = new SearchRequestBuilder(client);
+		when(esIntegrationMock.prepareESScrollSearchRequestBuilder("index")).thenReturn(srb);
+		SearchResponse sr = prepareSearchResponse("scrlid0", new InternalSearchHit(1, "c1", new StringText(""), null));
+		when(esIntegrationMock.executeESSearchRequest(srb)).thenReturn(sr);
+		InternalSearchHit hit1 = new InternalSearchHit(1, "c1", new StringText(""), null);
+		InternalSearchHit hit2 = new InternalSearchHit(2, "c2", new StringText(""), null);
+		SearchResponse sr1 = prepareSearchResponse("scrlid1", hit1, hit2);
+		when(esIntegrationMock.executeESScrollSearchNextRequest(sr)).thenReturn(sr1);
+		when(esIntegrationMock.executeESScrollSearchNextRequest(sr1)).thenReturn(prepareSearchResponse("scrlid2"));
+
+		Assert.assertTrue(tested.reconcileComments(esBulk));
+		Assert.assertEquals(1, tested.indexingInfo.commentsDeleted);
+		Mockito.verify(documentIndexStructureBuilderMock).buildSearchForIndexedCommentsOfDocuments(srb, SPACE,
+				Collections.singleton(DOC_ID));
+		Mockito.verify(documentIndexStructureBuilderMock).deleteESDocument(esBulk, hit2);
+		Mockito.verify(documentIndexStructureBuilderMock, Mockito.never()).deleteESDocument(esBulk, hit1);
+		Mockito.verify(esIntegrationMock, Mockito.never()).refreshSearchIndex(Mockito.anyString());
+	}
+
+	@Test
+	public void executeBulkUpdate_partialUpdates() throws Exception {
+		TestIndexer tested = getTested();
+		tested.indexingInfo = new SpaceIndexingInfo(SPACE, false);
+		Client client = mock(Client.class);
+		BulkRequestBuilder esBulk = new BulkRequestBuilder(client);
+
+		// case - nothing discarded if partial updates are not used
+		Mockito.doThrow(new BulkUpdatePartialFailureException("failed", 1)).when(tested.esIntegrationComponent)
+				.executeESBulkRequest(esBulk);
+		tested.executeBulkUpdate(esBulk);
+		Mockito.verifyZeroInteractions(tested.documentIndexStructureBuilder);
+
+		// case - documents of failed bulk discarded
+		tested.partialUpdates = true;
+		tested.executeBulkUpdate(esBulk);
+		Mockito.verify(tested.documentIndexStructureBuilder).discardDocumentFingerprints(SPACE, esBulk);
+		Assert.assertEquals(2, tested.indexingInfo.documentsWithError);
+
+		Mockito.reset(tested.documentIndexStructureBuilder);
+		Mockito.doThrow(new ElasticsearchException("failed")).when(tested.esIntegrationComponent)
+				.executeESBulkRequest(esBulk);
+		try {
+			tested.executeBulkUpdate(esBulk);
+			Assert.fail("ElasticsearchException expected");
+		} catch (ElasticsearchException e) {
+			Mockito.verify(tested.documentIndexStructureBuilder).discardDocumentFingerprints(SPACE, esBulk);
+		}
+
+		// case - successful bulk kept
+		Mockito.reset(tested.documentIndexStructureBuilder);
+		Mockito.reset(tested.esIntegrationComponent);
+		tested.executeBulkUpdate(esBulk);
+		Mockito.verifyZeroInteractions(tested.documentIndexStructureBuilder);
+	}
+
+	@Test
+	public void executeBulkUpdate_documentsStateCommitted() throws Exception {
+		StateAwareRemoteSystemClient remoteClientMock = mock(StateAwareRemoteSystemClient.class);
+		IDocumentStateAware stateMock = remoteClientMock;
+		IESIntegration esIntegrationMock = mock(IESIntegration.class);
+		IDocumentIndexStructureBuilder documentIndexStructureBuilderMock = mock(IDocumentIndexStructureBuilder.class);
+		TestIndexer tested = new TestIndexer(SPACE, remoteClientMock, esIntegrationMock, documentIndexStructureBuilderMock);
+		tested.indexingInfo = new SpaceIndexingInfo(SPACE, false);
+		tested.logger = Mockito.mock(ESLogger.class);
+		BulkRequestBuilder esBulk = new BulkRequestBuilder(mock(Client.class));
+		Map<String, Object> document = createTransformedDocument(DOC_ID, 0, false);
+		when(documentIndexStructureBuilderMock.extractDocumentId(document)).thenReturn(DOC_ID);
+
+		// case - state committed after successful bulk
+		tested.indexDocument(esBulk, document);
+		tested.executeBulkUpdate(esBulk);
+		Mockito.verify(stateMock).commitDocumentsState(SPACE, Collections.singletonList(DOC_ID));
+		Assert.assertTrue(tested.documentIdsInBulk.isEmpty());
+
+		// case - state committed if documents are skipped due version conflict only
+		Mockito.reset(stateMock);
+		Mockito.doThrow(new BulkUpdatePartialFailureException("conflict", 0, 1)).when(esIntegrationMock)
+				.executeESBulkRequest(esBulk);
+		tested.indexDocument(esBulk, document);
+		tested.executeBulkUpdate(esBulk);
+		Mockito.verify(stateMock).commitDocumentsState(SPACE, Collections.singletonList(DOC_ID));
+
+		// case - state not committed if some documents failed
+		Mockito.reset(stateMock);
+		Mockito.doThrow(new BulkUpdatePartialFailureException("failed", 1)).when(esIntegrationMock)
+				.executeESBulkRequest(esBulk);
+		tested.indexDocument(esBulk, document);
+		tested.executeBulkUpdate(esBulk);
+		Mockito.verifyZeroInteractions(stateMock);
+		Assert.assertTrue(tested.documentIdsInBulk.isEmpty());
+
+		// case - state not committed if bulk failed
+		Mockito.doThrow(new ElasticsearchException("failed")).when(esIntegrationMock).executeESBulkRequest(esBulk);
+		tested.indexDocument(esBulk, document);
+		try {
+			tested.executeBulkUpdate(esBulk);
+			Assert.fail("ElasticsearchException expected");
+		} catch (ElasticsearchException e) {
+			Mockito.verifyZeroInteractions(stateMock);
+		}
+		Assert.assertTrue(tested.documentIdsInBulk.isEmpty());
+
+		// case - state not committed is discarded when indexing finishes, Space state not committed as documents failed
+		tested.run();
+		Mockito.verify(stateMock).discardDocumentsState(SPACE);
+		Mockito.verify(stateMock, Mockito.never()).commitSpaceState(SPACE);
+
+		// case - Space state committed when indexing finishes with all documents written
+		Mockito.reset(stateMock);
+		tested = new TestIndexer(SPACE, remoteClientMock, esIntegrationMock, documentIndexStructureBuilderMock);
+		tested.indexingInfo = new SpaceIndexingInfo(SPACE, false);
+		tested.logger = Mockito.mock(ESLogger.class);
+		tested.run();
+		Mockito.verify(stateMock).commitSpaceState(SPACE);
+		Mockito.verify(stateMock).discardDocumentsState(SPACE);
+	}
+
+	private SearchResponse prepareSearchResponse(String scrollId, InternalSearchHit... hits) {
+		InternalSearchHits hitsi = new InternalSearchHits(hits, hits.length, 10f);
+		InternalSearchResponse sr1i = new InternalSearchResponse(hitsi, null, null, null, false, null);
+		return new SearchResponse(sr1i, scrollId, 1, 1, 100, null);
+	}
+
+	private Map<String, Object> createTransformedDocument(String id, int sleep, boolean fail) {
+		Map<String, Object> document = new HashMap<String, Object>();
+		document.put("id", id);
+		document.put("sleep", sleep);
+		if (fail)
+			document.put("fail", true);
+		return document;
+	}
+
 	/**
 	 * @return
 	 */
@@ -159,6 +437,9 @@ public class SpaceIndexerBaseTest {
 		return tested;
 	}
 
+	private static interface StateAwareRemoteSystemClient extends IRemoteSystemClient, IDocumentStateAware {
+	}
+
 	private static final class TestIndexer extends SpaceIndexerBase {
 
 		public TestIndexer(String spaceKey, IRemoteSystemClient remoteSystemClient, IESIntegration esIntegrationComponent,
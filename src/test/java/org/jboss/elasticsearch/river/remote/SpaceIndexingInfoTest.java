@@ -6,6 +6,8 @@
 package org.jboss.elasticsearch.river.remote;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 import junit.framework.Assert;
 
@@ -75,6 +77,19 @@ public class SpaceIndexingInfoTest {
 				DateTimeUtils.parseISODateTime("2012-09-10T12:55:58Z"), true, 1250, null));
 		readFromDocumentInternalTest(new SpaceIndexingInfo("ORGA", false, 10, 0, 1,
 				DateTimeUtils.parseISODateTime("2012-09-11T02:55:58Z"), false, 125, "Error"));
+		SpaceIndexingInfo sii = new SpaceIndexingInfo("ORGB", false, 10, 0, 1,
+				DateTimeUtils.parseISODateTime("2012-09-11T02:55:58Z"), true, 125, null);
+		sii.versionConflicts = 3;
+		sii.commentVersionConflicts = 5;
+		readFromDocumentInternalTest(sii);
+
+		// case - document stored without conflicts
+		Map<String, Object> document = new HashMap<String, Object>();
+		document.put("update_type", "FULL");
+		document.put("time_elapsed", "10ms");
+		SpaceIndexingInfo result = SpaceIndexingInfo.readFromDocument(document);
+		Assert.assertEquals(0, result.versionConflicts);
+		Assert.assertEquals(0, result.commentVersionConflicts);
 	}
 
 	private void readFromDocumentInternalTest(SpaceIndexingInfo src) throws IOException {
@@ -86,6 +101,8 @@ public class SpaceIndexingInfoTest {
 		Assert.assertEquals(src.documentsUpdated, result.documentsUpdated);
 		Assert.assertEquals(src.documentsDeleted, result.documentsDeleted);
 		Assert.assertEquals(src.documentsWithError, result.documentsWithError);
+		Assert.assertEquals(src.versionConflicts, result.versionConflicts);
+		Assert.assertEquals(src.commentVersionConflicts, result.commentVersionConflicts);
 		Assert.assertEquals(src.commentsDeleted, result.commentsDeleted);
 		Assert.assertEquals(src.startDate, result.startDate);
 		Assert.assertEquals(src.finishedOK, result.finishedOK);
@@ -111,6 +111,7 @@ public class SpacePaginatingIndexerTest {
 				Mockito.any(Map.class));
 
 		verify(tested.esIntegrationComponent, times(1)).prepareESBulkRequestBuilder();
+		verify(tested.esIntegrationComponent, times(1)).getBulkSize("ORG", 0);
 		verify(tested.esIntegrationComponent, times(1)).executeESBulkRequest(Mockito.any(BulkRequestBuilder.class));
 		verify(tested.esIntegrationComponent, Mockito.atLeastOnce()).isClosed();
 		Mockito.verifyNoMoreInteractions(tested.remoteSystemClient);
@@ -156,6 +157,7 @@ public class SpacePaginatingIndexerTest {
 				Mockito.any(Map.class));
 
 		verify(tested.esIntegrationComponent, times(1)).prepareESBulkRequestBuilder();
+		verify(tested.esIntegrationComponent, times(1)).getBulkSize("ORG", 0);
 		verify(tested.esIntegrationComponent, times(1)).executeESBulkRequest(Mockito.any(BulkRequestBuilder.class));
 		verify(tested.esIntegrationComponent, Mockito.atLeastOnce()).isClosed();
 		Mockito.verifyNoMoreInteractions(tested.remoteSystemClient);
@@ -208,6 +210,7 @@ public class SpacePaginatingIndexerTest {
 				Mockito.any(Map.class));
 
 		verify(tested.esIntegrationComponent, times(2)).prepareESBulkRequestBuilder();
+		verify(tested.esIntegrationComponent, times(2)).getBulkSize("ORG", 0);
 		verify(tested.esIntegrationComponent, times(2)).executeESBulkRequest(Mockito.any(BulkRequestBuilder.class));
 		verify(tested.esIntegrationComponent, Mockito.atLeastOnce()).isClosed();
 		Mockito.verifyNoMoreInteractions(tested.remoteSystemClient);
@@ -258,6 +261,7 @@ public class SpacePaginatingIndexerTest {
 				Mockito.any(Map.class));
 
 		verify(tested.esIntegrationComponent, times(2)).prepareESBulkRequestBuilder();
+		verify(tested.esIntegrationComponent, times(2)).getBulkSize("ORG", 0);
 		verify(tested.esIntegrationComponent, times(2)).executeESBulkRequest(Mockito.any(BulkRequestBuilder.class));
 		verify(tested.esIntegrationComponent, Mockito.atLeastOnce()).isClosed();
 		Mockito.verifyNoMoreInteractions(tested.remoteSystemClient);
@@ -265,6 +269,44 @@ public class SpacePaginatingIndexerTest {
 		Mockito.verifyNoMoreInteractions(tested.documentIndexStructureBuilder);
 	}
 
+	@Test
+	public void processUpdate_morePages_coalescedByBulkSize() throws Exception {
+		SpacePaginatingIndexer tested = getTested();
+		configureStructureBuilderMockDefaults(tested.documentIndexStructureBuilder);
+
+		List<Map<String, Object>> docs = new ArrayList<Map<String, Object>>();
+		addDocumentMock(docs, "AA1");
+		addDocumentMock(docs, "AA2");
+		addDocumentMock(docs, "AA3");
+
+		List<Map<String, Object>> docs2 = new ArrayList<Map<String, Object>>();
+		addDocumentMock(docs2, "AA4");
+		addDocumentMock(docs2, "AA5");
+
+		List<Map<String, Object>> docs3 = new ArrayList<Map<String, Object>>();
+		addDocumentMock(docs3, "AA6");
+
+		when(tested.remoteSystemClient.getChangedDocuments("ORG", 0, true, null)).thenReturn(
+				new ChangedDocumentsResults(docs, 0, 6));
+		when(tested.remoteSystemClient.getChangedDocuments("ORG", 3, true, null)).thenReturn(
+				new ChangedDocumentsResults(docs2, 3, 6));
+		when(tested.remoteSystemClient.getChangedDocuments("ORG", 5, true, null)).thenReturn(
+				new ChangedDocumentsResults(docs3, 5, 6));
+		when(tested.esIntegrationComponent.getBulkSize("ORG", 0)).thenReturn(4);
+
+		Client client = Mockito.mock(Client.class);
+		BulkRequestBuilder brb = new BulkRequestBuilder(client);
+		when(tested.esIntegrationComponent.prepareESBulkRequestBuilder()).thenReturn(brb);
+
+		tested.processUpdate();
+		Assert.assertEquals(6, tested.getIndexingInfo().documentsUpdated);
+
+		// first page is smaller than bulk size so second one is coalesced into same bulk, last one is flushed at the end
+		verify(tested.esIntegrationComponent, times(2)).prepareESBulkRequestBuilder();
+		verify(tested.esIntegrationComponent, times(2)).getBulkSize("ORG", 0);
+		verify(tested.esIntegrationComponent, times(2)).executeESBulkRequest(Mockito.any(BulkRequestBuilder.class));
+	}
+
 	protected SpacePaginatingIndexer getTested() {
 		IRemoteSystemClient remoteClientMock = mock(IRemoteSystemClient.class);
 		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
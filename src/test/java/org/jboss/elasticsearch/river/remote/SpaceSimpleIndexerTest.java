@@ -105,6 +105,7 @@ public class SpaceSimpleIndexerTest {
 		Assert.assertTrue(tested.indexingInfo.fullUpdate);
 		verify(tested.remoteSystemClient, times(1)).getChangedDocuments("ORG", 0, true, null);
 		verify(tested.esIntegrationComponent, times(2)).prepareESBulkRequestBuilder();
+		verify(tested.esIntegrationComponent, times(2)).getBulkSize("ORG", 2);
 		verify(tested.documentIndexStructureBuilder, times(3)).indexDocument(Mockito.eq(brb), Mockito.eq("ORG"),
 				Mockito.any(Map.class));
 		verify(tested.documentIndexStructureBuilder, times(4)).extractDocumentId(Mockito.anyMap());
@@ -169,6 +170,12 @@ public class SpaceSimpleIndexerTest {
 				ESLoggerFactory.getLogger(SpaceSimpleIndexer.class.getName()));
 		RiverName riverName = new RiverName("remote", "river_name");
 		Mockito.when(esIntegrationMock.riverName()).thenReturn(riverName);
+		Mockito.when(esIntegrationMock.getBulkSize(Mockito.anyString(), Mockito.anyInt())).thenAnswer(
+				new Answer<Integer>() {
+					public Integer answer(InvocationOnMock invocation) throws Throwable {
+						return (Integer) invocation.getArguments()[1];
+					}
+				});
 		return esIntegrationMock;
 	}
 
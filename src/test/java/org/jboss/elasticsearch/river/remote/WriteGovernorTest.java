@@ -0,0 +1,171 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.remote;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthStatus;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.jboss.elasticsearch.river.remote.WriteGovernor.State;
+import org.jboss.elasticsearch.river.remote.testtools.ESRealClientTestBase;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link WriteGovernor}.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class WriteGovernorTest extends ESRealClientTestBase {
+
+	@Test
+	public void countQueuePercent() {
+		Assert.assertEquals(0, WriteGovernor.countQueuePercent(10, null));
+		Assert.assertEquals(0, WriteGovernor.countQueuePercent(10, -1L));
+		Assert.assertEquals(0, WriteGovernor.countQueuePercent(0, 50L));
+		Assert.assertEquals(20, WriteGovernor.countQueuePercent(10, 50L));
+		Assert.assertEquals(100, WriteGovernor.countQueuePercent(50, 50L));
+		Assert.assertEquals(100, WriteGovernor.countQueuePercent(60, 50L));
+	}
+
+	@Test
+	public void getState() {
+		WriteGovernor tested = new WriteGovernor(mock(Client.class), mockEsIntegrationComponent(), 1000, 80, 10);
+
+		// case - nothing sampled yet
+		Assert.assertEquals(State.NONE, tested.getState("my_index"));
+
+		Map<String, ClusterHealthStatus> indexStatus = new HashMap<String, ClusterHealthStatus>();
+		indexStatus.put("my_index", ClusterHealthStatus.GREEN);
+		indexStatus.put("my_index_2", ClusterHealthStatus.RED);
+		Map<String, Set<String>> aliasIndices = new HashMap<String, Set<String>>();
+		aliasIndices.put("my_alias", new HashSet<String>(Arrays.asList("my_index")));
+		aliasIndices.put("my_alias_2", new HashSet<String>(Arrays.asList("my_index", "my_index_2")));
+		tested.sample = new WriteGovernor.Sample(new Date(), ClusterHealthStatus.YELLOW, indexStatus, aliasIndices, 0,
+				false);
+		Assert.assertEquals(State.NONE, tested.getState("my_index"));
+		Assert.assertEquals(State.PAUSE, tested.getState("my_index_2"));
+		Assert.assertEquals(State.PAUSE, tested.getLastState());
+
+		// case - alias resolved to concrete indices
+		Assert.assertEquals(State.NONE, tested.getState("my_alias"));
+		Assert.assertEquals(State.PAUSE, tested.getState("my_alias_2"));
+
+		// case - cluster status is not used for unknown index
+		tested.sample = new WriteGovernor.Sample(new Date(), ClusterHealthStatus.RED, indexStatus, aliasIndices, 0, false);
+		Assert.assertEquals(State.NONE, tested.getState("unknown_index"));
+		Assert.assertEquals(State.NONE, tested.getState("my_index"));
+
+		// case - bulk queue
+		tested.sample = new WriteGovernor.Sample(new Date(), ClusterHealthStatus.YELLOW, indexStatus, aliasIndices, 79,
+				false);
+		Assert.assertEquals(State.NONE, tested.getState("my_index"));
+		tested.sample = new WriteGovernor.Sample(new Date(), ClusterHealthStatus.YELLOW, indexStatus, aliasIndices, 80,
+				false);
+		Assert.assertEquals(State.SLOW, tested.getState("my_index"));
+		Assert.assertEquals(State.PAUSE, tested.getState("my_index_2"));
+
+		// case - bulk rejections
+		tested.sample = new WriteGovernor.Sample(new Date(), ClusterHealthStatus.YELLOW, indexStatus, aliasIndices, 0,
+				true);
+		Assert.assertEquals(State.SLOW, tested.getState("my_index"));
+	}
+
+	@Test
+	public void acquireWritePermit() throws Exception {
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		WriteGovernor tested = new WriteGovernor(mock(Client.class), esIntegrationMock, 1000, 80, 10);
+
+		tested.acquireWritePermit("my_index");
+
+		Map<String, ClusterHealthStatus> indexStatus = new HashMap<String, ClusterHealthStatus>();
+		tested.sample = new WriteGovernor.Sample(new Date(), ClusterHealthStatus.GREEN, indexStatus,
+				new HashMap<String, Set<String>>(), 90, false);
+		tested.acquireWritePermit("my_index");
+		tested.acquireWritePermit("my_index");
+
+		// case - paused write interrupted by river close
+		indexStatus.put("my_index", ClusterHealthStatus.RED);
+		tested.sample = new WriteGovernor.Sample(new Date(), ClusterHealthStatus.RED, indexStatus,
+				new HashMap<String, Set<String>>(), 0, false);
+		when(esIntegrationMock.isClosed()).thenReturn(true);
+		try {
+			tested.acquireWritePermit("my_index");
+			Assert.fail("ElasticsearchException must be thrown");
+		} catch (ElasticsearchException e) {
+			// OK
+		}
+
+		XContentBuilder builder = XContentFactory.jsonBuilder();
+		tested.buildDocument(builder);
+		String doc = builder.string();
+		Assert.assertTrue(doc.contains("\"state\":\"pause\""));
+		Assert.assertTrue(doc.contains("\"slowed_bulks\":2"));
+	}
+
+	@Test
+	public void run() throws Exception {
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		Client clientMock = mock(Client.class);
+		WriteGovernor tested = new WriteGovernor(clientMock, esIntegrationMock, 10, 80, 10);
+
+		// case - sampling error kept previous sample, sampling stopped when river is closed
+		when(esIntegrationMock.isClosed()).thenReturn(false, false, true);
+		tested.run();
+		Mockito.verify(clientMock, Mockito.times(2)).admin();
+		Assert.assertSame(WriteGovernor.EMPTY_SAMPLE, tested.sample);
+	}
+
+	@Test
+	public void sample() throws Exception {
+		try {
+			Client client = prepareESClientForUnitTest();
+			indexCreate("my_index");
+			client.admin().indices().prepareAliases().addAlias("my_index", "my_alias").execute().actionGet();
+
+			WriteGovernor tested = new WriteGovernor(client, mockEsIntegrationComponent(), 1000, 80, 10);
+			tested.sample();
+			Assert.assertEquals(State.NONE, tested.getState("my_index"));
+			Assert.assertNotNull(tested.sample.clusterStatus);
+			Assert.assertNotNull(tested.sample.getIndexStatus("my_index"));
+			Assert.assertNotNull(tested.sample.getIndexStatus("my_alias"));
+			Assert.assertEquals(0, tested.sample.bulkQueueMaxPercent);
+			Assert.assertFalse(tested.sample.bulkRejectedSinceLastSample);
+
+			tested.acquireWritePermit("my_index");
+			tested.acquireWritePermit("my_alias");
+
+			XContentBuilder builder = XContentFactory.jsonBuilder();
+			tested.buildDocument(builder);
+			String doc = builder.string();
+			Assert.assertTrue(doc.contains("\"state\":\"none\""));
+			Assert.assertTrue(doc.contains("\"last_sample\""));
+		} finally {
+			finalizeESClientForUnitTest();
+		}
+	}
+
+	protected static IESIntegration mockEsIntegrationComponent() {
+		IESIntegration esIntegrationMock = mock(IESIntegration.class);
+		Mockito.when(esIntegrationMock.createLogger(Mockito.any(Class.class))).thenReturn(
+				ESLoggerFactory.getLogger(WriteGovernor.class.getName()));
+		return esIntegrationMock;
+	}
+
+}
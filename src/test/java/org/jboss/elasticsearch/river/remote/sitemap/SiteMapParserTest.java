@@ -17,9 +17,12 @@
 
 package org.jboss.elasticsearch.river.remote.sitemap;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.GZIPOutputStream;
 
 import org.jboss.elasticsearch.river.remote.DateTimeUtils;
@@ -317,6 +320,137 @@ public class SiteMapParserTest {
 
 	}
 
+	@Test
+	public void walkSiteMap_XML() throws UnknownFormatException, IOException {
+		SiteMapParser parser = new SiteMapParser();
+		CollectingHandler handler = new CollectingHandler();
+
+		StringBuilder scontent = new StringBuilder(1024);
+		scontent.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>").append(
+				"<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">");
+		for (int i = 0; i < MAX_URLS_STREAMED; i++) {
+			scontent.append("<url><loc>http://www.example.com/page").append(i).append(
+					".html</loc><lastmod>2005-01-01</lastmod><priority>0.8</priority></url>");
+		}
+		scontent.append("</urlset>");
+
+		AbstractSiteMap asm = parser.walkSiteMap("text/xml", new ByteArrayInputStream(scontent.toString().getBytes()),
+				new URL(URL_SITEMAP_XML), handler);
+		assertFalse(asm.isIndex());
+		assertEquals(AbstractSiteMap.SitemapType.XML, asm.getType());
+		assertEquals(true, asm.isProcessed());
+		assertEquals(0, ((SiteMap) asm).getSiteMapUrls().size());
+
+		assertEquals(MAX_URLS_STREAMED, handler.urls.size());
+		assertEquals("http://www.example.com/page0.html", handler.urls.get(0).getUrl().toString());
+		assertEquals(0.8d, handler.urls.get(0).getPriority(), 0.0001d);
+		assertEquals("2005-01-01T00:00:00.0+0000", DateTimeUtils.formatISODateTime(handler.urls.get(0).getLastModified()));
+		assertEquals("http://www.example.com/page" + (MAX_URLS_STREAMED - 1) + ".html",
+				handler.urls.get(MAX_URLS_STREAMED - 1).getUrl().toString());
+	}
+
+	private static final int MAX_URLS_STREAMED = 1000;
+
+	@Test
+	public void walkSiteMap_XMLGzip() throws UnknownFormatException, IOException {
+		SiteMapParser parser = new SiteMapParser();
+		CollectingHandler handler = new CollectingHandler();
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		GZIPOutputStream gzos = new GZIPOutputStream(baos);
+		gzos.write(SITEMAP_RSS.getBytes());
+		gzos.close();
+
+		AbstractSiteMap asm = parser.walkSiteMap("application/gzip", new ByteArrayInputStream(baos.toByteArray()), new URL(
+				"http://www.example.com/sitemap.gz"), handler);
+		assertEquals(AbstractSiteMap.SitemapType.RSS, asm.getType());
+		assertEquals(5, handler.urls.size());
+		assertEquals("2003-06-10T04:00:00.0+0000", DateTimeUtils.formatISODateTime(handler.urls.get(0).getLastModified()));
+	}
+
+	@Test
+	public void walkSiteMap_maxBytes() throws UnknownFormatException, IOException {
+		SiteMapParser parser = new SiteMapParser();
+		assertEquals(SiteMapParser.MAX_BYTES_ALLOWED, parser.getMaxBytes());
+		byte[] content = SITEMAP_RSS.getBytes();
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		GZIPOutputStream gzos = new GZIPOutputStream(baos);
+		gzos.write(content);
+		gzos.close();
+
+		// case - limit equal to content size
+		parser.setMaxBytes(content.length);
+		CollectingHandler handler = new CollectingHandler();
+		parser.walkSiteMap("application/gzip", new ByteArrayInputStream(baos.toByteArray()), new URL(
+				"http://www.example.com/sitemap.gz"), handler);
+		assertEquals(5, handler.urls.size());
+		parser.walkSiteMap("text/xml", new ByteArrayInputStream(content), new URL(URL_SITEMAP_XML),
+				new CollectingHandler());
+
+		// case - limit is applied on decompressed content
+		parser.setMaxBytes(content.length - 1);
+		Assert.assertTrue(baos.size() < content.length - 1);
+		try {
+			parser.walkSiteMap("application/gzip", new ByteArrayInputStream(baos.toByteArray()), new URL(
+					"http://www.example.com/sitemap.gz"), new CollectingHandler());
+			Assert.fail("IOException expected");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().startsWith("Sitemap content is larger than " + (content.length - 1)));
+		}
+		try {
+			parser.walkSiteMap("text/xml", new ByteArrayInputStream(content), new URL(URL_SITEMAP_XML),
+					new CollectingHandler());
+			Assert.fail("IOException expected");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().startsWith("Sitemap content is larger than " + (content.length - 1)));
+		}
+	}
+
+	@Test
+	public void walkSiteMap_AtomWithDateAfterEntries() throws UnknownFormatException, IOException {
+		SiteMapParser parser = new SiteMapParser();
+		CollectingHandler handler = new CollectingHandler();
+
+		String content = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + "<feed>"
+				+ "<entry><link href=\"http://www.example.com/\"/></entry>"
+				+ "<entry><modified>2001-01-01</modified><link href=\"http://www.example.com/aa\"/></entry>"
+				+ "<modified>2005-01-01</modified>" + "<entry><link href=\"http://www.example.com/bb\"/></entry>"
+				+ "</feed>";
+
+		AbstractSiteMap asm = parser.walkSiteMap("application/atom+xml", new ByteArrayInputStream(content.getBytes()),
+				new URL(URL_SITEMAP_ATOM), handler);
+		assertEquals(AbstractSiteMap.SitemapType.ATOM, asm.getType());
+		assertEquals(3, handler.urls.size());
+		assertEquals("http://www.example.com/", handler.urls.get(0).getUrl().toString());
+		assertEquals("http://www.example.com/bb", handler.urls.get(2).getUrl().toString());
+		for (SiteMapURL sUrl : handler.urls) {
+			assertEquals("2005-01-01T00:00:00.0+0000", DateTimeUtils.formatISODateTime(sUrl.getLastModified()));
+		}
+	}
+
+	@Test
+	public void walkSiteMap_Index() throws UnknownFormatException, IOException {
+		SiteMapParser parser = new SiteMapParser();
+		CollectingHandler handler = new CollectingHandler();
+
+		AbstractSiteMap asm = parser.walkSiteMap("text/xml", new ByteArrayInputStream(SITEMAP_XML_INDEX.getBytes()),
+				new URL("http://www.example.com/sitemap.xml"), handler);
+		assertEquals(true, asm.isIndex());
+		assertEquals(2, ((SiteMapIndex) asm).getSitemaps().size());
+		assertEquals(0, handler.urls.size());
+	}
+
+	private static class CollectingHandler implements SiteMapURLHandler {
+
+		List<SiteMapURL> urls = new ArrayList<SiteMapURL>();
+
+		@Override
+		public void handleSiteMapURL(SiteMapURL url) {
+			urls.add(url);
+		}
+	}
+
 	@Test
 	public void urlIsLegal() {
 		Assert.assertTrue(SiteMapParser.urlIsLegal("http://aaa.cz", "http://aaa.cz"));